@@ -37,6 +37,10 @@ android {
         sourceCompatibility = JavaVersion.VERSION_11
         targetCompatibility = JavaVersion.VERSION_11
     }
+    testOptions {
+        // JVM 单元测试中 android.util.Log 等返回默认值
+        unitTests.isReturnDefaultValues = true
+    }
     publishing {
         singleVariant("release") {
         }
@@ -56,6 +60,12 @@ dependencies {
     implementation(libs.kotlinx.coroutines.android)
     implementation(libs.annotation.jvm)
     implementation(libs.okhttp)
+
+    testImplementation(libs.junit)
+    // android.jar 里的 org.json 在单元测试中只是桩实现
+    testImplementation(libs.json)
+    androidTestImplementation(libs.ext.junit)
+    androidTestImplementation(libs.test.runner)
 }
 
 
@@ -0,0 +1,412 @@
+package com.wx.rtc.rtc
+
+import android.util.Log
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import androidx.test.platform.app.InstrumentationRegistry
+import com.wx.rtc.utils.RTCRuntime
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.cancel
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.webrtc.DataChannel
+import org.webrtc.IceCandidate
+import org.webrtc.MediaConstraints
+import org.webrtc.MediaStream
+import org.webrtc.PeerConnection
+import org.webrtc.PeerConnectionFactory
+import org.webrtc.SdpObserver
+import org.webrtc.SessionDescription
+import org.webrtc.StatsReport
+import org.webrtc.VideoSink
+import java.io.ByteArrayOutputStream
+import java.io.Closeable
+import java.io.File
+import java.io.IOException
+import java.io.InputStream
+import java.net.InetAddress
+import java.net.ServerSocket
+import java.net.Socket
+import java.nio.ByteBuffer
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+import kotlin.concurrent.thread
+
+/**
+ * 反复进出房间：PeerConnectionClient 向本地 HTTP 服务发送 offer，第一次被拒后重试，拿到 answer 后连上，
+ * 定时统计由共用调度线程触发，然后关闭。工厂始终在同一个工厂线程上创建和销毁，线程数（含 native 线程）不随次数增长
+ */
+@RunWith(AndroidJUnit4::class)
+class PeerConnectionClientJoinLeaveTest {
+
+    private class JoinEvents : PeerConnectionClient.PeerConnectionEvents {
+        @Volatile
+        var connected = CountDownLatch(1)
+        @Volatile
+        var closed = CountDownLatch(1)
+        @Volatile
+        var stats = CountDownLatch(STATS_REPORTS)
+        val statsCount = AtomicInteger()
+        @Volatile
+        var error: String? = null
+
+        fun reset() {
+            connected = CountDownLatch(1)
+            closed = CountDownLatch(1)
+            stats = CountDownLatch(STATS_REPORTS)
+            error = null
+        }
+
+        override fun onLocalDescription(pc: PeerConnectionClient, sdp: SessionDescription) {}
+        override fun onIceCandidate(pc: PeerConnectionClient, candidate: IceCandidate) {}
+        override fun onIceCandidatesRemoved(pc: PeerConnectionClient, candidates: Array<IceCandidate>) {}
+        override fun onIceGatheringComplete(pc: PeerConnectionClient, sdp: SessionDescription) {}
+        override fun onIceConnected(pc: PeerConnectionClient) {}
+        override fun onIceDisconnected(pc: PeerConnectionClient) {}
+        override fun onConnected(pc: PeerConnectionClient) {
+            connected.countDown()
+        }
+        override fun onDisconnected(pc: PeerConnectionClient) {}
+        override fun onPeerConnectionClosed(pc: PeerConnectionClient) {
+            closed.countDown()
+        }
+        override fun onPeerConnectionStatsReady(pc: PeerConnectionClient, reports: Array<StatsReport>) {
+            statsCount.incrementAndGet()
+            stats.countDown()
+        }
+        override fun onPeerConnectionError(pc: PeerConnectionClient, description: String) {
+            error = description
+        }
+        override fun onDataChannelMessage(pc: PeerConnectionClient, message: String) {}
+        override fun onDataChannelBinaryMessage(pc: PeerConnectionClient, data: ByteBuffer) {}
+        override fun onScreenCapturePermissionDenied(pc: PeerConnectionClient, isSubStream: Boolean) {}
+        override fun onSubStreamScreenCaptureStarted(pc: PeerConnectionClient) {}
+    }
+
+    private class SdpResult : SdpObserver {
+        private val latch = CountDownLatch(1)
+        @Volatile
+        var sdp: SessionDescription? = null
+        @Volatile
+        private var error: String? = null
+
+        override fun onCreateSuccess(sdp: SessionDescription) {
+            this.sdp = sdp
+            latch.countDown()
+        }
+
+        override fun onSetSuccess() {
+            latch.countDown()
+        }
+
+        override fun onCreateFailure(error: String) {
+            this.error = error
+            latch.countDown()
+        }
+
+        override fun onSetFailure(error: String) {
+            this.error = error
+            latch.countDown()
+        }
+
+        fun await(): SdpResult {
+            check(latch.await(10, TimeUnit.SECONDS)) { "SDP operation timed out" }
+            error?.let { throw IllegalStateException(it) }
+            return this
+        }
+    }
+
+    /**
+     * 本地的 WHIP 服务：rejectNextOffer 后下一个 offer 返回 500，让客户端走重试，rejectAll 时全部返回 500；
+     * 其他 offer 由本地 answerer 生成 answer，收集完候选后一次返回
+     */
+    private class LoopbackWhipServer : Closeable {
+        private val serverSocket = ServerSocket(0, 8, InetAddress.getByName("127.0.0.1"))
+        private val answerers = ArrayList<PeerConnection>()
+        // 客户端创建工厂时已初始化 WebRTC，第一个 offer 到达后再创建 answerer 的工厂
+        private var factory: PeerConnectionFactory? = null
+        private val serverThread = thread(name = "whip-server") { serve() }
+        @Volatile
+        private var rejectNext = false
+        @Volatile
+        var rejectAll = false
+        val url = "http://127.0.0.1:${serverSocket.localPort}/whip"
+        val offers = AtomicInteger()
+        val rejectedOffers = AtomicInteger()
+
+        fun rejectNextOffer() {
+            rejectNext = true
+        }
+
+        private fun serve() {
+            while (true) {
+                val socket = try {
+                    serverSocket.accept()
+                } catch (e: IOException) {
+                    return
+                }
+                try {
+                    socket.use { handle(it) }
+                } catch (e: Exception) {
+                    Log.e(TAG, "WHIP request failed", e)
+                }
+            }
+        }
+
+        private fun handle(socket: Socket) {
+            val input = socket.getInputStream()
+            var contentLength = 0
+            while (true) {
+                val line = readLine(input)
+                if (line.isEmpty()) {
+                    break
+                }
+                if (line.startsWith("Content-Length:", ignoreCase = true)) {
+                    contentLength = line.substringAfter(':').trim().toInt()
+                }
+            }
+            val body = ByteArray(contentLength)
+            var read = 0
+            while (read < contentLength) {
+                val count = input.read(body, read, contentLength - read)
+                if (count < 0) {
+                    break
+                }
+                read += count
+            }
+            offers.incrementAndGet()
+            val response = if (rejectNext || rejectAll) {
+                rejectNext = false
+                rejectedOffers.incrementAndGet()
+                "HTTP/1.1 500 Internal Server Error\r\nContent-Length: 0\r\nConnection: close\r\n\r\n"
+            } else {
+                val answer = answer(String(body, Charsets.UTF_8)).toByteArray(Charsets.UTF_8)
+                "HTTP/1.1 201 Created\r\nContent-Type: application/sdp\r\nContent-Length: ${answer.size}\r\n" +
+                        "Connection: close\r\n\r\n" + String(answer, Charsets.UTF_8)
+            }
+            socket.getOutputStream().apply {
+                write(response.toByteArray(Charsets.UTF_8))
+                flush()
+            }
+        }
+
+        private fun readLine(input: InputStream): String {
+            val line = ByteArrayOutputStream()
+            while (true) {
+                val b = input.read()
+                if (b < 0 || b == '\n'.code) {
+                    break
+                }
+                if (b != '\r'.code) {
+                    line.write(b)
+                }
+            }
+            return line.toString("UTF-8")
+        }
+
+        private fun answer(offer: String): String {
+            val factory = factory ?: PeerConnectionFactory.builder().createPeerConnectionFactory().also { factory = it }
+            val gathered = CountDownLatch(1)
+            val config = PeerConnection.RTCConfiguration(emptyList()).apply {
+                sdpSemantics = PeerConnection.SdpSemantics.UNIFIED_PLAN
+            }
+            val pc = factory.createPeerConnection(config, object : PeerConnection.Observer {
+                override fun onSignalingChange(state: PeerConnection.SignalingState) {}
+                override fun onIceConnectionChange(state: PeerConnection.IceConnectionState) {}
+                override fun onIceConnectionReceivingChange(receiving: Boolean) {}
+                override fun onIceGatheringChange(state: PeerConnection.IceGatheringState) {
+                    if (state == PeerConnection.IceGatheringState.COMPLETE) {
+                        gathered.countDown()
+                    }
+                }
+                override fun onIceCandidate(candidate: IceCandidate) {}
+                override fun onIceCandidatesRemoved(candidates: Array<IceCandidate>) {}
+                override fun onAddStream(stream: MediaStream) {}
+                override fun onRemoveStream(stream: MediaStream) {}
+                override fun onDataChannel(channel: DataChannel) {}
+                override fun onRenegotiationNeeded() {}
+            })!!
+            synchronized(answerers) {
+                answerers.add(pc)
+            }
+            val offered = SdpResult()
+            pc.setRemoteDescription(offered, SessionDescription(SessionDescription.Type.OFFER, offer))
+            offered.await()
+            val created = SdpResult()
+            pc.createAnswer(created, MediaConstraints())
+            val answer = created.await().sdp!!
+            val applied = SdpResult()
+            pc.setLocalDescription(applied, answer)
+            applied.await()
+            check(gathered.await(10, TimeUnit.SECONDS)) { "Answerer ICE gathering timed out" }
+            return pc.localDescription.description
+        }
+
+        /**
+         * 客户端离开后释放对应的 answerer
+         */
+        fun disposeAnswerers() {
+            val pcs = synchronized(answerers) {
+                ArrayList(answerers).also { answerers.clear() }
+            }
+            for (pc in pcs) {
+                pc.dispose()
+            }
+        }
+
+        override fun close() {
+            serverSocket.close()
+            serverThread.join()
+            disposeAnswerers()
+            factory?.dispose()
+            factory = null
+        }
+    }
+
+    private lateinit var server: LoopbackWhipServer
+    // 拉流端创建 PeerConnection 时就要把远端视频接到 sink 上
+    private val remoteSink = VideoSink { }
+
+    @Before
+    fun setUp() {
+        server = LoopbackWhipServer()
+    }
+
+    @After
+    fun tearDown() {
+        server.close()
+    }
+
+    private fun threadCount(): Int = File("/proc/self/task").list()?.size ?: 0
+
+    private fun factoryThreadCount(): Int =
+        Thread.getAllStackTraces().keys.count { it.name.startsWith("wxrtc-factory") }
+
+    private fun newClient(index: Int, events: JoinEvents, owner: Any, scope: CoroutineScope): PeerConnectionClient {
+        val context = InstrumentationRegistry.getInstrumentation().targetContext
+        val eglBase = RTCRuntime.acquireEglBase(owner)
+        return PeerConnectionClient(
+            context, eglBase, "user-$index", server.url, false, events, scope
+        )
+    }
+
+    private fun joinAndLeave(index: Int, events: JoinEvents) {
+        val owner = Any()
+        val scope = RTCRuntime.newSessionScope("join-leave-$index")
+        events.reset()
+        server.rejectNextOffer()
+        val rejectedBefore = server.rejectedOffers.get()
+        val offersBefore = server.offers.get()
+        val client = newClient(index, events, owner, scope)
+        client.createPeerConnectionFactory(PeerConnectionFactory.Options())
+        client.startCall(null, remoteSink)
+
+        assertTrue("connect timed out at $index, error ${events.error}", events.connected.await(20, TimeUnit.SECONDS))
+        // 第一个 offer 被拒，重试后才连上
+        assertEquals(rejectedBefore + 1, server.rejectedOffers.get())
+        assertEquals(offersBefore + 2, server.offers.get())
+        assertTrue("no stats at $index", events.stats.await(STATS_PERIOD_MS * (STATS_REPORTS + 1), TimeUnit.MILLISECONDS))
+
+        client.close()
+        assertTrue("close timed out at $index", events.closed.await(10, TimeUnit.SECONDS))
+        scope.cancel()
+        RTCRuntime.releaseEglBase(owner)
+        server.disposeAnswerers()
+    }
+
+    @Test
+    fun testJoinLeaveDoesNotLeakThreads() {
+        val events = JoinEvents()
+        // 预热：线程池、调度线程和 WebRTC 进程级线程第一次创建
+        for (i in 0 until WARMUP) {
+            joinAndLeave(i, events)
+        }
+        val baseline = threadCount()
+        for (i in WARMUP until WARMUP + ITERATIONS) {
+            joinAndLeave(i, events)
+        }
+        val after = threadCount()
+        Log.i(TAG, "Threads after warm-up $baseline, after $ITERATIONS join/leave $after")
+
+        assertEquals(1, factoryThreadCount())
+        assertTrue("Thread count grew from $baseline to $after", after <= baseline + THREAD_SLACK)
+    }
+
+    @Test
+    fun testNoStatsOrRetriesAfterLeave() {
+        val events = JoinEvents()
+        joinAndLeave(0, events)
+        val statsAfterLeave = events.statsCount.get()
+        val offersAfterLeave = server.offers.get()
+
+        Thread.sleep(STATS_PERIOD_MS * 2)
+        assertEquals(statsAfterLeave, events.statsCount.get())
+        assertEquals(offersAfterLeave, server.offers.get())
+
+        // 服务端一直拒绝时，离开后重试协程随会话一起取消
+        val owner = Any()
+        val scope = RTCRuntime.newSessionScope("leave-while-retrying")
+        events.reset()
+        val client = newClient(1, events, owner, scope)
+        val offersBefore = server.offers.get()
+        client.createPeerConnectionFactory(PeerConnectionFactory.Options())
+        server.rejectAll = true
+        client.startCall(null, remoteSink)
+        val deadline = System.currentTimeMillis() + 10_000
+        while (server.offers.get() == offersBefore && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10)
+        }
+        client.close()
+        assertTrue(events.closed.await(10, TimeUnit.SECONDS))
+        scope.cancel()
+        val offersAtLeave = server.offers.get()
+        Thread.sleep(RETRY_DELAY_MS * 2)
+        assertEquals(offersAtLeave, server.offers.get())
+        server.rejectAll = false
+        RTCRuntime.releaseEglBase(owner)
+    }
+
+    @Test
+    fun testConnectionsCloseIndependently() {
+        val firstOwner = Any()
+        val secondOwner = Any()
+        val firstEvents = JoinEvents()
+        val secondEvents = JoinEvents()
+        val scope = RTCRuntime.newSessionScope("two-clients")
+        val first = newClient(0, firstEvents, firstOwner, scope)
+        val second = newClient(1, secondEvents, secondOwner, scope)
+        first.createPeerConnectionFactory(PeerConnectionFactory.Options())
+        second.createPeerConnectionFactory(PeerConnectionFactory.Options())
+
+        // 每个连接有自己的工厂，关闭一个不影响另一个
+        first.close()
+        assertTrue(firstEvents.closed.await(10, TimeUnit.SECONDS))
+        assertEquals(1L, secondEvents.closed.count)
+        second.close()
+        assertTrue(secondEvents.closed.await(10, TimeUnit.SECONDS))
+        scope.cancel()
+
+        // 同一持有者重复释放只生效一次
+        assertFalse(RTCRuntime.releaseEglBase(firstOwner))
+        assertFalse(RTCRuntime.releaseEglBase(firstOwner))
+        assertTrue(RTCRuntime.releaseEglBase(secondOwner))
+        assertFalse(RTCRuntime.releaseEglBase(secondOwner))
+    }
+
+    companion object {
+        private const val TAG = "JoinLeaveTest"
+        private const val WARMUP = 2
+        private const val ITERATIONS = 20
+        // PeerConnectionClient 连上后每秒取一次统计，发送 offer 失败后 1 秒重试
+        private const val STATS_PERIOD_MS = 1000L
+        private const val STATS_REPORTS = 2
+        private const val RETRY_DELAY_MS = 1000L
+        // 线程池中空闲线程的创建、退出时机不确定，允许少量波动
+        private const val THREAD_SLACK = 4
+    }
+}
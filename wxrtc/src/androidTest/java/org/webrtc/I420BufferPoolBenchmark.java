@@ -0,0 +1,105 @@
+/*
+ *  Copyright 2026 The wxrtc project authors. All Rights Reserved.
+ */
+
+package org.webrtc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import android.content.Context;
+import android.util.Log;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+import java.util.ArrayDeque;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Compares producing 720p and 1080p I420 frames with I420BufferPool against
+ * JavaI420Buffer.allocate(). Each run keeps a few frames in flight, like the capturer, encoder
+ * and renderer do, and logs the average time per frame.
+ */
+@RunWith(AndroidJUnit4.class)
+public class I420BufferPoolBenchmark {
+  private static final String TAG = "I420BufferPoolBenchmark";
+  private static final int WARMUP_FRAMES = 30;
+  private static final int FRAMES = 600;
+  private static final int FRAMES_IN_FLIGHT = 3;
+
+  private interface Allocator {
+    JavaI420Buffer allocate(int width, int height);
+  }
+
+  @Before
+  public void setUp() {
+    final Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+    PeerConnectionFactory.initialize(
+        PeerConnectionFactory.InitializationOptions.builder(context).createInitializationOptions());
+  }
+
+  @Test
+  public void testAllocate720p() {
+    runBenchmark(1280, 720);
+  }
+
+  @Test
+  public void testAllocate1080p() {
+    runBenchmark(1920, 1080);
+  }
+
+  private void runBenchmark(int width, int height) {
+    final I420BufferPool pool = new I420BufferPool(/* maxBuffersPerSize= */ 4,
+        /* maxPooledBytes= */ 64L * 1024 * 1024);
+    final long unpooledNs = measure(JavaI420Buffer::allocate, width, height);
+    final long pooledNs = measure(pool::allocate, width, height);
+
+    // Direct memory allocated per second of 30 fps video, the rate the allocator has to keep up
+    // with. Unpooled, every frame is a new buffer.
+    final long frameBytes = (long) width * height + 2L * ((width + 1) / 2) * ((height + 1) / 2);
+    final int frames = WARMUP_FRAMES + FRAMES;
+    Log.i(TAG,
+        width + "x" + height + ": JavaI420Buffer.allocate " + unpooledNs / FRAMES
+            + " ns/frame, " + allocatedKbPerSecond(frames, frameBytes, frames)
+            + " KB/s; I420BufferPool " + pooledNs / FRAMES + " ns/frame, "
+            + allocatedKbPerSecond(pool.getAllocationCount(), frameBytes, frames)
+            + " KB/s, allocations " + pool.getAllocationCount() + ", reused "
+            + pool.getReuseCount());
+
+    // After the warm-up every frame is served from the pool.
+    assertTrue(pool.getAllocationCount() <= FRAMES_IN_FLIGHT + 1);
+    assertEquals(WARMUP_FRAMES + FRAMES, pool.getAllocationCount() + pool.getReuseCount());
+    pool.clear();
+    assertEquals(0, pool.getPooledBytes());
+  }
+
+  private static long allocatedKbPerSecond(long allocations, long frameBytes, int frames) {
+    return allocations * frameBytes * 30 / frames / 1024;
+  }
+
+  // Returns the time spent producing and releasing FRAMES frames after a warm-up.
+  private static long measure(Allocator allocator, int width, int height) {
+    final ArrayDeque<JavaI420Buffer> inFlight = new ArrayDeque<>();
+    long startNs = 0;
+    for (int i = 0; i < WARMUP_FRAMES + FRAMES; i++) {
+      if (i == WARMUP_FRAMES) {
+        startNs = System.nanoTime();
+      }
+      final JavaI420Buffer buffer = allocator.allocate(width, height);
+      // Touch the planes like a producer would.
+      buffer.getDataY().put(0, (byte) i);
+      buffer.getDataU().put(0, (byte) i);
+      buffer.getDataV().put(0, (byte) i);
+      inFlight.addLast(buffer);
+      if (inFlight.size() > FRAMES_IN_FLIGHT) {
+        inFlight.removeFirst().release();
+      }
+    }
+    final long elapsedNs = System.nanoTime() - startNs;
+    while (!inFlight.isEmpty()) {
+      inFlight.removeFirst().release();
+    }
+    return elapsedNs;
+  }
+}
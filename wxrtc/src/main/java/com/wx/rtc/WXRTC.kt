@@ -4,14 +4,23 @@ import android.content.Context
 import com.wx.rtc.WXRTCDef.WXRTCRenderParams
 import com.wx.rtc.WXRTCDef.WXRTCVideoEncParam
 import com.wx.rtc.WXRTCDef.Speaker
+import org.webrtc.GlVideoEffect
 import org.webrtc.SurfaceViewRenderer
+import java.nio.ByteBuffer
+import java.util.concurrent.Executor
 
 abstract class WXRTC {
+    // 信令事件在 SDK 的串行通道上处理，接口调用在应用线程，状态需跨线程可见
+    @Volatile
     protected var mAppId: String? = null
+    @Volatile
     protected var mUserId: String? = null
+    @Volatile
     protected var mRoomId: String = ""
+    @Volatile
     var isLogin: Boolean = false
         protected set
+    @Volatile
     var isEnterRoom: Boolean = false
         protected set
 
@@ -32,6 +41,16 @@ abstract class WXRTC {
 
     abstract fun setCallListener(listener: WXCallListener?)
 
+    /**
+     * 设置 WXRTCListener、WXCallListener、WXRTCSnapshotListener 回调所在的线程，传 null 恢复为主线程
+     */
+    abstract fun setCallbackExecutor(executor: Executor?)
+
+    /**
+     * 设置信令合并发送窗口（毫秒），服务端支持时窗口内的信令合并成一帧发送，0 表示不合并，默认 20 毫秒
+     */
+    abstract fun setSignalingBatchWindow(windowMillis: Long)
+
     abstract fun login(appId: String, userId: String)
 
     abstract fun logout()
@@ -64,10 +83,44 @@ abstract class WXRTC {
 
     abstract fun sendRoomMsg(cmd: String, msg: String)
 
+    /**
+     * 开启后，服务端在进房应答中声明转发数据通道消息时，房间消息和点对点消息优先走数据通道；
+     * 服务端未声明或通道未打开时改走信令。通道发送积压时消息排队按序发送，不会改走信令打乱顺序。
+     * 两条链路的往返时延见统计中的 dataChannelRtt、signalingRtt。需在进房前调用，传 null 关闭
+     */
+    abstract fun enableDataChannel(param: WXRTCDef.WXRTCDataChannelParam?)
+
+    /**
+     * 通过数据通道发送二进制点对点消息，不阻塞调用线程。服务端不转发数据通道消息或消息过大时返回 false；
+     * 积压时排队发送，通道未打开或排队超过 4 MB 时丢弃并记录日志
+     */
+    abstract fun sendP2PBinaryMsg(userId: String, data: ByteBuffer): Boolean
+
+    /**
+     * 通过数据通道发送二进制房间消息，不阻塞调用线程。未进房、服务端不转发数据通道消息或消息过大时返回 false；
+     * 积压时排队发送，通道未打开或排队超过 4 MB 时丢弃并记录日志
+     */
+    abstract fun sendRoomBinaryMsg(cmd: String, data: ByteBuffer): Boolean
+
     abstract fun startProcess()
 
     abstract fun endProcess()
 
+    /**
+     * 设置 rst 类识别结果的投递策略，默认滴速每秒最多 5 次并去重，其他结果全部投递
+     */
+    abstract fun setProcessResultPolicy(rst: Int, policy: WXRTCDef.ProcessResultPolicy)
+
+    /**
+     * 获取 rst 类最近一次收到的识别结果，不受投递策略影响
+     */
+    abstract fun getLatestProcessResult(rst: Int): WXRTCDef.ProcessData?
+
+    /**
+     * 获取 rst 类因限速合并、重复或信令回调积压而未投递的结果数
+     */
+    abstract fun getCoalescedProcessResultCount(rst: Int): Long
+
     fun startRecord() {
         startRecord(null)
     }
@@ -152,6 +205,8 @@ abstract class WXRTC {
 
     abstract fun startLocalVideo(frontCamera: Boolean, renderer: SurfaceViewRenderer?)
 
+    abstract fun startLocalVideoFromFile(filePath: String, fps: Int, loop: Boolean, renderer: SurfaceViewRenderer?)
+
     abstract fun updateLocalVideo(renderer: SurfaceViewRenderer?)
 
     abstract fun stopLocalVideo()
@@ -174,6 +229,14 @@ abstract class WXRTC {
 
     abstract fun setRemoteRenderParams(userId: String, params: WXRTCRenderParams)
 
+    abstract fun enableSharedRenderThread(enable: Boolean)
+
+    abstract fun enableLowLatencyAudio(enable: Boolean)
+
+    abstract fun addLocalVideoEffect(effect: GlVideoEffect)
+
+    abstract fun removeLocalVideoEffect(effect: GlVideoEffect)
+
     abstract fun startLocalAudio()
 
     abstract fun stopLocalAudio()
@@ -196,6 +259,18 @@ abstract class WXRTC {
 
     abstract fun resumeScreenCapture()
 
+    abstract fun enableSubStream(enable: Boolean)
+
+    abstract fun startSubStreamScreenCapture(encParam: WXRTCDef.WXRTCVideoEncParam?, renderer: SurfaceViewRenderer?)
+
+    abstract fun stopSubStreamScreenCapture()
+
+    abstract fun setSubStreamEncParam(param: WXRTCDef.WXRTCVideoEncParam)
+
+    abstract fun startRemoteSubStreamView(userId: String, renderer: SurfaceViewRenderer?)
+
+    abstract fun stopRemoteSubStreamView(userId: String)
+
     abstract fun setSpeakerOn(speakerOn: Boolean)
 
     abstract val isFrontCamera: Boolean
@@ -211,6 +286,31 @@ abstract class WXRTC {
 
     abstract var cameraZoom: Int
 
+    fun startYuvRecord(userId: String, filePath: String, width: Int, height: Int) {
+        startYuvRecord(userId, filePath, width, height, null)
+    }
+
+    /**
+     * 不阻塞调用线程，是否开始录制通过 listener 通知
+     */
+    abstract fun startYuvRecord(userId: String, filePath: String, width: Int, height: Int, listener: WXRTCResultListener?)
+
+    abstract fun stopYuvRecord(userId: String)
+
+    fun startLocalRecord(filePathPrefix: String) {
+        startLocalRecord(filePathPrefix, null)
+    }
+
+    /**
+     * 不阻塞调用线程，是否开始录制通过 listener 通知
+     */
+    abstract fun startLocalRecord(filePathPrefix: String, listener: WXRTCResultListener?)
+
+    abstract fun stopLocalRecord()
+
+    /**
+     * 不阻塞调用线程，返回 false 表示已销毁；截图结果通过 listener 通知，没有可截图的画面时回调 onSnapshotFailed
+     */
     abstract fun snapshotVideo(userId: String, listener: WXRTCSnapshotListener?): Boolean
 
     abstract fun destory()
@@ -228,6 +328,15 @@ abstract class WXRTC {
             WXRTCImpl.destoryInstance()
         }
 
+        /**
+         * 新建一个独立会话，可同时进入多个房间；每个会话需单独 init、login，不用时调用 destory。
+         * 会话间共用 EGL 上下文、线程池和 HTTP 客户端
+         */
+        @JvmStatic
+        fun createSession(config: WXRTCDef.WXRTCSessionConfig): WXRTC {
+            return WXRTCImpl.createSession(config)
+        }
+
         @JvmStatic
         fun getSpeaker(userId: Long, userName: String): Speaker {
             val speaker = Speaker()
@@ -76,6 +76,13 @@ class WXRTCDef {
 
         const val WXRTC_VIDEO_MIRROR_TYPE_DISABLE: Int = 2
 
+        const val WXRTC_VIDEO_RENDER_FPS_AUTO: Int = 0
+
+        /**
+         * 用户拒绝或未及时授权屏幕录制，屏幕分享已停止
+         */
+        const val WXRTC_ERR_SCREEN_CAPTURE_PERMISSION_DENIED: Int = -7001
+
         const val WXRTC_PROCESS_DATA_RST_NO_RESULT: Int = 0
 
         /**
@@ -142,6 +149,16 @@ class WXRTCDef {
          * 心电监护仪
          */
         const val WXRTC_PROCESS_DATA_RST_ECG_MONITOR: Int = 13
+
+        /**
+         * 识别结果全部投递
+         */
+        const val WXRTC_PROCESS_RESULT_DELIVER_ALL: Int = 0
+
+        /**
+         * 识别结果按 maxRate 限速，间隔内只投递最新的一条
+         */
+        const val WXRTC_PROCESS_RESULT_DELIVER_LATEST: Int = 1
     }
 
     /**
@@ -199,6 +216,62 @@ class WXRTCDef {
 
         @JvmField
         var videoMaxBitrate: Int = 2500,
+
+        /**
+         * 屏幕分享内容模式，适合分享文档、病历等静态内容：优先保证分辨率，画面不变时只发送 screenContentIdleFps 帧，画面变化时立即恢复帧率
+         */
+        @JvmField
+        var screenContentMode: Boolean = false,
+
+        /**
+         * 屏幕内容模式下画面静止时的帧率
+         */
+        @JvmField
+        var screenContentIdleFps: Int = 1,
+    )
+
+    /**
+     * 会话配置，通过 [WXRTC.createSession] 创建会话
+     */
+    class WXRTCSessionConfig(
+        /**
+         * 信令服务地址，null 使用默认地址
+         */
+        @JvmField
+        var socketUrl: String? = null,
+
+        @JvmField
+        var networkType: Int? = null,
+
+        /**
+         * 与信令服务地址相同的其他会话共用一条 WebSocket，信令按会话区分。需要服务端支持：
+         * 上行信令带有 channel 字段，服务端下发给该会话的每条信令都必须原样带回 channel，不带的会被丢弃
+         */
+        @JvmField
+        var multiplexSignaling: Boolean = false,
+    )
+
+    /**
+     * 数据通道参数，maxRetransmits 和 maxRetransmitTimeMs 都为 -1 时为可靠传输，最多设置其中一个
+     */
+    class WXRTCDataChannelParam(
+        /**
+         * 是否按发送顺序到达
+         */
+        @JvmField
+        var ordered: Boolean = true,
+
+        /**
+         * 最大重传次数，-1 表示不限制
+         */
+        @JvmField
+        var maxRetransmits: Int = -1,
+
+        /**
+         * 最长重传时间（毫秒），-1 表示不限制
+         */
+        @JvmField
+        var maxRetransmitTimeMs: Int = -1,
     )
 
     class WXRTCRenderParams(
@@ -210,6 +283,12 @@ class WXRTCDef {
 
         @JvmField
         var mirrorType: Int = WXRTC_VIDEO_MIRROR_TYPE_AUTO,
+
+        /**
+         * 最大渲染帧率，WXRTC_VIDEO_RENDER_FPS_AUTO 表示小窗口限制为 7 帧，大窗口不限制
+         */
+        @JvmField
+        var maxFps: Int = WXRTC_VIDEO_RENDER_FPS_AUTO,
     )
 
     class Speaker {
@@ -244,6 +323,29 @@ class WXRTCDef {
         var capture_image_url: String? = null //识别出来的截图
     }
 
+    /**
+     * 某一类识别结果（rst）的投递策略，通过 [WXRTC.setProcessResultPolicy] 设置
+     */
+    class ProcessResultPolicy(
+        /**
+         * WXRTC_PROCESS_RESULT_DELIVER_ALL 或 WXRTC_PROCESS_RESULT_DELIVER_LATEST
+         */
+        @JvmField
+        var mode: Int = WXRTC_PROCESS_RESULT_DELIVER_ALL,
+
+        /**
+         * WXRTC_PROCESS_RESULT_DELIVER_LATEST 时每秒最多投递的次数，0 表示不限速
+         */
+        @JvmField
+        var maxRate: Int = 5,
+
+        /**
+         * 读数与上一条相同时不投递
+         */
+        @JvmField
+        var dropDuplicates: Boolean = false,
+    )
+
     class EyeMark {
         /**
          * normal : 0
@@ -260,6 +362,202 @@ class WXRTCDef {
         var astigmatism: Int = 0
     }
 
+    /**
+     * 统计数据，通过 [WXRTCListener.onStatistics] 每秒回调一次
+     */
+    class WXRTCStatistics {
+        /**
+         * 本地推流统计
+         */
+        @JvmField
+        var localStatistics: WXRTCLocalStatistics? = null
+
+        /**
+         * 远端用户统计，每个拉流用户一项
+         */
+        @JvmField
+        var remoteStatistics: List<WXRTCRemoteStatistics> = ArrayList()
+    }
+
+    class WXRTCLocalStatistics {
+        @JvmField
+        var userId: String? = null
+
+        /**
+         * 当前在硬件编码器中排队的视频帧数
+         */
+        @JvmField
+        var videoEncodeQueueDepth: Int = 0
+
+        /**
+         * 视频帧从送入编码器到输出的平滑耗时（毫秒）
+         */
+        @JvmField
+        var videoEncodeLatency: Int = 0
+
+        /**
+         * 已编码的视频帧数
+         */
+        @JvmField
+        var videoEncodedFrames: Long = 0
+
+        /**
+         * 编码器队列已满或无可用输入缓冲区而丢弃的视频帧数
+         */
+        @JvmField
+        var videoEncoderDroppedFrames: Long = 0
+
+        /**
+         * 请求编码关键帧的次数
+         */
+        @JvmField
+        var videoKeyFrameRequests: Long = 0
+
+        /**
+         * 因近期失败而直接使用软件编码的次数（本进程累计）
+         */
+        @JvmField
+        var videoHwEncoderFallbackCount: Int = 0
+
+        /**
+         * 因近期失败而直接使用软件解码的次数（本进程累计）
+         */
+        @JvmField
+        var videoHwDecoderFallbackCount: Int = 0
+
+        /**
+         * 本地画面已渲染的视频帧数
+         */
+        @JvmField
+        var videoRenderedFrames: Long = 0
+
+        /**
+         * 本地画面因限制帧率或渲染不及时而丢弃的视频帧数
+         */
+        @JvmField
+        var videoRenderDroppedFrames: Long = 0
+
+        /**
+         * 本地视频 y4m 录制因写入不及时而丢弃的帧数
+         */
+        @JvmField
+        var videoYuvRecordDroppedFrames: Long = 0
+
+        /**
+         * 屏幕内容模式下因画面未变化而未发送的帧数
+         */
+        @JvmField
+        var screenContentSkippedFrames: Long = 0
+
+        /**
+         * 按当前网络上次稳定的可用码率设置的视频起始码率（kbps），0 表示没有记录
+         */
+        @JvmField
+        var videoStartBitrate: Int = 0
+
+        /**
+         * 推流连接后可用发送码率首次达到 videoMinBitrate 的耗时（毫秒），-1 表示尚未达到
+         */
+        @JvmField
+        var videoTimeToTargetBitrate: Long = -1
+
+        /**
+         * 数据通道打开时推流连接的往返时延（毫秒），数据通道消息走这条链路；-1 表示数据通道未打开
+         */
+        @JvmField
+        var dataChannelRtt: Int = -1
+
+        /**
+         * 最近一次登录、进退房请求到收到应答的耗时（毫秒），房间消息和点对点消息走信令时的往返时延不低于此值，
+         * 含服务端处理时间，可与 dataChannelRtt 对比；-1 表示还没有测到
+         */
+        @JvmField
+        var signalingRtt: Int = -1
+    }
+
+    class WXRTCRemoteStatistics {
+        @JvmField
+        var userId: String? = null
+
+        /**
+         * 音频播放延迟（毫秒），-1 表示未在播放
+         */
+        @JvmField
+        var audioPlayoutLatency: Int = -1
+
+        /**
+         * 音频播放缓冲区大小（毫秒），-1 表示未知
+         */
+        @JvmField
+        var audioPlayoutBufferSize: Int = -1
+
+        /**
+         * 音频播放欠载（卡顿）次数
+         */
+        @JvmField
+        var audioUnderrunCount: Int = 0
+
+        /**
+         * 播放缓冲区增大次数
+         */
+        @JvmField
+        var audioBufferIncreaseCount: Int = 0
+
+        /**
+         * 播放缓冲区减小次数
+         */
+        @JvmField
+        var audioBufferDecreaseCount: Int = 0
+
+        /**
+         * 已解码的视频帧数
+         */
+        @JvmField
+        var videoDecodedFrames: Long = 0
+
+        /**
+         * 平均解码耗时（毫秒）
+         */
+        @JvmField
+        var videoDecodeTime: Int = 0
+
+        /**
+         * 95% 的视频帧解码耗时不超过该值（毫秒）
+         */
+        @JvmField
+        var videoDecodeTimeP95: Int = 0
+
+        /**
+         * 当前在解码器中排队的视频帧数，持续偏大说明解码能力不足而非网络丢包
+         */
+        @JvmField
+        var videoDecodeQueueDepth: Int = 0
+
+        /**
+         * 95% 的时间里解码器排队帧数不超过该值
+         */
+        @JvmField
+        var videoDecodeQueueDepthP95: Int = 0
+
+        /**
+         * 远端画面已渲染的视频帧数
+         */
+        @JvmField
+        var videoRenderedFrames: Long = 0
+
+        /**
+         * 远端画面因限制帧率或渲染不及时而丢弃的视频帧数
+         */
+        @JvmField
+        var videoRenderDroppedFrames: Long = 0
+
+        /**
+         * 远端视频 y4m 录制因写入不及时而丢弃的帧数
+         */
+        @JvmField
+        var videoYuvRecordDroppedFrames: Long = 0
+    }
+
     class RoomMemberEntity<T> {
         var userId: String? = null
         var userName: String? = null
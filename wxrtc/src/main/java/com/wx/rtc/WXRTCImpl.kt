@@ -2,6 +2,8 @@ package com.wx.rtc
 
 import android.content.Context
 import android.media.AudioManager
+import android.os.Handler
+import android.os.Looper
 import android.text.TextUtils
 import android.util.Log
 import android.view.View
@@ -12,47 +14,86 @@ import com.wx.rtc.WXRTCDef.Speaker
 import com.wx.rtc.bean.CallCommand
 import com.wx.rtc.bean.ProcessCommand
 import com.wx.rtc.bean.RecordCommand
+import com.wx.rtc.bean.SendCommandMessage
 import com.wx.rtc.bean.SignalCommand
+import com.wx.rtc.rtc.DataChannelMessage
 import com.wx.rtc.rtc.RTCListener
 import com.wx.rtc.rtc.RTCManager
+import com.wx.rtc.socket.BinarySignalCodec
 import com.wx.rtc.socket.SocketListener
 import com.wx.rtc.socket.SocketManager
-import kotlinx.coroutines.CoroutineScope
-import kotlinx.coroutines.Dispatchers
+import com.wx.rtc.utils.ProcessResultChannels
+import com.wx.rtc.utils.RTCRuntime
+import kotlinx.coroutines.cancel
 import kotlinx.coroutines.launch
+import org.json.JSONException
+import org.json.JSONObject
+import org.webrtc.GlVideoEffect
 import org.webrtc.SurfaceViewRenderer
 import java.io.File
-
-class WXRTCImpl : WXRTC(), SocketListener, RTCListener {
+import java.nio.ByteBuffer
+import java.util.concurrent.Executor
+
+/**
+ * 一个会话：独立的信令连接、登录/房间状态和远端用户，EGL 上下文、线程池、HTTP 客户端在会话间共用
+ */
+class WXRTCImpl internal constructor(
+    private val mSocketUrl: String?,
+    private val mNetworkType: Int?,
+    private val mMultiplexSignaling: Boolean = false
+) : WXRTC(), SocketListener, RTCListener {
     private var logToast: Toast? = null
     private var mContext: Context? = null
+    @Volatile
     private var mInviteId: String? = ""
+    @Volatile
     private var callStatus = WXRTCDef.Status.None
+    @Volatile
     private var callRole = WXRTCDef.Role.None
+    @Volatile
     private var destorying = false
+    // 服务端在进房应答中声明会转发数据通道消息后，房间消息和点对点消息才走数据通道
+    @Volatile
+    private var mDataChannelRelay = false
     private var speakerOn = true
+    @Volatile
     private var mRTCListener: WXRTCListener? = null
+    @Volatile
     private var mCallListener: WXCallListener? = null
+    @Volatile
     private var mSnapshotlistener: WXRTCSnapshotListener? = null
+    @Volatile
+    private var mCallbackExecutor: Executor? = null
+    private val mMainHandler = Handler(Looper.getMainLooper())
 
+    @Volatile
     private var currentRecordFile: String? = null
 
+    // 本实例所有协程的根作用域，destory 时取消
+    private val mScope = RTCRuntime.newSessionScope("WXRTC")
+
     private val mSocketManager = SocketManager()
 
     private val mRTCManager = RTCManager()
 
+    // 识别结果在信令通道上按到达顺序合并、投递
+    private val mProcessResults = ProcessResultChannels(mSocketManager.eventExecutor) { processData ->
+        callback { mRTCListener?.onProcessResult(processData) }
+    }
+
     override fun init(context: Context) {
         this.mContext = context
 
-        mSocketManager.init(context, mSocketUrl)
+        mSocketManager.init(mSocketUrl, mScope, mMultiplexSignaling)
         mSocketManager.setListener(this)
+        mSocketManager.setProcessResults(mProcessResults)
 
-        mRTCManager.init(context)
+        mRTCManager.init(context, mScope)
         mRTCManager.setRTCListener(this)
     }
 
     override fun setRTCVideoParam(param: WXRTCVideoEncParam) {
-        mRTCManager.setRTCVideoParam(param)
+        postToRtc { setRTCVideoParam(param) }
     }
 
     override fun setRTCListener(listener: WXRTCListener?) {
@@ -63,35 +104,50 @@ class WXRTCImpl : WXRTC(), SocketListener, RTCListener {
         this.mCallListener = listener
     }
 
+    override fun setCallbackExecutor(executor: Executor?) {
+        this.mCallbackExecutor = executor
+    }
+
+    override fun setSignalingBatchWindow(windowMillis: Long) {
+        mSocketManager.setBatchWindow(windowMillis)
+    }
+
     override fun login(appId: String, userId: String) {
         this.mAppId = appId
         this.mUserId = userId
 
         mSocketManager.startConnect()
 
-        val message = mNetworkType?.let {
-            "{\"signal\":\"${SignalCommand.LOGIN}\", \"app_id\":\"$appId\", \"user_id\":\"$userId\", \"connect_url\":\"$mSocketUrl\", \"network_type\":$it}"
-        } ?: "{\"signal\":\"${SignalCommand.LOGIN}\", \"app_id\":\"$appId\", \"user_id\":\"$userId\", \"connect_url\":\"$mSocketUrl\"}"
+        // 声明支持二进制信令，服务端不支持时忽略该字段，继续使用 JSON
+        val message = SendCommandMessage.signal(SignalCommand.LOGIN)
+            .put("app_id", appId)
+            .put("user_id", userId)
+            .put("connect_url", mSocketUrl)
+            .putOpt("network_type", mNetworkType)
+            .put(SocketManager.SIGNAL_CODEC_KEY, BinarySignalCodec.NAME)
 
         mSocketManager.sendWebSocketMessage(message)
     }
 
     override fun logout() {
-        mSocketManager.sendWebSocketMessage("{\"signal\":\"${SignalCommand.LOGOUT}\"}")
+        mSocketManager.sendWebSocketMessage(SendCommandMessage.signal(SignalCommand.LOGOUT))
     }
 
     override fun enterRoom(roomId: String) {
         this.mRoomId = roomId
 
-        mSocketManager.sendWebSocketMessage("{\"signal\":\"${SignalCommand.ENTER_ROOM}\", \"room_id\":\"$roomId\"}")
+        mSocketManager.sendWebSocketMessage(SendCommandMessage.signal(SignalCommand.ENTER_ROOM).put("room_id", roomId))
     }
 
     override fun exitRoom() {
-        mSocketManager.sendWebSocketMessage("{\"signal\":\"${SignalCommand.EXIT_ROOM}\"}")
+        mSocketManager.sendWebSocketMessage(SendCommandMessage.signal(SignalCommand.EXIT_ROOM))
     }
 
     override fun inviteCall(inviteId: String, roomId: String) {
-        mSocketManager.sendWebSocketMessage("{\"signal\":\"${SignalCommand.CALL_CMD}\", \"call_cmd\":{\"cmd\":\"${CallCommand.INVITE}\",\"user_id\":\"$inviteId\",\"room_id\":\"$roomId\"}}")
+        mSocketManager.sendWebSocketMessage(
+            SendCommandMessage.signal(SignalCommand.CALL_CMD)
+                .put("call_cmd", getCallCommand(CallCommand.INVITE, inviteId).put("room_id", roomId))
+        )
 
         this.mInviteId = inviteId
         this.callStatus = WXRTCDef.Status.Calling
@@ -105,7 +161,7 @@ class WXRTCImpl : WXRTC(), SocketListener, RTCListener {
     }
 
     override fun cancelInvitation(inviteId: String) {
-        mSocketManager.sendWebSocketMessage("{\"signal\":\"${SignalCommand.CALL_CMD}\",\"call_cmd\":{\"cmd\":\"${CallCommand.CANCEL}\", \"user_id\":\"$inviteId\"}}")
+        sendCallCommand(CallCommand.CANCEL, inviteId)
 
         this.callStatus = WXRTCDef.Status.None
         this.callRole = WXRTCDef.Role.None
@@ -117,7 +173,7 @@ class WXRTCImpl : WXRTC(), SocketListener, RTCListener {
     }
 
     override fun acceptInvitation(inviteId: String) {
-        mSocketManager.sendWebSocketMessage("{\"signal\":\"${SignalCommand.CALL_CMD}\",\"call_cmd\":{\"cmd\":\"${CallCommand.ACCEPT}\", \"user_id\":\"$inviteId\"}}")
+        sendCallCommand(CallCommand.ACCEPT, inviteId)
 
         this.callStatus = WXRTCDef.Status.Connected
     }
@@ -129,7 +185,7 @@ class WXRTCImpl : WXRTC(), SocketListener, RTCListener {
     }
 
     override fun rejectInvitation(inviteId: String) {
-        mSocketManager.sendWebSocketMessage("{\"signal\":\"${SignalCommand.CALL_CMD}\",\"call_cmd\":{\"cmd\":\"${CallCommand.REJECT}\", \"user_id\":\"$inviteId\"}}")
+        sendCallCommand(CallCommand.REJECT, inviteId)
 
         this.callStatus = WXRTCDef.Status.None
         this.callRole = WXRTCDef.Role.None
@@ -137,7 +193,7 @@ class WXRTCImpl : WXRTC(), SocketListener, RTCListener {
     }
 
     override fun invitationLineBusy(inviteId: String) {
-        mSocketManager.sendWebSocketMessage("{\"signal\":\"${SignalCommand.CALL_CMD}\",\"call_cmd\":{\"cmd\":\"${CallCommand.LINE_BUSY}\", \"user_id\":\"$inviteId\"}}")
+        sendCallCommand(CallCommand.LINE_BUSY, inviteId)
     }
 
     override fun hangupCall(){
@@ -147,7 +203,7 @@ class WXRTCImpl : WXRTC(), SocketListener, RTCListener {
     }
 
     override fun hangupCall(inviteId: String) {
-        mSocketManager.sendWebSocketMessage("{\"signal\":\"${SignalCommand.CALL_CMD}\",\"call_cmd\":{\"cmd\":\"${CallCommand.HANG_UP}\", \"user_id\":\"$inviteId\"}}")
+        sendCallCommand(CallCommand.HANG_UP, inviteId)
 
         this.callStatus = WXRTCDef.Status.None
         this.callRole = WXRTCDef.Role.None
@@ -155,7 +211,13 @@ class WXRTCImpl : WXRTC(), SocketListener, RTCListener {
     }
 
     override fun sendP2PMsg(userId: String, msg: String) {
-        mSocketManager.sendWebSocketMessage("{\"signal\":\"${SignalCommand.SEND_P2P_MSG}\",\"p2p_msg\":{\"from\":\"$mUserId\", \"to\":\"$userId\", \"message\":\"$msg\"}}")
+        val message = SendCommandMessage.signal(SignalCommand.SEND_P2P_MSG).put(
+            "p2p_msg", SendCommandMessage().put("from", mUserId).put("to", userId).put("message", msg)
+        )
+        val fallback = { mSocketManager.sendWebSocketMessage(message); Unit }
+        if (!sendOverDataChannel(Charsets.UTF_8.encode(message.toJson()), false, fallback)) {
+            fallback()
+        }
     }
 
     override fun sendRoomMsg(cmd: String, msg: String) {
@@ -164,15 +226,88 @@ class WXRTCImpl : WXRTC(), SocketListener, RTCListener {
             return
         }
 
-        mSocketManager.sendWebSocketMessage("{\"signal\":\"${SignalCommand.SEND_ROOM_MSG}\",\"room_msg\":{\"cmd\":\"$cmd\", \"message\":\"$msg\"}}")
+        // 数据通道上没有服务端补充发送方，消息里带上 from
+        val dataChannelMessage = SendCommandMessage.signal(SignalCommand.SEND_ROOM_MSG).put(
+            "room_msg", SendCommandMessage().put("from", mUserId).put("cmd", cmd).put("message", msg)
+        )
+        val fallback = {
+            mSocketManager.sendWebSocketMessage(
+                SendCommandMessage.signal(SignalCommand.SEND_ROOM_MSG)
+                    .put("room_msg", SendCommandMessage().put("cmd", cmd).put("message", msg))
+            )
+            Unit
+        }
+        if (!sendOverDataChannel(Charsets.UTF_8.encode(dataChannelMessage.toJson()), false, fallback)) {
+            fallback()
+        }
+    }
+
+    /**
+     * 服务端未声明转发数据通道消息时不发送并返回 false，由调用方改走信令，避免消息无人转发而丢失。
+     * 发送在 RTCManager 的串行通道上进行，不阻塞调用线程；通道未打开时在通道上执行 fallback，积压时排队
+     */
+    private fun sendOverDataChannel(data: ByteBuffer, binary: Boolean, fallback: (() -> Unit)? = null): Boolean {
+        if (!mDataChannelRelay) {
+            return false
+        }
+        postToRtc {
+            if (!sendDataChannelMessage(data, binary)) {
+                if (fallback != null) {
+                    fallback()
+                } else {
+                    Log.w(TAG, "Data channel is not open, message of ${data.remaining()} bytes dropped")
+                }
+            }
+        }
+        return true
+    }
+
+    override fun enableDataChannel(param: WXRTCDef.WXRTCDataChannelParam?) {
+        postToRtc { enableDataChannel(param) }
+    }
+
+    override fun sendP2PBinaryMsg(userId: String, data: ByteBuffer): Boolean {
+        val frame = DataChannelMessage.encode(DataChannelMessage.TYPE_P2P, userId, data) ?: return false
+        return sendOverDataChannel(frame, true)
+    }
+
+    override fun sendRoomBinaryMsg(cmd: String, data: ByteBuffer): Boolean {
+        if (TextUtils.isEmpty(mRoomId)) {
+            logAndToast("需要进入房间才能发送房间消息")
+            return false
+        }
+        val frame = DataChannelMessage.encode(DataChannelMessage.TYPE_ROOM, cmd, data) ?: return false
+        return sendOverDataChannel(frame, true)
     }
 
     override fun startProcess() {
-        mSocketManager.sendWebSocketMessage("{\"signal\":\"${SignalCommand.START_PROCESS}\"}")
+        mSocketManager.sendWebSocketMessage(SendCommandMessage.signal(SignalCommand.START_PROCESS))
     }
 
     override fun endProcess() {
-        mSocketManager.sendWebSocketMessage("{\"signal\":\"${SignalCommand.END_PROCESS}\"}")
+        mSocketManager.sendWebSocketMessage(SendCommandMessage.signal(SignalCommand.END_PROCESS))
+    }
+
+    override fun setProcessResultPolicy(rst: Int, policy: WXRTCDef.ProcessResultPolicy) {
+        mProcessResults.setPolicy(rst, policy)
+    }
+
+    override fun getLatestProcessResult(rst: Int): WXRTCDef.ProcessData? {
+        return mProcessResults.getLatest(rst)
+    }
+
+    override fun getCoalescedProcessResultCount(rst: Int): Long {
+        return mProcessResults.getCoalescedCount(rst)
+    }
+
+    private fun sendCallCommand(cmd: String, inviteId: String) {
+        mSocketManager.sendWebSocketMessage(
+            SendCommandMessage.signal(SignalCommand.CALL_CMD).put("call_cmd", getCallCommand(cmd, inviteId))
+        )
+    }
+
+    private fun getCallCommand(cmd: String, inviteId: String): SendCommandMessage {
+        return SendCommandMessage().put("cmd", cmd).put("user_id", inviteId)
     }
 
     private fun getRecordCommand(
@@ -182,47 +317,27 @@ class WXRTCImpl : WXRTC(), SocketListener, RTCListener {
         needAfterAsr: Boolean?,
         hospitalId: String?,
         spkList: List<Speaker>?
-    ): String {
-        val sb = StringBuilder()
-        sb.append("{\"cmd\":\"$cmd\"")
-        currentRecordFile?.let {
-            sb.append(",\"end_file_name\":\"$it\"")
-        }
-        mixId?.let {
-            sb.append(",\"mix_id\":\"$it\"")
+    ): SendCommandMessage {
+        return SendCommandMessage().put("cmd", cmd)
+            .putOpt("end_file_name", currentRecordFile)
+            .putOpt("mix_id", mixId)
+            .putOpt("extra_data", extraData)
+            .putOpt("need_after_asr", needAfterAsr)
+            .putOpt("hospital_id", hospitalId)
+            .putOpt("spk_list", spkList?.let { getSpeakerList(it) })
+    }
+
+    private fun getAsrCommand(cmd: String, hospitalId: String?, spkList: List<Speaker>?): SendCommandMessage {
+        val process = SendCommandMessage().put("type", "audio").put("cmd", cmd)
+            .putOpt("hospital_id", hospitalId)
+            .putOpt("spk_list", spkList?.let { getSpeakerList(it) })
+        return SendCommandMessage.signal(SignalCommand.PROCESS_CMD).put("process_cmd_list", listOf(process))
+    }
+
+    private fun getSpeakerList(spkList: List<Speaker>): List<SendCommandMessage> {
+        return spkList.map {
+            SendCommandMessage().putOpt("spk_id", it.spkId).putOpt("spk_name", it.spkName)
         }
-        extraData?.let {
-            sb.append(",\"extra_data\":\"${it.replace("\"", "\\\"")}\"")
-        }
-        needAfterAsr?.let {
-            sb.append(",\"need_after_asr\":$it")
-        }
-        hospitalId?.let {
-            sb.append(",\"hospital_id\":\"$it\"")
-        }
-        spkList?.let { list->
-            sb.append(",\"spk_list\":[")
-            list.forEachIndexed { index, item ->
-                if (index > 0){
-                    sb.append(",")
-                }
-                sb.append("{")
-                item.spkId?.let {
-                    sb.append("\"spk_id\":\"${item.spkId}\"")
-                }
-                item.spkName?.let {
-                    if (item.spkId != null) {
-                        sb.append(",")
-                    }
-                    sb.append("\"spk_name\":\"${item.spkName}\"")
-                }
-                sb.append("}")
-            }
-            sb.append("]")
-        }
-        sb.append("}")
-
-        return sb.toString()
     }
 
     override fun startRecord(
@@ -232,16 +347,19 @@ class WXRTCImpl : WXRTC(), SocketListener, RTCListener {
         hospitalId: String?,
         spkList: List<Speaker>?
     ) {
-        mSocketManager.sendWebSocketMessage("{\"signal\":\"${SignalCommand.RECORD_CMD}\", \"record_cmd\":${
-            getRecordCommand(
-                RecordCommand.START_RECORD,
-                mixId,
-                extraData,
-                needAfterAsr,
-                hospitalId,
-                spkList
+        mSocketManager.sendWebSocketMessage(
+            SendCommandMessage.signal(SignalCommand.RECORD_CMD).put(
+                "record_cmd",
+                getRecordCommand(
+                    RecordCommand.START_RECORD,
+                    mixId,
+                    extraData,
+                    needAfterAsr,
+                    hospitalId,
+                    spkList
+                )
             )
-        }}")
+        )
     }
 
     override fun endAndStartRecord(
@@ -251,227 +369,252 @@ class WXRTCImpl : WXRTC(), SocketListener, RTCListener {
         hospitalId: String?,
         spkList: List<Speaker>?
     ) {
-        mSocketManager.sendWebSocketMessage("{\"signal\":\"${SignalCommand.RECORD_CMD}\", \"record_cmd\":${
-            getRecordCommand(
-                RecordCommand.END_AND_START_RECORD,
-                mixId,
-                extraData,
-                needAfterAsr,
-                hospitalId,
-                spkList
+        postToRtc { rotateLocalRecord() }
+        mSocketManager.sendWebSocketMessage(
+            SendCommandMessage.signal(SignalCommand.RECORD_CMD).put(
+                "record_cmd",
+                getRecordCommand(
+                    RecordCommand.END_AND_START_RECORD,
+                    mixId,
+                    extraData,
+                    needAfterAsr,
+                    hospitalId,
+                    spkList
+                )
             )
-        }}")
+        )
     }
 
     override fun endRecord() {
-        mSocketManager.sendWebSocketMessage("{\"signal\":\"${SignalCommand.RECORD_CMD}\", \"record_cmd\":{\"cmd\":\"${RecordCommand.END_RECORD}\"}}")
+        mSocketManager.sendWebSocketMessage(
+            SendCommandMessage.signal(SignalCommand.RECORD_CMD)
+                .put("record_cmd", SendCommandMessage().put("cmd", RecordCommand.END_RECORD))
+        )
     }
 
     override fun startAsr(hospitalId: String?, spkList: List<Speaker>?) {
-        val sb = StringBuilder()
-        sb.append("{\"signal\":\"${SignalCommand.PROCESS_CMD}\"")
-        sb.append(", \"process_cmd_list\":[{\"type\":\"audio\", \"cmd\":\"${ProcessCommand.START_ASR}\"")
-        hospitalId?.let {
-            sb.append(",\"hospital_id\":\"$it\"")
-        }
-        spkList?.let { list->
-            sb.append(",\"spk_list\":[")
-            list.forEachIndexed { index, item ->
-                if (index > 0){
-                    sb.append(",")
-                }
-                sb.append("{")
-                item.spkId?.let {
-                    sb.append("\"spk_id\":\"${item.spkId}\"")
-                }
-                item.spkName?.let {
-                    if (item.spkId != null) {
-                        sb.append(",")
-                    }
-                    sb.append("\"spk_name\":\"${item.spkName}\"")
-                }
-                sb.append("}")
-            }
-            sb.append("]")
-        }
-        sb.append("}]}")
-
-        mSocketManager.sendWebSocketMessage(sb.toString())
+        mSocketManager.sendWebSocketMessage(getAsrCommand(ProcessCommand.START_ASR, hospitalId, spkList))
     }
 
     override fun endAndStartAsr(hospitalId: String?, spkList: List<Speaker>?) {
-        val sb = StringBuilder()
-        sb.append("{\"signal\":\"${SignalCommand.PROCESS_CMD}\"")
-        sb.append(", \"process_cmd_list\":[{\"type\":\"audio\", \"cmd\":\"${ProcessCommand.END_AND_START_ASR}\"")
-        hospitalId?.let {
-            sb.append(",\"hospital_id\":\"$it\"")
-        }
-        spkList?.let { list->
-            sb.append(",\"spk_list\":[")
-            list.forEachIndexed { index, item ->
-                if (index > 0){
-                    sb.append(",")
-                }
-                sb.append("{")
-                item.spkId?.let {
-                    sb.append("\"spk_id\":\"${item.spkId}\"")
-                }
-                item.spkName?.let {
-                    if (item.spkId != null) {
-                        sb.append(",")
-                    }
-                    sb.append("\"spk_name\":\"${item.spkName}\"")
-                }
-                sb.append("}")
-            }
-            sb.append("]")
-        }
-        sb.append("}]}")
-
-        mSocketManager.sendWebSocketMessage(sb.toString())
+        mSocketManager.sendWebSocketMessage(getAsrCommand(ProcessCommand.END_AND_START_ASR, hospitalId, spkList))
     }
 
     override fun endAsr() {
-        mSocketManager.sendWebSocketMessage("{\"signal\":\"${SignalCommand.PROCESS_CMD}\",\"process_cmd_list\":[{\"type\":\"audio\", \"cmd\":\"${ProcessCommand.END_ASR}\"}]}")
+        mSocketManager.sendWebSocketMessage(getAsrCommand(ProcessCommand.END_ASR, null, null))
     }
 
     override fun startLocalVideo(frontCamera: Boolean, renderer: SurfaceViewRenderer?) {
         renderer?.visibility = View.VISIBLE
-        mRTCManager.startLocalVideo(frontCamera, renderer)
+        postToRtc { startLocalVideo(frontCamera, renderer) }
+
+        if (mRoomId.isNotEmpty()) {
+            mSocketManager.sendWebSocketMessage(
+                SendCommandMessage.signal(SignalCommand.VIDEO_AVAILABLE).put("available", true)
+            )
+        }
+    }
+
+    override fun startLocalVideoFromFile(filePath: String, fps: Int, loop: Boolean, renderer: SurfaceViewRenderer?) {
+        renderer?.visibility = View.VISIBLE
+        postToRtc { startLocalVideoFromFile(filePath, fps, loop, renderer) }
 
         if (mRoomId.isNotEmpty()) {
-            mSocketManager.sendWebSocketMessage("{\"signal\":\"${SignalCommand.VIDEO_AVAILABLE}\",\"available\":true}")
+            mSocketManager.sendWebSocketMessage(
+                SendCommandMessage.signal(SignalCommand.VIDEO_AVAILABLE).put("available", true)
+            )
         }
     }
 
     override fun updateLocalVideo(renderer: SurfaceViewRenderer?) {
         renderer?.visibility = View.VISIBLE
-        mRTCManager.updateLocalVideo(renderer)
+        postToRtc { updateLocalVideo(renderer) }
     }
 
     override fun stopLocalVideo() {
-        mRTCManager.stopLocalVideo()
+        postToRtc { stopLocalVideo() }
 
         if (mRoomId.isNotEmpty()) {
-            mSocketManager.sendWebSocketMessage("{\"signal\":\"${SignalCommand.VIDEO_AVAILABLE}\",\"available\":false}")
+            mSocketManager.sendWebSocketMessage(
+                SendCommandMessage.signal(SignalCommand.VIDEO_AVAILABLE).put("available", false)
+            )
         }
     }
 
     override fun muteLocalVideo(mute: Boolean) {
-        mRTCManager.muteLocalVideo(mute)
+        postToRtc { muteLocalVideo(mute) }
 
         if (mRoomId.isNotEmpty()) {
-            mSocketManager.sendWebSocketMessage("{\"signal\":\"${SignalCommand.VIDEO_AVAILABLE}\",\"available\":${!mute}}")
+            mSocketManager.sendWebSocketMessage(
+                SendCommandMessage.signal(SignalCommand.VIDEO_AVAILABLE).put("available", !mute)
+            )
         }
     }
 
     override fun startRemoteVideo(userId: String, renderer: SurfaceViewRenderer?) {
         renderer?.visibility = View.VISIBLE
-        mRTCManager.startRemoteVideo(userId, renderer)
+        postToRtc { startRemoteVideo(userId, renderer) }
     }
 
     override fun updateRemoteVideo(userId: String, renderer: SurfaceViewRenderer?) {
         renderer?.visibility = View.VISIBLE
-        mRTCManager.updateRemoteVideo(userId, renderer)
+        postToRtc { updateRemoteVideo(userId, renderer) }
     }
 
     override fun stopRemoteVideo(userId: String) {
-        mRTCManager.stopRemoteVideo(userId)
+        postToRtc { stopRemoteVideo(userId) }
     }
 
     override fun stopAllRemoteVideo() {
-        mRTCManager.stopAllRemoteVideo()
+        postToRtc { stopAllRemoteVideo() }
     }
 
     override fun muteRemoteVideo(userId: String, mute: Boolean) {
-        mRTCManager.muteRemoteVideo(userId, mute)
+        postToRtc { muteRemoteVideo(userId, mute) }
     }
 
     override fun muteAllRemoteVideo(mute: Boolean) {
-        mRTCManager.muteAllRemoteVideo(mute)
+        postToRtc { muteAllRemoteVideo(mute) }
     }
 
     override fun setLocalRenderParams(params: WXRTCRenderParams) {
-        mRTCManager.setLocalRenderParams(params)
+        postToRtc { setLocalRenderParams(params) }
     }
 
     override fun setRemoteRenderParams(userId: String, params: WXRTCRenderParams) {
-        mRTCManager.setRemoteRenderParams(userId, params)
+        postToRtc { setRemoteRenderParams(userId, params) }
+    }
+
+    override fun enableSharedRenderThread(enable: Boolean) {
+        postToRtc { enableSharedRenderThread(enable) }
+    }
+
+    override fun enableLowLatencyAudio(enable: Boolean) {
+        postToRtc { enableLowLatencyAudio(enable) }
+    }
+
+    override fun addLocalVideoEffect(effect: GlVideoEffect) {
+        postToRtc { addLocalVideoEffect(effect) }
+    }
+
+    override fun removeLocalVideoEffect(effect: GlVideoEffect) {
+        postToRtc { removeLocalVideoEffect(effect) }
     }
 
     override fun startLocalAudio() {
         setSpeakerOn(speakerOn)
-        mRTCManager.startLocalAudio()
+        postToRtc { startLocalAudio() }
 
         if (mRoomId.isNotEmpty()) {
-            mSocketManager.sendWebSocketMessage("{\"signal\":\"${SignalCommand.AUDIO_AVAILABLE}\",\"available\":${true}}")
+            mSocketManager.sendWebSocketMessage(
+                SendCommandMessage.signal(SignalCommand.AUDIO_AVAILABLE).put("available", true)
+            )
         }
     }
 
     override fun stopLocalAudio() {
-        mRTCManager.stopLocalAudio()
+        postToRtc { stopLocalAudio() }
 
         if (mRoomId.isNotEmpty()) {
-            mSocketManager.sendWebSocketMessage("{\"signal\":\"${SignalCommand.AUDIO_AVAILABLE}\",\"available\":${false}}")
+            mSocketManager.sendWebSocketMessage(
+                SendCommandMessage.signal(SignalCommand.AUDIO_AVAILABLE).put("available", false)
+            )
         }
     }
 
     override fun muteLocalAudio(mute: Boolean) {
-        mRTCManager.muteLocalAudio(mute)
+        postToRtc { muteLocalAudio(mute) }
 
         if (mRoomId.isNotEmpty()) {
-            mSocketManager.sendWebSocketMessage("{\"signal\":\"${SignalCommand.AUDIO_AVAILABLE}\",\"available\":${!mute}}")
+            mSocketManager.sendWebSocketMessage(
+                SendCommandMessage.signal(SignalCommand.AUDIO_AVAILABLE).put("available", !mute)
+            )
         }
     }
 
     override fun muteRemoteAudio(userId: String, mute: Boolean) {
-        mRTCManager.muteRemoteAudio(userId, mute)
+        postToRtc { muteRemoteAudio(userId, mute) }
     }
 
     override fun muteAllRemoteAudio(mute: Boolean) {
-        mRTCManager.muteAllRemoteAudio(mute)
+        postToRtc { muteAllRemoteAudio(mute) }
     }
 
     override fun setRemoteAudioVolume(userId: String, volume: Int) {
-        mRTCManager.setRemoteAudioVolume(userId, volume)
+        postToRtc { setRemoteAudioVolume(userId, volume) }
     }
 
     override fun setAllRemoteAudioVolume(volume: Int) {
-        mRTCManager.setAllRemoteAudioVolume(volume)
+        postToRtc { setAllRemoteAudioVolume(volume) }
     }
 
     override fun startScreenCapture(encParam: WXRTCVideoEncParam?, renderer: SurfaceViewRenderer?) {
-        mRTCManager.startScreenCapture(encParam, renderer)
+        postToRtc { startScreenCapture(encParam, renderer) }
 
         if (mRoomId.isNotEmpty()) {
-            mSocketManager.sendWebSocketMessage("{\"signal\":\"${SignalCommand.VIDEO_AVAILABLE}\",\"available\":${true}}")
+            mSocketManager.sendWebSocketMessage(
+                SendCommandMessage.signal(SignalCommand.VIDEO_AVAILABLE).put("available", true)
+            )
         }
     }
 
     override fun stopScreenCapture() {
-        mRTCManager.stopScreenCapture()
+        postToRtc { stopScreenCapture() }
 
         if (mRoomId.isNotEmpty()) {
-            mSocketManager.sendWebSocketMessage("{\"signal\":\"${SignalCommand.VIDEO_AVAILABLE}\",\"available\":${false}}")
+            mSocketManager.sendWebSocketMessage(
+                SendCommandMessage.signal(SignalCommand.VIDEO_AVAILABLE).put("available", false)
+            )
         }
     }
 
     override fun pauseScreenCapture() {
-        mRTCManager.pauseScreenCapture()
+        postToRtc { pauseScreenCapture() }
 
         if (mRoomId.isNotEmpty()) {
-            mSocketManager.sendWebSocketMessage("{\"signal\":\"${SignalCommand.VIDEO_AVAILABLE}\",\"available\":${false}}")
+            mSocketManager.sendWebSocketMessage(
+                SendCommandMessage.signal(SignalCommand.VIDEO_AVAILABLE).put("available", false)
+            )
         }
     }
 
     override fun resumeScreenCapture() {
-        mRTCManager.resumeScreenCapture()
+        postToRtc { resumeScreenCapture() }
 
         if (mRoomId.isNotEmpty()) {
-            mSocketManager.sendWebSocketMessage("{\"signal\":\"${SignalCommand.VIDEO_AVAILABLE}\",\"available\":${true}}")
+            mSocketManager.sendWebSocketMessage(
+                SendCommandMessage.signal(SignalCommand.VIDEO_AVAILABLE).put("available", true)
+            )
         }
     }
 
+    override fun enableSubStream(enable: Boolean) {
+        postToRtc { enableSubStream(enable) }
+    }
+
+    override fun startSubStreamScreenCapture(encParam: WXRTCVideoEncParam?, renderer: SurfaceViewRenderer?) {
+        renderer?.visibility = View.VISIBLE
+        // 授权后真正开始采集时才通知远端，见 onSubStreamAvailable
+        postToRtc { startSubStreamScreenCapture(encParam, renderer) }
+    }
+
+    override fun stopSubStreamScreenCapture() {
+        postToRtc { stopSubStreamScreenCapture() }
+    }
+
+    override fun setSubStreamEncParam(param: WXRTCVideoEncParam) {
+        postToRtc { setSubStreamEncParam(param) }
+    }
+
+    override fun startRemoteSubStreamView(userId: String, renderer: SurfaceViewRenderer?) {
+        renderer?.visibility = View.VISIBLE
+        postToRtc { startRemoteSubStreamView(userId, renderer) }
+    }
+
+    override fun stopRemoteSubStreamView(userId: String) {
+        postToRtc { stopRemoteSubStreamView(userId) }
+    }
+
     override fun setSpeakerOn(speakerOn: Boolean) {
         this.speakerOn = speakerOn
         val audioManager = mContext!!.getSystemService(Context.AUDIO_SERVICE) as AudioManager
@@ -482,7 +625,7 @@ class WXRTCImpl : WXRTC(), SocketListener, RTCListener {
         get() = mRTCManager.isFrontCamera
 
     override fun switchCamera(frontCamera: Boolean) {
-        mRTCManager.switchPublishCamera(frontCamera)
+        postToRtc { switchPublishCamera(frontCamera) }
     }
 
     override val isCameraZoomSupported: Boolean
@@ -494,26 +637,48 @@ class WXRTCImpl : WXRTC(), SocketListener, RTCListener {
     override var cameraZoom: Int
         get() = mRTCManager.cameraZoom
         set(value) {
-            mRTCManager.cameraZoom = value
+            postToRtc { cameraZoom = value }
         }
 
+    override fun startYuvRecord(userId: String, filePath: String, width: Int, height: Int, listener: WXRTCResultListener?) {
+        callOnRtc({ startYuvRecord(userId, filePath, width, height) }) { listener?.onResult(it) }
+    }
+
+    override fun stopYuvRecord(userId: String) {
+        postToRtc { stopYuvRecord(userId) }
+    }
+
+    override fun startLocalRecord(filePathPrefix: String, listener: WXRTCResultListener?) {
+        callOnRtc({ startLocalRecord(filePathPrefix) }) { listener?.onResult(it) }
+    }
+
+    override fun stopLocalRecord() {
+        postToRtc { stopLocalRecord() }
+    }
+
     override fun snapshotVideo(userId: String, listener: WXRTCSnapshotListener?): Boolean {
+        if (destorying) {
+            return false
+        }
         this.mSnapshotlistener = listener
-        if (userId == this.mUserId) {
-            return mRTCManager.snapshotLocalVideo(userId)
+        val isLocal = userId == this.mUserId
+        callOnRtc({ if (isLocal) snapshotLocalVideo(userId) else snapshotRemoteVideo(userId) }) { success ->
+            if (!success) {
+                listener?.onSnapshotFailed(userId)
+            }
         }
-        return mRTCManager.snapshotRemoteVideo(userId)
+        return true
     }
 
     private fun onCallCancelled(userId: String) {
-        mCallListener?.onCallCancelled(userId)
+        callback { mCallListener?.onCallCancelled(userId) }
         callRole = WXRTCDef.Role.None
         callStatus = WXRTCDef.Status.None
     }
 
     private fun logAndToast(msg: String) {
         Log.d(TAG, msg)
-        CoroutineScope(Dispatchers.Main).launch {
+        mScope.launch(RTCRuntime.main) {
             if (logToast != null) {
                 logToast!!.cancel()
             }
@@ -542,7 +707,9 @@ class WXRTCImpl : WXRTC(), SocketListener, RTCListener {
         setRTCListener(null)
         setCallListener(null)
 
-        mRTCManager.destory()
+        postToRtc { destory() }
+
+        mProcessResults.release()
 
         mSocketManager.destroy()
 
@@ -551,13 +718,48 @@ class WXRTCImpl : WXRTC(), SocketListener, RTCListener {
         }
 
         isEnterRoom = false
-        INSTANCE = null
+        mScope.cancel()
+        onDestoryed(this)
     }
 
 
+    /**
+     * 在回调线程（默认主线程）上通知应用；已在主线程且未设置回调线程时直接执行，保证与主线程上的状态变化顺序一致
+     */
+    private fun callback(block: () -> Unit) {
+        val executor = mCallbackExecutor
+        if (executor != null) {
+            executor.execute(block)
+        } else if (Looper.myLooper() == Looper.getMainLooper()) {
+            block()
+        } else {
+            mMainHandler.post(block)
+        }
+    }
+
+    /**
+     * RTCManager 的状态变更都在它的串行通道上按顺序执行，涉及渲染控件的部分由 RTCManager 切到主线程
+     */
+    private fun postToRtc(block: RTCManager.() -> Unit) {
+        mRTCManager.post { mRTCManager.block() }
+    }
+
+    /**
+     * 在 RTCManager 的串行通道上执行，不阻塞调用线程，结果在回调线程上交给 onResult，用于有返回值的接口
+     */
+    private fun <T> callOnRtc(block: RTCManager.() -> T, onResult: (T) -> Unit) {
+        val result = mRTCManager.async { mRTCManager.block() }
+        mScope.launch {
+            val value = result.await()
+            callback { onResult(value) }
+        }
+    }
+
     override fun onError(errCode: Int, errMsg: String) {
-        mRTCListener?.onError(errCode, errMsg)
-        mCallListener?.onError(errCode, errMsg)
+        callback {
+            mRTCListener?.onError(errCode, errMsg)
+            mCallListener?.onError(errCode, errMsg)
+        }
     }
 
     override fun onSocketOpen() {
@@ -573,21 +775,24 @@ class WXRTCImpl : WXRTC(), SocketListener, RTCListener {
             enterRoom(mRoomId)
         }
 
-        mRTCListener?.onLogin()
+        callback { mRTCListener?.onLogin() }
     }
 
     override fun onLogout(reason: Int) {
         isLogin = false
         mUserId = null
 
-        mRTCListener?.onLogout(reason)
+        // 销毁时随后会清空监听，这里先取出，保证 onLogout 仍能送达
+        val listener = mRTCListener
+        callback { listener?.onLogout(reason) }
 
         if (destorying) {
-            destoryInternal()
+            mScope.launch(RTCRuntime.main) { destoryInternal() }
         }
     }
 
-    override fun onEnterRoom(publishUrl: String) {
+    override fun onEnterRoom(publishUrl: String, dataChannelRelay: Boolean) {
+        mDataChannelRelay = dataChannelRelay
         var needOnEnterRoom = true
         if (isEnterRoom) {
             needOnEnterRoom = false
@@ -596,57 +801,74 @@ class WXRTCImpl : WXRTC(), SocketListener, RTCListener {
         isEnterRoom = true
 
         mUserId?.let {
-            mRTCManager.startPublish(publishUrl, it)
+            postToRtc { startPublish(publishUrl, it) }
         }
 
         if (needOnEnterRoom) {
-            mRTCListener?.onEnterRoom()
+            callback { mRTCListener?.onEnterRoom() }
         }
     }
 
     override fun onExitRoom(reason: Int) {
         isEnterRoom = false
         mRoomId = ""
+        mDataChannelRelay = false
 
-        mRTCManager.stopAllPC()
+        postToRtc { stopAllPC() }
 
-        mRTCListener?.onExitRoom(reason)
+        callback { mRTCListener?.onExitRoom(reason) }
     }
 
     override fun onGetUnpublishUrl(unpublishUrl: String) {
-        mRTCManager.setUnpublishUrl(unpublishUrl)
+        postToRtc { setUnpublishUrl(unpublishUrl) }
     }
 
     override fun onRemoteUserEnterRoom(pullUrl: String, userId: String) {
-        mRTCManager.startOnePull(pullUrl, userId)
-        mRTCListener?.onRemoteUserEnterRoom(userId)
-        mCallListener?.onUserJoin(userId)
+        postToRtc { startOnePull(pullUrl, userId) }
+        callback {
+            mRTCListener?.onRemoteUserEnterRoom(userId)
+            mCallListener?.onUserJoin(userId)
+        }
     }
 
     override fun onRemoteUserLeaveRoom(userId: String, reason: Int) {
-        mRTCManager.stopPull(userId)
-        mRTCListener?.onRemoteUserLeaveRoom(userId, reason)
-        mCallListener?.onUserLeave(userId)
+        postToRtc { stopPull(userId) }
+        callback {
+            mRTCListener?.onRemoteUserLeaveRoom(userId, reason)
+            mCallListener?.onUserLeave(userId)
+        }
     }
 
     override fun onUserVideoAvailable(userId: String, available: Boolean) {
-        mRTCListener?.onUserVideoAvailable(userId, available)
-        mCallListener?.onUserVideoAvailable(userId, available)
+        callback {
+            mRTCListener?.onUserVideoAvailable(userId, available)
+            mCallListener?.onUserVideoAvailable(userId, available)
+        }
+    }
+
+    override fun onUserSubStreamAvailable(userId: String, available: Boolean) {
+        callback { mRTCListener?.onUserSubStreamAvailable(userId, available) }
     }
 
     override fun onUserAudioAvailable(userId: String, available: Boolean) {
-        mRTCListener?.onUserAudioAvailable(userId, available)
-        mCallListener?.onUserAudioAvailable(userId, available)
+        callback {
+            mRTCListener?.onUserAudioAvailable(userId, available)
+            mCallListener?.onUserAudioAvailable(userId, available)
+        }
     }
 
     override fun onRecvP2PMsg(fromUserId: String, message: String?) {
-        mRTCListener?.onRecvP2PMsg(fromUserId, message)
-        mCallListener?.onRecvP2PMsg(fromUserId, message)
+        callback {
+            mRTCListener?.onRecvP2PMsg(fromUserId, message)
+            mCallListener?.onRecvP2PMsg(fromUserId, message)
+        }
     }
 
     override fun onRecvRoomMsg(userId: String, cmd: String, message: String?) {
-        mRTCListener?.onRecvRoomMsg(userId, cmd, message)
-        mCallListener?.onRecvRoomMsg(userId, cmd, message)
+        callback {
+            mRTCListener?.onRecvRoomMsg(userId, cmd, message)
+            mCallListener?.onRecvRoomMsg(userId, cmd, message)
+        }
     }
 
     override fun onRecvCallMsg(userId: String?, cmd: String, roomId: String?) {
@@ -659,32 +881,34 @@ class WXRTCImpl : WXRTC(), SocketListener, RTCListener {
                 callRole = WXRTCDef.Role.Callee
                 callStatus = WXRTCDef.Status.Calling
                 mInviteId = userId
-                mCallListener?.onCallReceived(userId!!)
+                callback { mCallListener?.onCallReceived(userId!!) }
             }
 
             CallCommand.INVITATION_NO_RESP -> {
-                mCallListener?.onUserNoResponse(userId!!)
+                callback { mCallListener?.onUserNoResponse(userId!!) }
                 onCallCancelled(this.mUserId!!)
             }
 
             CallCommand.INVITATION_REJECTED -> {
-                mCallListener?.onUserReject(userId!!)
+                callback { mCallListener?.onUserReject(userId!!) }
                 onCallCancelled(this.mUserId!!)
             }
 
             CallCommand.INVITATION_LINE_BUSY -> {
-                mCallListener?.onUserLineBusy(userId!!)
+                callback { mCallListener?.onUserLineBusy(userId!!) }
                 onCallCancelled(this.mUserId!!)
             }
 
             CallCommand.INVITATION_CANCELED -> onCallCancelled(userId!!)
             CallCommand.INVITATION_ACCEPTED -> {
                 callStatus = WXRTCDef.Status.Connected
-                mCallListener?.onCallBegin(roomId!!, callRole)
+                val role = callRole
+                callback { mCallListener?.onCallBegin(roomId!!, role) }
             }
 
             CallCommand.CALL_END -> {
-                mCallListener?.onCallEnd(roomId!!, callRole)
+                val role = callRole
+                callback { mCallListener?.onCallEnd(roomId!!, role) }
                 callRole = WXRTCDef.Role.None
                 callStatus = WXRTCDef.Status.None
             }
@@ -694,19 +918,19 @@ class WXRTCImpl : WXRTC(), SocketListener, RTCListener {
     }
 
     override fun onResult(processData: WXRTCDef.ProcessData) {
-        mRTCListener?.onProcessResult(processData)
+        mProcessResults.onResult(processData)
     }
 
     override fun onRecordStart(fileName: String) {
         currentRecordFile = fileName
-        mRTCListener?.onRecordStart(fileName)
+        callback { mRTCListener?.onRecordStart(fileName) }
     }
 
     override fun onRecordEnd(fileName: String) {
         if (fileName == currentRecordFile) {
             currentRecordFile = null
         }
-        mRTCListener?.onRecordEnd(fileName)
+        callback { mRTCListener?.onRecordEnd(fileName) }
     }
 
 
@@ -717,29 +941,109 @@ class WXRTCImpl : WXRTC(), SocketListener, RTCListener {
     }
 
     override fun onSnapshot(userId: String, file: File) {
-        mSnapshotlistener?.onSnapshot(userId, file)
+        callback { mSnapshotlistener?.onSnapshot(userId, file) }
+    }
+
+    override fun onSubStreamAvailable(available: Boolean) {
+        if (mRoomId.isNotEmpty()) {
+            mSocketManager.sendWebSocketMessage(
+                SendCommandMessage.signal(SignalCommand.SUB_VIDEO_AVAILABLE).put("available", available)
+            )
+        }
+    }
+
+    override fun onStatistics(statistics: WXRTCDef.WXRTCStatistics) {
+        statistics.localStatistics?.signalingRtt = mSocketManager.signalingRttMs
+        callback { mRTCListener?.onStatistics(statistics) }
+    }
+
+    override fun onDataChannelMessage(userId: String, message: String) {
+        val root = try {
+            JSONObject(message)
+        } catch (e: JSONException) {
+            Log.e(TAG, "Wrong data channel message: $message")
+            return
+        }
+        when (root.optString("signal")) {
+            SignalCommand.SEND_P2P_MSG -> {
+                val p2pMsg = root.optJSONObject("p2p_msg") ?: return
+                val to = p2pMsg.optString("to")
+                if (to.isNotEmpty() && to != mUserId) {
+                    return
+                }
+                val from = p2pMsg.optString("from").ifEmpty { userId }
+                val msg = if (p2pMsg.has("message")) p2pMsg.getString("message") else null
+                callback {
+                    mRTCListener?.onRecvP2PMsg(from, msg)
+                    mCallListener?.onRecvP2PMsg(from, msg)
+                }
+            }
+
+            SignalCommand.SEND_ROOM_MSG -> {
+                val roomMsg = root.optJSONObject("room_msg") ?: return
+                val from = roomMsg.optString("from").ifEmpty { userId }
+                val cmd = roomMsg.optString("cmd")
+                val msg = if (roomMsg.has("message")) roomMsg.getString("message") else null
+                callback {
+                    mRTCListener?.onRecvRoomMsg(from, cmd, msg)
+                    mCallListener?.onRecvRoomMsg(from, cmd, msg)
+                }
+            }
+
+            else -> {}
+        }
+    }
+
+    override fun onDataChannelBinaryMessage(userId: String, data: ByteBuffer) {
+        val message = DataChannelMessage.decode(data) ?: run {
+            Log.e(TAG, "Wrong data channel binary message from $userId")
+            return
+        }
+        when (message.type) {
+            DataChannelMessage.TYPE_P2P -> {
+                if (message.key != mUserId) {
+                    return
+                }
+                callback { mRTCListener?.onRecvP2PBinaryMsg(userId, message.data) }
+            }
+
+            DataChannelMessage.TYPE_ROOM -> {
+                callback { mRTCListener?.onRecvRoomBinaryMsg(userId, message.key, message.data) }
+            }
+
+            else -> {}
+        }
     }
 
     companion object {
         private val TAG: String = WXRTCImpl::class.java.name
 
         private var INSTANCE: WXRTCImpl? = null
-        private var mSocketUrl: String? = null
-        private var mNetworkType: Int? = null
 
         @JvmStatic
         @JvmOverloads
         fun getInstance(socketUrl: String? = null, networkType: Int? = null): WXRTC {
             synchronized(WXRTCImpl.Companion::class.java) {
                 if (INSTANCE == null) {
-                    INSTANCE = WXRTCImpl()
-                    mSocketUrl = socketUrl
-                    mNetworkType = networkType
+                    INSTANCE = WXRTCImpl(socketUrl, networkType)
                 }
                 return INSTANCE!!
             }
         }
 
+        @JvmStatic
+        fun createSession(config: WXRTCDef.WXRTCSessionConfig): WXRTC {
+            return WXRTCImpl(config.socketUrl, config.networkType, config.multiplexSignaling)
+        }
+
+        private fun onDestoryed(session: WXRTCImpl) {
+            synchronized(WXRTCImpl.Companion::class.java) {
+                if (INSTANCE === session) {
+                    INSTANCE = null
+                }
+            }
+        }
+
         @JvmStatic
         fun destoryInstance() {
             synchronized(WXRTCImpl.Companion::class.java) {
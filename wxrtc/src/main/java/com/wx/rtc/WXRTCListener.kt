@@ -1,5 +1,7 @@
 package com.wx.rtc
 
+import java.nio.ByteBuffer
+
 interface WXRTCListener {
     fun onError(errCode: Int, errMsg: String) {}
     fun onLogin() {}
@@ -9,10 +11,22 @@ interface WXRTCListener {
     fun onRemoteUserEnterRoom(userId: String) {}
     fun onRemoteUserLeaveRoom(userId: String, reason: Int) {}
     fun onUserVideoAvailable(userId: String, available: Boolean) {}
+    fun onUserSubStreamAvailable(userId: String, available: Boolean) {}
     fun onUserAudioAvailable(userId: String, available: Boolean) {}
     fun onRecvP2PMsg(fromUserId: String, message: String?) {}
     fun onRecvRoomMsg(userId: String, cmd: String, message: String?) {}
+
+    /**
+     * 通过数据通道收到的二进制点对点消息
+     */
+    fun onRecvP2PBinaryMsg(fromUserId: String, data: ByteBuffer) {}
+
+    /**
+     * 通过数据通道收到的二进制房间消息
+     */
+    fun onRecvRoomBinaryMsg(userId: String, cmd: String, data: ByteBuffer) {}
     fun onProcessResult(processData: WXRTCDef.ProcessData) {}
     fun onRecordStart(fileName: String) {}
     fun onRecordEnd(fileName: String) {}
+    fun onStatistics(statistics: WXRTCDef.WXRTCStatistics) {}
 }
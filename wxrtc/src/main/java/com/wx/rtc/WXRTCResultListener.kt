@@ -0,0 +1,8 @@
+package com.wx.rtc
+
+/**
+ * 异步接口的执行结果，在回调线程（默认主线程）上通知
+ */
+fun interface WXRTCResultListener {
+    fun onResult(success: Boolean)
+}
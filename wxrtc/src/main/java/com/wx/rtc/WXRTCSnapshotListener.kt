@@ -4,4 +4,9 @@ import java.io.File
 
 interface WXRTCSnapshotListener {
     fun onSnapshot(userId: String, file: File)
-}
\ No newline at end of file
+
+    /**
+     * 没有可截图的画面时回调，如该用户未在渲染
+     */
+    fun onSnapshotFailed(userId: String) {}
+}
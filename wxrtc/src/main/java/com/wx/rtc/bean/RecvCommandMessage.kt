@@ -12,6 +12,30 @@ internal class RecvCommandMessage {
     @JvmField
     var signal: String? = null
 
+    /**
+     * 多路复用时信令所属会话的 channel id
+     */
+    @JvmField
+    var channel: String? = null
+
+    /**
+     * 登录应答中服务端选定的信令编码
+     */
+    @JvmField
+    var signalCodec: String? = null
+
+    /**
+     * 登录应答中服务端是否支持批量信令
+     */
+    @JvmField
+    var batch: Boolean = false
+
+    /**
+     * 进房应答中服务端是否转发数据通道上的房间消息和点对点消息
+     */
+    @JvmField
+    var dataChannelRelay: Boolean = false
+
     @JvmField
     var publishUrl: String? = null
 
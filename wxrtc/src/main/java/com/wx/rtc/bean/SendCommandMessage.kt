@@ -0,0 +1,131 @@
+package com.wx.rtc.bean
+
+/**
+ * 上行信令，字段按添加顺序输出；直接写成 JSON 文本，或由 BinarySignalCodec 直接编码为二进制帧，不经过 JSONObject。
+ * 值可以是 String、Int、Long、Double、Boolean、null、嵌套的 SendCommandMessage 和 List
+ */
+internal class SendCommandMessage {
+    private val keys = ArrayList<String>(4)
+    private val values = ArrayList<Any?>(4)
+
+    val size: Int
+        get() = keys.size
+
+    fun keyAt(index: Int): String = keys[index]
+
+    fun valueAt(index: Int): Any? = values[index]
+
+    /**
+     * 信令名，即 signal 字段的值
+     */
+    val signal: String?
+        get() = get(SIGNAL) as? String
+
+    /**
+     * 取第一个名为 key 的字段，没有时返回 null
+     */
+    operator fun get(key: String): Any? {
+        val index = keys.indexOf(key)
+        return if (index < 0) null else values[index]
+    }
+
+    fun put(key: String, value: Any?): SendCommandMessage {
+        keys.add(key)
+        values.add(value)
+        return this
+    }
+
+    /**
+     * value 为 null 时不添加
+     */
+    fun putOpt(key: String, value: Any?): SendCommandMessage {
+        return if (value == null) this else put(key, value)
+    }
+
+    /**
+     * 返回在最前面加上 key 的副本，原信令不变，用于多路复用时带上 channel
+     */
+    fun withFirst(key: String, value: Any?): SendCommandMessage {
+        val copy = SendCommandMessage()
+        copy.keys.ensureCapacity(keys.size + 1)
+        copy.values.ensureCapacity(keys.size + 1)
+        copy.put(key, value)
+        copy.keys.addAll(keys)
+        copy.values.addAll(values)
+        return copy
+    }
+
+    fun toJson(): String {
+        val sb = StringBuilder(64)
+        appendObject(sb, this)
+        return sb.toString()
+    }
+
+    override fun toString(): String = toJson()
+
+    companion object {
+        const val SIGNAL = "signal"
+
+        fun signal(signal: String): SendCommandMessage {
+            return SendCommandMessage().put(SIGNAL, signal)
+        }
+
+        private fun appendObject(sb: StringBuilder, message: SendCommandMessage) {
+            sb.append('{')
+            for (i in 0 until message.size) {
+                if (i > 0) {
+                    sb.append(',')
+                }
+                appendString(sb, message.keys[i])
+                sb.append(':')
+                appendValue(sb, message.values[i])
+            }
+            sb.append('}')
+        }
+
+        private fun appendValue(sb: StringBuilder, value: Any?) {
+            when (value) {
+                null -> sb.append("null")
+                is String -> appendString(sb, value)
+                is Boolean, is Int, is Long, is Short, is Byte -> sb.append(value)
+                is Number -> {
+                    val d = value.toDouble()
+                    if (d.isNaN() || d.isInfinite()) sb.append("null") else sb.append(d)
+                }
+                is SendCommandMessage -> appendObject(sb, value)
+                is List<*> -> {
+                    sb.append('[')
+                    for ((index, item) in value.withIndex()) {
+                        if (index > 0) {
+                            sb.append(',')
+                        }
+                        appendValue(sb, item)
+                    }
+                    sb.append(']')
+                }
+                else -> appendString(sb, value.toString())
+            }
+        }
+
+        private fun appendString(sb: StringBuilder, value: String) {
+            sb.append('"')
+            for (c in value) {
+                when (c) {
+                    '"' -> sb.append("\\\"")
+                    '\\' -> sb.append("\\\\")
+                    '\n' -> sb.append("\\n")
+                    '\r' -> sb.append("\\r")
+                    '\t' -> sb.append("\\t")
+                    '\b' -> sb.append("\\b")
+                    '\u000C' -> sb.append("\\f")
+                    else -> if (c < ' ') {
+                        sb.append("\\u").append(String.format("%04x", c.code))
+                    } else {
+                        sb.append(c)
+                    }
+                }
+            }
+            sb.append('"')
+        }
+    }
+}
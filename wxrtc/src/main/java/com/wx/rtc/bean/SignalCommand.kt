@@ -18,7 +18,9 @@ internal annotation class SignalCommand {
         const val SEND_ROOM_MSG: String = "send_room_msg"
         const val CALL_CMD: String = "call_cmd"
         const val VIDEO_AVAILABLE: String = "video_available"
+        const val SUB_VIDEO_AVAILABLE: String = "sub_video_available"
         const val AUDIO_AVAILABLE: String = "audio_available"
+        const val BATCH: String = "batch"
 
 
         /*-------------------接受--------------*/
@@ -0,0 +1,51 @@
+package com.wx.rtc.rtc
+
+import android.util.Log
+import java.nio.ByteBuffer
+
+/**
+ * 数据通道上的二进制消息：1 字节类型 + 1 字节 key 长度 + key（UTF-8，房间消息为 cmd，点对点消息为接收方 userId）+ 数据
+ */
+internal class DataChannelMessage(val type: Int, val key: String, val data: ByteBuffer) {
+    companion object {
+        private const val TAG = "DataChannelMessage"
+        const val TYPE_ROOM = 1
+        const val TYPE_P2P = 2
+
+        fun encode(type: Int, key: String, data: ByteBuffer): ByteBuffer? {
+            val keyBytes = key.toByteArray(Charsets.UTF_8)
+            if (keyBytes.size > 0xFF) {
+                Log.e(TAG, "Key too long: $key")
+                return null
+            }
+            val buffer = ByteBuffer.allocateDirect(2 + keyBytes.size + data.remaining())
+            buffer.put(type.toByte())
+            buffer.put(keyBytes.size.toByte())
+            buffer.put(keyBytes)
+            buffer.put(data.duplicate())
+            buffer.flip()
+            return buffer
+        }
+
+        /**
+         * 解析失败返回 null；数据复制到新的 direct ByteBuffer，回调结束后仍可使用
+         */
+        fun decode(buffer: ByteBuffer): DataChannelMessage? {
+            val frame = buffer.duplicate()
+            if (frame.remaining() < 2) {
+                return null
+            }
+            val type = frame.get().toInt() and 0xFF
+            val keyLength = frame.get().toInt() and 0xFF
+            if (frame.remaining() < keyLength) {
+                return null
+            }
+            val keyBytes = ByteArray(keyLength)
+            frame.get(keyBytes)
+            val data = ByteBuffer.allocateDirect(frame.remaining())
+            data.put(frame)
+            data.flip()
+            return DataChannelMessage(type, String(keyBytes, Charsets.UTF_8), data)
+        }
+    }
+}
@@ -5,26 +5,30 @@ import android.content.Intent
 import android.media.projection.MediaProjection
 import android.os.Environment
 import android.os.ParcelFileDescriptor
+import android.os.SystemClock
 import android.util.Log
 import com.wx.rtc.WXRTCDef.WXRTCVideoEncParam
 import com.wx.rtc.utils.ActivityUtils
+import com.wx.rtc.utils.RTCRuntime
 import com.wx.rtc.utils.RTCUtils
 import com.wx.rtc.utils.RTCUtils.getVideoResolution
+import com.wx.rtc.utils.SerialLane
 import kotlinx.coroutines.CoroutineScope
-import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.cancel
 import kotlinx.coroutines.delay
 import kotlinx.coroutines.launch
-import kotlinx.coroutines.withContext
+import kotlinx.coroutines.withTimeoutOrNull
 import okhttp3.Call
 import okhttp3.Callback
 import okhttp3.MediaType.Companion.toMediaType
-import okhttp3.OkHttpClient
 import okhttp3.Request
 import okhttp3.RequestBody
 import okhttp3.RequestBody.Companion.toRequestBody
 import okhttp3.Response
 import org.webrtc.AudioSource
 import org.webrtc.AudioTrack
+import org.webrtc.BandwidthEstimateStore
 import org.webrtc.Camera1Enumerator
 import org.webrtc.Camera2Enumerator
 import org.webrtc.CameraEnumerator
@@ -34,8 +38,15 @@ import org.webrtc.DataChannel
 import org.webrtc.DefaultVideoDecoderFactory
 import org.webrtc.DefaultVideoEncoderFactory
 import org.webrtc.EglBase
+import org.webrtc.EncodedStreamRecorder
+import org.webrtc.EncodedVideoTap
+import org.webrtc.FileVideoCapturer
+import org.webrtc.GlVideoEffect
+import org.webrtc.GlVideoProcessingChain
+import org.webrtc.HardwareCodecFailureStore
 import org.webrtc.IceCandidate
 import org.webrtc.Logging
+import org.webrtc.MediaCodecCapabilityCache
 import org.webrtc.MediaConstraints
 import org.webrtc.MediaStream
 import org.webrtc.MediaStreamTrack
@@ -48,6 +59,7 @@ import org.webrtc.PeerConnection.RTCConfiguration
 import org.webrtc.PeerConnection.SdpSemantics
 import org.webrtc.PeerConnection.SignalingState
 import org.webrtc.PeerConnectionFactory
+import org.webrtc.RtpParameters
 import org.webrtc.RtpReceiver
 import org.webrtc.RtpSender
 import org.webrtc.RtpTransceiver
@@ -61,10 +73,9 @@ import org.webrtc.StatsReport
 import org.webrtc.SurfaceTextureHelper
 import org.webrtc.VideoCapturer
 import org.webrtc.VideoDecoderFactory
+import org.webrtc.VideoDecoderStats
 import org.webrtc.VideoEncoderFactory
-import org.webrtc.VideoFrame
-import org.webrtc.VideoProcessor
-import org.webrtc.VideoProcessor.FrameAdaptationParameters
+import org.webrtc.VideoEncoderStats
 import org.webrtc.VideoSink
 import org.webrtc.VideoSource
 import org.webrtc.VideoTrack
@@ -75,19 +86,13 @@ import org.webrtc.audio.JavaAudioDeviceModule.AudioTrackErrorCallback
 import org.webrtc.audio.JavaAudioDeviceModule.AudioTrackStateCallback
 import java.io.File
 import java.io.IOException
-import java.io.UnsupportedEncodingException
 import java.nio.ByteBuffer
-import java.nio.charset.Charset
 import java.text.DateFormat
 import java.text.SimpleDateFormat
-import java.util.Arrays
 import java.util.Date
 import java.util.Locale
-import java.util.Timer
-import java.util.TimerTask
-import java.util.concurrent.ExecutorService
-import java.util.concurrent.Executors
-import java.util.regex.Pattern
+import java.util.concurrent.ScheduledFuture
+import java.util.concurrent.TimeUnit
 
 
 /*
@@ -110,16 +115,23 @@ import java.util.regex.Pattern
  */
 internal class PeerConnectionClient(
     private val appContext: Context, private val rootEglBase: EglBase,
-    private val userId: String, private val sendSdpUrl: String,
-    private val isPublish: Boolean, private val events: PeerConnectionEvents
+    val userId: String, private val sendSdpUrl: String,
+    private val isPublish: Boolean, private val events: PeerConnectionEvents,
+    parentScope: CoroutineScope
 ) {
-    // Executor thread is started once in private ctor and is used for all
-    // peer connection API calls to ensure new peer connection factory is
-    // created on the same thread as previously destroyed factory.
-    private val executor: ExecutorService = Executors.newSingleThreadExecutor()
+    // All peer connection API calls run serially on this lane, so the factory
+    // and the peer connection are never used concurrently. The lane does not own
+    // a thread; the factory itself is created and disposed on RTCRuntime's
+    // factory thread to ensure new peer connection factory is created on the
+    // same thread as previously destroyed factory. Waiting for the factory
+    // thread and for capturers to stop blocks the lane, so it runs on the pool
+    // for blocking lanes and cannot stall the lanes of other components.
+    private val executor: SerialLane = RTCRuntime.newSerialLane("pc-$userId", mayBlock = true)
+    // 重试、授权等待等协程都挂在这里，close 时一并取消
+    private val scope: CoroutineScope = RTCRuntime.childScope(parentScope, "pc-$userId", executor.dispatcher)
     private val pcObserver = PCObserver()
     private val sdpObserver = SDPObserver()
-    private val statsTimer = Timer()
+    private var statsFuture: ScheduledFuture<*>? = null
     private var factory: PeerConnectionFactory? = null
     private var peerConnection: PeerConnection? = null
     private var audioSource: AudioSource? = null
@@ -154,15 +166,44 @@ internal class PeerConnectionClient(
     private var localAudioSender: RtpSender? = null
     private var localAudioTrack: AudioTrack? = null
     private var audioDeviceModule: JavaAudioDeviceModule? = null
+    // send() may come from the app thread while close() disposes the channel on the lane.
+    private val dataChannelLock = Any()
+    @Volatile
     private var dataChannel: DataChannel? = null
-    private val dataChannelEnabled = peerConnectionParameters.dataChannelParameters != null
+    // Messages waiting for bufferedAmount to drop, sent from onBufferedAmountChange in order.
+    // Guarded by dataChannelLock.
+    private val pendingDataChannelMessages = ArrayDeque<DataChannel.Buffer>()
+    private var pendingDataChannelBytes = 0L
+    // Channels opened by the remote side while we already have our own; receive only.
+    private val remoteDataChannels = ArrayList<DataChannel>()
+    var dataChannelParameters: DataChannelParameters? = peerConnectionParameters.dataChannelParameters
+    private val dataChannelEnabled: Boolean
+        get() = dataChannelParameters != null
 
     private var iceHostGet = false
     private var iceStunGet = false
     private var iceTurnGet = false
     private var iceComplete = false
 
-    private var frameVideoSink: VideoSink? = null
+    private var videoProcessingChain: GlVideoProcessingChain? = null
+    private var screenCapturePermissionJob: Job? = null
+
+    // 低延迟音频播放，需在 createPeerConnectionFactory 前设置
+    var useLowLatencyAudio = peerConnectionParameters.useLowLatencyAudio
+
+    // 辅流：推流端用第二个 SEND_ONLY 视频通道发送屏幕分享，拉流端用第二个视频通道接收；需在 startCall 前设置
+    var subStreamEnabled = false
+    private var remoteSubSink: VideoSink? = null
+    private var localSubRender: VideoSink? = null
+    private var localSubVideoSender: RtpSender? = null
+    private var remoteSubVideoTrack: VideoTrack? = null
+    private var subSurfaceTextureHelper: SurfaceTextureHelper? = null
+    private var subVideoSource: VideoSource? = null
+    private var subVideoTrack: VideoTrack? = null
+    private var subVideoCapturer: ScreenCapturerAndroid? = null
+    private var subVideoEncParam: WXRTCVideoEncParam = WXRTCVideoEncParam()
+    private var subScreenCapturePermissionJob: Job? = null
+    private val videoEffects = ArrayList<GlVideoEffect>()
 
     private var remoteAudioEnabled = true
     private var remoteAudioVolume = 100
@@ -202,6 +243,7 @@ internal class PeerConnectionClient(
         val aecDump: Boolean = false,
         val saveInputAudioToFile: Boolean = false,
         val useOpenSLES: Boolean = false,
+        val useLowLatencyAudio: Boolean = false,
         val disableBuiltInAEC: Boolean = false,
         val disableBuiltInAGC: Boolean = false,
         val disableBuiltInNS: Boolean = false,
@@ -273,7 +315,26 @@ internal class PeerConnectionClient(
          */
         fun onPeerConnectionError(pc: PeerConnectionClient, description: String)
 
+        /**
+         * Callback fired once a text message is received on the data channel.
+         */
         fun onDataChannelMessage(pc: PeerConnectionClient, message: String)
+
+        /**
+         * Callback fired once a binary message is received on the data channel. `data` is only
+         * valid during the call.
+         */
+        fun onDataChannelBinaryMessage(pc: PeerConnectionClient, data: ByteBuffer)
+
+        /**
+         * Callback fired once screen capture permission is denied or not granted in time.
+         */
+        fun onScreenCapturePermissionDenied(pc: PeerConnectionClient, isSubStream: Boolean)
+
+        /**
+         * Callback fired once screen capture on the sub stream has started.
+         */
+        fun onSubStreamScreenCaptureStarted(pc: PeerConnectionClient)
     }
 
     /**
@@ -285,6 +346,12 @@ internal class PeerConnectionClient(
         val fieldTrials = getFieldTrials(peerConnectionParameters)
         executor.execute {
             Log.d(TAG, "Initialize WebRTC. Field trials: $fieldTrials")
+            // 加载持久化的编解码能力快照，避免每次创建工厂都枚举 MediaCodecList
+            MediaCodecCapabilityCache.initialize(appContext)
+            // 加载历史硬件编解码失败记录，近期失败过的配置直接走软件编解码
+            HardwareCodecFailureStore.initialize(appContext)
+            // 加载各网络上次稳定的可用发送码率，推流时据此设置起始码率
+            BandwidthEstimateStore.initialize(appContext)
             PeerConnectionFactory.initialize(
                 PeerConnectionFactory.InitializationOptions.builder(appContext)
                     .setFieldTrials(fieldTrials)
@@ -314,9 +381,34 @@ internal class PeerConnectionClient(
 //        if (screenVideoEncParam.videoMinBitrate != param.videoMinBitrate || screenVideoEncParam.videoMaxBitrate != param.videoMaxBitrate) {
             setVideoBitrate(param.videoMinBitrate, param.videoMaxBitrate)
 //        }
+        setScreenContentMode(param.screenContentMode, param.screenContentIdleFps)
         screenVideoEncParam = param
     }
 
+    private fun setScreenContentMode(enabled: Boolean, idleFps: Int) {
+        executor.execute {
+            val capturer = videoCapturer as? ScreenCapturerAndroid ?: return@execute
+            capturer.setScreenContentMode(enabled, idleFps)
+            // 文字内容优先保证清晰度，带宽不足时降帧率而不降分辨率
+            setVideoDegradationPreference(
+                if (enabled) RtpParameters.DegradationPreference.MAINTAIN_RESOLUTION else null
+            )
+        }
+    }
+
+    private fun setVideoDegradationPreference(preference: RtpParameters.DegradationPreference?) {
+        val sender = localVideoSender ?: return
+        val parameters = sender.parameters
+        if (parameters.degradationPreference == preference) {
+            return
+        }
+        parameters.degradationPreference = preference
+        if (!sender.setParameters(parameters)) {
+            Log.e(TAG, "RtpSender.setParameters failed.")
+        }
+        Log.d(TAG, "Configured degradation preference to: $preference")
+    }
+
     /**
      * This function should only be called once.
      */
@@ -339,10 +431,11 @@ internal class PeerConnectionClient(
         }
     }
 
-    fun startCall(localRender: VideoSink?, remoteSink: VideoSink?) {
+    fun startCall(localRender: VideoSink?, remoteSink: VideoSink?, remoteSubSink: VideoSink? = null) {
         callStartedTimeMs = System.currentTimeMillis()
         this.localRender = localRender
         this.remoteSink = remoteSink
+        this.remoteSubSink = remoteSubSink
         executor.execute {
             onConnectedToRoomInternal()
 //            remoteSink?.let {
@@ -351,6 +444,24 @@ internal class PeerConnectionClient(
         }
     }
 
+    /**
+     * 当前网络有记住的稳定码率时，作为带宽估计和编码器的起始码率。只限制不超过 videoMaxBitrate，
+     * 记住的码率低于 videoMinBitrate 说明该网络带宽本来就低，不抬高到最小码率，以免开始时就拥塞
+     */
+    private fun seedStartBitrate() {
+        networkKey = BandwidthEstimateStore.getCurrentNetworkKey()
+        val rememberedKbps = BandwidthEstimateStore.getBitrateKbps(networkKey)
+        videoStartBitrate = if (rememberedKbps > 0) {
+            rememberedKbps.coerceAtMost(videoParam.videoMaxBitrate)
+        } else {
+            0
+        }
+        if (videoStartBitrate > 0) {
+            Log.d(TAG, "Start bitrate for $networkKey: $videoStartBitrate kbps, remembered $rememberedKbps kbps")
+            peerConnection!!.setBitrate(null, videoStartBitrate * BPS_IN_KBPS, null)
+        }
+    }
+
     private fun onConnectedToRoomInternal() {
         createOffer()
     }
@@ -423,7 +534,7 @@ internal class PeerConnectionClient(
         return null
     }
 
-    private fun createScreenCapturer() : VideoCapturer {
+    private fun createScreenCapturer() : ScreenCapturerAndroid {
         return ScreenCapturerAndroid(
             mediaProjectionPermissionResultData, object : MediaProjection.Callback() {
                 override fun onStop() {
@@ -442,8 +553,45 @@ internal class PeerConnectionClient(
     val isCameraOpened: Boolean
         get() = this.cameraDeviceName == null
 
+    val audioPlayoutStats: JavaAudioDeviceModule.PlayoutStats?
+        get() = audioDeviceModule?.playoutStats
+
+    // 硬件编码器的队列深度、编码耗时、丢帧等计数
+    val videoEncoderStats = VideoEncoderStats()
+
+    // 屏幕内容模式下画面未变化而跳过的帧数
+    val screenContentSkippedFrames: Long
+        get() = (videoCapturer as? ScreenCapturerAndroid)?.numSkippedFrames ?: 0
+
+    // 硬件解码器的解码耗时、队列深度直方图
+    val videoDecoderStats = VideoDecoderStats()
+
+    // 推流时按当前网络记住的码率设置的起始码率（kbps），0 表示没有记录，使用 WebRTC 默认值
+    var videoStartBitrate = 0
+        private set
+
+    // 当前 ICE 候选对的往返时延（毫秒），数据通道与音视频走同一传输；-1 表示还没有统计
+    @Volatile
+    var transportRttMs = -1
+        private set
+
+    // 连接后可用发送码率首次达到 videoMinBitrate 的耗时（毫秒），-1 表示尚未达到
+    val timeToTargetBitrateMs: Long
+        get() = bandwidthTracker?.timeToTargetMs ?: -1
+
+    private var networkKey: String? = null
+    private var bandwidthTracker: BandwidthEstimateStore.Tracker? = null
+
+    // 硬件编码器输出的码流，本地录制时直接写文件，不再二次编码；需在 createPeerConnectionFactory 前设置
+    var encodedVideoTap: EncodedVideoTap? = null
+
+    // 本地录制，同时接收麦克风采集的 PCM
+    @Volatile
+    var encodedStreamRecorder: EncodedStreamRecorder? = null
+
     private fun createPeerConnectionFactoryInternal(options: PeerConnectionFactory.Options?) {
         isError = false
+        val factoryStartTimeMs = SystemClock.elapsedRealtime()
         if (peerConnectionParameters.tracing) {
             PeerConnectionFactory.startInternalTracingCapture(
                 Environment.getExternalStorageDirectory().absolutePath + File.separator
@@ -477,21 +625,29 @@ internal class PeerConnectionClient(
         val decoderFactory: VideoDecoderFactory
         if (peerConnectionParameters.videoCodecHwAcceleration) {
             encoderFactory = DefaultVideoEncoderFactory(
-                rootEglBase.eglBaseContext, false,  /* enableIntelVp8Encoder */enableH264HighProfile
+                rootEglBase.eglBaseContext, false,  /* enableIntelVp8Encoder */enableH264HighProfile,
+                videoEncoderStats, encodedVideoTap
             )
-            decoderFactory = DefaultVideoDecoderFactory(rootEglBase.eglBaseContext)
+            decoderFactory = DefaultVideoDecoderFactory(rootEglBase.eglBaseContext, videoDecoderStats)
         } else {
             encoderFactory = SoftwareVideoEncoderFactory()
             decoderFactory = SoftwareVideoDecoderFactory()
         }
-        factory = PeerConnectionFactory.builder()
-            .setOptions(options)
-            .setAudioDeviceModule(audioDeviceModule)
-            .setVideoEncoderFactory(encoderFactory)
-            .setVideoDecoderFactory(decoderFactory)
-            .createPeerConnectionFactory()
+        factory = RTCRuntime.runOnFactoryThread {
+            PeerConnectionFactory.builder()
+                .setOptions(options)
+                .setAudioDeviceModule(audioDeviceModule)
+                .setVideoEncoderFactory(encoderFactory)
+                .setVideoDecoderFactory(decoderFactory)
+                .createPeerConnectionFactory()
+        }
 
-        Log.d(TAG, "Peer connection factory created.")
+        val factoryCreateTimeMs = SystemClock.elapsedRealtime() - factoryStartTimeMs
+        val codecSource = if (MediaCodecCapabilityCache.isLoadedFromStorage()) "loaded" else "probed"
+        Log.d(
+            TAG, "Peer connection factory created in $factoryCreateTimeMs ms, codec capabilities " +
+                    "$codecSource in ${MediaCodecCapabilityCache.getLastLoadTimeMs()} ms"
+        )
 
         //        adm.release();
         val iceCandidates: List<IceCandidate> = ArrayList()
@@ -572,10 +728,20 @@ internal class PeerConnectionClient(
             }
         }
 
+        // 设置回调后每 10ms 会拷贝一次采集数据，只在推流端设置
+        val samplesReadyCallback = if (isPublish) {
+            JavaAudioDeviceModule.SamplesReadyCallback { samples ->
+                encodedStreamRecorder?.onWebRtcAudioRecordSamplesReady(samples)
+            }
+        } else {
+            null
+        }
+
         return JavaAudioDeviceModule.builder(appContext)
-//                .setSamplesReadyCallback(saveRecordedAudioToFile)
+            .setSamplesReadyCallback(samplesReadyCallback)
             .setUseHardwareAcousticEchoCanceler(!peerConnectionParameters.disableBuiltInAEC)
             .setUseHardwareNoiseSuppressor(!peerConnectionParameters.disableBuiltInNS)
+            .setUseLowLatency(useLowLatencyAudio)
             .setAudioRecordErrorCallback(audioRecordErrorCallback)
             .setAudioTrackErrorCallback(audioTrackErrorCallback)
             .setAudioRecordStateCallback(audioRecordStateCallback)
@@ -638,55 +804,24 @@ internal class PeerConnectionClient(
         //        rtcConfig.networkPreference = PeerConnection.AdapterType.CELLULAR;
 //        rtcConfig.disableIpv6 = true;
         peerConnection = factory!!.createPeerConnection(rtcConfig, pcObserver)
+        if (isPublish) {
+            seedStartBitrate()
+        }
         if (dataChannelEnabled) {
+            val parameters = dataChannelParameters!!
             val init = DataChannel.Init().apply {
-                ordered = peerConnectionParameters.dataChannelParameters!!.ordered
-                negotiated = peerConnectionParameters.dataChannelParameters.negotiated
-                maxRetransmits = peerConnectionParameters.dataChannelParameters.maxRetransmits
-                maxRetransmitTimeMs = peerConnectionParameters.dataChannelParameters.maxRetransmitTimeMs
-                id = peerConnectionParameters.dataChannelParameters.id
-                protocol = peerConnectionParameters.dataChannelParameters.protocol
-            }
-            dataChannel = peerConnection!!.createDataChannel("ApprtcDemo data", init)
-
-            dataChannel?.registerObserver(object : DataChannel.Observer {
-                override fun onBufferedAmountChange(previousAmount: Long) {
-                    Log.d(
-                        TAG,
-                        "Data channel buffered amount changed: " + dataChannel?.label() + ": " + dataChannel?.state()
-                    )
-                }
-
-                override fun onStateChange() {
-                    if (dataChannel == null) {
-                        return
-                    }
-                    Log.d(
-                        TAG,
-                        "Data channel state changed: " + dataChannel!!.label() + ": " + dataChannel!!.state()
-                    )
-                    if (dataChannel!!.state() == DataChannel.State.OPEN) {
-                        CoroutineScope(Dispatchers.Main).launch {
-                            delay(10L)
-                            sendMessage("hello world")
-                        }
-                    }
-                }
-
-                override fun onMessage(buffer: DataChannel.Buffer) {
-                    if (buffer.binary) {
-                        Log.d(TAG, "Received binary msg over $dataChannel")
-                        return
-                    }
-                    val data = buffer.data
-                    val bytes = ByteArray(data.capacity())
-                    data[bytes]
-                    val strData = String(bytes, Charset.forName("UTF-8"))
-                    Log.d(TAG, "Data channel Got msg: " + strData + " over " + dataChannel?.label())
-
-                    events.onDataChannelMessage(this@PeerConnectionClient, strData)
-                }
-            })
+                ordered = parameters.ordered
+                negotiated = parameters.negotiated
+                maxRetransmits = parameters.maxRetransmits
+                maxRetransmitTimeMs = parameters.maxRetransmitTimeMs
+                id = parameters.id
+                protocol = parameters.protocol
+            }
+            val channel = peerConnection!!.createDataChannel(DATA_CHANNEL_LABEL, init)
+            synchronized(dataChannelLock) {
+                dataChannel = channel
+            }
+            observeDataChannel(channel)
         }
         isInitiator = false
         // Set INFO libjingle logging.
@@ -696,6 +831,13 @@ internal class PeerConnectionClient(
         if (isPublish) {
             localVideoSender = peerConnection!!.addTransceiver(MediaStreamTrack.MediaType.MEDIA_TYPE_VIDEO, RtpTransceiverInit(RtpTransceiver.RtpTransceiverDirection.SEND_ONLY, mediaStreamLabels)).sender
             localAudioSender = peerConnection!!.addTransceiver(MediaStreamTrack.MediaType.MEDIA_TYPE_AUDIO, RtpTransceiverInit(RtpTransceiver.RtpTransceiverDirection.SEND_ONLY, mediaStreamLabels)).sender
+            if (subStreamEnabled) {
+                // 辅流在 SDP 中是第二个视频 m-line，与主流分别编码、分别设置码率
+                localSubVideoSender = peerConnection!!.addTransceiver(MediaStreamTrack.MediaType.MEDIA_TYPE_VIDEO, RtpTransceiverInit(RtpTransceiver.RtpTransceiverDirection.SEND_ONLY, listOf(SUB_STREAM_LABEL))).sender
+                subVideoTrack?.let {
+                    localSubVideoSender?.setTrack(it, false)
+                }
+            }
 //            peerConnection!!.addTrack(createVideoTrack(false), mediaStreamLabels)
 //            peerConnection!!.addTrack(createAudioTrack(), mediaStreamLabels)
 
@@ -715,7 +857,12 @@ internal class PeerConnectionClient(
             // answer to get the remote track.
 //            remoteVideoTrack = getRemoteVideoTrack();
             remoteVideoTrack!!.setEnabled(true)
-            remoteVideoTrack!!.addSink(remoteSink)
+            remoteSink?.let { remoteVideoTrack!!.addSink(it) }
+            if (subStreamEnabled) {
+                remoteSubVideoTrack = peerConnection!!.addTransceiver(MediaStreamTrack.MediaType.MEDIA_TYPE_VIDEO, RtpTransceiverInit(RtpTransceiver.RtpTransceiverDirection.RECV_ONLY)).receiver.track() as VideoTrack?
+                remoteSubVideoTrack?.setEnabled(true)
+                remoteSubSink?.let { remoteSubVideoTrack?.addSink(it) }
+            }
         }
 
         if (peerConnectionParameters.aecDump) {
@@ -758,13 +905,26 @@ internal class PeerConnectionClient(
 
     private fun closeInternal() {
         isClosing = true
+        screenCapturePermissionJob?.cancel()
+        screenCapturePermissionJob = null
+        subScreenCapturePermissionJob?.cancel()
+        subScreenCapturePermissionJob = null
         if (peerConnectionParameters.aecDump) {
             factory?.stopAecDump()
         }
         Log.d(TAG, "Closing peer connection.")
-        statsTimer.cancel()
-        dataChannel?.dispose()
-        dataChannel = null
+        statsFuture?.cancel(false)
+        statsFuture = null
+        scope.cancel()
+        synchronized(dataChannelLock) {
+            dataChannel?.dispose()
+            dataChannel = null
+            clearPendingDataChannelMessages()
+        }
+        for (channel in remoteDataChannels) {
+            channel.dispose()
+        }
+        remoteDataChannels.clear()
         Log.d(TAG, "Closing audio source.")
         audioSource?.dispose()
         audioSource = null
@@ -781,23 +941,39 @@ internal class PeerConnectionClient(
         Log.d(TAG, "Closing video source.")
         videoSource?.dispose()
         videoSource = null
+        videoProcessingChain?.release()
+        videoProcessingChain = null
         surfaceTextureHelper?.dispose()
         surfaceTextureHelper = null
         localRender = null
+        subVideoCapturer?.let {
+            it.stopCapture()
+            it.dispose()
+        }
+        subVideoCapturer = null
+        subVideoSource?.dispose()
+        subVideoSource = null
+        subSurfaceTextureHelper?.dispose()
+        subSurfaceTextureHelper = null
+        localSubRender = null
         peerConnection?.dispose()
         peerConnection = null
         localVideoSender = null
         localAudioSender = null
+        localSubVideoSender = null
+        subVideoTrack = null
+        remoteSubVideoTrack = null
         localVideoTrack = null
         localAudioTrack = null
         Log.d(TAG, "Closing peer connection factory.")
-        factory?.dispose()
+        factory?.let { RTCRuntime.runOnFactoryThread { it.dispose() } }
         factory = null
         //        rootEglBase.release();
         Log.d(TAG, "Closing peer connection done.")
         events.onPeerConnectionClosed(this)
         PeerConnectionFactory.stopInternalTracingCapture()
         PeerConnectionFactory.shutdownInternalTracer()
+        executor.shutdown()
     }
 
     private val stats: Unit
@@ -806,6 +982,10 @@ internal class PeerConnectionClient(
                 return
             }
             val success = peerConnection!!.getStats({ reports ->
+                transportRttMs = getTransportRttMs(reports) ?: -1
+                bandwidthTracker?.let { tracker ->
+                    getAvailableSendBitrateKbps(reports)?.let { tracker.onAvailableSendBitrate(it) }
+                }
                 events.onPeerConnectionStatsReady(
                     this@PeerConnectionClient,
                     reports
@@ -816,25 +996,53 @@ internal class PeerConnectionClient(
             }
         }
 
+    private fun getAvailableSendBitrateKbps(reports: Array<StatsReport>): Int? {
+        for (report in reports) {
+            if (report.id != "bweforvideo") {
+                continue
+            }
+            for (value in report.values) {
+                if (value.name == "googAvailableSendBandwidth") {
+                    return value.value.toIntOrNull()?.let { it / BPS_IN_KBPS }
+                }
+            }
+        }
+        return null
+    }
+
+    private fun getTransportRttMs(reports: Array<StatsReport>): Int? {
+        for (report in reports) {
+            if (report.type != "googCandidatePair") {
+                continue
+            }
+            var active = false
+            var rtt: Int? = null
+            for (value in report.values) {
+                when (value.name) {
+                    "googActiveConnection" -> active = value.value == "true"
+                    "googRtt" -> rtt = value.value.toIntOrNull()
+                }
+            }
+            if (active) {
+                return rtt
+            }
+        }
+        return null
+    }
+
     private fun enableStatsEvents(enable: Boolean, periodMs: Int) {
+        statsFuture?.cancel(false)
+        statsFuture = null
         if (enable) {
-            try {
-                statsTimer.schedule(object : TimerTask() {
-                    override fun run() {
-                        executor.execute { stats }
-                    }
-                }, 0, periodMs.toLong())
-            } catch (e: Exception) {
-                Log.e(TAG, "Can not schedule statistics timer", e)
-            }
-        } else {
-            statsTimer.cancel()
+            statsFuture = RTCRuntime.scheduler.scheduleAtFixedRate(
+                { executor.execute { stats } }, 0, periodMs.toLong(), TimeUnit.MILLISECONDS
+            )
         }
     }
 
     private fun sendOfferSdp(sdp: SessionDescription) {
         val sdpDes = sdp.description
-        val client = OkHttpClient()
+        val client = RTCRuntime.httpClient
 
         val body: RequestBody = sdpDes.toRequestBody("application/sdp".toMediaType())
         val requst: Request = Request.Builder()
@@ -845,7 +1053,7 @@ internal class PeerConnectionClient(
         client.newCall(requst).enqueue(object : Callback {
             override fun onFailure(call: Call, e: IOException) {
                 Log.e(TAG, "$sendSdpUrl onFailure: $e")
-                CoroutineScope(Dispatchers.IO).launch {
+                scope.launch {
                     delay(1000L)
                     Log.e(TAG, "sendOfferSdp onResponse unsuccess sendOfferSdp")
                     sendOfferSdp(sdp)
@@ -867,13 +1075,13 @@ internal class PeerConnectionClient(
                     if (response.code == 502 && isPublish) {
                         Log.e(TAG, "sendOfferSdp 502 deletePublish")
                         deletePublish({
-                            CoroutineScope(Dispatchers.IO).launch {
+                            scope.launch {
                                 delay(200L)
                                 sendOfferSdp(sdp)
                             }
                         })
                     }else{
-                        CoroutineScope(Dispatchers.IO).launch {
+                        scope.launch {
                             delay(1000L)
                             Log.e(TAG, "sendOfferSdp onResponse unsuccess sendOfferSdp")
                             sendOfferSdp(sdp)
@@ -886,7 +1094,7 @@ internal class PeerConnectionClient(
 
     private fun deletePublish(successBlock: (()->Unit)? = null, failureBlock: (()->Unit)? = null) {
         unpublishUrl?.let{ url ->
-            val client = OkHttpClient()
+            val client = RTCRuntime.httpClient
 
             val requst: Request = Request.Builder()
                 .url(url)
@@ -896,7 +1104,7 @@ internal class PeerConnectionClient(
                 override fun onFailure(call: Call, e: IOException) {
                     Log.e(TAG, "deletePublish onFailure: $e")
                     failureBlock?.invoke()
-                    CoroutineScope(Dispatchers.IO).launch {
+                    scope.launch {
                         delay(1000L)
                         Log.e(TAG, "deletePublish onFailure deletePublish")
                         deletePublish(successBlock, failureBlock)
@@ -910,7 +1118,7 @@ internal class PeerConnectionClient(
                         successBlock?.invoke()
                     } else {
                         failureBlock?.invoke()
-                        CoroutineScope(Dispatchers.IO).launch {
+                        scope.launch {
                             delay(1000L)
                             Log.e(TAG, "deletePublish onFailure deletePublish")
                             deletePublish(successBlock, failureBlock)
@@ -919,7 +1127,7 @@ internal class PeerConnectionClient(
                 }
             })
         } ?: let {
-            CoroutineScope(Dispatchers.IO).launch {
+            scope.launch {
                 delay(1000L)
                 deletePublish(successBlock, failureBlock)
             }
@@ -1075,26 +1283,30 @@ internal class PeerConnectionClient(
             if (peerConnection == null || isError) {
                 return@execute
             }
-            var sdpDescription = sdp.description
+            val transforms = ArrayList<SdpTransform>()
             if (preferIsac) {
-                sdpDescription = preferCodec(sdpDescription, AUDIO_CODEC_ISAC, true)
+                transforms.add(SdpTransforms.preferCodec(SdpMediaSection.AUDIO, AUDIO_CODEC_ISAC))
             }
             if (isPublish) {
-                sdpDescription =
-                    preferCodec(
-                        sdpDescription,
-                        getSdpVideoCodecName(peerConnectionParameters),
-                        false
+                transforms.add(SdpTransforms.preferCodec(SdpMediaSection.VIDEO, getSdpVideoCodecName(peerConnectionParameters)))
+            }
+            if (isPublish && videoStartBitrate > 0) {
+                transforms.add(
+                    SdpTransforms.codecParameter(
+                        SdpMediaSection.VIDEO, getSdpVideoCodecName(peerConnectionParameters),
+                        VIDEO_CODEC_PARAM_START_BITRATE, videoStartBitrate.toString()
                     )
+                )
             }
             if (peerConnectionParameters.audioStartBitrate > 0) {
-                sdpDescription = setStartBitrate(
-                    AUDIO_CODEC_OPUS,
-                    false,
-                    sdpDescription,
-                    peerConnectionParameters.audioStartBitrate
+                transforms.add(
+                    SdpTransforms.codecParameter(
+                        SdpMediaSection.AUDIO, AUDIO_CODEC_OPUS, AUDIO_CODEC_PARAM_BITRATE,
+                        (peerConnectionParameters.audioStartBitrate * 1000).toString()
+                    )
                 )
             }
+            val sdpDescription = SdpSession.parse(sdp.description).apply(transforms).toString()
             Log.d(TAG, "Set remote SDP.")
             val sdpRemote = SessionDescription(sdp.type, sdpDescription)
             peerConnection!!.setRemoteDescription(sdpObserver, sdpRemote)
@@ -1120,6 +1332,12 @@ internal class PeerConnectionClient(
                             it.stopCapture()
                         } catch (e: InterruptedException) {
                         }
+                        if (it is FileVideoCapturer) {
+                            it.dispose()
+                        }
+                        if (it is ScreenCapturerAndroid) {
+                            setVideoDegradationPreference(null)
+                        }
                     }
                 }
 
@@ -1137,6 +1355,46 @@ internal class PeerConnectionClient(
         }
     }
 
+    /**
+     * 用 y4m 文件代替摄像头推流，fps 为 0 时使用编码参数的帧率
+     */
+    fun startFileVideoSource(filePath: String, fps: Int, loop: Boolean) {
+        executor.execute {
+            val track = createVideoTrack(false)
+            localVideoSender?.let { sender->
+                if (track != sender.track()) {
+                    sender.setTrack(track, true)
+                }
+            }
+
+            videoCapturer?.let {
+                try {
+                    it.stopCapture()
+                } catch (e: InterruptedException) {
+                }
+                if (it is FileVideoCapturer) {
+                    it.dispose()
+                }
+            }
+
+            this.videoCapturer = try {
+                FileVideoCapturer(filePath, fps, loop)
+            } catch (e: IOException) {
+                Log.e(TAG, "Failed to open video file $filePath", e)
+                null
+            }?.apply {
+                initialize(
+                    surfaceTextureHelper,
+                    appContext,
+                    videoSource!!.capturerObserver
+                )
+                Log.d(TAG, "Start file video source.")
+                val size = RTCUtils.getVideoResolution(videoParam.videoResolution)
+                startCapture(size.width, size.height, videoParam.videoFps)
+            }
+        }
+    }
+
     fun stopVideoSource() {
         executor.execute {
             if (videoCapturer != null && !videoCapturerStopped) {
@@ -1243,31 +1501,22 @@ internal class PeerConnectionClient(
         localVideoTrack?.setEnabled(true)
         localVideoTrack?.addSink(localRender)
 
-        videoSource?.setVideoProcessor(object : VideoProcessor {
-            override fun onFrameCaptured(frame: VideoFrame, parameters: FrameAdaptationParameters) {
-//                applyFrameAdaptationParameters(frame, parameters)?.let {
-//                    this.onFrameCaptured(it)
-//                    it.release()
-//                }
-                this.onFrameCaptured(frame)
-            }
-
-            override fun setSink(videoSink: VideoSink?) {
-                frameVideoSink = videoSink
-            }
-
-            override fun onCapturerStarted(b: Boolean) {
+        // 先按适配参数裁剪缩放，再在 GPU 上依次处理，不在 Java 层转换 I420
+        videoProcessingChain?.release()
+        videoProcessingChain = object : GlVideoProcessingChain(surfaceTextureHelper!!) {
+            override fun onCapturerStarted(success: Boolean) {
                 videoCapturerStopped = false
             }
 
             override fun onCapturerStopped() {
                 videoCapturerStopped = true
             }
-
-            override fun onFrameCaptured(videoFrame: VideoFrame) {
-                frameVideoSink?.onFrame(videoFrame)
+        }.apply {
+            for (effect in videoEffects) {
+                addEffect(effect)
             }
-        })
+        }
+        videoSource?.setVideoProcessor(videoProcessingChain)
         return localVideoTrack
     }
 
@@ -1311,6 +1560,20 @@ internal class PeerConnectionClient(
         }
     }
 
+    fun addVideoEffect(effect: GlVideoEffect) {
+        executor.execute {
+            videoEffects.add(effect)
+            videoProcessingChain?.addEffect(effect)
+        }
+    }
+
+    fun removeVideoEffect(effect: GlVideoEffect) {
+        executor.execute {
+            videoEffects.remove(effect)
+            videoProcessingChain?.removeEffect(effect)
+        }
+    }
+
     fun switchCamera() {
         executor.execute { this.switchCameraInternal() }
     }
@@ -1347,52 +1610,173 @@ internal class PeerConnectionClient(
             } catch (e: InterruptedException) {
             }
 
-            if (mediaProjectionPermissionResultData != null) {
-                this.videoCapturer = createScreenCapturer().apply {
-                    initialize(
-                        surfaceTextureHelper,
-                        appContext,
-                        videoSource!!.capturerObserver
-                    )
-                    Log.d(TAG, "Restart video source.")
-                    val size = RTCUtils.getVideoResolution(screenVideoEncParam.videoResolution)
-                    startCapture(size.width, size.height, screenVideoEncParam.videoFps)
+            // 授权前就创建并初始化采集器，授权后直接开始采集
+            val capturer = createScreenCapturer().apply {
+                initialize(
+                    surfaceTextureHelper,
+                    appContext,
+                    videoSource!!.capturerObserver
+                )
+            }
+            videoCapturer?.dispose()
+            this.videoCapturer = capturer
 
-                    setScreenEncParamCapture(screenVideoEncParam)
+            screenCapturePermissionJob?.cancel()
+            screenCapturePermissionJob = requestScreenCapturePermission(
+                false, { videoCapturer !== capturer }) { permissionData ->
+                startScreenCapturer(capturer, permissionData)
+            }
+        }
+    }
+
+    /**
+     * 已有录屏授权时直接在 executor 上执行 onGranted，否则弹出授权框并返回等待授权的 Job；
+     * 授权返回时已关闭或 isStale 为 true 则丢弃结果，拒绝或超时通过 onScreenCapturePermissionDenied 通知
+     */
+    private fun requestScreenCapturePermission(
+        isSubStream: Boolean, isStale: () -> Boolean, onGranted: (Intent) -> Unit
+    ): Job? {
+        mediaProjectionPermissionResultData?.let {
+            onGranted(it)
+            return null
+        }
+        val activity = ActivityUtils.getTopActivity()
+        if (activity == null) {
+            Log.e(TAG, "No activity to request screen capture permission")
+            events.onScreenCapturePermissionDenied(this, isSubStream)
+            return null
+        }
+        val permissionResult = WXScreenCaptureAssistantActivity.requestPermission(activity)
+        return scope.launch {
+            val data = withTimeoutOrNull(SCREEN_CAPTURE_PERMISSION_TIMEOUT_MS) {
+                permissionResult.await()
+            }
+            executor.execute {
+                // 等待期间已关闭或切换了视频源
+                if (isClosing || isStale()) {
+                    return@execute
                 }
-            } else {
-                ActivityUtils.getTopActivity()?.let {
-                    it.startActivity(Intent(it, WXScreenCaptureAssistantActivity::class.java))
-
-                    CoroutineScope(Dispatchers.IO).launch {
-                        while (true) {
-                            delay(100L)
-                            if (mediaProjectionPermissionResultData != null) {
-                                Log.d(TAG, "WXScreenCaptureAssistantActivity mediaProjectionPermissionResultData")
-
-                                withContext(Dispatchers.Main) {
-                                    this@PeerConnectionClient.videoCapturer = createScreenCapturer().apply {
-                                        initialize(
-                                            surfaceTextureHelper,
-                                            appContext,
-                                            videoSource!!.capturerObserver
-                                        )
-                                        Log.d(TAG, "Restart video source.")
-                                        val size = RTCUtils.getVideoResolution(screenVideoEncParam.videoResolution)
-                                        startCapture(size.width, size.height, screenVideoEncParam.videoFps)
-
-                                        setScreenEncParamCapture(screenVideoEncParam)
-                                    }
-                                }
-                                break
-                            }
-                        }
-                    }
+                if (data == null) {
+                    Log.w(TAG, "Screen capture permission denied or timed out")
+                    events.onScreenCapturePermissionDenied(this@PeerConnectionClient, isSubStream)
+                    return@execute
                 }
+                Log.d(TAG, "WXScreenCaptureAssistantActivity mediaProjectionPermissionResultData")
+                mediaProjectionPermissionResultData = data
+                onGranted(data)
+            }
+        }
+    }
+
+    /**
+     * 在辅流上分享屏幕，主流的摄像头不受影响；与主流屏幕分享不能同时进行
+     */
+    fun startSubStreamScreenCapture(localSubRender: VideoSink?) {
+        executor.execute {
+            if (localSubVideoSender == null) {
+                Log.w(TAG, "Sub stream is not enabled.")
+                return@execute
+            }
+            this.localSubRender = localSubRender
+            if (subVideoTrack == null) {
+                subSurfaceTextureHelper =
+                    SurfaceTextureHelper.create("SubCaptureThread", rootEglBase.eglBaseContext)
+                subVideoSource = factory!!.createVideoSource(true)
+                subVideoTrack = factory!!.createVideoTrack(SUB_VIDEO_TRACK_ID, subVideoSource)
+                localSubVideoSender?.setTrack(subVideoTrack, false)
+            }
+            subVideoTrack?.setEnabled(true)
+            subVideoTrack?.removeSink(localSubRenderSink)
+            subVideoTrack?.addSink(localSubRenderSink)
+
+            subVideoCapturer?.let {
+                it.stopCapture()
+                it.dispose()
+            }
+            // 授权前就创建并初始化采集器，授权后直接开始采集
+            val capturer = createScreenCapturer().apply {
+                initialize(
+                    subSurfaceTextureHelper,
+                    appContext,
+                    subVideoSource!!.capturerObserver
+                )
+            }
+            subVideoCapturer = capturer
+
+            subScreenCapturePermissionJob?.cancel()
+            subScreenCapturePermissionJob = requestScreenCapturePermission(
+                true, { subVideoCapturer !== capturer }) { permissionData ->
+                capturer.setMediaProjectionPermissionResultData(permissionData)
+                val size = RTCUtils.getVideoResolution(subVideoEncParam.videoResolution)
+                capturer.startCapture(size.width, size.height, subVideoEncParam.videoFps)
+                applySubStreamEncParam()
+                events.onSubStreamScreenCaptureStarted(this)
             }
         }
     }
 
+    fun stopSubStreamScreenCapture() {
+        executor.execute {
+            subScreenCapturePermissionJob?.cancel()
+            subScreenCapturePermissionJob = null
+            subVideoCapturer?.let {
+                it.stopCapture()
+                it.dispose()
+            }
+            subVideoCapturer = null
+            subVideoTrack?.removeSink(localSubRenderSink)
+            subVideoTrack?.setEnabled(false)
+            localSubRender = null
+        }
+    }
+
+    /**
+     * 辅流的分辨率、帧率、码率，与主流分别设置
+     */
+    fun setSubStreamEncParam(param: WXRTCVideoEncParam) {
+        executor.execute {
+            subVideoEncParam = param
+            applySubStreamEncParam()
+        }
+    }
+
+    private fun applySubStreamEncParam() {
+        val param = subVideoEncParam
+        subVideoCapturer?.let {
+            val size = getVideoResolution(param.videoResolution)
+            it.changeCaptureFormat(size.width, size.height, param.videoFps)
+            it.setScreenContentMode(param.screenContentMode, param.screenContentIdleFps)
+        }
+        val sender = localSubVideoSender ?: return
+        val parameters = sender.parameters
+        if (parameters.encodings.size == 0) {
+            Log.w(TAG, "Sub stream RtpParameters are not ready.")
+            return
+        }
+        for (encoding in parameters.encodings) {
+            encoding.maxBitrateBps = param.videoMaxBitrate * BPS_IN_KBPS
+            encoding.minBitrateBps = param.videoMinBitrate * BPS_IN_KBPS
+            // 带宽不足时优先保证共享内容
+            encoding.bitratePriority = SUB_STREAM_BITRATE_PRIORITY
+        }
+        parameters.degradationPreference = RtpParameters.DegradationPreference.MAINTAIN_RESOLUTION
+        if (!sender.setParameters(parameters)) {
+            Log.e(TAG, "Sub stream RtpSender.setParameters failed.")
+        }
+    }
+
+    // 本地辅流预览，可随时切换目标
+    private val localSubRenderSink = VideoSink { frame -> localSubRender?.onFrame(frame) }
+
+    private fun startScreenCapturer(capturer: ScreenCapturerAndroid, permissionData: Intent) {
+        capturer.setMediaProjectionPermissionResultData(permissionData)
+        Log.d(TAG, "Restart video source.")
+        val size = RTCUtils.getVideoResolution(screenVideoEncParam.videoResolution)
+        capturer.startCapture(size.width, size.height, screenVideoEncParam.videoFps)
+
+        setScreenEncParamCapture(screenVideoEncParam)
+    }
+
     fun stopScreenCapture() {
         executor.execute {
             if (localVideoSender == null) {
@@ -1427,21 +1811,92 @@ internal class PeerConnectionClient(
         }
     }
 
-    fun sendMessage(message: String) {
-        if (dataChannel == null) {
-            return
+    val isDataChannelOpen: Boolean
+        get() = dataChannel?.state() == DataChannel.State.OPEN
+
+    /**
+     * Sends `data` without copying it. Returns false only if the channel is not open, so the caller
+     * can use signaling instead. While more than MAX_DATA_CHANNEL_BUFFERED_AMOUNT bytes are
+     * buffered, messages are queued here and sent in order as the buffer drains; they never switch
+     * to signaling, which would reorder them. Messages beyond MAX_PENDING_DATA_CHANNEL_BYTES are
+     * dropped.
+     */
+    fun sendDataChannelMessage(data: ByteBuffer, binary: Boolean): Boolean {
+        synchronized(dataChannelLock) {
+            val channel = dataChannel ?: return false
+            if (channel.state() != DataChannel.State.OPEN) {
+                return false
+            }
+            if (pendingDataChannelBytes + data.remaining() > MAX_PENDING_DATA_CHANNEL_BYTES) {
+                Log.e(TAG, "Data channel send queue is full, dropping a message of ${data.remaining()} bytes")
+                return true
+            }
+            pendingDataChannelMessages.addLast(DataChannel.Buffer(data, binary))
+            pendingDataChannelBytes += data.remaining()
+            sendPendingDataChannelMessages(channel)
+            return true
         }
+    }
 
-        var returnBuffer: DataChannel.Buffer? = null
-        try {
-            returnBuffer =
-                DataChannel.Buffer(ByteBuffer.wrap(message.toByteArray(charset("UTF-8"))), false)
-        } catch (e: UnsupportedEncodingException) {
-            e.printStackTrace()
+    private fun sendPendingDataChannelMessages(channel: DataChannel) {
+        while (true) {
+            val message = pendingDataChannelMessages.firstOrNull() ?: return
+            val size = message.data.remaining()
+            val buffered = channel.bufferedAmount()
+            // A message larger than the limit still goes out once the buffer is empty.
+            if (buffered > 0 && buffered + size > MAX_DATA_CHANNEL_BUFFERED_AMOUNT) {
+                return
+            }
+            pendingDataChannelMessages.removeFirst()
+            pendingDataChannelBytes -= size
+            if (!channel.send(message)) {
+                Log.e(TAG, "Data channel send failed, message of $size bytes lost")
+            }
         }
-        returnBuffer?.let {
-            dataChannel!!.send(it)
+    }
+
+    private fun clearPendingDataChannelMessages() {
+        if (pendingDataChannelMessages.isNotEmpty()) {
+            Log.w(TAG, "Dropping ${pendingDataChannelMessages.size} queued data channel messages")
         }
+        pendingDataChannelMessages.clear()
+        pendingDataChannelBytes = 0
+    }
+
+    private fun observeDataChannel(channel: DataChannel) {
+        channel.registerObserver(object : DataChannel.Observer {
+            override fun onBufferedAmountChange(previousAmount: Long) {
+                executor.execute {
+                    synchronized(dataChannelLock) {
+                        if (channel === dataChannel && channel.state() == DataChannel.State.OPEN) {
+                            sendPendingDataChannelMessages(channel)
+                        }
+                    }
+                }
+            }
+
+            override fun onStateChange() {
+                Log.d(TAG, "Data channel state changed: " + channel.label() + ": " + channel.state())
+                if (channel.state() == DataChannel.State.CLOSING || channel.state() == DataChannel.State.CLOSED) {
+                    executor.execute {
+                        synchronized(dataChannelLock) {
+                            if (channel === dataChannel) {
+                                clearPendingDataChannelMessages()
+                            }
+                        }
+                    }
+                }
+            }
+
+            override fun onMessage(buffer: DataChannel.Buffer) {
+                // buffer.data is only valid during this call.
+                if (buffer.binary) {
+                    events.onDataChannelBinaryMessage(this@PeerConnectionClient, buffer.data)
+                } else {
+                    events.onDataChannelMessage(this@PeerConnectionClient, Charsets.UTF_8.decode(buffer.data).toString())
+                }
+            }
+        })
     }
 
     // Implementation detail: observe ICE & stream changes and react accordingly.
@@ -1466,12 +1921,11 @@ internal class PeerConnectionClient(
                 }
                 if (iceHostGet && (iceStunGet || iceTurnGet) && !iceComplete) {
                     iceComplete = true
-                    CoroutineScope(Dispatchers.Main).launch {
+                    scope.launch {
                         delay(1000L)
-                        sendOfferSdp(peerConnection!!.localDescription)
-                        events.onIceGatheringComplete(
-                            this@PeerConnectionClient, peerConnection!!.localDescription
-                        )
+                        val localDescription = peerConnection?.localDescription ?: return@launch
+                        sendOfferSdp(localDescription)
+                        events.onIceGatheringComplete(this@PeerConnectionClient, localDescription)
                     }
                 }
             }
@@ -1514,6 +1968,8 @@ internal class PeerConnectionClient(
                     enableStatsEvents(true, 1000)
                     if (!isPublish) {
                         stopVideoSource()
+                    } else {
+                        bandwidthTracker = BandwidthEstimateStore.Tracker(networkKey, videoParam.videoMinBitrate)
                     }
 
                     setRemoteAudioTrackEnabled(remoteAudioEnabled)
@@ -1533,18 +1989,14 @@ internal class PeerConnectionClient(
 
                     if (isNeedReconnect) {
                         executor.execute {
-                            CoroutineScope(Dispatchers.IO).launch {
-                                withContext(Dispatchers.Main) {
-                                    isError = false
-                                    try {
-                                        createPeerConnectionInternal()
-                                    } catch (e: Exception) {
-                                        reportError("Failed to create peer connection: " + e.message)
-                                        throw e
-                                    }
-                                    startCall(localRender, remoteSink)
-                                }
+                            isError = false
+                            try {
+                                createPeerConnectionInternal()
+                            } catch (e: Exception) {
+                                reportError("Failed to create peer connection: " + e.message)
+                                throw e
                             }
+                            startCall(localRender, remoteSink, remoteSubSink)
                         }
                     }
                 }
@@ -1587,30 +2039,20 @@ internal class PeerConnectionClient(
                 return
             }
 
-            dc.registerObserver(object : DataChannel.Observer {
-                override fun onBufferedAmountChange(previousAmount: Long) {
-                    Log.d(
-                        TAG,
-                        "Data channel buffered amount changed: " + dc.label() + ": " + dc.state()
-                    )
-                }
-
-                override fun onStateChange() {
-                    Log.d(TAG, "Data channel state changed: " + dc.label() + ": " + dc.state())
+            executor.execute {
+                if (peerConnection == null) {
+                    dc.dispose()
+                    return@execute
                 }
-
-                override fun onMessage(buffer: DataChannel.Buffer) {
-                    if (buffer.binary) {
-                        Log.d(TAG, "Received binary msg over $dc")
-                        return
+                synchronized(dataChannelLock) {
+                    if (dataChannel == null) {
+                        dataChannel = dc
+                    } else {
+                        remoteDataChannels.add(dc)
                     }
-                    val data = buffer.data
-                    val bytes = ByteArray(data.capacity())
-                    data[bytes]
-                    val strData = String(bytes, Charset.forName("UTF-8"))
-                    Log.d(TAG, "Got msg: $strData over $dc")
                 }
-            })
+                observeDataChannel(dc)
+            }
         }
 
         override fun onRenegotiationNeeded() {
@@ -1631,36 +2073,15 @@ internal class PeerConnectionClient(
 //                reportError("Multiple SDP create.")
 //                return
 //            }
-            var sdpDescription = origSdp.description
-            if (!sdpDescription.contains("a=extmap-allow-mixed")) {
-                val lines = sdpDescription.split("\r\n".toRegex()).dropLastWhile { it.isEmpty() }
-                    .toTypedArray()
-                var inertIndex = -1
-                for (i in lines.indices) {
-                    val line = lines[i]
-                    if (line.startsWith("a=group")) {
-                        inertIndex = i
-                    }
-                }
-                if (inertIndex >= 0) {
-                    val newLinesList: MutableList<String?> = ArrayList()
-                    newLinesList.addAll(Arrays.asList(*lines).subList(0, inertIndex))
-                    newLinesList.add("a=extmap-allow-mixed")
-                    newLinesList.addAll(Arrays.asList(*lines).subList(inertIndex, lines.size - 1))
-                    sdpDescription = joinString(newLinesList, "\r\n", true)
-                }
-            }
+            val transforms = ArrayList<SdpTransform>()
+            transforms.add(SdpTransforms.extmapAllowMixed())
             if (preferIsac) {
-                sdpDescription = preferCodec(sdpDescription, AUDIO_CODEC_ISAC, true)
+                transforms.add(SdpTransforms.preferCodec(SdpMediaSection.AUDIO, AUDIO_CODEC_ISAC))
             }
             if (isPublish) {
-                sdpDescription =
-                    preferCodec(
-                        sdpDescription,
-                        getSdpVideoCodecName(peerConnectionParameters),
-                        false
-                    )
+                transforms.add(SdpTransforms.preferCodec(SdpMediaSection.VIDEO, getSdpVideoCodecName(peerConnectionParameters)))
             }
+            val sdpDescription = SdpSession.parse(origSdp.description).apply(transforms).toString()
             val sdp = SessionDescription(origSdp.type, sdpDescription)
             localSdp = sdp
             executor.execute {
@@ -1748,9 +2169,16 @@ internal class PeerConnectionClient(
 
     companion object {
         const val VIDEO_TRACK_ID: String = "ARDAMSv0"
+        const val SUB_VIDEO_TRACK_ID: String = "ARDAMSv1"
+        const val SUB_STREAM_LABEL: String = "ARDAMS_sub"
+        private const val DATA_CHANNEL_LABEL = "wxrtc-msg"
+        private const val MAX_DATA_CHANNEL_BUFFERED_AMOUNT = 256 * 1024L
+        private const val MAX_PENDING_DATA_CHANNEL_BYTES = 4 * 1024 * 1024L
+        private const val SUB_STREAM_BITRATE_PRIORITY = 2.0
         const val AUDIO_TRACK_ID: String = "ARDAMSa0"
         const val VIDEO_TRACK_TYPE: String = "video"
         private const val TAG = "PCRTCClient"
+        private const val SCREEN_CAPTURE_PERMISSION_TIMEOUT_MS = 60_000L
         private const val VIDEO_CODEC_VP8 = "VP8"
         private const val VIDEO_CODEC_VP9 = "VP9"
         private const val VIDEO_CODEC_H264 = "H264"
@@ -1778,7 +2206,16 @@ internal class PeerConnectionClient(
             return when (parameters.videoCodec) {
                 VIDEO_CODEC_VP8 -> VIDEO_CODEC_VP8
                 VIDEO_CODEC_VP9 -> VIDEO_CODEC_VP9
-                VIDEO_CODEC_H264_HIGH, VIDEO_CODEC_H264_BASELINE -> VIDEO_CODEC_H264
+                VIDEO_CODEC_H264_HIGH, VIDEO_CODEC_H264_BASELINE ->
+                    // 硬件 H264 编码器近期失败过时优先协商 VP8，避免通话开始后再回退
+                    if (parameters.videoCodecHwAcceleration
+                        && HardwareCodecFailureStore.hasRecentFailure(true, VIDEO_CODEC_H264)
+                    ) {
+                        VIDEO_CODEC_VP8
+                    } else {
+                        VIDEO_CODEC_H264
+                    }
+
                 else -> VIDEO_CODEC_VP8
             }
         }
@@ -1797,154 +2234,6 @@ internal class PeerConnectionClient(
             return fieldTrials
         }
 
-        private fun setStartBitrate(
-            codec: String, isVideoCodec: Boolean, sdpDescription: String, bitrateKbps: Int
-        ): String {
-            val lines =
-                sdpDescription.split("\r\n".toRegex()).dropLastWhile { it.isEmpty() }.toTypedArray()
-            var rtpmapLineIndex = -1
-            var sdpFormatUpdated = false
-            var codecRtpMap: String? = null
-            // Search for codec rtpmap in format
-            // a=rtpmap:<payload type> <encoding name>/<clock rate> [/<encoding parameters>]
-            var regex = "^a=rtpmap:(\\d+) $codec(/\\d+)+[\r]?$"
-            var codecPattern = Pattern.compile(regex)
-            for (i in lines.indices) {
-                val codecMatcher = codecPattern.matcher(lines[i])
-                if (codecMatcher.matches()) {
-                    codecRtpMap = codecMatcher.group(1)
-                    rtpmapLineIndex = i
-                    break
-                }
-            }
-            if (codecRtpMap == null) {
-                Log.w(TAG, "No rtpmap for $codec codec")
-                return sdpDescription
-            }
-            Log.d(
-                TAG,
-                "Found " + codec + " rtpmap " + codecRtpMap + " at " + lines[rtpmapLineIndex]
-            )
-            // Check if a=fmtp string already exist in remote SDP for this codec and
-            // update it with new bitrate parameter.
-            regex = "^a=fmtp:$codecRtpMap \\w+=\\d+.*[\r]?$"
-            codecPattern = Pattern.compile(regex)
-            for (i in lines.indices) {
-                val codecMatcher = codecPattern.matcher(lines[i])
-                if (codecMatcher.matches()) {
-                    Log.d(TAG, "Found " + codec + " " + lines[i])
-                    if (isVideoCodec) {
-                        lines[i] += "; " + VIDEO_CODEC_PARAM_START_BITRATE + "=" + bitrateKbps
-                    } else {
-                        lines[i] += "; " + AUDIO_CODEC_PARAM_BITRATE + "=" + (bitrateKbps * 1000)
-                    }
-                    Log.d(TAG, "Update remote SDP line: " + lines[i])
-                    sdpFormatUpdated = true
-                    break
-                }
-            }
-            val newSdpDescription = StringBuilder()
-            for (i in lines.indices) {
-                newSdpDescription.append(lines[i]).append("\r\n")
-                // Append new a=fmtp line if no such line exist for a codec.
-                if (!sdpFormatUpdated && i == rtpmapLineIndex) {
-                    var bitrateSet = if (isVideoCodec) {
-                        "a=fmtp:" + codecRtpMap + " " + VIDEO_CODEC_PARAM_START_BITRATE + "=" + bitrateKbps
-                    } else {
-                        ("a=fmtp:" + codecRtpMap + " " + AUDIO_CODEC_PARAM_BITRATE + "="
-                                + (bitrateKbps * 1000))
-                    }
-                    Log.d(TAG, "Add remote SDP line: $bitrateSet")
-                    newSdpDescription.append(bitrateSet).append("\r\n")
-                }
-            }
-            return newSdpDescription.toString()
-        }
-
-        /**
-         * Returns the line number containing "m=audio|video", or -1 if no such line exists.
-         */
-        private fun findMediaDescriptionLine(isAudio: Boolean, sdpLines: Array<String>): Int {
-            val mediaDescription = if (isAudio) "m=audio " else "m=video "
-            for (i in sdpLines.indices) {
-                if (sdpLines[i].startsWith(mediaDescription)) {
-                    return i
-                }
-            }
-            return -1
-        }
-
-        private fun joinString(
-            s: Iterable<CharSequence?>, delimiter: String, delimiterAtEnd: Boolean
-        ): String {
-            val iter = s.iterator()
-            if (!iter.hasNext()) {
-                return ""
-            }
-            val buffer = StringBuilder(iter.next()!!)
-            while (iter.hasNext()) {
-                buffer.append(delimiter).append(iter.next())
-            }
-            if (delimiterAtEnd) {
-                buffer.append(delimiter)
-            }
-            return buffer.toString()
-        }
-
-        private fun movePayloadTypesToFront(
-            preferredPayloadTypes: List<String?>, mLine: String
-        ): String? {
-            // The format of the media description line should be: m=<media> <port> <proto> <fmt> ...
-            val origLineParts =
-                Arrays.asList(*mLine.split(" ".toRegex()).dropLastWhile { it.isEmpty() }
-                    .toTypedArray())
-            if (origLineParts.size <= 3) {
-                Log.e(TAG, "Wrong SDP media description format: $mLine")
-                return null
-            }
-            val header: List<String?> = origLineParts.subList(0, 3)
-            val unpreferredPayloadTypes: MutableList<String?> =
-                ArrayList(origLineParts.subList(3, origLineParts.size))
-            unpreferredPayloadTypes.removeAll(preferredPayloadTypes)
-            // Reconstruct the line with |preferredPayloadTypes| moved to the beginning of the payload
-            // types.
-            val newLineParts: MutableList<String?> = ArrayList()
-            newLineParts.addAll(header)
-            newLineParts.addAll(preferredPayloadTypes)
-            newLineParts.addAll(unpreferredPayloadTypes)
-            return joinString(newLineParts, " ", false /* delimiterAtEnd */)
-        }
-
-        private fun preferCodec(sdpDescription: String, codec: String, isAudio: Boolean): String {
-            val lines =
-                sdpDescription.split("\r\n".toRegex()).dropLastWhile { it.isEmpty() }.toTypedArray()
-            val mLineIndex = findMediaDescriptionLine(isAudio, lines)
-            if (mLineIndex == -1) {
-                Log.w(TAG, "No mediaDescription line, so can't prefer $codec")
-                return sdpDescription
-            }
-            // A list with all the payload types with name |codec|. The payload types are integers in the
-            // range 96-127, but they are stored as strings here.
-            val codecPayloadTypes: MutableList<String?> = ArrayList()
-            // a=rtpmap:<payload type> <encoding name>/<clock rate> [/<encoding parameters>]
-            val codecPattern = Pattern.compile("^a=rtpmap:(\\d+) $codec(/\\d+)+[\r]?$")
-            for (line in lines) {
-                val codecMatcher = codecPattern.matcher(line)
-                if (codecMatcher.matches()) {
-                    codecPayloadTypes.add(codecMatcher.group(1))
-                }
-            }
-            if (codecPayloadTypes.isEmpty()) {
-                Log.w(TAG, "No payload types with name $codec")
-                return sdpDescription
-            }
-            val newMLine = movePayloadTypesToFront(codecPayloadTypes, lines[mLineIndex])
-                ?: return sdpDescription
-            Log.d(TAG, "Change media description from: " + lines[mLineIndex] + " to " + newMLine)
-            lines[mLineIndex] = newMLine
-            return joinString(Arrays.asList(*lines), "\r\n", true /* delimiterAtEnd */)
-        }
-
         var mediaProjectionPermissionResultData : Intent? = null
     }
 }
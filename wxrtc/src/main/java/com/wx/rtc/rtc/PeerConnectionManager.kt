@@ -20,6 +20,8 @@ internal class PeerConnectionManager {
     @JvmField
     var videoSink: ProxyVideoSink? = null
     @JvmField
+    var subVideoSink: ProxyVideoSink? = null
+    @JvmField
     var client: PeerConnectionClient? = null
     @JvmField
     var renderParams: WXRTCRenderParams? = null
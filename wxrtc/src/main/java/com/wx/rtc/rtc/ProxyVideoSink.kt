@@ -3,6 +3,7 @@ package com.wx.rtc.rtc
 import org.webrtc.SurfaceViewRenderer
 import org.webrtc.VideoFrame
 import org.webrtc.VideoSink
+import java.util.concurrent.CopyOnWriteArrayList
 
 internal class ProxyVideoSink : VideoSink {
     var streamId: String? = null
@@ -13,9 +14,15 @@ internal class ProxyVideoSink : VideoSink {
     var frame: VideoFrame? = null
         private set
 
+    // 除画面外的其他接收者，如录制，不随 release 释放
+    private val extraSinks = CopyOnWriteArrayList<VideoSink>()
+
     @Synchronized
     override fun onFrame(frame: VideoFrame) {
         this.frame = frame
+        for (sink in extraSinks) {
+            sink.onFrame(frame)
+        }
         if (target == null) {
             return
         }
@@ -28,6 +35,14 @@ internal class ProxyVideoSink : VideoSink {
         this.target = target
     }
 
+    fun addSink(sink: VideoSink) {
+        extraSinks.addIfAbsent(sink)
+    }
+
+    fun removeSink(sink: VideoSink) {
+        extraSinks.remove(sink)
+    }
+
     @Synchronized
     fun release() {
         if (target != null && target is SurfaceViewRenderer) {
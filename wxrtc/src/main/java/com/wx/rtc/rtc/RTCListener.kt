@@ -1,9 +1,28 @@
 package com.wx.rtc.rtc
 
+import com.wx.rtc.WXRTCDef
 import java.io.File
+import java.nio.ByteBuffer
 
 internal interface RTCListener {
     fun onConnected()
     fun onClose()
     fun onSnapshot(userId: String, file: File)
+    fun onStatistics(statistics: WXRTCDef.WXRTCStatistics)
+    fun onError(errCode: Int, errMsg: String)
+
+    /**
+     * 辅流屏幕分享真正开始采集或已停止（含用户拒绝授权）
+     */
+    fun onSubStreamAvailable(available: Boolean)
+
+    /**
+     * userId 为收到消息的连接对应的用户，在数据通道线程回调
+     */
+    fun onDataChannelMessage(userId: String, message: String)
+
+    /**
+     * data 只在回调期间有效
+     */
+    fun onDataChannelBinaryMessage(userId: String, data: ByteBuffer)
 }
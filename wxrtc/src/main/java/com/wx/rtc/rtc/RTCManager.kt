@@ -5,6 +5,7 @@ import android.content.Intent
 import android.graphics.Bitmap
 import android.text.TextUtils
 import android.util.Log
+import android.view.View
 import com.wx.rtc.Config
 import com.wx.rtc.Config.RECONNECT_MAX_NUM
 import com.wx.rtc.Config.RECONNECT_MILLIS
@@ -13,10 +14,14 @@ import com.wx.rtc.WXRTCDef.WXRTCRenderParams
 import com.wx.rtc.WXRTCDef.WXRTCVideoEncParam
 import com.wx.rtc.rtc.PeerConnectionClient.PeerConnectionEvents
 import com.wx.rtc.rtc.PeerConnectionClient.PeerConnectionParameters
+import com.wx.rtc.utils.RTCRuntime
 import com.wx.rtc.utils.RTCUtils.getVideoResolution
+import com.wx.rtc.utils.SerialLane
+import kotlinx.coroutines.CompletableDeferred
 import kotlinx.coroutines.CoroutineScope
-import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.Deferred
 import kotlinx.coroutines.Job
+import kotlinx.coroutines.cancel
 import kotlinx.coroutines.delay
 import kotlinx.coroutines.flow.flowOf
 import kotlinx.coroutines.flow.map
@@ -34,17 +39,24 @@ import okhttp3.RequestBody.Companion.toRequestBody
 import okhttp3.Response
 import org.webrtc.EglBase
 import org.webrtc.EglRenderer
+import org.webrtc.EncodedStreamRecorder
+import org.webrtc.EncodedVideoTap
+import org.webrtc.GlVideoEffect
+import org.webrtc.HardwareCodecFailureStore
 import org.webrtc.IceCandidate
 import org.webrtc.PeerConnectionFactory
 import org.webrtc.RendererCommon
 import org.webrtc.SessionDescription
+import org.webrtc.SharedEglRenderThread
 import org.webrtc.StatsReport
 import org.webrtc.SurfaceViewRenderer
+import org.webrtc.VideoFileRenderer
 import top.zibin.luban.Luban
 import java.io.ByteArrayOutputStream
 import java.io.File
 import java.io.FileOutputStream
 import java.io.IOException
+import java.nio.ByteBuffer
 import java.util.concurrent.TimeUnit
 
 internal class RTCManager : PeerConnectionEvents {
@@ -57,6 +69,9 @@ internal class RTCManager : PeerConnectionEvents {
     private var useFrontCamera = false
     private var publishAudioSendEnabled = false
     private var publishVideoSendEnabled = false
+    private var publishVideoFilePath: String? = null
+    private var publishVideoFileFps = 0
+    private var publishVideoFileLoop = true
     private var publishVideoMute = false
     private var publishAudioMute = false
     private var isScreenCapture = false
@@ -64,11 +79,30 @@ internal class RTCManager : PeerConnectionEvents {
     private var remoteVideoAllMute = false
     private var remoteAudioAllMute = false
     private var remoteAudioAllVolume = 0
-    private val eglBase: EglBase = EglBase.create()
+    // 所有会话共用一个 EGL 上下文
+    private val eglBase: EglBase = RTCRuntime.acquireEglBase(this)
+    private var useSharedRenderThread = false
+    private var sharedRenderThread: SharedEglRenderThread? = null
+    private val localVideoEffects = ArrayList<GlVideoEffect>()
+    private val yuvRecorders = HashMap<String, VideoFileRenderer>()
+    // 推流重连后仍使用同一个 tap，本地录制不中断
+    private val localEncodedVideoTap = EncodedVideoTap()
+    private var localRecorder: EncodedStreamRecorder? = null
     private lateinit var mContext: Context
     private var mVideoEncParam: WXRTCVideoEncParam = WXRTCVideoEncParam()
 
     private val localProxyVideoSink = ProxyVideoSink()
+    private var lowLatencyAudioEnabled = false
+    // 辅流（屏幕分享）
+    private var subStreamEnabled = false
+    private var subStreamScreenCapture = false
+    // 辅流已开始采集，并已通知远端
+    private var subStreamCapturing = false
+    private var subStreamEncParam: WXRTCVideoEncParam = WXRTCVideoEncParam()
+    private val localSubProxyVideoSink = ProxyVideoSink()
+    private var localSubRenderer: SurfaceViewRenderer? = null
+    // 房间消息、点对点消息的数据通道，null 表示不开启
+    private var dataChannelParam: WXRTCDef.WXRTCDataChannelParam? = null
 
     private val pcManagers: MutableList<PeerConnectionManager> = ArrayList()
     private var localRenderer: SurfaceViewRenderer? = null
@@ -76,8 +110,60 @@ internal class RTCManager : PeerConnectionEvents {
     private var mStartPublish = false
 
 
-    fun init(context: Context) {
+    // 状态只在这条串行通道上读写，信令、连接事件和接口调用按顺序执行，操作渲染控件时再切到主线程
+    private val lane: SerialLane = RTCRuntime.newSerialLane("rtc-manager")
+    @Volatile
+    private var laneThread: Thread? = null
+
+    // 所有连接的作用域都挂在这里，destory 时一并取消；默认在 lane 上执行
+    private lateinit var scope: CoroutineScope
+
+    fun init(context: Context, parentScope: CoroutineScope) {
         this.mContext = context
+        this.scope = RTCRuntime.childScope(parentScope, "RTCManager", lane.dispatcher)
+    }
+
+    /**
+     * 在串行通道上执行，不等待结果
+     */
+    fun post(block: () -> Unit) {
+        lane.execute { runOnLane(block) }
+    }
+
+    /**
+     * 在串行通道上执行，不阻塞调用线程，结果通过返回的 Deferred 取得；已在通道上时直接执行，destory 之后在调用线程执行
+     */
+    fun <T> async(block: () -> T): Deferred<T> {
+        val result = CompletableDeferred<T>()
+        val complete = { run: () -> T ->
+            try {
+                result.complete(run())
+            } catch (e: Throwable) {
+                result.completeExceptionally(e)
+            }
+        }
+        if (Thread.currentThread() === laneThread) {
+            complete(block)
+        } else if (!lane.tryExecute { complete { runOnLane(block) } }) {
+            complete(block)
+        }
+        return result
+    }
+
+    private fun <T> runOnLane(block: () -> T): T {
+        laneThread = Thread.currentThread()
+        try {
+            return block()
+        } finally {
+            laneThread = null
+        }
+    }
+
+    /**
+     * SurfaceViewRenderer 的 init、setScalingType 等只能在主线程调用
+     */
+    private fun runOnMain(block: () -> Unit) {
+        scope.launch(RTCRuntime.main) { block() }
     }
 
     fun setRTCVideoParam(param: WXRTCVideoEncParam) {
@@ -102,7 +188,7 @@ internal class RTCManager : PeerConnectionEvents {
         publishPCClient = PeerConnectionClient(
             mContext!!.applicationContext,
             eglBase, userId, publishUrl, true,
-            this
+            this, scope
         ).apply {
             val options = PeerConnectionFactory.Options()
 
@@ -112,6 +198,11 @@ internal class RTCManager : PeerConnectionEvents {
 //            this.setLocalVideoTrackEnabled(publishVideoSendEnabled)
 //            this.setLocalAudioTrackEnabled(publishAudioSendEnabled)
             this.setRemoteVideoTrackEnabled(false)
+            this.useLowLatencyAudio = lowLatencyAudioEnabled
+            this.subStreamEnabled = this@RTCManager.subStreamEnabled
+            this.dataChannelParameters = getDataChannelParameters()
+            this.encodedVideoTap = localEncodedVideoTap
+            this.encodedStreamRecorder = localRecorder
             this.createPeerConnectionFactory(options)
 
 //            localProxyVideoSink.setTarget(userId, localRenderer)
@@ -119,6 +210,10 @@ internal class RTCManager : PeerConnectionEvents {
 
             setRTCVideoParam(mVideoEncParam)
 
+            for (effect in localVideoEffects) {
+                addVideoEffect(effect)
+            }
+
             setLocalRenderParams(publishRenderParams)
 
             muteLocalVideo(publishVideoMute)
@@ -185,9 +280,12 @@ internal class RTCManager : PeerConnectionEvents {
         if (pcm.videoSink == null) {
             pcm.videoSink = ProxyVideoSink()
         }
+        if (pcm.subVideoSink == null) {
+            pcm.subVideoSink = ProxyVideoSink()
+        }
 
         pc.isNeedReconnect = pcm.needReconnect
-        pc.startCall(null, pcm.videoSink)
+        pc.startCall(null, pcm.videoSink, pcm.subVideoSink)
     }
 
     private fun setLocalRenderer(renderer: SurfaceViewRenderer?) {
@@ -205,25 +303,161 @@ internal class RTCManager : PeerConnectionEvents {
             }
         }
 
-        renderer?.apply {
-            if (!isInited || isReleased) {
-                init(eglBase.eglBaseContext, null)
-                setEnableHardwareScaler(true /* enabled */)
-            }
-        }
+        renderer?.let { initRenderer(it) }
 
         this.localRenderer = renderer
 
         setLocalRenderParams(publishRenderParams)
     }
 
+    private fun initRenderer(renderer: SurfaceViewRenderer) {
+        if (renderer.isInited && !renderer.isReleased) {
+            return
+        }
+        val renderThread = if (useSharedRenderThread) {
+            sharedRenderThread ?: SharedEglRenderThread.create(
+                eglBase.eglBaseContext, SHARED_RENDER_THREAD_FPS
+            ).also { sharedRenderThread = it }
+        } else {
+            null
+        }
+        runOnMain {
+            if (renderer.isInited && !renderer.isReleased) {
+                return@runOnMain
+            }
+            if (renderThread != null) {
+                renderer.init(renderThread, null)
+                Log.d(TAG, "renderer joined shared render thread, renderers: ${renderThread.rendererCount}")
+            } else {
+                renderer.init(eglBase.eglBaseContext, null)
+            }
+            renderer.setEnableHardwareScaler(true /* enabled */)
+        }
+    }
+
+    /**
+     * 开启低延迟音频播放，播放缓冲区按卡顿情况自适应调整；默认关闭。需在进房前设置，进房后设置在下次推流、拉流时生效
+     */
+    fun enableLowLatencyAudio(enable: Boolean) {
+        lowLatencyAudioEnabled = enable
+    }
+
+    /**
+     * 开启后之后初始化的画面共用一个渲染线程和 GL 上下文，已初始化的画面不受影响
+     */
+    fun enableSharedRenderThread(enable: Boolean) {
+        useSharedRenderThread = enable
+        if (!enable) {
+            // 已加入的画面释放后共享渲染线程才会真正退出
+            sharedRenderThread?.release()
+            sharedRenderThread = null
+        }
+    }
+
+    /**
+     * 本地视频在 GPU 上按添加顺序处理，如水印、裁剪、隐私遮挡，推流重连后仍然生效
+     */
+    fun addLocalVideoEffect(effect: GlVideoEffect) {
+        if (localVideoEffects.contains(effect)) {
+            return
+        }
+        localVideoEffects.add(effect)
+        publishPCClient?.addVideoEffect(effect)
+    }
+
+    fun removeLocalVideoEffect(effect: GlVideoEffect) {
+        if (localVideoEffects.remove(effect)) {
+            publishPCClient?.removeVideoEffect(effect)
+        }
+    }
+
+    /**
+     * 将本地或远端视频保存为 y4m 文件，userId 为本地用户时录制本地视频；录制在独立线程进行，跟不上时丢弃最旧的帧
+     */
+    fun startYuvRecord(userId: String, filePath: String, width: Int, height: Int): Boolean {
+        if (yuvRecorders.containsKey(userId)) {
+            return false
+        }
+        val videoSink = if (userId == publishUserId) {
+            localProxyVideoSink
+        } else {
+            val pcm = getPeerConnectionManagerByUserId(userId) ?: return false
+            pcm.videoSink ?: ProxyVideoSink().also { pcm.videoSink = it }
+        }
+        val recorder = try {
+            VideoFileRenderer(filePath, width, height, eglBase.eglBaseContext)
+        } catch (e: IOException) {
+            Log.e(TAG, "startYuvRecord failed", e)
+            return false
+        }
+        yuvRecorders[userId] = recorder
+        videoSink.addSink(recorder)
+        return true
+    }
+
+    fun stopYuvRecord(userId: String) {
+        val recorder = yuvRecorders.remove(userId) ?: return
+        localProxyVideoSink.removeSink(recorder)
+        for (pcm in pcManagers) {
+            pcm.videoSink?.removeSink(recorder)
+        }
+        // 等待剩余帧写入文件，不阻塞调用线程；挂在运行时根作用域下，退房、销毁时也要写完
+        RTCRuntime.scope.launch(RTCRuntime.io) {
+            recorder.release()
+        }
+    }
+
+    /**
+     * 录制推流编码后的视频和麦克风 PCM，不再二次编码；按分段写入 filePathPrefix_000.h264、filePathPrefix_000.wav 等文件。
+     * 仅硬件编码时有视频。开启辅流时主路和辅路编码器共用推流工厂的 tap，只录制先创建的编码器（主路），不会混入屏幕分享
+     */
+    fun startLocalRecord(filePathPrefix: String): Boolean {
+        if (localRecorder != null) {
+            return false
+        }
+        val recorder = EncodedStreamRecorder(filePathPrefix, localEncodedVideoTap)
+        localRecorder = recorder
+        publishPCClient?.encodedStreamRecorder = recorder
+        return true
+    }
+
+    /**
+     * 在下一个关键帧处结束当前分段并开始新分段，与服务端 END_AND_START_RECORD 对齐
+     */
+    fun rotateLocalRecord() {
+        localRecorder?.rotateSegment()
+    }
+
+    fun stopLocalRecord() {
+        val recorder = localRecorder ?: return
+        localRecorder = null
+        publishPCClient?.encodedStreamRecorder = null
+        // 等待剩余数据写入文件，不阻塞调用线程；挂在运行时根作用域下，退房、销毁时也要写完
+        RTCRuntime.scope.launch(RTCRuntime.io) {
+            recorder.release()
+        }
+    }
+
     fun startLocalVideo(frontCamera: Boolean, renderer: SurfaceViewRenderer?) {
         useFrontCamera = frontCamera
         publishVideoSendEnabled = true
+        publishVideoFilePath = null
         publishPCClient?.startVideoSource(frontCamera)
         setLocalRenderer(renderer)
     }
 
+    /**
+     * 用 y4m 文件代替摄像头作为推流视频源，用于压测
+     */
+    fun startLocalVideoFromFile(filePath: String, fps: Int, loop: Boolean, renderer: SurfaceViewRenderer?) {
+        publishVideoSendEnabled = true
+        publishVideoFilePath = filePath
+        publishVideoFileFps = fps
+        publishVideoFileLoop = loop
+        publishPCClient?.startFileVideoSource(filePath, fps, loop)
+        setLocalRenderer(renderer)
+    }
+
     fun updateLocalVideo(renderer: SurfaceViewRenderer?) {
         setLocalRenderer(renderer)
     }
@@ -259,12 +493,7 @@ internal class RTCManager : PeerConnectionEvents {
                 return
             }
 
-            renderer?.apply {
-                if (!isInited || isReleased) {
-                    init(eglBase.eglBaseContext, null)
-                    setEnableHardwareScaler(true /* enabled */)
-                }
-            }
+            renderer?.let { initRenderer(it) }
 
             if (pcm.videoSink == null) {
                 pcm.videoSink = ProxyVideoSink()
@@ -274,12 +503,7 @@ internal class RTCManager : PeerConnectionEvents {
             pcm = PeerConnectionManager()
             pcm.userId = userId
 
-            renderer?.apply {
-                if (!isInited || isReleased) {
-                    init(eglBase.eglBaseContext, null)
-                    setEnableHardwareScaler(true /* enabled */)
-                }
-            }
+            renderer?.let { initRenderer(it) }
 
             val remoteVideoSink = ProxyVideoSink()
             remoteVideoSink.setTarget(userId, renderer)
@@ -324,12 +548,7 @@ internal class RTCManager : PeerConnectionEvents {
                 return
             }
 
-            renderer?.apply {
-                if (!isInited || isReleased) {
-                    init(eglBase.eglBaseContext, null)
-                    setEnableHardwareScaler(true /* enabled */)
-                }
-            }
+            renderer?.let { initRenderer(it) }
 
             if (pcm.videoSink == null) {
                 pcm.videoSink = ProxyVideoSink()
@@ -387,22 +606,73 @@ internal class RTCManager : PeerConnectionEvents {
         renderer: SurfaceViewRenderer,
         params: WXRTCRenderParams
     ) {
-        if (params.fillMode == WXRTCDef.WXRTC_VIDEO_RENDER_MODE_FILL) {
-            renderer.setScalingType(RendererCommon.ScalingType.SCALE_ASPECT_FILL)
-        } else if (params.fillMode == WXRTCDef.WXRTC_VIDEO_RENDER_MODE_FIT) {
-            renderer.setScalingType(RendererCommon.ScalingType.SCALE_ASPECT_FIT)
-        }
-        if (params.mirrorType == WXRTCDef.WXRTC_VIDEO_MIRROR_TYPE_AUTO) {
-            if (!isScreenCapture && isLocalrenderer) {
-                renderer.setMirror(useFrontCamera)
-            } else {
-                renderer.setMirror(false)
-            }
+        val mirror = if (params.mirrorType == WXRTCDef.WXRTC_VIDEO_MIRROR_TYPE_AUTO) {
+            !isScreenCapture && publishVideoFilePath == null && isLocalrenderer && useFrontCamera
         } else if (params.mirrorType == WXRTCDef.WXRTC_VIDEO_MIRROR_TYPE_ENABLE) {
-            renderer.setMirror(true)
+            true
         } else if (params.mirrorType == WXRTCDef.WXRTC_VIDEO_MIRROR_TYPE_DISABLE) {
-            renderer.setMirror(false)
+            false
+        } else {
+            null
+        }
+        runOnMain {
+            if (params.fillMode == WXRTCDef.WXRTC_VIDEO_RENDER_MODE_FILL) {
+                renderer.setScalingType(RendererCommon.ScalingType.SCALE_ASPECT_FILL)
+            } else if (params.fillMode == WXRTCDef.WXRTC_VIDEO_RENDER_MODE_FIT) {
+                renderer.setScalingType(RendererCommon.ScalingType.SCALE_ASPECT_FIT)
+            }
+            mirror?.let { renderer.setMirror(it) }
+            // 自动模式下窗口大小变化时重新判断是否为小窗口
+            renderer.removeOnLayoutChangeListener(rendererLayoutChangeListener)
+            renderer.addOnLayoutChangeListener(rendererLayoutChangeListener)
+            setRendererMaxFps(renderer, params)
+        }
+    }
+
+    private val rendererLayoutChangeListener =
+        View.OnLayoutChangeListener { v, left, top, right, bottom, oldLeft, oldTop, oldRight, oldBottom ->
+            if (right - left == oldRight - oldLeft && bottom - top == oldBottom - oldTop) {
+                return@OnLayoutChangeListener
+            }
+            val renderer = v as SurfaceViewRenderer
+            post { getRenderParamsByRenderer(renderer)?.let { setRendererMaxFps(renderer, it) } }
+        }
+
+    private fun getRenderParamsByRenderer(renderer: SurfaceViewRenderer): WXRTCRenderParams? {
+        if (localRenderer === renderer) {
+            return publishRenderParams
+        }
+        for (pcm in pcManagers) {
+            if (pcm.videoSink?.target === renderer) {
+                return pcm.renderParams
+            }
+        }
+        return null
+    }
+
+    private fun setRendererMaxFps(renderer: SurfaceViewRenderer, params: WXRTCRenderParams) {
+        val maxFps = if (params.maxFps > 0) {
+            params.maxFps.toFloat()
+        } else if (isThumbnailRenderer(renderer)) {
+            THUMBNAIL_RENDER_FPS
+        } else {
+            0f
+        }
+        // 在帧进入渲染线程前丢弃，不会上传纹理
+        if (maxFps > 0) {
+            renderer.setFpsReduction(maxFps)
+        } else {
+            renderer.disableFpsReduction()
+        }
+    }
+
+    private fun isThumbnailRenderer(renderer: SurfaceViewRenderer): Boolean {
+        val area = renderer.width.toLong() * renderer.height
+        if (area <= 0) {
+            return false
         }
+        val metrics = renderer.resources.displayMetrics
+        return area * THUMBNAIL_AREA_DIVISOR < metrics.widthPixels.toLong() * metrics.heightPixels
     }
 
     fun setLocalRenderParams(params: WXRTCRenderParams) {
@@ -490,6 +760,7 @@ internal class RTCManager : PeerConnectionEvents {
     fun startScreenCapture(encParam: WXRTCVideoEncParam?, renderer: SurfaceViewRenderer?) {
         publishVideoSendEnabled = true
         isScreenCapture = true
+        publishVideoFilePath = null
         publishPCClient?.startScreenCapture()
         setLocalRenderer(renderer)
         encParam?.let {
@@ -510,6 +781,90 @@ internal class RTCManager : PeerConnectionEvents {
         setLocalRenderer(null)
     }
 
+    /**
+     * 开启后推流、拉流连接上都建立数据通道，需在进房前设置，进房后设置在下次推流、拉流时生效
+     */
+    fun enableDataChannel(param: WXRTCDef.WXRTCDataChannelParam?) {
+        this.dataChannelParam = param
+    }
+
+    /**
+     * 通过推流连接的数据通道发送，积压时在连接内排队；通道未打开时返回 false
+     */
+    fun sendDataChannelMessage(data: ByteBuffer, binary: Boolean): Boolean {
+        return publishPCClient?.sendDataChannelMessage(data, binary) ?: false
+    }
+
+    /**
+     * 开启后推流和拉流都多一路辅流视频，需在进房前设置，进房后设置在下次推流、拉流时生效
+     */
+    fun enableSubStream(enable: Boolean) {
+        this.subStreamEnabled = enable
+    }
+
+    /**
+     * 在辅流上分享屏幕，主流可同时发送摄像头画面；同一时间只能有一路屏幕分享，主流上的屏幕分享会被停止
+     */
+    fun startSubStreamScreenCapture(encParam: WXRTCVideoEncParam?, renderer: SurfaceViewRenderer?) {
+        if (!subStreamEnabled) {
+            Log.w(TAG, "startSubStreamScreenCapture: sub stream is not enabled")
+            return
+        }
+        if (isScreenCapture) {
+            stopScreenCapture()
+        }
+        subStreamScreenCapture = true
+        encParam?.let {
+            subStreamEncParam = it
+        }
+        setLocalSubRenderer(renderer)
+        publishPCClient?.let { client ->
+            client.setSubStreamEncParam(subStreamEncParam)
+            client.startSubStreamScreenCapture(localSubProxyVideoSink)
+        }
+    }
+
+    fun stopSubStreamScreenCapture() {
+        subStreamScreenCapture = false
+        publishPCClient?.stopSubStreamScreenCapture()
+        setLocalSubRenderer(null)
+        if (subStreamCapturing) {
+            subStreamCapturing = false
+            mRTCListener?.onSubStreamAvailable(false)
+        }
+    }
+
+    fun setSubStreamEncParam(param: WXRTCVideoEncParam) {
+        this.subStreamEncParam = param
+        publishPCClient?.setSubStreamEncParam(param)
+    }
+
+    private fun setLocalSubRenderer(renderer: SurfaceViewRenderer?) {
+        localSubProxyVideoSink.setTarget(publishUserId, renderer)
+        renderer?.let { initRenderer(it) }
+        this.localSubRenderer = renderer
+    }
+
+    fun startRemoteSubStreamView(userId: String, renderer: SurfaceViewRenderer?) {
+        var pcm = getPeerConnectionManagerByUserId(userId)
+        if (pcm == null) {
+            pcm = PeerConnectionManager()
+            pcm.userId = userId
+            pcManagers.add(pcm)
+        }
+        renderer?.let { initRenderer(it) }
+        if (pcm.subVideoSink == null) {
+            pcm.subVideoSink = ProxyVideoSink()
+        }
+        pcm.subVideoSink!!.setTarget(userId, renderer)
+    }
+
+    fun stopRemoteSubStreamView(userId: String) {
+        getPeerConnectionManagerByUserId(userId)?.let { pcm ->
+            pcm.subVideoSink?.release()
+        }
+    }
+
     fun pauseScreenCapture() {
         publishPCClient?.pauseScreenCapture()
     }
@@ -576,13 +931,13 @@ internal class RTCManager : PeerConnectionEvents {
                 renderer.post(Runnable {
                     renderer.removeFrameListener(this)
 
-                    CoroutineScope(Dispatchers.IO).launch {
+                    scope.launch(RTCRuntime.io) {
                         flowOf(bitmap).map {
                             saveImage(it)
                         }.map {
                             Luban.with(mContext).ignoreBy(100).get(it)
                         }.collect() {
-                            withContext(Dispatchers.Main) {
+                            withContext(RTCRuntime.main) {
                                 mRTCListener?.onSnapshot(userId, it)
                             }
                         }
@@ -597,11 +952,20 @@ internal class RTCManager : PeerConnectionEvents {
         publishPCClient?.isNeedReconnect = false
         stopPublish()
         setLocalRenderer(null)
+        setLocalSubRenderer(null)
         stopAllPull()
 
         publishPCClient = null
 
-        eglBase.release()
+        for (userId in ArrayList(yuvRecorders.keys)) {
+            stopYuvRecord(userId)
+        }
+        stopLocalRecord()
+        sharedRenderThread?.release()
+        sharedRenderThread = null
+        RTCRuntime.releaseEglBase(this)
+        scope.cancel()
+        lane.shutdown()
     }
 
     private fun saveImage(bitmap: Bitmap): String {
@@ -626,7 +990,7 @@ internal class RTCManager : PeerConnectionEvents {
         return PeerConnectionClient(
             mContext!!.applicationContext,
             eglBase, userId, streamUrl, false,
-            this
+            this, scope
         ).apply {
             val options = PeerConnectionFactory.Options()
 
@@ -635,10 +999,23 @@ internal class RTCManager : PeerConnectionEvents {
 //        options.disableNetworkMonitor = true;
 //            this.setLocalVideoTrackEnabled(false)
 //            this.setLocalAudioTrackEnabled(false)
+            this.useLowLatencyAudio = lowLatencyAudioEnabled
+            this.subStreamEnabled = this@RTCManager.subStreamEnabled
+            this.dataChannelParameters = getDataChannelParameters()
             this.createPeerConnectionFactory(options)
         }
     }
 
+    private fun getDataChannelParameters(): PeerConnectionClient.DataChannelParameters? {
+        return dataChannelParam?.let {
+            PeerConnectionClient.DataChannelParameters(
+                ordered = it.ordered,
+                maxRetransmitTimeMs = it.maxRetransmitTimeMs,
+                maxRetransmits = it.maxRetransmits
+            )
+        }
+    }
+
     private fun stopPublish() {
         Log.e(TAG, "unpublish onResponse")
         stopLocalVideo()
@@ -648,6 +1025,8 @@ internal class RTCManager : PeerConnectionEvents {
         localProxyVideoSink.release()
 
         mStartPublish = false
+        // 推流连接关闭后辅流随之停止，重新推流开始采集时再通知
+        subStreamCapturing = false
         publishPCClient?.let { client ->
             client.isNeedReconnect = false
             client.close()
@@ -660,6 +1039,7 @@ internal class RTCManager : PeerConnectionEvents {
         getPeerConnectionManagerByUserId(userId)?.let { pcm ->
             pcm.needReconnect = false
             pcm.videoSink?.release()
+            pcm.subVideoSink?.release()
             pcm.client?.let { client ->
                 stopPull(client)
                 pcm.client = null
@@ -677,6 +1057,7 @@ internal class RTCManager : PeerConnectionEvents {
 
         for (pcm in pcManagers) {
             pcm.videoSink?.release()
+            pcm.subVideoSink?.release()
             pcm.needReconnect = false
             pcm.client?.let { client ->
                 client.isNeedReconnect = false
@@ -712,15 +1093,20 @@ internal class RTCManager : PeerConnectionEvents {
 
     override fun onConnected(pc: PeerConnectionClient) {
         val delta = System.currentTimeMillis() - callStartedTimeMs
-        CoroutineScope(Dispatchers.Main).launch {
+        scope.launch {
             publishPCClient?.let {
                 if (pc == it) {
                     pc.setVideoEncParam(mVideoEncParam)
-                    if (publishVideoSendEnabled) {
+                    if (publishVideoSendEnabled && publishVideoFilePath != null) {
+                        startLocalVideoFromFile(publishVideoFilePath!!, publishVideoFileFps, publishVideoFileLoop, localRenderer)
+                    } else if (publishVideoSendEnabled) {
                         startLocalVideo(useFrontCamera, localRenderer)
                     } else {
                         stopLocalVideo()
                     }
+                    if (subStreamScreenCapture) {
+                        startSubStreamScreenCapture(subStreamEncParam, localSubRenderer)
+                    }
                     mRTCListener?.onConnected()
                     if (publishAudioSendEnabled) {
                         startLocalAudio()
@@ -742,12 +1128,130 @@ internal class RTCManager : PeerConnectionEvents {
         pc: PeerConnectionClient,
         reports: Array<StatsReport>
     ) {
+        // 以一个存活连接的统计周期为准，每秒汇总一次所有连接的统计数据
+        scope.launch {
+            if (pc != getStatisticsClient()) {
+                return@launch
+            }
+            mRTCListener?.onStatistics(getStatistics())
+        }
+    }
+
+    /**
+     * 有推流连接时用推流连接，只拉流时用第一个拉流连接
+     */
+    private fun getStatisticsClient(): PeerConnectionClient? {
+        publishPCClient?.let {
+            return it
+        }
+        for (pcm in pcManagers) {
+            pcm.client?.let {
+                return it
+            }
+        }
+        return null
+    }
+
+    private fun getStatistics(): WXRTCDef.WXRTCStatistics {
+        val statistics = WXRTCDef.WXRTCStatistics()
+        statistics.localStatistics = WXRTCDef.WXRTCLocalStatistics().apply {
+            userId = publishUserId
+            localRenderer?.let {
+                videoRenderedFrames = it.renderedFrameCount
+                videoRenderDroppedFrames = it.droppedFrameCount
+            }
+            publishUserId?.let { yuvRecorders[it] }?.let {
+                videoYuvRecordDroppedFrames = it.droppedFrameCount
+            }
+            publishPCClient?.let {
+                screenContentSkippedFrames = it.screenContentSkippedFrames
+                videoStartBitrate = it.videoStartBitrate
+                videoTimeToTargetBitrate = it.timeToTargetBitrateMs
+                if (it.isDataChannelOpen) {
+                    dataChannelRtt = it.transportRttMs
+                }
+            }
+            publishPCClient?.videoEncoderStats?.let {
+                videoEncodeQueueDepth = it.queueDepth
+                videoEncodeLatency = it.encodeLatencyMs
+                videoEncodedFrames = it.encodedFrames
+                videoEncoderDroppedFrames = it.droppedFrames
+                videoKeyFrameRequests = it.keyFrameRequests
+            }
+            videoHwEncoderFallbackCount = HardwareCodecFailureStore.getEncoderFallbackCount()
+            videoHwDecoderFallbackCount = HardwareCodecFailureStore.getDecoderFallbackCount()
+        }
+        val remoteStatistics = ArrayList<WXRTCDef.WXRTCRemoteStatistics>()
+        for (pcm in pcManagers) {
+            val client = pcm.client ?: continue
+            remoteStatistics.add(WXRTCDef.WXRTCRemoteStatistics().apply {
+                userId = pcm.userId
+                client.audioPlayoutStats?.let {
+                    audioPlayoutLatency = it.latencyMs
+                    audioPlayoutBufferSize = it.bufferSizeMs
+                    audioUnderrunCount = it.underrunCount
+                    audioBufferIncreaseCount = it.bufferIncreaseCount
+                    audioBufferDecreaseCount = it.bufferDecreaseCount
+                }
+                client.videoDecoderStats.let {
+                    videoDecodedFrames = it.decodedFrames
+                    videoDecodeTime = it.averageDecodeTimeMs
+                    videoDecodeTimeP95 = it.getDecodeTimePercentileMs(95)
+                    videoDecodeQueueDepth = it.queueDepth
+                    videoDecodeQueueDepthP95 = it.getQueueDepthPercentile(95)
+                }
+                (pcm.videoSink?.target as? SurfaceViewRenderer)?.let {
+                    videoRenderedFrames = it.renderedFrameCount
+                    videoRenderDroppedFrames = it.droppedFrameCount
+                }
+                pcm.userId?.let { yuvRecorders[it] }?.let {
+                    videoYuvRecordDroppedFrames = it.droppedFrameCount
+                }
+            })
+        }
+        statistics.remoteStatistics = remoteStatistics
+        return statistics
     }
 
     override fun onPeerConnectionError(pc: PeerConnectionClient, description: String) {
     }
 
     override fun onDataChannelMessage(pc: PeerConnectionClient, message: String) {
+        mRTCListener?.onDataChannelMessage(pc.userId, message)
+    }
+
+    override fun onDataChannelBinaryMessage(pc: PeerConnectionClient, data: ByteBuffer) {
+        mRTCListener?.onDataChannelBinaryMessage(pc.userId, data)
+    }
+
+    override fun onScreenCapturePermissionDenied(pc: PeerConnectionClient, isSubStream: Boolean) {
+        scope.launch {
+            if (pc != publishPCClient) {
+                return@launch
+            }
+            if (isSubStream) {
+                if (!subStreamScreenCapture) {
+                    return@launch
+                }
+                stopSubStreamScreenCapture()
+            } else {
+                if (!isScreenCapture) {
+                    return@launch
+                }
+                stopScreenCapture()
+            }
+            mRTCListener?.onError(WXRTCDef.WXRTC_ERR_SCREEN_CAPTURE_PERMISSION_DENIED, "screen capture permission denied")
+        }
+    }
+
+    override fun onSubStreamScreenCaptureStarted(pc: PeerConnectionClient) {
+        scope.launch {
+            if (pc != publishPCClient || !subStreamScreenCapture || subStreamCapturing) {
+                return@launch
+            }
+            subStreamCapturing = true
+            mRTCListener?.onSubStreamAvailable(true)
+        }
     }
 
     fun switchPublishCamera(frontCamera: Boolean) {
@@ -796,5 +1300,9 @@ internal class RTCManager : PeerConnectionEvents {
 
     companion object {
         private val TAG: String = RTCManager::class.java.name
+        private const val SHARED_RENDER_THREAD_FPS = 30f
+        private const val THUMBNAIL_RENDER_FPS = 7f
+        // 面积小于屏幕 1/4 的画面视为小窗口
+        private const val THUMBNAIL_AREA_DIVISOR = 4
     }
 }
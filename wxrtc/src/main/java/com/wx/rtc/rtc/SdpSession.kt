@@ -0,0 +1,286 @@
+package com.wx.rtc.rtc
+
+import android.util.Log
+
+/**
+ * 解析后的 SDP：会话级行 + 各 m= 段。解析、序列化各一次，中间的改写都在对象上完成
+ */
+internal class SdpSession private constructor(
+    val sessionLines: MutableList<String>,
+    val mediaSections: MutableList<SdpMediaSection>
+) {
+    // 序列化时预分配的长度
+    private var estimatedLength = 0
+
+    fun mediaSections(kind: String): List<SdpMediaSection> {
+        return mediaSections.filter { it.kind == kind }
+    }
+
+    fun hasAttribute(attribute: String): Boolean {
+        return sessionLines.contains(attribute) || mediaSections.any { it.lines.contains(attribute) }
+    }
+
+    fun apply(transforms: List<SdpTransform>): SdpSession {
+        for (transform in transforms) {
+            transform.apply(this)
+        }
+        return this
+    }
+
+    override fun toString(): String {
+        val sb = StringBuilder(estimatedLength)
+        for (line in sessionLines) {
+            sb.append(line).append(CRLF)
+        }
+        for (section in mediaSections) {
+            sb.append(section.mLine).append(CRLF)
+            for (line in section.lines) {
+                sb.append(line).append(CRLF)
+            }
+        }
+        return sb.toString()
+    }
+
+    companion object {
+        private const val CRLF = "\r\n"
+
+        fun parse(sdp: String): SdpSession {
+            val sessionLines = ArrayList<String>()
+            val mediaSections = ArrayList<SdpMediaSection>()
+            var current: SdpMediaSection? = null
+            var start = 0
+            while (start < sdp.length) {
+                var end = sdp.indexOf('\n', start)
+                if (end < 0) {
+                    end = sdp.length
+                }
+                val lineEnd = if (end > start && sdp[end - 1] == '\r') end - 1 else end
+                if (lineEnd > start) {
+                    val line = sdp.substring(start, lineEnd)
+                    if (line.startsWith("m=")) {
+                        current = SdpMediaSection(line)
+                        mediaSections.add(current)
+                    } else if (current != null) {
+                        current.lines.add(line)
+                    } else {
+                        sessionLines.add(line)
+                    }
+                }
+                start = end + 1
+            }
+            return SdpSession(sessionLines, mediaSections).apply {
+                estimatedLength = sdp.length + 256
+            }
+        }
+    }
+}
+
+/**
+ * 一个 m= 段，lines 是 m= 之后到下一个 m= 之前的所有行
+ */
+internal class SdpMediaSection(mLine: String) {
+    val kind: String
+    private val header: List<String>
+    private val rawMLine: String?
+    val payloadTypes: MutableList<String>
+    val lines: MutableList<String> = ArrayList()
+
+    init {
+        // m=<media> <port> <proto> <fmt> ...
+        val parts = mLine.substring(2).split(' ').filter { it.isNotEmpty() }
+        kind = parts.firstOrNull() ?: ""
+        if (parts.size > 3) {
+            header = parts.subList(0, 3)
+            payloadTypes = ArrayList(parts.subList(3, parts.size))
+            rawMLine = null
+        } else {
+            Log.e(TAG, "Wrong SDP media description format: $mLine")
+            header = parts
+            payloadTypes = ArrayList()
+            rawMLine = mLine
+        }
+    }
+
+    val mLine: String
+        get() {
+            rawMLine?.let { return it }
+            val sb = StringBuilder("m=")
+            sb.append(header[0]).append(' ').append(header[1]).append(' ').append(header[2])
+            for (payloadType in payloadTypes) {
+                sb.append(' ').append(payloadType)
+            }
+            return sb.toString()
+        }
+
+    val isSendEnabled: Boolean
+        get() = !lines.contains("a=recvonly") && !lines.contains("a=inactive")
+
+    /**
+     * 按 a=rtpmap:<payload type> <encoding name>/<clock rate> [/<encoding parameters>] 找出编码名为 codec 的 payload type
+     */
+    fun findPayloadTypes(codec: String): List<String> {
+        val result = ArrayList<String>()
+        for (line in lines) {
+            if (!line.startsWith(RTPMAP)) {
+                continue
+            }
+            val space = line.indexOf(' ', RTPMAP.length)
+            val slash = line.indexOf('/', space + 1)
+            if (space < 0 || slash < 0) {
+                continue
+            }
+            if (line.regionMatches(space + 1, codec, 0, codec.length, true) && slash - space - 1 == codec.length) {
+                result.add(line.substring(RTPMAP.length, space))
+            }
+        }
+        return result
+    }
+
+    fun movePayloadTypesToFront(preferredPayloadTypes: List<String>) {
+        if (rawMLine != null) {
+            return
+        }
+        payloadTypes.removeAll(preferredPayloadTypes)
+        payloadTypes.addAll(0, preferredPayloadTypes)
+    }
+
+    /**
+     * 设置 a=fmtp 中的参数，已有同名参数时替换，没有 a=fmtp 行时在 a=rtpmap 之后新增
+     */
+    fun setFmtpParameter(payloadType: String, key: String, value: String) {
+        val prefix = "$FMTP$payloadType "
+        val index = lines.indexOfFirst { it.startsWith(prefix) }
+        if (index < 0) {
+            val rtpmapIndex = lines.indexOfFirst { it.startsWith("$RTPMAP$payloadType ") }
+            val line = "$prefix$key=$value"
+            if (rtpmapIndex < 0) {
+                lines.add(line)
+            } else {
+                lines.add(rtpmapIndex + 1, line)
+            }
+            return
+        }
+        // 与浏览器生成的格式一致，参数之间用 "; " 分隔，已有参数保持原来的顺序
+        val params = lines[index].substring(prefix.length).split(';')
+            .map { it.trim() }
+            .filter { it.isNotEmpty() }
+            .toMutableList()
+        val paramIndex = params.indexOfFirst { it.startsWith("$key=") }
+        if (paramIndex < 0) {
+            params.add("$key=$value")
+        } else {
+            params[paramIndex] = "$key=$value"
+        }
+        lines[index] = prefix + params.joinToString("; ")
+    }
+
+    /**
+     * 设置 b=AS 带宽，按 SDP 行顺序放在 i=/c= 之后
+     */
+    fun setBandwidth(kbps: Int) {
+        lines.removeAll { it.startsWith(BANDWIDTH_AS) }
+        var index = 0
+        while (index < lines.size && (lines[index].startsWith("i=") || lines[index].startsWith("c="))) {
+            index++
+        }
+        lines.add(index, "$BANDWIDTH_AS$kbps")
+    }
+
+    fun addAttributeIfAbsent(attribute: String) {
+        if (!lines.contains(attribute)) {
+            lines.add(attribute)
+        }
+    }
+
+    companion object {
+        private const val TAG = "SdpMediaSection"
+        private const val RTPMAP = "a=rtpmap:"
+        private const val FMTP = "a=fmtp:"
+        private const val BANDWIDTH_AS = "b=AS:"
+        const val AUDIO = "audio"
+        const val VIDEO = "video"
+    }
+}
+
+internal fun interface SdpTransform {
+    fun apply(sdp: SdpSession)
+}
+
+/**
+ * 常用的 SDP 改写，可组合后一次性作用在 SdpSession 上
+ */
+internal object SdpTransforms {
+    private const val TAG = "SdpTransforms"
+    private const val EXTMAP_ALLOW_MIXED = "a=extmap-allow-mixed"
+
+    /**
+     * 没有 a=extmap-allow-mixed 时插在会话级 a=group 之前
+     */
+    fun extmapAllowMixed() = SdpTransform { sdp ->
+        if (sdp.hasAttribute(EXTMAP_ALLOW_MIXED)) {
+            return@SdpTransform
+        }
+        val groupIndex = sdp.sessionLines.indexOfLast { it.startsWith("a=group") }
+        if (groupIndex >= 0) {
+            sdp.sessionLines.add(groupIndex, EXTMAP_ALLOW_MIXED)
+        }
+    }
+
+    /**
+     * 把 codec 的 payload type 移到该类型所有 m= 段的最前面
+     */
+    fun preferCodec(kind: String, codec: String) = SdpTransform { sdp ->
+        val sections = sdp.mediaSections(kind)
+        if (sections.isEmpty()) {
+            Log.w(TAG, "No mediaDescription line, so can't prefer $codec")
+            return@SdpTransform
+        }
+        for (section in sections) {
+            val payloadTypes = section.findPayloadTypes(codec)
+            if (payloadTypes.isEmpty()) {
+                Log.w(TAG, "No payload types with name $codec")
+                continue
+            }
+            section.movePayloadTypesToFront(payloadTypes)
+        }
+    }
+
+    /**
+     * 给该类型所有 m= 段中 codec 的 a=fmtp 设置参数，如 x-google-start-bitrate、maxaveragebitrate
+     */
+    fun codecParameter(kind: String, codec: String, key: String, value: String) = SdpTransform { sdp ->
+        for (section in sdp.mediaSections(kind)) {
+            val payloadTypes = section.findPayloadTypes(codec)
+            if (payloadTypes.isEmpty()) {
+                Log.w(TAG, "No rtpmap for $codec codec")
+                continue
+            }
+            for (payloadType in payloadTypes) {
+                section.setFmtpParameter(payloadType, key, value)
+            }
+        }
+    }
+
+    fun bandwidth(kind: String, kbps: Int) = SdpTransform { sdp ->
+        for (section in sdp.mediaSections(kind)) {
+            section.setBandwidth(kbps)
+        }
+    }
+
+    /**
+     * 在第一个发送的 m= 段上声明 simulcast，rids 按从高到低的顺序
+     */
+    fun simulcast(kind: String, rids: List<String>) = SdpTransform { sdp ->
+        if (rids.isEmpty()) {
+            return@SdpTransform
+        }
+        val section = sdp.mediaSections(kind).firstOrNull { it.isSendEnabled } ?: return@SdpTransform
+        if (section.lines.any { it.startsWith("a=simulcast:") }) {
+            return@SdpTransform
+        }
+        for (rid in rids) {
+            section.addAttributeIfAbsent("a=rid:$rid send")
+        }
+        section.lines.add("a=simulcast:send " + rids.joinToString(";"))
+    }
+}
@@ -4,15 +4,42 @@ import android.annotation.SuppressLint
 import android.app.Activity
 import android.content.Context
 import android.content.Intent
-import android.media.projection.MediaProjection
 import android.media.projection.MediaProjectionManager
 import android.os.Bundle
 import android.util.Log
+import kotlinx.coroutines.CompletableDeferred
 
 internal class WXScreenCaptureAssistantActivity : Activity() {
     companion object {
         private val TAG: String = "WXScreenCaptureAssistantActivity"
         private val REQUEST_CODE: Int = 100
+
+        private val lock = Any()
+        private var pendingResult: CompletableDeferred<Intent?>? = null
+
+        /**
+         * 弹出录屏授权框，授权成功返回授权结果，拒绝或弹窗失败返回 null；授权框显示期间再次请求共用同一个结果
+         */
+        fun requestPermission(activity: Activity): CompletableDeferred<Intent?> {
+            synchronized(lock) {
+                pendingResult?.let {
+                    if (it.isActive) {
+                        return it
+                    }
+                }
+                val result = CompletableDeferred<Intent?>()
+                pendingResult = result
+                activity.startActivity(Intent(activity, WXScreenCaptureAssistantActivity::class.java))
+                return result
+            }
+        }
+
+        private fun completeRequest(data: Intent?) {
+            synchronized(lock) {
+                pendingResult?.complete(data)
+                pendingResult = null
+            }
+        }
     }
     private var mMediaProjectionManager: MediaProjectionManager? = null
 
@@ -21,6 +48,10 @@ internal class WXScreenCaptureAssistantActivity : Activity() {
         super.onCreate(savedInstanceState)
         Log.i(TAG, "onCreate $this")
         this.requestWindowFeature(1)
+        // 旋转屏幕重建时授权框仍在显示，不再重复弹出
+        if (savedInstanceState != null) {
+            return
+        }
         this.mMediaProjectionManager = this.applicationContext.getSystemService(Context.MEDIA_PROJECTION_SERVICE) as MediaProjectionManager
         val intent = mMediaProjectionManager!!.createScreenCaptureIntent()
 
@@ -28,25 +59,15 @@ internal class WXScreenCaptureAssistantActivity : Activity() {
             this.startActivityForResult(intent, REQUEST_CODE)
         } catch (e: Exception) {
             Log.e(TAG, "Start permission activity failed. $e")
-//                    bg.a(this).a(null as MediaProjection?)
+            completeRequest(null)
             this.finish()
         }
     }
 
     @SuppressLint("LongLogTag")
     public override fun onActivityResult(requestCode: Int, resultCode: Int, data: Intent?) {
-        Log.i(TAG, "onActivityResult $this")
-
-//        var mediaProjection: MediaProjection? = null
-//
-//        try {
-//            mediaProjection = mMediaProjectionManager!!.getMediaProjection(resultCode, data!!)
-//        } catch (e: Exception) {
-//            Log.e(TAG, "onActivityResult mMediaProjectionManager.getMediaProjection fail.", e)
-//        }
-
-//                bg.a(this).a(mediaProjection)
-        PeerConnectionClient.mediaProjectionPermissionResultData = data
+        Log.i(TAG, "onActivityResult $this resultCode $resultCode")
+        completeRequest(if (resultCode == RESULT_OK) data else null)
         this.finish()
     }
 
@@ -54,5 +75,9 @@ internal class WXScreenCaptureAssistantActivity : Activity() {
     override fun onDestroy() {
         super.onDestroy()
         Log.i(TAG, "onDestroy $this")
+        // 被系统销毁且没有拿到结果时按拒绝处理
+        if (!isChangingConfigurations) {
+            completeRequest(null)
+        }
     }
-}
\ No newline at end of file
+}
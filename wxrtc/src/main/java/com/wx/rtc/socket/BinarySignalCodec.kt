@@ -0,0 +1,417 @@
+package com.wx.rtc.socket
+
+import com.wx.rtc.WXRTCDef
+import com.wx.rtc.bean.CallMsg
+import com.wx.rtc.bean.P2PMsg
+import com.wx.rtc.bean.RecvCommandMessage
+import com.wx.rtc.bean.RoomMsg
+import com.wx.rtc.bean.SendCommandMessage
+import com.wx.rtc.bean.SignalCommand
+import okio.Buffer
+import okio.ByteString
+import okio.utf8Size
+import java.io.IOException
+
+/**
+ * 二进制信令编码，结构与 JSON 信令一一对应，常用的字段名和信令名用 1 字节编号代替。
+ * 上行由 SendCommandMessage 直接写入 Buffer，下行直接读成 RecvCommandMessage，都不经过 JSON 文本和 JSONObject：
+ *
+ * frame  := MAGIC VERSION object
+ * object := varint(字段数) { key value }
+ * key    := 编号(0 ~ 0xFE) | 0xFF string
+ * value  := 类型(1 字节) 数据
+ *
+ * KEYS、WORDS 只能在末尾追加，改动已有顺序需要升级 NAME
+ */
+internal object BinarySignalCodec {
+    const val NAME = "tlv1"
+
+    private const val MAGIC = 0x57
+    private const val VERSION = 1
+    private const val KEY_LITERAL = 0xFF
+
+    private const val TYPE_NULL = 0
+    private const val TYPE_FALSE = 1
+    private const val TYPE_TRUE = 2
+    private const val TYPE_INT = 3
+    private const val TYPE_DOUBLE = 4
+    private const val TYPE_STRING = 5
+    private const val TYPE_WORD = 6
+    private const val TYPE_OBJECT = 7
+    private const val TYPE_ARRAY = 8
+
+    private val KEYS = listOf(
+        "signal", "code", "message", "user_id", "available", "cmd", "room_id", "from", "to",
+        "publish_url", "unpublish_url", "pull_url", "record_file_name", "p2p_msg", "room_msg", "call_msg",
+        "result", "rst", "need_focus", "focus_point", "drop_speed", "scale", "need_magnify", "barcodeDate",
+        "high_pressure", "low_pressure", "pulse", "has_csf", "right_eye", "left_eye", "normal", "femtosecond",
+        "astigmatism", "pid", "asr_result", "gesture", "oxygen_saturation", "weight_scale", "respiratory_rate",
+        "capture_image_url", "app_id", "connect_url", "network_type", "call_cmd", "record_cmd",
+        "process_cmd_list", "type", "spk_list", "spk_id", "spk_name", "hospital_id", "mix_id", "extra_data",
+        "need_after_asr", "end_file_name", SocketManager.SIGNAL_CODEC_KEY, SocketManager.BATCH_KEY,
+        SignalingConnection.CHANNEL_KEY, SocketManager.DATA_CHANNEL_RELAY_KEY
+    )
+
+    private val WORDS = listOf(
+        SignalCommand.START_PROCESS, SignalCommand.END_PROCESS, SignalCommand.PROCESS_CMD,
+        SignalCommand.RECORD_CMD, SignalCommand.ENTER_ROOM, SignalCommand.EXIT_ROOM, SignalCommand.LOGIN,
+        SignalCommand.LOGOUT, SignalCommand.SEND_P2P_MSG, SignalCommand.SEND_ROOM_MSG, SignalCommand.CALL_CMD,
+        SignalCommand.VIDEO_AVAILABLE, SignalCommand.SUB_VIDEO_AVAILABLE, SignalCommand.AUDIO_AVAILABLE,
+        SignalCommand.ENTER_ROOM_BACK, SignalCommand.LOGIN_BACK, SignalCommand.LOGOUT_BACK,
+        SignalCommand.START_RECORD_BACK, SignalCommand.END_RECORD_BACK, SignalCommand.GET_UNPUBLISH,
+        SignalCommand.EXIT_ROOM_BACK, SignalCommand.REMOTE_ENTER_ROOM, SignalCommand.REMOTE_EXIT_ROOM,
+        SignalCommand.P2P_MSG_REV, SignalCommand.ROOM_MSG_REV, SignalCommand.CALL_MSG_REV, NAME,
+        SignalCommand.BATCH
+    )
+
+    private val KEY_INDEX: Map<String, Int> = KEYS.withIndex().associate { it.value to it.index }
+    private val WORD_INDEX: Map<String, Int> = WORDS.withIndex().associate { it.value to it.index }
+
+    fun encode(message: SendCommandMessage): ByteString {
+        val buffer = Buffer()
+        buffer.writeByte(MAGIC)
+        buffer.writeByte(VERSION)
+        writeObject(buffer, message)
+        return buffer.readByteString()
+    }
+
+    /**
+     * 直接解析成 RecvCommandMessage，不生成中间的 JSONObject；不认识的字段跳过，
+     * 字段类型与 JSON 信令一样宽松，数字可以当字符串读，数字字符串可以当数字读
+     */
+    @Throws(IOException::class)
+    fun decodeCommand(bytes: ByteString): RecvCommandMessage {
+        val buffer = Buffer().write(bytes)
+        if (buffer.readByte().toInt() and 0xFF != MAGIC || buffer.readByte().toInt() != VERSION) {
+            throw IOException("Unsupported binary signaling frame")
+        }
+        val message = RecvCommandMessage()
+        readFields(buffer) { key ->
+            when (key) {
+                "code" -> message.code = readInt(buffer)
+                "message" -> message.message = readText(buffer)
+                "signal" -> message.signal = readText(buffer)
+                SignalingConnection.CHANNEL_KEY -> message.channel = readText(buffer)
+                SocketManager.SIGNAL_CODEC_KEY -> message.signalCodec = readText(buffer)
+                SocketManager.BATCH_KEY -> message.batch = readBoolean(buffer) ?: false
+                SocketManager.DATA_CHANNEL_RELAY_KEY -> message.dataChannelRelay = readBoolean(buffer) ?: false
+                "publish_url" -> message.publishUrl = readText(buffer)
+                "unpublish_url" -> message.unpublishUrl = readText(buffer)
+                "user_id" -> message.userId = readText(buffer)
+                "pull_url" -> message.pullUrl = readText(buffer)
+                "available" -> message.available = readBoolean(buffer) ?: throw IOException("Expected boolean for $key")
+                "record_file_name" -> message.recordFileName = readText(buffer)
+                "p2p_msg" -> message.p2pMsg = readP2PMsg(buffer)
+                "room_msg" -> message.roomMsg = readRoomMsg(buffer)
+                "call_msg" -> message.callMsg = readCallMsg(buffer)
+                "result" -> message.result = readProcessData(buffer)
+                else -> return@readFields false
+            }
+            true
+        }
+        return message
+    }
+
+    private fun readP2PMsg(buffer: Buffer): P2PMsg {
+        val msg = P2PMsg()
+        readObjectFields(buffer) { key ->
+            when (key) {
+                "from" -> msg.from = readText(buffer)
+                "to" -> msg.to = readText(buffer)
+                "message" -> msg.message = readText(buffer)
+                else -> return@readObjectFields false
+            }
+            true
+        }
+        return msg
+    }
+
+    private fun readRoomMsg(buffer: Buffer): RoomMsg {
+        val msg = RoomMsg()
+        readObjectFields(buffer) { key ->
+            when (key) {
+                "cmd" -> msg.cmd = readText(buffer)
+                "message" -> msg.message = readText(buffer)
+                else -> return@readObjectFields false
+            }
+            true
+        }
+        return msg
+    }
+
+    private fun readCallMsg(buffer: Buffer): CallMsg {
+        val msg = CallMsg()
+        readObjectFields(buffer) { key ->
+            when (key) {
+                "cmd" -> msg.cmd = readText(buffer)
+                "user_id" -> msg.userId = readText(buffer)
+                "room_id" -> msg.roomId = readText(buffer)
+                else -> return@readObjectFields false
+            }
+            true
+        }
+        return msg
+    }
+
+    private fun readProcessData(buffer: Buffer): WXRTCDef.ProcessData {
+        val data = WXRTCDef.ProcessData()
+        readObjectFields(buffer) { key ->
+            when (key) {
+                "rst" -> data.rst = readInt(buffer)
+                "need_focus" -> data.need_focus = readInt(buffer)
+                "focus_point" -> data.focus_point = readFloatList(buffer)
+                "drop_speed" -> data.drop_speed = readText(buffer)
+                "scale" -> data.scale = readText(buffer)
+                "need_magnify" -> data.need_magnify = readInt(buffer)
+                "barcodeDate" -> data.barcodeDate = readText(buffer)
+                "high_pressure" -> data.high_pressure = readText(buffer)
+                "low_pressure" -> data.low_pressure = readText(buffer)
+                "pulse" -> data.pulse = readText(buffer)
+                "has_csf" -> data.has_csf = readInt(buffer)
+                "right_eye" -> data.right_eye = readEyeMark(buffer)
+                "left_eye" -> data.left_eye = readEyeMark(buffer)
+                "pid" -> data.pid = readText(buffer)
+                "asr_result" -> data.asr_result = readText(buffer)
+                "gesture" -> data.gesture = readInt(buffer)
+                "oxygen_saturation" -> data.oxygen_saturation = readText(buffer)
+                "weight_scale" -> data.weight_scale = readText(buffer)
+                "respiratory_rate" -> data.respiratory_rate = readText(buffer)
+                "capture_image_url" -> data.capture_image_url = readText(buffer)
+                else -> return@readObjectFields false
+            }
+            true
+        }
+        return data
+    }
+
+    private fun readEyeMark(buffer: Buffer): WXRTCDef.EyeMark {
+        val eyeMark = WXRTCDef.EyeMark()
+        readObjectFields(buffer) { key ->
+            when (key) {
+                "normal" -> eyeMark.normal = readInt(buffer)
+                "femtosecond" -> eyeMark.femtosecond = readInt(buffer)
+                "astigmatism" -> eyeMark.astigmatism = readInt(buffer)
+                else -> return@readObjectFields false
+            }
+            true
+        }
+        return eyeMark
+    }
+
+    /**
+     * 逐个读出字段名交给 field 读取字段值，field 返回 false 表示不关心，跳过该值
+     */
+    private inline fun readFields(buffer: Buffer, field: (String) -> Boolean) {
+        val count = readVarint(buffer)
+        for (i in 0 until count) {
+            val key = readKey(buffer)
+            if (!field(key)) {
+                skipValue(buffer, buffer.readByte().toInt())
+            }
+        }
+    }
+
+    /**
+     * 嵌套对象，值必须是 object
+     */
+    private inline fun readObjectFields(buffer: Buffer, field: (String) -> Boolean) {
+        val type = buffer.readByte().toInt()
+        if (type != TYPE_OBJECT) {
+            throw IOException("Expected object, type $type")
+        }
+        readFields(buffer, field)
+    }
+
+    private fun readKey(buffer: Buffer): String {
+        val index = buffer.readByte().toInt() and 0xFF
+        return if (index == KEY_LITERAL) {
+            readString(buffer)
+        } else {
+            KEYS.getOrNull(index) ?: throw IOException("Unknown key $index")
+        }
+    }
+
+    private fun readText(buffer: Buffer): String? {
+        return when (val type = buffer.readByte().toInt()) {
+            TYPE_NULL -> null
+            TYPE_STRING -> readString(buffer)
+            TYPE_WORD -> readWord(buffer)
+            TYPE_FALSE -> "false"
+            TYPE_TRUE -> "true"
+            TYPE_INT -> unZigZag(readVarintLong(buffer)).toString()
+            TYPE_DOUBLE -> java.lang.Double.longBitsToDouble(buffer.readLong()).toString()
+            else -> throw IOException("Expected string, type $type")
+        }
+    }
+
+    private fun readInt(buffer: Buffer): Int {
+        return readDouble(buffer).let {
+            if (it.isNaN()) throw IOException("Expected number") else it.toInt()
+        }
+    }
+
+    private fun readDouble(buffer: Buffer): Double {
+        return when (val type = buffer.readByte().toInt()) {
+            TYPE_INT -> unZigZag(readVarintLong(buffer)).toDouble()
+            TYPE_DOUBLE -> java.lang.Double.longBitsToDouble(buffer.readLong())
+            TYPE_STRING -> readString(buffer).toDoubleOrNull() ?: throw IOException("Expected number")
+            else -> throw IOException("Expected number, type $type")
+        }
+    }
+
+    /**
+     * 不是布尔值时跳过并返回 null
+     */
+    private fun readBoolean(buffer: Buffer): Boolean? {
+        return when (val type = buffer.readByte().toInt()) {
+            TYPE_FALSE -> false
+            TYPE_TRUE -> true
+            TYPE_STRING -> readString(buffer).toBooleanStrictOrNull()
+            else -> {
+                skipValue(buffer, type)
+                null
+            }
+        }
+    }
+
+    private fun readFloatList(buffer: Buffer): List<Float> {
+        val type = buffer.readByte().toInt()
+        if (type != TYPE_ARRAY) {
+            throw IOException("Expected array, type $type")
+        }
+        val count = readVarint(buffer)
+        val list = ArrayList<Float>(count)
+        for (i in 0 until count) {
+            list.add(readDouble(buffer).toFloat())
+        }
+        return list
+    }
+
+    private fun readWord(buffer: Buffer): String {
+        val index = buffer.readByte().toInt() and 0xFF
+        return WORDS.getOrNull(index) ?: throw IOException("Unknown word $index")
+    }
+
+    private fun skipValue(buffer: Buffer, type: Int) {
+        when (type) {
+            TYPE_NULL, TYPE_FALSE, TYPE_TRUE -> Unit
+            TYPE_INT -> readVarintLong(buffer)
+            TYPE_DOUBLE -> buffer.skip(8)
+            TYPE_STRING -> buffer.skip(readVarint(buffer).toLong())
+            TYPE_WORD -> readWord(buffer)
+            TYPE_OBJECT -> {
+                val count = readVarint(buffer)
+                for (i in 0 until count) {
+                    readKey(buffer)
+                    skipValue(buffer, buffer.readByte().toInt())
+                }
+            }
+            TYPE_ARRAY -> {
+                val count = readVarint(buffer)
+                for (i in 0 until count) {
+                    skipValue(buffer, buffer.readByte().toInt())
+                }
+            }
+            else -> throw IOException("Unknown value type $type")
+        }
+    }
+
+    private fun writeObject(buffer: Buffer, message: SendCommandMessage) {
+        writeVarint(buffer, message.size.toLong())
+        for (i in 0 until message.size) {
+            val key = message.keyAt(i)
+            val index = KEY_INDEX[key]
+            if (index != null) {
+                buffer.writeByte(index)
+            } else {
+                buffer.writeByte(KEY_LITERAL)
+                writeString(buffer, key)
+            }
+            writeValue(buffer, message.valueAt(i))
+        }
+    }
+
+    private fun writeValue(buffer: Buffer, value: Any?) {
+        when (value) {
+            null -> buffer.writeByte(TYPE_NULL)
+            is Boolean -> buffer.writeByte(if (value) TYPE_TRUE else TYPE_FALSE)
+            is Int, is Long, is Short, is Byte -> {
+                buffer.writeByte(TYPE_INT)
+                writeVarint(buffer, zigZag((value as Number).toLong()))
+            }
+            is Number -> {
+                buffer.writeByte(TYPE_DOUBLE)
+                buffer.writeLong(java.lang.Double.doubleToLongBits(value.toDouble()))
+            }
+            is String -> {
+                val word = WORD_INDEX[value]
+                if (word != null) {
+                    buffer.writeByte(TYPE_WORD)
+                    buffer.writeByte(word)
+                } else {
+                    buffer.writeByte(TYPE_STRING)
+                    writeString(buffer, value)
+                }
+            }
+            is SendCommandMessage -> {
+                buffer.writeByte(TYPE_OBJECT)
+                writeObject(buffer, value)
+            }
+            is List<*> -> {
+                buffer.writeByte(TYPE_ARRAY)
+                writeVarint(buffer, value.size.toLong())
+                for (item in value) {
+                    writeValue(buffer, item)
+                }
+            }
+            else -> {
+                buffer.writeByte(TYPE_STRING)
+                writeString(buffer, value.toString())
+            }
+        }
+    }
+
+    private fun writeString(buffer: Buffer, value: String) {
+        writeVarint(buffer, value.utf8Size())
+        buffer.writeUtf8(value)
+    }
+
+    private fun readString(buffer: Buffer): String {
+        return buffer.readUtf8(readVarintLong(buffer))
+    }
+
+    private fun writeVarint(buffer: Buffer, value: Long) {
+        var v = value
+        while (v and 0x7FL.inv() != 0L) {
+            buffer.writeByte(((v and 0x7F) or 0x80).toInt())
+            v = v ushr 7
+        }
+        buffer.writeByte(v.toInt())
+    }
+
+    private fun readVarintLong(buffer: Buffer): Long {
+        var result = 0L
+        var shift = 0
+        while (shift < 64) {
+            val b = buffer.readByte().toInt()
+            result = result or ((b and 0x7F).toLong() shl shift)
+            if (b and 0x80 == 0) {
+                return result
+            }
+            shift += 7
+        }
+        throw IOException("Malformed varint")
+    }
+
+    private fun readVarint(buffer: Buffer): Int {
+        val value = readVarintLong(buffer)
+        if (value < 0 || value > buffer.size) {
+            throw IOException("Invalid length $value")
+        }
+        return value.toInt()
+    }
+
+    private fun zigZag(value: Long): Long = (value shl 1) xor (value shr 63)
+
+    private fun unZigZag(value: Long): Long = (value ushr 1) xor -(value and 1)
+}
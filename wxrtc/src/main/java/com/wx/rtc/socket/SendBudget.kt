@@ -0,0 +1,67 @@
+package com.wx.rtc.socket
+
+/**
+ * 多个会话共用一条 WebSocket 时的发送额度。OkHttp 的发送队列超过 16 MiB 会直接关闭连接，
+ * 这里把队列上限 maxQueuedBytes 平分给各会话：一个会话在队列中的字节数超过自己那一份后不再入队，
+ * 信令留在该会话的重发队列里，不会挤占其他会话，也不会让整条连接被关闭。
+ * 队列先进先出，已发出的字节数等于累计入队字节数减去当前队列大小，据此算出每个会话还有多少字节在队列中
+ */
+internal class SendBudget(private val maxQueuedBytes: Long) {
+    private var enqueuedBytes = 0L
+    private val queues = HashMap<String, SessionQueue>()
+
+    private class SessionQueue {
+        // 每条信令入队后的累计字节数和大小，按入队顺序
+        val ends = ArrayDeque<Long>()
+        val sizes = ArrayDeque<Long>()
+        var bytes = 0L
+
+        fun release(sentBytes: Long) {
+            while (ends.isNotEmpty() && ends.first() <= sentBytes) {
+                ends.removeFirst()
+                bytes -= sizes.removeFirst()
+            }
+        }
+    }
+
+    /**
+     * 额度允许时调用 send 入队，返回是否入队。queueSize 为连接当前的队列大小，sessions 为共用连接的会话数。
+     * 会话在队列中没有信令时，超过自己那一份的单条信令也放行，只要队列为空或放得下，避免大信令永远发不出去
+     */
+    @Synchronized
+    fun trySend(sessionId: String, size: Long, queueSize: Long, sessions: Int, send: () -> Boolean): Boolean {
+        val queue = queues.getOrPut(sessionId) { SessionQueue() }
+        // 换了新连接时队列为空，之前入队的都算已发出
+        queue.release(enqueuedBytes - queueSize)
+        val share = maxQueuedBytes / maxOf(sessions, 1)
+        if (queue.bytes > 0 && queue.bytes + size > share) {
+            return false
+        }
+        if (queueSize > 0 && queueSize + size > maxQueuedBytes) {
+            return false
+        }
+        if (!send()) {
+            return false
+        }
+        enqueuedBytes += size
+        queue.ends.addLast(enqueuedBytes)
+        queue.sizes.addLast(size)
+        queue.bytes += size
+        return true
+    }
+
+    /**
+     * 会话在队列中还有多少字节
+     */
+    @Synchronized
+    fun queuedBytes(sessionId: String, queueSize: Long): Long {
+        val queue = queues[sessionId] ?: return 0L
+        queue.release(enqueuedBytes - queueSize)
+        return queue.bytes
+    }
+
+    @Synchronized
+    fun remove(sessionId: String) {
+        queues.remove(sessionId)
+    }
+}
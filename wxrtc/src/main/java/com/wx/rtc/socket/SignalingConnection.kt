@@ -0,0 +1,309 @@
+package com.wx.rtc.socket
+
+import android.util.Log
+import androidx.annotation.VisibleForTesting
+import com.wx.rtc.Config
+import com.wx.rtc.bean.RecvCommandMessage
+import com.wx.rtc.bean.SendCommandMessage
+import com.wx.rtc.utils.RTCRuntime
+import okhttp3.OkHttpClient
+import okhttp3.Request
+import okhttp3.Response
+import okhttp3.WebSocket
+import okhttp3.WebSocketListener
+import okio.ByteString
+import okio.utf8Size
+import org.json.JSONObject
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.ScheduledFuture
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * 一条信令 WebSocket，连接、心跳、重连由所有挂在上面的会话（SocketManager）共用。
+ * 多路复用时每个会话一个 channel id，上行信令带上 channel，服务端必须在下行信令中原样带回 channel，
+ * 按 channel 分发给对应会话；不带 channel 或 channel 不属于任何会话的信令丢弃。
+ * 不复用时只有一个会话，信令不带 channel。每个会话在 OkHttp 发送队列中的字节数受 SendBudget 限制。
+ * 二进制信令由各会话登录时分别协商，连接本身不记录编码
+ */
+internal class SignalingConnection private constructor(
+    private val url: String,
+    val multiplex: Boolean
+) {
+    private val okHttpClient: OkHttpClient = RTCRuntime.httpClient.newBuilder()
+        .retryOnConnectionFailure(true) //允许失败重试
+        .pingInterval(30, TimeUnit.SECONDS) //心跳
+        .readTimeout(20, TimeUnit.SECONDS) //设置读取超时时间
+        .writeTimeout(20, TimeUnit.SECONDS) //设置写入超时时间
+        .connectTimeout(10, TimeUnit.SECONDS)
+        .build()
+    private val request: Request = Request.Builder().url(url).build()
+    private val channels = ConcurrentHashMap<String, Session>()
+    private val sendBudget = SendBudget(MAX_QUEUED_BYTES)
+
+    @Volatile
+    private var webSocket: WebSocket? = null
+    @Volatile
+    private var connected = false
+    @Volatile
+    private var connecting = false
+    private var reconnectNum = 0
+    private var reconnectFuture: ScheduledFuture<*>? = null
+    private var retryFuture: ScheduledFuture<*>? = null
+
+    /**
+     * 挂在连接上的会话，下行信令和连接事件都在 OkHttp 的读线程上回调
+     */
+    interface Session {
+        fun onSocketOpen()
+        fun onSignal(message: RecvCommandMessage)
+        fun onParseError()
+
+        /**
+         * 重发之前发送失败的信令，最多 max 条
+         */
+        fun drainRetryQueue(max: Int)
+    }
+
+    val isConnected: Boolean
+        get() = webSocket != null && connected
+
+    fun connect() {
+        synchronized(this) {
+            if (isConnected || connecting || channels.isEmpty()) {
+                return
+            }
+            connecting = true
+        }
+        Log.d(TAG, "WebSocket start connecting $url")
+        okHttpClient.newWebSocket(request, listener)
+    }
+
+    /**
+     * 以 channelId 会话的身份发送，binary 为该会话登录时协商的编码；
+     * 多路复用时在信令最前面加上 channel，原信令不变，发送失败后仍可重新发送。
+     * 会话超出发送额度时返回 false，由会话留在重发队列中稍后再发
+     */
+    fun send(channelId: String, message: SendCommandMessage, binary: Boolean): Boolean {
+        val socket = webSocket
+        if (socket == null || !connected) {
+            return false
+        }
+        val tagged = if (multiplex) message.withFirst(CHANNEL_KEY, channelId) else message
+        val bytes = if (binary) BinarySignalCodec.encode(tagged) else null
+        val text = if (binary) null else tagged.toJson()
+        val size = bytes?.size?.toLong() ?: text!!.utf8Size()
+        if (size > MAX_MESSAGE_BYTES) {
+            // OkHttp 会因为队列超限关闭整条连接，重发也一样，直接丢弃
+            Log.e(TAG, "Signal ${message.signal} of $size bytes is too large, dropped")
+            return true
+        }
+        return sendBudget.trySend(channelId, size, socket.queueSize(), channels.size) {
+            if (bytes != null) socket.send(bytes) else socket.send(text!!)
+        }
+    }
+
+    private fun attach(channelId: String, manager: Session) {
+        channels[channelId] = manager
+        synchronized(this) {
+            if (retryFuture == null) {
+                retryFuture = RTCRuntime.scheduler.scheduleWithFixedDelay(
+                    { drainRetryQueues() }, RETRY_INTERVAL_MS, RETRY_INTERVAL_MS, TimeUnit.MILLISECONDS
+                )
+            }
+        }
+    }
+
+    private fun detach(channelId: String): Boolean {
+        channels.remove(channelId)
+        sendBudget.remove(channelId)
+        synchronized(this) {
+            if (channels.isNotEmpty()) {
+                return false
+            }
+            retryFuture?.cancel(false)
+            retryFuture = null
+            reconnectFuture?.cancel(false)
+            reconnectFuture = null
+            connecting = false
+        }
+        webSocket?.close(1000, "webSocket is closing")
+        webSocket = null
+        connected = false
+        return true
+    }
+
+    /**
+     * 每个会话每轮最多重发 RETRY_PER_CHANNEL 条，积压多的会话不会占满连接
+     */
+    private fun drainRetryQueues() {
+        if (!isConnected) {
+            return
+        }
+        for (manager in channels.values) {
+            manager.drainRetryQueue(RETRY_PER_CHANNEL)
+        }
+    }
+
+    @VisibleForTesting
+    internal fun dispatch(message: RecvCommandMessage) {
+        if (!multiplex) {
+            channels.values.firstOrNull()?.onSignal(message)
+            return
+        }
+        // 多路复用时不猜测归属，也不广播
+        val channelId = message.channel
+        if (channelId.isNullOrEmpty()) {
+            Log.w(TAG, "Untagged signal ${message.signal} on shared connection, dropped")
+            return
+        }
+        channels[channelId]?.onSignal(message)
+            ?: Log.w(TAG, "No session for channel $channelId")
+    }
+
+    private fun onParseError() {
+        if (multiplex) {
+            // 解析失败时拿不到 channel，不知道属于哪个会话
+            Log.w(TAG, "Unparsable signal on shared connection, dropped")
+            return
+        }
+        channels.values.firstOrNull()?.onParseError()
+    }
+
+    private fun reconnect() {
+        synchronized(this) {
+            if (channels.isEmpty()) {
+                return
+            }
+            if (reconnectNum >= Config.RECONNECT_MAX_NUM) {
+                Log.e(TAG, "webSocket reconnect fail, reconnect num more than ${Config.RECONNECT_MAX_NUM}, please check url!")
+                return
+            }
+            Log.d(TAG, "webSocket reconnect...")
+            reconnectFuture?.cancel(false)
+            reconnectFuture = RTCRuntime.scheduler.schedule({
+                reconnectNum++
+                connect()
+            }, Config.RECONNECT_MILLIS, TimeUnit.MILLISECONDS)
+        }
+    }
+
+    private val listener = object : WebSocketListener() {
+        override fun onOpen(webSocket: WebSocket, response: Response) {
+            super.onOpen(webSocket, response)
+            synchronized(this@SignalingConnection) {
+                connecting = false
+                reconnectNum = 0
+                reconnectFuture?.cancel(false)
+                reconnectFuture = null
+            }
+            if (channels.isEmpty()) {
+                webSocket.close(1000, "webSocket is closing")
+                return
+            }
+            this@SignalingConnection.webSocket = webSocket
+            connected = true
+            // 每个会话重新登录、进房，恢复断线前的状态
+            for (manager in channels.values) {
+                manager.onSocketOpen()
+            }
+        }
+
+        override fun onMessage(webSocket: WebSocket, text: String) {
+            super.onMessage(webSocket, text)
+            if (this@SignalingConnection.webSocket !== webSocket) {
+                return
+            }
+            Log.d(TAG, "enter WebSocketListener onMessage(), String: $text")
+            val message = try {
+                SocketManager.parseMessage(JSONObject(text))
+            } catch (throwable: Throwable) {
+                onParseError()
+                return
+            }
+            dispatch(message)
+        }
+
+        override fun onMessage(webSocket: WebSocket, bytes: ByteString) {
+            super.onMessage(webSocket, bytes)
+            if (this@SignalingConnection.webSocket !== webSocket) {
+                return
+            }
+            Log.d(TAG, "enter WebSocketListener onMessage(), bytes: ${bytes.size}")
+            val message = try {
+                BinarySignalCodec.decodeCommand(bytes)
+            } catch (throwable: Throwable) {
+                onParseError()
+                return
+            }
+            dispatch(message)
+        }
+
+        override fun onClosed(webSocket: WebSocket, code: Int, reason: String) {
+            super.onClosed(webSocket, code, reason)
+            if (this@SignalingConnection.webSocket === webSocket) {
+                this@SignalingConnection.webSocket = null
+                connected = false
+            }
+        }
+
+        override fun onFailure(webSocket: WebSocket, t: Throwable, response: Response?) {
+            super.onFailure(webSocket, t, response)
+            synchronized(this@SignalingConnection) {
+                connecting = false
+            }
+            val current = this@SignalingConnection.webSocket
+            if (current != null && current !== webSocket) {
+                return
+            }
+            if (current != null) {
+                Log.e(TAG, "other reason connect fail ")
+                this@SignalingConnection.webSocket = null
+                connected = false
+            }
+            reconnect()
+        }
+    }
+
+    companion object {
+        private val TAG: String = SignalingConnection::class.java.name
+        const val CHANNEL_KEY = "channel"
+        private const val RETRY_INTERVAL_MS = 100L
+        private const val RETRY_PER_CHANNEL = 8
+        // OkHttp 发送队列超过 16 MiB 时关闭连接，各会话共用其中一半，留出余量
+        private const val MAX_MESSAGE_BYTES = 16L * 1024 * 1024
+        private const val MAX_QUEUED_BYTES = MAX_MESSAGE_BYTES / 2
+
+        private val nextChannelId = AtomicInteger()
+
+        // 多路复用的连接，按服务地址共用
+        private val shared = HashMap<String, SignalingConnection>()
+
+        /**
+         * 把 manager 挂到 url 对应的连接上，返回连接和该会话的 channel id
+         */
+        fun attach(url: String, multiplex: Boolean, manager: Session): Pair<SignalingConnection, String> {
+            val channelId = nextChannelId.incrementAndGet().toString()
+            synchronized(shared) {
+                val connection = if (multiplex) {
+                    shared.getOrPut(url) { SignalingConnection(url, true) }
+                } else {
+                    SignalingConnection(url, false)
+                }
+                connection.attach(channelId, manager)
+                return Pair(connection, channelId)
+            }
+        }
+
+        /**
+         * 最后一个会话离开时关闭连接
+         */
+        fun detach(connection: SignalingConnection, channelId: String) {
+            synchronized(shared) {
+                if (connection.detach(channelId) && shared[connection.url] === connection) {
+                    shared.remove(connection.url)
+                }
+            }
+        }
+    }
+}
@@ -7,12 +7,16 @@ internal interface SocketListener {
     fun onSocketOpen()
     fun onLogin()
     fun onLogout(reason: Int)
-    fun onEnterRoom(publishUrl: String)
+    /**
+     * @param dataChannelRelay 服务端是否转发数据通道上的房间消息和点对点消息，不转发时只能走信令
+     */
+    fun onEnterRoom(publishUrl: String, dataChannelRelay: Boolean)
     fun onExitRoom(reason: Int)
     fun onGetUnpublishUrl(unpublishUrl: String)
     fun onRemoteUserEnterRoom(pullUrl: String, userId: String)
     fun onRemoteUserLeaveRoom(userId: String, reason: Int)
     fun onUserVideoAvailable(userId: String, available: Boolean)
+    fun onUserSubStreamAvailable(userId: String, available: Boolean)
     fun onUserAudioAvailable(userId: String, available: Boolean)
     fun onRecvP2PMsg(fromUserId: String, message: String?)
     fun onRecvRoomMsg(userId: String, cmd: String, message: String?)
@@ -1,503 +1,626 @@
 package com.wx.rtc.socket
 
-import android.content.Context
+import android.os.SystemClock
 import android.util.Log
+import androidx.annotation.VisibleForTesting
 import com.wx.rtc.Config
 import com.wx.rtc.WXRTCDef
 import com.wx.rtc.bean.CallMsg
 import com.wx.rtc.bean.P2PMsg
 import com.wx.rtc.bean.RecvCommandMessage
 import com.wx.rtc.bean.RoomMsg
+import com.wx.rtc.bean.SendCommandMessage
 import com.wx.rtc.bean.SignalCommand
+import com.wx.rtc.utils.ProcessResultChannels
+import com.wx.rtc.utils.RTCRuntime
+import com.wx.rtc.utils.SerialLane
 import kotlinx.coroutines.CoroutineScope
-import kotlinx.coroutines.Dispatchers
-import kotlinx.coroutines.Job
-import kotlinx.coroutines.delay
+import kotlinx.coroutines.cancel
 import kotlinx.coroutines.launch
-import okhttp3.OkHttpClient
-import okhttp3.OkHttpClient.Builder
-import okhttp3.Request
-import okhttp3.Response
-import okhttp3.WebSocket
-import okhttp3.WebSocketListener
-import okio.ByteString
+import org.json.JSONException
 import org.json.JSONObject
 import java.util.LinkedList
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.Executor
+import java.util.concurrent.ScheduledFuture
 import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
 
-internal class SocketManager {
-    private var mReconnectNum = 0
+/**
+ * 一个会话的信令通道：上行排队、合并，下行解析、回调；底层连接由 SignalingConnection 管理，多路复用时与其他会话共用
+ */
+internal class SocketManager : SignalingConnection.Session {
     private var mWSURL: String = Config.WS_URL
-    private var mOkHttpClient: OkHttpClient? = null
-    private var mRequest: Request? = null
-    private var mWebSocket: WebSocket? = null
-    private var mConnected = false
-    private var mNeedReconnect = false
-    private val mMessages = LinkedList<String>()
-    private var mMessageJob: Job? = null
-    private var mReconnectJob: Job? = null
-    private var mContext: Context? = null
+    private var mConnection: SignalingConnection? = null
+    private var mChannelId: String = ""
+    private val mMessages = LinkedList<SendCommandMessage>()
     private var mListener: SocketListener? = null
+    // 回调分发挂在这里，destroy 时一并取消
+    private var mScope: CoroutineScope? = null
+    // 信令按到达顺序在这条通道上解析和回调，不占用主线程；每个会话一条，互不阻塞
+    private var mEventLane: SerialLane? = null
+    private val mPendingEvents = AtomicInteger()
+    // 回调积压时，只要最新结果的 rst 在这里只留最新一条，由一个回调任务取走；被覆盖的计入合并数
+    private var mProcessResults: ProcessResultChannels? = null
+    private val mOverflowResults = HashMap<Int, WXRTCDef.ProcessData>()
+    // 本会话登录时协商的信令编码，每次重新连接后先用 JSON 登录
+    @Volatile
+    private var mBinarySignaling = false
+    // 服务端在登录应答中声明支持批量信令后，窗口内的信令合并成一帧发送
+    @Volatile
+    private var mBatchSupported = false
+    @Volatile
+    private var mBatchWindowMillis = Config.SIGNAL_BATCH_WINDOW_MILLIS
+    private val mBatch = ArrayList<SendCommandMessage>()
+    private var mBatchFuture: ScheduledFuture<*>? = null
+    // 等待应答的请求发出的时间，以应答信令为键
+    private val mRequestSentAt = ConcurrentHashMap<String, Long>()
 
-    fun init(context: Context, url: String?) {
-        this.mContext = context
+    /**
+     * 最近一次请求到收到应答的耗时（毫秒），含服务端处理时间；-1 表示还没有测到
+     */
+    @Volatile
+    var signalingRttMs = -1
+        private set
+
+    /**
+     * 在本会话的信令通道上执行，与信令回调按顺序进行；destroy 之后提交的任务丢弃
+     */
+    val eventExecutor = Executor { command -> mEventLane?.execute(command) }
+
+    /**
+     * multiplex 为 true 时与同一服务地址的其他会话共用一条 WebSocket
+     */
+    fun init(url: String?, parentScope: CoroutineScope, multiplex: Boolean = false) {
+        mScope?.cancel()
+        mScope = RTCRuntime.childScope(parentScope, "SocketManager")
+        mEventLane?.shutdown()
+        mEventLane = RTCRuntime.newSerialLane("signaling")
         url?.let {
             this.mWSURL = it
         }
-        mNeedReconnect = true
-
-        if (mOkHttpClient == null) {
-            mOkHttpClient = Builder()
-                .retryOnConnectionFailure(true) //允许失败重试
-                .pingInterval(30, TimeUnit.SECONDS) //心跳
-                .readTimeout(20, TimeUnit.SECONDS) //设置读取超时时间
-                .writeTimeout(20, TimeUnit.SECONDS) //设置写入超时时间
-                .connectTimeout(10, TimeUnit.SECONDS)
-                .build()
-        }
 
-        if (mRequest == null) {
-            mRequest = Request.Builder()
-                .url(mWSURL)
-                .build()
+        synchronized(mMessages) {
+            mMessages.clear()
         }
-
-        if (mMessageJob?.isActive == true) {
-            mMessageJob!!.cancel()
+        synchronized(mOverflowResults) {
+            mOverflowResults.clear()
         }
-        mMessageJob = CoroutineScope(Dispatchers.IO).launch {
-            while (true) {
-                delay(100L)
-                if (isConnected && !mMessages.isEmpty()) {
-                    if (sendMessage(mMessages.last())) {
-                        mMessages.removeLast()
-                    }
-                }
-            }
+        mBinarySignaling = false
+        mConnection?.let {
+            SignalingConnection.detach(it, mChannelId)
         }
+        val (connection, channelId) = SignalingConnection.attach(mWSURL, multiplex, this)
+        mConnection = connection
+        mChannelId = channelId
     }
 
     fun setListener(listener: SocketListener?) {
         this.mListener = listener
     }
 
+    /**
+     * 识别结果的投递通道，回调积压时按各 rst 的投递策略决定哪些结果可以合并
+     */
+    fun setProcessResults(results: ProcessResultChannels?) {
+        this.mProcessResults = results
+    }
+
     val isConnected: Boolean
-        get() = mWebSocket != null && mConnected
+        get() = mConnection?.isConnected == true
 
     fun startConnect() {
-        Log.d(TAG, "WebSocket start connecting...")
         if (isConnected) {
             Log.d(TAG, "WebSocket has connected successfully")
             return
         }
-        mOkHttpClient!!.newWebSocket(mRequest!!, webSocketListener)
+        mConnection?.connect()
+    }
+
+    /**
+     * 设置批量发送窗口，0 表示不合并
+     */
+    fun setBatchWindow(windowMillis: Long) {
+        mBatchWindowMillis = windowMillis
+        if (windowMillis <= 0) {
+            flushBatch()
+        }
+    }
+
+    fun sendWebSocketMessage(message: SendCommandMessage): Boolean {
+        if (mBatchSupported && mBatchWindowMillis > 0 && isConnected) {
+            addToBatch(message)
+            return true
+        }
+        return sendNow(message)
+    }
+
+    private fun addToBatch(message: SendCommandMessage) {
+        var flushNow = false
+        synchronized(mBatch) {
+            // 状态类信令只保留窗口内最新的一条
+            val signal = message.signal
+            if (signal != null && signal in STATE_SIGNALS) {
+                mBatch.removeAll { it.signal == signal }
+            }
+            mBatch.add(message)
+            if (mBatch.size >= Config.SIGNAL_BATCH_MAX_SIZE) {
+                flushNow = true
+            } else if (mBatchFuture == null) {
+                mBatchFuture = RTCRuntime.scheduler.schedule({ flushBatch() }, mBatchWindowMillis, TimeUnit.MILLISECONDS)
+            }
+        }
+        if (flushNow) {
+            flushBatch()
+        }
     }
 
-    fun sendWebSocketMessage(message: String): Boolean {
-        if (!sendMessage(message)) {
-            if (mMessages.isEmpty() || mMessages.first() != message) {
+    private fun flushBatch() {
+        val messages = synchronized(mBatch) {
+            mBatchFuture?.cancel(false)
+            mBatchFuture = null
+            if (mBatch.isEmpty()) {
+                return
+            }
+            val messages = ArrayList(mBatch)
+            mBatch.clear()
+            messages
+        }
+        if (messages.size == 1) {
+            sendNow(messages[0])
+            return
+        }
+        synchronized(mMessages) {
+            if (mMessages.isEmpty() && sendMessage(SendCommandMessage.signal(SignalCommand.BATCH).put(BATCH_KEY, messages))) {
+                Log.d(TAG, "webSocket send batch of ${messages.size}")
+                messages.forEach { onSent(it) }
+                return
+            }
+            // 合并帧发送失败时拆开放回重发队列，保持原有顺序；重发从队尾开始，最早的信令要离队尾最近
+            for (message in messages) {
+                mMessages.addFirst(message)
+            }
+        }
+    }
+
+    private fun sendNow(message: SendCommandMessage): Boolean {
+        synchronized(mMessages) {
+            // 还有等待重发的信令时排在它们后面，超出发送额度的信令不会被后发的超过
+            if (mMessages.isEmpty() && sendMessage(message)) {
+                Log.e(TAG, "webSocket send $message")
+                onSent(message)
+                return true
+            }
+            if (mMessages.isEmpty() || mMessages.first() !== message) {
                 mMessages.addFirst(message)
             }
             return false
-        } else {
-            Log.e(TAG, "webSocket send $message")
-            return true
         }
     }
 
+    private fun onSent(message: SendCommandMessage) {
+        val response = message.signal?.let { REQUEST_RESPONSES[it] } ?: return
+        mRequestSentAt[response] = SystemClock.elapsedRealtime()
+    }
+
+    private fun onResponse(signal: String) {
+        val sentAt = mRequestSentAt.remove(signal) ?: return
+        signalingRttMs = (SystemClock.elapsedRealtime() - sentAt).toInt()
+    }
+
     fun destroy() {
-        if (closeConnect()) {
-            mWebSocket = null
-            mConnected = false
+        mConnection?.let {
+            SignalingConnection.detach(it, mChannelId)
         }
+        mConnection = null
 
-        mMessages.clear()
-        if (mMessageJob?.isActive == true) {
-            mMessageJob!!.cancel()
-            mMessageJob = null
+        synchronized(mMessages) {
+            mMessages.clear()
         }
-        if (mReconnectJob?.isActive == true) {
-            mReconnectJob!!.cancel()
-            mReconnectJob = null
+        synchronized(mBatch) {
+            mBatchFuture?.cancel(false)
+            mBatchFuture = null
+            mBatch.clear()
         }
+        synchronized(mOverflowResults) {
+            mOverflowResults.clear()
+        }
+        mBatchSupported = false
+        mBinarySignaling = false
+        mScope?.cancel()
+        mScope = null
+        mEventLane?.shutdown()
+        mEventLane = null
     }
 
-    private val webSocketListener: WebSocketListener
-        get() = object : WebSocketListener() {
-            override fun onClosed(webSocket: WebSocket, code: Int, reason: String) {
-                super.onClosed(webSocket, code, reason)
+    /**
+     * 连接建立或重连成功，由 SignalingConnection 调用
+     */
+    override fun onSocketOpen() {
+        mBatchSupported = false
+        mBinarySignaling = false
+        mEventLane?.execute {
+            mListener?.onSocketOpen()
+        }
+    }
 
-                if (mWebSocket != null || mConnected) {
-                    mWebSocket = null
-                    mConnected = false
-                }
-            }
+    override fun onParseError() {
+        mListener?.onError(0, "解析socket返回异常")
+    }
+
+    /**
+     * 收到发给本会话的信令，由 SignalingConnection 解析后调用
+     */
+    override fun onSignal(message: RecvCommandMessage) {
+        // 回调积压时，只带识别结果且该 rst 只要最新结果的信令合并为一条，其他信令和全部投递的结果照常排队
+        val result = message.result
+        val rst = result?.rst
+        val results = mProcessResults
+        if (message.code == 1 && message.signal.isNullOrEmpty() && result != null && rst != null && results != null
+            && mPendingEvents.get() >= MAX_PENDING_EVENTS && results.isLatestOnly(rst)
+        ) {
+            coalesceResult(rst, result, results)
+            return
+        }
+        enqueue { dispatchMessage(message) }
+    }
 
-            override fun onClosing(webSocket: WebSocket, code: Int, reason: String) {
-                super.onClosing(webSocket, code, reason)
-                //                if (cancelWebSocketConnect()) {
-//                    setWebSocket(null);
-//                    webSocketConnected = false;
-//                }
+    private fun coalesceResult(rst: Int, result: WXRTCDef.ProcessData, results: ProcessResultChannels) {
+        val replaced = synchronized(mOverflowResults) {
+            mOverflowResults.put(rst, result)
+        }
+        if (replaced != null) {
+            // 已有回调任务在排队，取走时拿到的是这一条
+            results.addCoalesced(rst)
+            return
+        }
+        Log.w(TAG, "Too many pending events, coalescing results of rst $rst")
+        enqueue {
+            val latest = synchronized(mOverflowResults) {
+                mOverflowResults.remove(rst)
             }
+            latest?.let { mListener?.onResult(it) }
+        }
+    }
 
-            override fun onFailure(webSocket: WebSocket, t: Throwable, response: Response?) {
-                super.onFailure(webSocket, t, response)
-                if (isConnected) {
-                    Log.e(TAG, "other reason connect fail ")
-                    mWebSocket = null
-                    mConnected = false
-                }
-                if (mNeedReconnect) {
-                    reconnect()
-                }
+    private fun enqueue(block: () -> Unit) {
+        val lane = mEventLane ?: return
+        val scope = mScope ?: return
+        mPendingEvents.incrementAndGet()
+        scope.launch(lane.dispatcher) {
+            try {
+                block()
+            } finally {
+                mPendingEvents.decrementAndGet()
             }
+        }
+    }
 
-            override fun onMessage(webSocket: WebSocket, text: String) {
-                super.onMessage(webSocket, text)
-                if (mWebSocket !== webSocket) {
+    override fun drainRetryQueue(max: Int) {
+        synchronized(mMessages) {
+            var count = 0
+            while (count < max && !mMessages.isEmpty()) {
+                if (!sendMessage(mMessages.last())) {
                     return
                 }
-                Log.d(TAG, "enter WebSocketListener onMessage(), String: $text")
-//                val message = gson.fromJson(text, RecvCommandMessage::class.java)
-
-                val message = RecvCommandMessage()
-                var root:JSONObject? = null
-                try {
-                    root = JSONObject(text)
+                mMessages.removeLast()
+                count++
+            }
+        }
+    }
 
-                    if (root.has("code")) {
-                        message.code = root.getInt("code")
-                    }
-                    if (root.has("message")) {
-                        message.message = root.getString("message")
-                    }
-                    if (root.has("signal")) {
-                        message.signal = root.getString("signal")
-                    }
-                    if (root.has("publish_url")) {
-                        message.publishUrl = root.getString("publish_url")
-                    }
-                    if (root.has("unpublish_url")) {
-                        message.unpublishUrl = root.getString("unpublish_url")
-                    }
-                    if (root.has("user_id")) {
-                        message.userId = root.getString("user_id")
+    private fun dispatchMessage(message: RecvCommandMessage) {
+        message.signal?.let { onResponse(it) }
+        if (message.code == 1) {
+            if (!message.signal.isNullOrEmpty()) {
+                when (message.signal) {
+                    SignalCommand.LOGIN_BACK -> {
+                        // 服务端在登录应答中确认支持时，之后的信令改用二进制帧
+                        mBinarySignaling = message.signalCodec == BinarySignalCodec.NAME
+                        mBatchSupported = message.batch
+                        mListener?.onLogin()
                     }
-                    if (root.has("pull_url")) {
-                        message.pullUrl = root.getString("pull_url")
+                    SignalCommand.LOGOUT_BACK -> {
+                        mListener?.onLogout(0)
                     }
-                    if (root.has("available")) {
-                        message.available = root.getBoolean("available")
+                    SignalCommand.ENTER_ROOM_BACK -> {
+                        message.publishUrl?.let {
+                            mListener?.onEnterRoom(it, message.dataChannelRelay)
+                        }
                     }
-                    if (root.has("record_file_name")) {
-                        message.recordFileName = root.getString("record_file_name")
+                    SignalCommand.EXIT_ROOM_BACK -> {
+                        mListener?.onExitRoom(0)
                     }
-                    if (root.has("p2p_msg")) {
-                        val msgObject = root.getJSONObject("p2p_msg")
-                        val p2PMsg = P2PMsg()
-                        if (msgObject.has("from")) {
-                            p2PMsg.from = msgObject.getString("from")
-                        }
-                        if (msgObject.has("to")) {
-                            p2PMsg.to = msgObject.getString("to")
-                        }
-                        if (msgObject.has("message")) {
-                            p2PMsg.message = msgObject.getString("message")
+                    SignalCommand.GET_UNPUBLISH -> {
+                        message.unpublishUrl?.let {
+                            mListener?.onGetUnpublishUrl(it)
                         }
-                        message.p2pMsg = p2PMsg
                     }
-                    if (root.has("room_msg")) {
-                        val msgObject = root.getJSONObject("room_msg")
-                        val roomMsg = RoomMsg()
-                        if (msgObject.has("cmd")) {
-                            roomMsg.cmd = msgObject.getString("cmd")
+                    SignalCommand.REMOTE_ENTER_ROOM -> {
+                        if (!message.pullUrl.isNullOrEmpty() && !message.userId.isNullOrEmpty()) {
+                            mListener?.onRemoteUserEnterRoom(
+                                message.pullUrl!!,
+                                message.userId!!
+                            )
                         }
-                        if (msgObject.has("message")) {
-                            roomMsg.message = msgObject.getString("message")
-                        }
-                        message.roomMsg = roomMsg
                     }
-                    if (root.has("call_msg")) {
-                        val msgObject = root.getJSONObject("call_msg")
-                        val callMsg = CallMsg()
-                        if (msgObject.has("cmd")) {
-                            callMsg.cmd = msgObject.getString("cmd")
-                        }
-                        if (msgObject.has("user_id")) {
-                            callMsg.userId = msgObject.getString("user_id")
-                        }
-                        if (msgObject.has("room_id")) {
-                            callMsg.roomId = msgObject.getString("room_id")
+                    SignalCommand.REMOTE_EXIT_ROOM -> {
+                        message.userId?.let {
+                            mListener?.onRemoteUserLeaveRoom(it, 0)
                         }
-                        message.callMsg = callMsg
                     }
-                    if (root.has("result")) {
-                        val msgObject = root.getJSONObject("result")
-                        val resultData = WXRTCDef.ProcessData()
-                        if (msgObject.has("rst")) {
-                            resultData.rst = msgObject.getInt("rst")
-                        }
-                        if (msgObject.has("need_focus")) {
-                            resultData.need_focus = msgObject.getInt("need_focus")
-                        }
-                        if (msgObject.has("focus_point")) {
-                            val array = msgObject.getJSONArray("focus_point")
-                            val points = ArrayList<Float>()
-                            for (i in 0 until array.length()) {
-                                points.add(array.getDouble(i).toFloat())
-                            }
-                            resultData.focus_point = points
-                        }
-                        if (msgObject.has("drop_speed")) {
-                            resultData.drop_speed = msgObject.getString("drop_speed")
-                        }
-                        if (msgObject.has("scale")) {
-                            resultData.scale = msgObject.getString("scale")
+                    SignalCommand.VIDEO_AVAILABLE -> {
+                        message.userId?.let {
+                            mListener?.onUserVideoAvailable(it, message.available?:false)
                         }
-                        if (msgObject.has("need_magnify")) {
-                            resultData.need_magnify = msgObject.getInt("need_magnify")
-                        }
-                        if (msgObject.has("barcodeDate")) {
-                            resultData.barcodeDate = msgObject.getString("barcodeDate")
-                        }
-                        if (msgObject.has("high_pressure")) {
-                            resultData.high_pressure = msgObject.getString("high_pressure")
+                    }
+                    SignalCommand.SUB_VIDEO_AVAILABLE -> {
+                        message.userId?.let {
+                            mListener?.onUserSubStreamAvailable(it, message.available?:false)
                         }
-                        if (msgObject.has("low_pressure")) {
-                            resultData.low_pressure = msgObject.getString("low_pressure")
+                    }
+                    SignalCommand.AUDIO_AVAILABLE -> {
+                        message.userId?.let {
+                            mListener?.onUserAudioAvailable(it, message.available?:false)
                         }
-                        if (msgObject.has("pulse")) {
-                            resultData.pulse = msgObject.getString("pulse")
+                    }
+                    SignalCommand.START_RECORD_BACK -> {
+                        message.recordFileName?.let {
+                            mListener?.onRecordStart(it)
                         }
-                        if (msgObject.has("has_csf")) {
-                            resultData.has_csf = msgObject.getInt("has_csf")
+                    }
+                    SignalCommand.END_RECORD_BACK -> {
+                        message.recordFileName?.let {
+                            mListener?.onRecordEnd(it)
                         }
-                        if (msgObject.has("right_eye")) {
-                            val eyeObject = msgObject.getJSONObject("right_eye")
-                            val eyeMark = WXRTCDef.EyeMark()
-                            if (eyeObject.has("normal")) {
-                                eyeMark.normal = eyeObject.getInt("normal")
-                            }
-                            if (eyeObject.has("femtosecond")) {
-                                eyeMark.femtosecond = eyeObject.getInt("femtosecond")
-                            }
-                            if (eyeObject.has("astigmatism")) {
-                                eyeMark.astigmatism = eyeObject.getInt("astigmatism")
+                    }
+                    SignalCommand.P2P_MSG_REV -> {
+                        message.p2pMsg?.let {
+                            if (!it.from.isNullOrEmpty()) {
+                                mListener?.onRecvP2PMsg(
+                                    it.from!!,
+                                    it.message
+                                )
                             }
-                            resultData.right_eye = eyeMark
                         }
-                        if (msgObject.has("left_eye")) {
-                            val eyeObject = msgObject.getJSONObject("left_eye")
-                            val eyeMark = WXRTCDef.EyeMark()
-                            if (eyeObject.has("normal")) {
-                                eyeMark.normal = eyeObject.getInt("normal")
-                            }
-                            if (eyeObject.has("femtosecond")) {
-                                eyeMark.femtosecond = eyeObject.getInt("femtosecond")
-                            }
-                            if (eyeObject.has("astigmatism")) {
-                                eyeMark.astigmatism = eyeObject.getInt("astigmatism")
+                    }
+                    SignalCommand.ROOM_MSG_REV -> {
+                        message.roomMsg?.let {
+                            if (!message.userId.isNullOrEmpty() && !it.cmd.isNullOrEmpty()) {
+                                mListener?.onRecvRoomMsg(
+                                    message.userId!!,
+                                    it.cmd!!,
+                                    it.message
+                                )
                             }
-                            resultData.left_eye = eyeMark
-                        }
-                        if (msgObject.has("pid")) {
-                            resultData.pid = msgObject.getString("pid")
-                        }
-                        if (msgObject.has("asr_result")) {
-                            resultData.asr_result = msgObject.getString("asr_result")
-                        }
-                        if (msgObject.has("gesture")) {
-                            resultData.gesture = msgObject.getInt("gesture")
-                        }
-                        if (msgObject.has("oxygen_saturation")) {
-                            resultData.oxygen_saturation = msgObject.getString("oxygen_saturation")
-                        }
-                        if (msgObject.has("weight_scale")) {
-                            resultData.weight_scale = msgObject.getString("weight_scale")
                         }
-                        if (msgObject.has("respiratory_rate")) {
-                            resultData.respiratory_rate = msgObject.getString("respiratory_rate")
-                        }
-                        if (msgObject.has("capture_image_url")) {
-                            resultData.capture_image_url = msgObject.getString("capture_image_url")
-                        }
-                        message.result = resultData
                     }
-                } catch (throwable: Throwable) {
-                    mListener?.onError(0, "解析socket返回异常")
-                    return
-                }
-
-                CoroutineScope(Dispatchers.Main).launch {
-                    if (message.code == 1) {
-                        if (!message.signal.isNullOrEmpty()) {
-                            when (message.signal) {
-                                SignalCommand.LOGIN_BACK -> {
-                                    mListener?.onLogin()
-                                }
-                                SignalCommand.LOGOUT_BACK -> {
-                                    mListener?.onLogout(0)
-                                }
-                                SignalCommand.ENTER_ROOM_BACK -> {
-                                    message.publishUrl?.let {
-                                        mListener?.onEnterRoom(it)
-                                    }
-                                }
-                                SignalCommand.EXIT_ROOM_BACK -> {
-                                    mListener?.onExitRoom(0)
-                                }
-                                SignalCommand.GET_UNPUBLISH -> {
-                                    message.unpublishUrl?.let {
-                                        mListener?.onGetUnpublishUrl(it)
-                                    }
-                                }
-                                SignalCommand.REMOTE_ENTER_ROOM -> {
-                                    if (!message.pullUrl.isNullOrEmpty() && !message.userId.isNullOrEmpty()) {
-                                        mListener?.onRemoteUserEnterRoom(
-                                            message.pullUrl!!,
-                                            message.userId!!
-                                        )
-                                    }
-                                }
-                                SignalCommand.REMOTE_EXIT_ROOM -> {
-                                    message.userId?.let {
-                                        mListener?.onRemoteUserLeaveRoom(it, 0)
-                                    }
-                                }
-                                SignalCommand.VIDEO_AVAILABLE -> {
-                                    message.userId?.let {
-                                        mListener?.onUserVideoAvailable(it, message.available?:false)
-                                    }
-                                }
-                                SignalCommand.AUDIO_AVAILABLE -> {
-                                    message.userId?.let {
-                                        mListener?.onUserAudioAvailable(it, message.available?:false)
-                                    }
-                                }
-                                SignalCommand.START_RECORD_BACK -> {
-                                    message.recordFileName?.let {
-                                        mListener?.onRecordStart(it)
-                                    }
-                                }
-                                SignalCommand.END_RECORD_BACK -> {
-                                    message.recordFileName?.let {
-                                        mListener?.onRecordEnd(it)
-                                    }
-                                }
-                                SignalCommand.P2P_MSG_REV -> {
-                                    message.p2pMsg?.let {
-                                        if (!it.from.isNullOrEmpty()) {
-                                            mListener?.onRecvP2PMsg(
-                                                it.from!!,
-                                                it.message
-                                            )
-                                        }
-                                    }
-                                }
-                                SignalCommand.ROOM_MSG_REV -> {
-                                    message.roomMsg?.let {
-                                        if (!message.userId.isNullOrEmpty() && !it.cmd.isNullOrEmpty()) {
-                                            mListener?.onRecvRoomMsg(
-                                                message.userId!!,
-                                                it.cmd!!,
-                                                it.message
-                                            )
-                                        }
-                                    }
-                                }
-                                SignalCommand.CALL_MSG_REV -> {
-                                    message.callMsg?.let {
-                                        if (!it.cmd.isNullOrEmpty()) {
-                                            mListener?.onRecvCallMsg(
-                                                it.userId,
-                                                it.cmd!!,
-                                                it.roomId
-                                            )
-                                        }
-                                    }
-                                }
+                    SignalCommand.CALL_MSG_REV -> {
+                        message.callMsg?.let {
+                            if (!it.cmd.isNullOrEmpty()) {
+                                mListener?.onRecvCallMsg(
+                                    it.userId,
+                                    it.cmd!!,
+                                    it.roomId
+                                )
                             }
                         }
-
-                        if (message.result != null && message.result!!.rst != null) {
-                            mListener?.onResult(message.result!!)
-                        }
-                    } else {
-                        mListener?.onError(message.code, message.message?:"")
                     }
                 }
             }
 
-            override fun onMessage(webSocket: WebSocket, bytes: ByteString) {
-                super.onMessage(webSocket, bytes)
-                Log.d(TAG, "enter WebSocketListener onMessage(), bytes: $bytes")
-            }
-
-            override fun onOpen(webSocket: WebSocket, response: Response) {
-                super.onOpen(webSocket, response)
-                mWebSocket = webSocket
-                mConnected = true
-                mReconnectNum = 0
-                if (mReconnectJob?.isActive == true) {
-                    mReconnectJob!!.cancel()
-                }
-                mListener?.onSocketOpen()
-            }
-        }
-
-    private fun reconnect() {
-        if (mReconnectNum < Config.RECONNECT_MAX_NUM) {
-            Log.d(TAG, "webSocket reconnect...")
-            if (mReconnectJob?.isActive == true) {
-                mReconnectJob!!.cancel()
-            }
-            mReconnectJob = CoroutineScope(Dispatchers.IO).launch {
-                delay(Config.RECONNECT_MILLIS)
-
-                startConnect()
-                mReconnectNum++
+            if (message.result != null && message.result!!.rst != null) {
+                mListener?.onResult(message.result!!)
             }
         } else {
-            Log.e(TAG, "webSocket reconnect fail, reconnect num more than 5, please check url!")
+            mListener?.onError(message.code, message.message?:"")
         }
     }
 
-    private fun cancelConnect(): Boolean {
-        if (isConnected) {
-            mWebSocket!!.cancel()
-            return true
-        }
-        Log.d(TAG, "webSocket has closed or not connect")
-        return false
+    private fun sendMessage(message: SendCommandMessage): Boolean {
+        val connection = mConnection ?: return false
+        return connection.send(mChannelId, message, mBinarySignaling)
     }
 
-    private fun closeConnect(): Boolean {
-        mNeedReconnect = false
-        if (isConnected) {
-            return mWebSocket!!.close(1000, "webSocket is closing")
-        }
-        Log.d(TAG, "webSocket has closed or not connect")
-        return false
-    }
+    companion object {
+        private val TAG: String = SocketManager::class.java.name
+        @VisibleForTesting
+        internal const val MAX_PENDING_EVENTS = 64
+        const val SIGNAL_CODEC_KEY = "signal_codec"
+        const val BATCH_KEY = "batch"
+        const val DATA_CHANNEL_RELAY_KEY = "data_channel_relay"
 
-    private fun sendMessage(text: String): Boolean {
-        if (!isConnected) {
-//            Log.e(TAG,"webSocket is not connected");
-            return false
-        }
-        return mWebSocket!!.send(text)
-    }
+        // 有应答的请求，用于测量信令往返时延
+        private val REQUEST_RESPONSES = mapOf(
+            SignalCommand.LOGIN to SignalCommand.LOGIN_BACK,
+            SignalCommand.LOGOUT to SignalCommand.LOGOUT_BACK,
+            SignalCommand.ENTER_ROOM to SignalCommand.ENTER_ROOM_BACK,
+            SignalCommand.EXIT_ROOM to SignalCommand.EXIT_ROOM_BACK
+        )
 
-    private fun sendMessage(bytes: ByteString): Boolean {
-        if (!isConnected) {
-            Log.e(TAG, "webSocket is not connected")
-            return false
+        // 只描述当前状态的信令，窗口内后发的会覆盖先发的
+        private val STATE_SIGNALS = setOf(
+            SignalCommand.VIDEO_AVAILABLE,
+            SignalCommand.SUB_VIDEO_AVAILABLE,
+            SignalCommand.AUDIO_AVAILABLE
+        )
+        /**
+         * 解析 JSON 信令，字段不合法时抛出异常
+         */
+        @Throws(JSONException::class)
+        fun parseMessage(root: JSONObject): RecvCommandMessage {
+            val message = RecvCommandMessage()
+            if (root.has("code")) {
+                message.code = root.getInt("code")
+            }
+            if (root.has("message")) {
+                message.message = root.getString("message")
+            }
+            if (root.has("signal")) {
+                message.signal = root.getString("signal")
+            }
+            if (root.has(SignalingConnection.CHANNEL_KEY)) {
+                message.channel = root.getString(SignalingConnection.CHANNEL_KEY)
+            }
+            if (root.has(SIGNAL_CODEC_KEY)) {
+                message.signalCodec = root.getString(SIGNAL_CODEC_KEY)
+            }
+            if (root.has(BATCH_KEY)) {
+                message.batch = root.optBoolean(BATCH_KEY)
+            }
+            if (root.has(DATA_CHANNEL_RELAY_KEY)) {
+                message.dataChannelRelay = root.optBoolean(DATA_CHANNEL_RELAY_KEY)
+            }
+            if (root.has("publish_url")) {
+                message.publishUrl = root.getString("publish_url")
+            }
+            if (root.has("unpublish_url")) {
+                message.unpublishUrl = root.getString("unpublish_url")
+            }
+            if (root.has("user_id")) {
+                message.userId = root.getString("user_id")
+            }
+            if (root.has("pull_url")) {
+                message.pullUrl = root.getString("pull_url")
+            }
+            if (root.has("available")) {
+                message.available = root.getBoolean("available")
+            }
+            if (root.has("record_file_name")) {
+                message.recordFileName = root.getString("record_file_name")
+            }
+            if (root.has("p2p_msg")) {
+                val msgObject = root.getJSONObject("p2p_msg")
+                val p2PMsg = P2PMsg()
+                if (msgObject.has("from")) {
+                    p2PMsg.from = msgObject.getString("from")
+                }
+                if (msgObject.has("to")) {
+                    p2PMsg.to = msgObject.getString("to")
+                }
+                if (msgObject.has("message")) {
+                    p2PMsg.message = msgObject.getString("message")
+                }
+                message.p2pMsg = p2PMsg
+            }
+            if (root.has("room_msg")) {
+                val msgObject = root.getJSONObject("room_msg")
+                val roomMsg = RoomMsg()
+                if (msgObject.has("cmd")) {
+                    roomMsg.cmd = msgObject.getString("cmd")
+                }
+                if (msgObject.has("message")) {
+                    roomMsg.message = msgObject.getString("message")
+                }
+                message.roomMsg = roomMsg
+            }
+            if (root.has("call_msg")) {
+                val msgObject = root.getJSONObject("call_msg")
+                val callMsg = CallMsg()
+                if (msgObject.has("cmd")) {
+                    callMsg.cmd = msgObject.getString("cmd")
+                }
+                if (msgObject.has("user_id")) {
+                    callMsg.userId = msgObject.getString("user_id")
+                }
+                if (msgObject.has("room_id")) {
+                    callMsg.roomId = msgObject.getString("room_id")
+                }
+                message.callMsg = callMsg
+            }
+            if (root.has("result")) {
+                val msgObject = root.getJSONObject("result")
+                val resultData = WXRTCDef.ProcessData()
+                if (msgObject.has("rst")) {
+                    resultData.rst = msgObject.getInt("rst")
+                }
+                if (msgObject.has("need_focus")) {
+                    resultData.need_focus = msgObject.getInt("need_focus")
+                }
+                if (msgObject.has("focus_point")) {
+                    val array = msgObject.getJSONArray("focus_point")
+                    val points = ArrayList<Float>()
+                    for (i in 0 until array.length()) {
+                        points.add(array.getDouble(i).toFloat())
+                    }
+                    resultData.focus_point = points
+                }
+                if (msgObject.has("drop_speed")) {
+                    resultData.drop_speed = msgObject.getString("drop_speed")
+                }
+                if (msgObject.has("scale")) {
+                    resultData.scale = msgObject.getString("scale")
+                }
+                if (msgObject.has("need_magnify")) {
+                    resultData.need_magnify = msgObject.getInt("need_magnify")
+                }
+                if (msgObject.has("barcodeDate")) {
+                    resultData.barcodeDate = msgObject.getString("barcodeDate")
+                }
+                if (msgObject.has("high_pressure")) {
+                    resultData.high_pressure = msgObject.getString("high_pressure")
+                }
+                if (msgObject.has("low_pressure")) {
+                    resultData.low_pressure = msgObject.getString("low_pressure")
+                }
+                if (msgObject.has("pulse")) {
+                    resultData.pulse = msgObject.getString("pulse")
+                }
+                if (msgObject.has("has_csf")) {
+                    resultData.has_csf = msgObject.getInt("has_csf")
+                }
+                if (msgObject.has("right_eye")) {
+                    val eyeObject = msgObject.getJSONObject("right_eye")
+                    val eyeMark = WXRTCDef.EyeMark()
+                    if (eyeObject.has("normal")) {
+                        eyeMark.normal = eyeObject.getInt("normal")
+                    }
+                    if (eyeObject.has("femtosecond")) {
+                        eyeMark.femtosecond = eyeObject.getInt("femtosecond")
+                    }
+                    if (eyeObject.has("astigmatism")) {
+                        eyeMark.astigmatism = eyeObject.getInt("astigmatism")
+                    }
+                    resultData.right_eye = eyeMark
+                }
+                if (msgObject.has("left_eye")) {
+                    val eyeObject = msgObject.getJSONObject("left_eye")
+                    val eyeMark = WXRTCDef.EyeMark()
+                    if (eyeObject.has("normal")) {
+                        eyeMark.normal = eyeObject.getInt("normal")
+                    }
+                    if (eyeObject.has("femtosecond")) {
+                        eyeMark.femtosecond = eyeObject.getInt("femtosecond")
+                    }
+                    if (eyeObject.has("astigmatism")) {
+                        eyeMark.astigmatism = eyeObject.getInt("astigmatism")
+                    }
+                    resultData.left_eye = eyeMark
+                }
+                if (msgObject.has("pid")) {
+                    resultData.pid = msgObject.getString("pid")
+                }
+                if (msgObject.has("asr_result")) {
+                    resultData.asr_result = msgObject.getString("asr_result")
+                }
+                if (msgObject.has("gesture")) {
+                    resultData.gesture = msgObject.getInt("gesture")
+                }
+                if (msgObject.has("oxygen_saturation")) {
+                    resultData.oxygen_saturation = msgObject.getString("oxygen_saturation")
+                }
+                if (msgObject.has("weight_scale")) {
+                    resultData.weight_scale = msgObject.getString("weight_scale")
+                }
+                if (msgObject.has("respiratory_rate")) {
+                    resultData.respiratory_rate = msgObject.getString("respiratory_rate")
+                }
+                if (msgObject.has("capture_image_url")) {
+                    resultData.capture_image_url = msgObject.getString("capture_image_url")
+                }
+                message.result = resultData
+            }
+            return message
         }
-        return mWebSocket!!.send(bytes)
-    }
-
-    companion object {
-        private val TAG: String = SocketManager::class.java.name
     }
 }
@@ -0,0 +1,202 @@
+package com.wx.rtc.utils
+
+import android.os.SystemClock
+import com.wx.rtc.WXRTCDef
+import com.wx.rtc.WXRTCDef.ProcessData
+import com.wx.rtc.WXRTCDef.ProcessResultPolicy
+import java.util.concurrent.Executor
+import java.util.concurrent.ScheduledFuture
+import java.util.concurrent.TimeUnit
+
+/**
+ * 按 rst 分通道投递识别结果：每个通道按各自的策略限速合并、去重，并记录最新结果供应用主动读取。
+ * onResult 须在 executor（会话的信令通道）上调用，限速到期的结果和 setPolicy 放出的结果也转到 executor 上投递，
+ * 所有 deliver 都在同一串行通道上按顺序发生
+ */
+internal class ProcessResultChannels(
+    private val executor: Executor,
+    private val clock: () -> Long = SystemClock::elapsedRealtime,
+    private val deliver: (ProcessData) -> Unit
+) {
+    private val channels = HashMap<Int, Channel>()
+
+    private class Channel(policy: ProcessResultPolicy) {
+        var mode = policy.mode
+        var intervalMs = if (policy.maxRate > 0) 1000L / policy.maxRate else 0L
+        var dropDuplicates = policy.dropDuplicates
+
+        @Volatile
+        var latest: ProcessData? = null
+        var lastDelivered: ProcessData? = null
+        var pending: ProcessData? = null
+        var lastDeliverTimeMs = 0L
+        var flushFuture: ScheduledFuture<*>? = null
+        @Volatile
+        var coalescedCount = 0L
+    }
+
+    fun setPolicy(rst: Int, policy: ProcessResultPolicy) {
+        val channel = getChannel(rst)
+        synchronized(channel) {
+            channel.mode = policy.mode
+            channel.intervalMs = if (policy.maxRate > 0) 1000L / policy.maxRate else 0L
+            channel.dropDuplicates = policy.dropDuplicates
+        }
+        // 改为全部投递时立即送出还在等待的结果
+        if (policy.mode == WXRTCDef.WXRTC_PROCESS_RESULT_DELIVER_ALL) {
+            executor.execute { flush(channel) }
+        }
+    }
+
+    fun onResult(data: ProcessData) {
+        val channel = getChannel(data.rst ?: WXRTCDef.WXRTC_PROCESS_DATA_RST_NO_RESULT)
+        val toDeliver = synchronized(channel) {
+            channel.latest = data
+            if (channel.dropDuplicates && isSameReading(data, channel.pending ?: channel.lastDelivered)) {
+                channel.coalescedCount++
+                return
+            }
+            if (channel.mode == WXRTCDef.WXRTC_PROCESS_RESULT_DELIVER_ALL || channel.intervalMs <= 0) {
+                channel.lastDelivered = data
+                channel.lastDeliverTimeMs = clock()
+                return@synchronized data
+            }
+            val now = clock()
+            val waitMs = channel.lastDeliverTimeMs + channel.intervalMs - now
+            if (waitMs <= 0 && channel.pending == null) {
+                channel.lastDelivered = data
+                channel.lastDeliverTimeMs = now
+                return@synchronized data
+            }
+            // 间隔内只保留最新的一条，被覆盖的计入合并数
+            if (channel.pending != null) {
+                channel.coalescedCount++
+            }
+            channel.pending = data
+            if (channel.flushFuture == null) {
+                // 调度线程只负责计时，投递回到 executor 上，不会和 onResult 中直接投递的结果乱序
+                channel.flushFuture = RTCRuntime.scheduler.schedule({
+                    executor.execute { flush(channel) }
+                }, maxOf(waitMs, 0L), TimeUnit.MILLISECONDS)
+            }
+            null
+        }
+        toDeliver?.let(deliver)
+    }
+
+    private fun flush(channel: Channel) {
+        val pending = synchronized(channel) {
+            takePending(channel)
+        }
+        pending?.let(deliver)
+    }
+
+    /**
+     * 该类结果是否只需要最新的一条（WXRTC_PROCESS_RESULT_DELIVER_LATEST），信令回调积压时只有这类结果可以合并
+     */
+    fun isLatestOnly(rst: Int): Boolean {
+        val channel = getChannel(rst)
+        synchronized(channel) {
+            return channel.mode == WXRTCDef.WXRTC_PROCESS_RESULT_DELIVER_LATEST
+        }
+    }
+
+    /**
+     * 记录在投递前就被合并掉的结果，例如信令回调积压时被后到的结果覆盖
+     */
+    fun addCoalesced(rst: Int) {
+        val channel = getChannel(rst)
+        synchronized(channel) {
+            channel.coalescedCount++
+        }
+    }
+
+    fun getLatest(rst: Int): ProcessData? {
+        return synchronized(channels) { channels[rst] }?.latest
+    }
+
+    fun getCoalescedCount(rst: Int): Long {
+        return synchronized(channels) { channels[rst] }?.coalescedCount ?: 0L
+    }
+
+    fun release() {
+        synchronized(channels) {
+            for (channel in channels.values) {
+                synchronized(channel) {
+                    channel.flushFuture?.cancel(false)
+                    channel.flushFuture = null
+                    channel.pending = null
+                }
+            }
+            channels.clear()
+        }
+    }
+
+    private fun getChannel(rst: Int): Channel {
+        synchronized(channels) {
+            return channels.getOrPut(rst) { Channel(defaultPolicy(rst)) }
+        }
+    }
+
+    // 必须持有 channel 锁
+    private fun takePending(channel: Channel): ProcessData? {
+        channel.flushFuture?.cancel(false)
+        channel.flushFuture = null
+        val data = channel.pending ?: return null
+        channel.pending = null
+        channel.lastDelivered = data
+        channel.lastDeliverTimeMs = clock()
+        return data
+    }
+
+    companion object {
+        /**
+         * 滴速是连续输出的，默认合并到每秒 5 次并去掉重复读数；其他结果默认全部投递
+         */
+        fun defaultPolicy(rst: Int): ProcessResultPolicy {
+            return when (rst) {
+                WXRTCDef.WXRTC_PROCESS_DATA_RST_DROP -> ProcessResultPolicy(
+                    mode = WXRTCDef.WXRTC_PROCESS_RESULT_DELIVER_LATEST,
+                    maxRate = 5,
+                    dropDuplicates = true
+                )
+                else -> ProcessResultPolicy()
+            }
+        }
+
+        /**
+         * 比较识别读数是否相同，识别截图地址每次都会变化，不参与比较
+         */
+        private fun isSameReading(a: ProcessData, b: ProcessData?): Boolean {
+            if (b == null) {
+                return false
+            }
+            return a.rst == b.rst &&
+                a.need_focus == b.need_focus &&
+                a.focus_point == b.focus_point &&
+                a.drop_speed == b.drop_speed &&
+                a.scale == b.scale &&
+                a.need_magnify == b.need_magnify &&
+                a.barcodeDate == b.barcodeDate &&
+                a.high_pressure == b.high_pressure &&
+                a.low_pressure == b.low_pressure &&
+                a.pulse == b.pulse &&
+                a.has_csf == b.has_csf &&
+                isSameEyeMark(a.right_eye, b.right_eye) &&
+                isSameEyeMark(a.left_eye, b.left_eye) &&
+                a.pid == b.pid &&
+                a.asr_result == b.asr_result &&
+                a.gesture == b.gesture &&
+                a.oxygen_saturation == b.oxygen_saturation &&
+                a.weight_scale == b.weight_scale &&
+                a.respiratory_rate == b.respiratory_rate
+        }
+
+        private fun isSameEyeMark(a: WXRTCDef.EyeMark?, b: WXRTCDef.EyeMark?): Boolean {
+            if (a == null || b == null) {
+                return a == b
+            }
+            return a.normal == b.normal && a.femtosecond == b.femtosecond && a.astigmatism == b.astigmatism
+        }
+    }
+}
@@ -0,0 +1,240 @@
+package com.wx.rtc.utils
+
+import android.util.Log
+import kotlinx.coroutines.CoroutineDispatcher
+import kotlinx.coroutines.CoroutineExceptionHandler
+import kotlinx.coroutines.CoroutineName
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.asCoroutineDispatcher
+import okhttp3.OkHttpClient
+import org.webrtc.EglBase
+import org.webrtc.I420BufferPool
+import java.util.Collections
+import java.util.IdentityHashMap
+import java.util.concurrent.Callable
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.Executor
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.LinkedBlockingQueue
+import java.util.concurrent.ScheduledThreadPoolExecutor
+import java.util.concurrent.SynchronousQueue
+import java.util.concurrent.ThreadFactory
+import java.util.concurrent.ThreadPoolExecutor
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * SDK 统一的并发运行时：
+ * 所有协程都挂在 scope 下按层级取消（WXRTC → RTCManager/SocketManager → PeerConnectionClient），
+ * 各组件一条串行通道，共用一个小线程池；任务中会同步等待其他线程的通道（PeerConnectionClient）用单独的按需线程池，
+ * 不会占满共用线程池拖住其他通道。定时任务共用一个调度线程，HTTP 请求共用一个 OkHttpClient，
+ * PeerConnectionFactory 的创建和销毁固定在一个专用线程上。空闲时线程池和调度线程的线程会退出
+ */
+internal object RTCRuntime {
+    private const val TAG = "RTCRuntime"
+    private const val LANE_POOL_SIZE = 4
+    private const val IDLE_THREAD_KEEP_ALIVE_SECONDS = 30L
+
+    private val exceptionHandler = CoroutineExceptionHandler { context, throwable ->
+        Log.e(TAG, "Uncaught exception in ${context[CoroutineName]?.name}", throwable)
+    }
+
+    /**
+     * 进程级根作用域，只用于必须执行完的收尾工作，如录制文件落盘；其他协程都应挂在会话作用域下
+     */
+    val scope: CoroutineScope =
+        CoroutineScope(SupervisorJob() + Dispatchers.Default + CoroutineName("wxrtc") + exceptionHandler)
+
+    val main: CoroutineDispatcher = Dispatchers.Main
+    val io: CoroutineDispatcher = Dispatchers.IO
+
+    private val lanePool = ThreadPoolExecutor(
+        LANE_POOL_SIZE, LANE_POOL_SIZE,
+        IDLE_THREAD_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+        LinkedBlockingQueue(), NamedThreadFactory("wxrtc-lane")
+    ).apply {
+        allowCoreThreadTimeOut(true)
+    }
+
+    /**
+     * 会阻塞的通道用的线程池：相机 stopCapture、在工厂线程上同步创建和销毁工厂等都会等待其他线程。
+     * 线程按需创建，空闲后退出；每条通道同一时刻最多占一个线程，线程数不超过同时忙碌的通道数
+     */
+    private val blockingLanePool = ThreadPoolExecutor(
+        0, Int.MAX_VALUE,
+        IDLE_THREAD_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+        SynchronousQueue(), NamedThreadFactory("wxrtc-blocking-lane")
+    )
+
+    /**
+     * PeerConnectionFactory 的创建和销毁都固定在这一个线程上，保证新工厂和之前销毁的工厂在同一线程创建；
+     * 线程创建后不会退出
+     */
+    private val factoryExecutor: ExecutorService =
+        Executors.newSingleThreadExecutor(NamedThreadFactory("wxrtc-factory"))
+
+    @Volatile
+    private var factoryThread: Thread? = null
+
+    /**
+     * 在工厂线程上同步执行 block 并返回结果，已在工厂线程上时直接执行
+     */
+    fun <T> runOnFactoryThread(block: () -> T): T {
+        if (Thread.currentThread() === factoryThread) {
+            return block()
+        }
+        try {
+            return factoryExecutor.submit(Callable {
+                factoryThread = Thread.currentThread()
+                block()
+            }).get()
+        } catch (e: ExecutionException) {
+            throw e.cause ?: e
+        }
+    }
+
+    /**
+     * 统计、超时等定时任务共用的调度线程，任务本身应转到各自的串行通道执行
+     */
+    val scheduler = ScheduledThreadPoolExecutor(1, NamedThreadFactory("wxrtc-scheduler")).apply {
+        removeOnCancelPolicy = true
+        setKeepAliveTime(IDLE_THREAD_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS)
+        allowCoreThreadTimeOut(true)
+    }
+
+    /**
+     * 共用连接池和分发线程的 OkHttpClient，需要不同超时等配置时用 newBuilder() 派生
+     */
+    val httpClient: OkHttpClient by lazy { OkHttpClient() }
+
+    /**
+     * 新建一个会话作用域，cancel 后其下所有子作用域和协程都会取消
+     */
+    fun newSessionScope(name: String): CoroutineScope {
+        return CoroutineScope(SupervisorJob(scope.coroutineContext[Job]) + Dispatchers.Default + CoroutineName(name) + exceptionHandler)
+    }
+
+    /**
+     * 在 parent 下新建子作用域，子作用域中的失败不影响 parent 和兄弟作用域
+     */
+    fun childScope(parent: CoroutineScope, name: String, dispatcher: CoroutineDispatcher? = null): CoroutineScope {
+        var context = parent.coroutineContext + SupervisorJob(parent.coroutineContext[Job]) + CoroutineName(name)
+        dispatcher?.let { context += it }
+        return CoroutineScope(context)
+    }
+
+    /**
+     * @param mayBlock 任务中会同步等待其他线程时为 true，通道跑在单独的线程池上；共用线程池只有 LANE_POOL_SIZE 个线程，
+     * 被阻塞的任务占满后其他通道都会停住
+     */
+    fun newSerialLane(name: String, mayBlock: Boolean = false): SerialLane {
+        return SerialLane(name, if (mayBlock) blockingLanePool else lanePool)
+    }
+
+    private val eglLock = Any()
+    private var eglBase: EglBase? = null
+    private val eglOwners = Collections.newSetFromMap(IdentityHashMap<Any, Boolean>())
+
+    /**
+     * 获取会话间共用的 EGL 上下文，与 releaseEglBase 成对调用；owner 为持有者，同一 owner 重复获取只计一次
+     */
+    fun acquireEglBase(owner: Any): EglBase {
+        synchronized(eglLock) {
+            val base = eglBase ?: EglBase.create().also { eglBase = it }
+            eglOwners.add(owner)
+            return base
+        }
+    }
+
+    /**
+     * owner 未持有或已释放时什么都不做；最后一个持有者释放时销毁 EGL 上下文，并清空 I420 缓冲池。
+     * 返回是否销毁了 EGL 上下文
+     */
+    fun releaseEglBase(owner: Any): Boolean {
+        synchronized(eglLock) {
+            if (!eglOwners.remove(owner) || eglOwners.isNotEmpty()) {
+                return false
+            }
+            eglBase?.release()
+            eglBase = null
+        }
+        I420BufferPool.getDefault().clear()
+        return true
+    }
+
+    private class NamedThreadFactory(private val prefix: String) : ThreadFactory {
+        private val index = AtomicInteger()
+
+        override fun newThread(r: Runnable): Thread {
+            return Thread(r, "$prefix-${index.incrementAndGet()}")
+        }
+    }
+}
+
+/**
+ * 串行执行的任务通道，任务按提交顺序依次执行，但不独占线程；shutdown 后不再接受新任务，已提交的任务仍会执行完
+ */
+internal class SerialLane(private val name: String, private val pool: Executor) : Executor {
+    private val tasks = ArrayDeque<Runnable>()
+    private var running = false
+    private var isShutdown = false
+
+    val dispatcher: CoroutineDispatcher = asCoroutineDispatcher()
+
+    override fun execute(command: Runnable) {
+        if (!tryExecute(command)) {
+            Log.w(TAG, "Lane $name is shut down, task dropped")
+        }
+    }
+
+    /**
+     * 与 execute 相同，已 shutdown 时返回 false，由调用方决定如何处理
+     */
+    fun tryExecute(command: Runnable): Boolean {
+        synchronized(tasks) {
+            if (isShutdown) {
+                return false
+            }
+            tasks.addLast(command)
+            if (running) {
+                return true
+            }
+            running = true
+        }
+        pool.execute { drain() }
+        return true
+    }
+
+    fun shutdown() {
+        synchronized(tasks) {
+            isShutdown = true
+        }
+    }
+
+    private fun drain() {
+        // 每次最多执行 MAX_TASKS_PER_DRAIN 个任务后让出线程，避免一条繁忙的通道占住线程池
+        for (i in 0 until MAX_TASKS_PER_DRAIN) {
+            val task = synchronized(tasks) {
+                tasks.removeFirstOrNull() ?: run {
+                    running = false
+                    return
+                }
+            }
+            try {
+                task.run()
+            } catch (e: Throwable) {
+                Log.e(TAG, "Task failed on lane $name", e)
+            }
+        }
+        pool.execute { drain() }
+    }
+
+    companion object {
+        private const val TAG = "SerialLane"
+        private const val MAX_TASKS_PER_DRAIN = 32
+    }
+}
@@ -18,8 +18,6 @@ import android.view.Surface;
 import androidx.annotation.Nullable;
 import java.io.IOException;
 import java.nio.ByteBuffer;
-import java.util.concurrent.BlockingDeque;
-import java.util.concurrent.LinkedBlockingDeque;
 import java.util.concurrent.TimeUnit;
 import org.webrtc.ThreadUtils.ThreadChecker;
 
@@ -43,21 +41,24 @@ class AndroidVideoDecoder implements VideoDecoder, VideoSink {
   // MediaCodec.
   private static final int DEQUEUE_OUTPUT_BUFFER_TIMEOUT_US = 100000;
 
+  // Capacity of the frame info ring. MediaCodec decoders hold far fewer frames than this; if the
+  // ring is ever full the codec has dropped outputs and the oldest entries are discarded.
+  private static final int MAX_FRAME_INFOS = 64;
+
+  private static final Histogram decodeTimeMsHistogram =
+      Histogram.createCounts("WebRTC.Android.MediaCodecDecoder.DecodeTimeMs", 1, 1000, 50);
+  private static final Histogram queueDepthHistogram =
+      Histogram.createCounts("WebRTC.Android.MediaCodecDecoder.QueueDepth", 1, MAX_FRAME_INFOS, 32);
+
   private final MediaCodecWrapperFactory mediaCodecWrapperFactory;
   private final String codecName;
   private final VideoCodecMimeType codecType;
 
-  private static class FrameInfo {
-    final long decodeStartTimeMs;
-    final int rotation;
-
-    FrameInfo(long decodeStartTimeMs, int rotation) {
-      this.decodeStartTimeMs = decodeStartTimeMs;
-      this.rotation = rotation;
-    }
-  }
-
-  private final BlockingDeque<FrameInfo> frameInfos;
+  // Metadata of the frames in the codec. The ring is preallocated so decoding does not allocate.
+  private final FrameInfoRing frameInfos = new FrameInfoRing(MAX_FRAME_INFOS);
+  // Reused on the output thread for every decoded frame.
+  private final FrameInfoRing.Slot outputFrameInfo = new FrameInfoRing.Slot();
+  @Nullable private final VideoDecoderStats stats;
   private int colorFormat;
 
   // Output thread runs a loop which polls MediaCodec for decoded output buffers.  It reformats
@@ -87,6 +88,10 @@ class AndroidVideoDecoder implements VideoDecoder, VideoSink {
   // after delivering the first frame.  Only accessed on the output thread while the decoder is
   // running.
   private boolean hasDecodedFirstFrame;
+  // Whether any frame was decoded and whether a failure was recorded since initDecode(). A clean
+  // session makes HardwareCodecFailureStore forget earlier transient failures.
+  private volatile boolean hasDecodedFrames;
+  private volatile boolean hasRecordedFailure;
   // Whether the decoder has seen a key frame.  The first frame must be a key frame.  Only accessed
   // on the decoder thread.
   private boolean keyFrameRequired;
@@ -96,19 +101,12 @@ class AndroidVideoDecoder implements VideoDecoder, VideoSink {
   @Nullable private SurfaceTextureHelper surfaceTextureHelper;
   @Nullable private Surface surface;
 
-  private static class DecodedTextureMetadata {
-    final long presentationTimestampUs;
-    final Integer decodeTimeMs;
-
-    DecodedTextureMetadata(long presentationTimestampUs, Integer decodeTimeMs) {
-      this.presentationTimestampUs = presentationTimestampUs;
-      this.decodeTimeMs = decodeTimeMs;
-    }
-  }
-
-  // Metadata for the last frame rendered to the texture.
+  // Metadata for the last frame rendered to the texture. Kept in plain fields instead of a
+  // per-frame object; hasRenderedTextureMetadata tells whether they are valid.
   private final Object renderedTextureMetadataLock = new Object();
-  @Nullable private DecodedTextureMetadata renderedTextureMetadata;
+  private boolean hasRenderedTextureMetadata;
+  private long renderedTexturePresentationTimestampUs;
+  @Nullable private Integer renderedTextureDecodeTimeMs;
 
   // Decoding proceeds asynchronously.  This callback returns decoded frames to the caller.  Valid
   // and immutable while the decoder is running.
@@ -118,7 +116,8 @@ class AndroidVideoDecoder implements VideoDecoder, VideoSink {
   @Nullable private MediaCodecWrapper codec;
 
   AndroidVideoDecoder(MediaCodecWrapperFactory mediaCodecWrapperFactory, String codecName,
-      VideoCodecMimeType codecType, int colorFormat, @Nullable EglBase.Context sharedContext) {
+      VideoCodecMimeType codecType, int colorFormat, @Nullable EglBase.Context sharedContext,
+      @Nullable VideoDecoderStats stats) {
     if (!isSupportedColorFormat(colorFormat)) {
       throw new IllegalArgumentException("Unsupported color format: " + colorFormat);
     }
@@ -130,7 +129,7 @@ class AndroidVideoDecoder implements VideoDecoder, VideoSink {
     this.codecType = codecType;
     this.colorFormat = colorFormat;
     this.sharedContext = sharedContext;
-    this.frameInfos = new LinkedBlockingDeque<>();
+    this.stats = stats;
   }
 
   @Override
@@ -138,12 +137,28 @@ class AndroidVideoDecoder implements VideoDecoder, VideoSink {
     this.decoderThreadChecker = new ThreadChecker();
 
     this.callback = callback;
+    hasDecodedFrames = false;
+    hasRecordedFailure = false;
+    if (HardwareCodecFailureStore.shouldSkipHardware(/* isEncoder= */ false, codecType, codecName,
+            /* profile= */ "", settings.width, settings.height)) {
+      return VideoCodecStatus.FALLBACK_SOFTWARE;
+    }
     if (sharedContext != null) {
       surfaceTextureHelper = createSurfaceTextureHelper();
       surface = new Surface(surfaceTextureHelper.getSurfaceTexture());
       surfaceTextureHelper.startListening(this);
     }
-    return initDecodeInternal(settings.width, settings.height);
+    VideoCodecStatus status = initDecodeInternal(settings.width, settings.height);
+    if (status != VideoCodecStatus.OK) {
+      recordFailure(settings.width, settings.height, /* fatal= */ true);
+    }
+    return status;
+  }
+
+  private void recordFailure(int width, int height, boolean fatal) {
+    hasRecordedFailure = true;
+    HardwareCodecFailureStore.recordFailure(/* isEncoder= */ false, codecType, codecName,
+        /* profile= */ "", width, height, fatal);
   }
 
   // Internal variant is used when restarting the codec due to reconfiguration.
@@ -225,6 +240,7 @@ class AndroidVideoDecoder implements VideoDecoder, VideoSink {
         && (frame.encodedWidth != width || frame.encodedHeight != height)) {
       VideoCodecStatus status = reinitDecode(frame.encodedWidth, frame.encodedHeight);
       if (status != VideoCodecStatus.OK) {
+        recordFailure(frame.encodedWidth, frame.encodedHeight, /* fatal= */ true);
         return status;
       }
     }
@@ -242,6 +258,7 @@ class AndroidVideoDecoder implements VideoDecoder, VideoSink {
       index = codec.dequeueInputBuffer(DEQUEUE_INPUT_TIMEOUT_US);
     } catch (IllegalStateException e) {
       Logging.e(TAG, "dequeueInputBuffer failed", e);
+      recordFailure(width, height, /* fatal= */ false);
       return VideoCodecStatus.ERROR;
     }
     if (index < 0) {
@@ -265,15 +282,26 @@ class AndroidVideoDecoder implements VideoDecoder, VideoSink {
     }
     buffer.put(frame.buffer);
 
-    frameInfos.offer(new FrameInfo(SystemClock.elapsedRealtime(), frame.rotation));
+    if (frameInfos.size() == MAX_FRAME_INFOS) {
+      Logging.w(TAG, "decode() - frame info ring full, discarding oldest entry");
+      frameInfos.removeFirst();
+    }
+    frameInfos.offer(frame.captureTimeNs, SystemClock.elapsedRealtimeNanos(),
+        frame.encodedWidth, frame.encodedHeight, frame.rotation);
     try {
       codec.queueInputBuffer(index, 0 /* offset */, size,
           TimeUnit.NANOSECONDS.toMicros(frame.captureTimeNs), 0 /* flags */);
     } catch (IllegalStateException e) {
       Logging.e(TAG, "queueInputBuffer failed", e);
-      frameInfos.pollLast();
+      frameInfos.removeLast();
+      recordFailure(width, height, /* fatal= */ false);
       return VideoCodecStatus.ERROR;
     }
+    final int queueDepth = frameInfos.size();
+    queueDepthHistogram.addSample(queueDepth);
+    if (stats != null) {
+      stats.onFrameQueued(queueDepth);
+    }
     if (keyFrameRequired) {
       keyFrameRequired = false;
     }
@@ -292,6 +320,17 @@ class AndroidVideoDecoder implements VideoDecoder, VideoSink {
     // decoderThreadChecker.checkIsOnValidThread();
     Logging.d(TAG, "release");
     VideoCodecStatus status = releaseInternal();
+    if (status == VideoCodecStatus.OK && hasDecodedFrames && !hasRecordedFailure) {
+      final int width;
+      final int height;
+      synchronized (dimensionLock) {
+        width = this.width;
+        height = this.height;
+      }
+      HardwareCodecFailureStore.recordSuccess(/* isEncoder= */ false, codecType, codecName,
+          /* profile= */ "", width, height);
+    }
+    hasDecodedFrames = false;
     if (surface != null) {
       releaseSurface();
       surface = null;
@@ -300,10 +339,14 @@ class AndroidVideoDecoder implements VideoDecoder, VideoSink {
       surfaceTextureHelper = null;
     }
     synchronized (renderedTextureMetadataLock) {
-      renderedTextureMetadata = null;
+      hasRenderedTextureMetadata = false;
+      renderedTextureDecodeTimeMs = null;
     }
     callback = null;
     frameInfos.clear();
+    if (stats != null) {
+      stats.onDecoderReleased();
+    }
     return status;
   }
 
@@ -377,15 +420,21 @@ class AndroidVideoDecoder implements VideoDecoder, VideoSink {
         return;
       }
 
-      FrameInfo frameInfo = frameInfos.poll();
       Integer decodeTimeMs = null;
       int rotation = 0;
-      if (frameInfo != null) {
-        decodeTimeMs = (int) (SystemClock.elapsedRealtime() - frameInfo.decodeStartTimeMs);
-        rotation = frameInfo.rotation;
+      if (frameInfos.poll(outputFrameInfo)) {
+        final int elapsedMs = (int) TimeUnit.NANOSECONDS.toMillis(
+            SystemClock.elapsedRealtimeNanos() - outputFrameInfo.enqueueTimeNs);
+        decodeTimeMs = elapsedMs;
+        rotation = outputFrameInfo.rotation;
+        decodeTimeMsHistogram.addSample(elapsedMs);
+        if (stats != null) {
+          stats.onFrameDecoded(elapsedMs, frameInfos.size());
+        }
       }
 
       hasDecodedFirstFrame = true;
+      hasDecodedFrames = true;
 
       if (surfaceTextureHelper != null) {
         deliverTextureFrame(index, info, rotation, decodeTimeMs);
@@ -409,13 +458,15 @@ class AndroidVideoDecoder implements VideoDecoder, VideoSink {
     }
 
     synchronized (renderedTextureMetadataLock) {
-      if (renderedTextureMetadata != null) {
+      if (hasRenderedTextureMetadata) {
         codec.releaseOutputBuffer(index, false);
         return; // We are still waiting for texture for the previous frame, drop this one.
       }
       surfaceTextureHelper.setTextureSize(width, height);
       surfaceTextureHelper.setFrameRotation(rotation);
-      renderedTextureMetadata = new DecodedTextureMetadata(info.presentationTimeUs, decodeTimeMs);
+      hasRenderedTextureMetadata = true;
+      renderedTexturePresentationTimestampUs = info.presentationTimeUs;
+      renderedTextureDecodeTimeMs = decodeTimeMs;
       codec.releaseOutputBuffer(index, /* render= */ true);
     }
   }
@@ -426,13 +477,14 @@ class AndroidVideoDecoder implements VideoDecoder, VideoSink {
     final Integer decodeTimeMs;
     final long timestampNs;
     synchronized (renderedTextureMetadataLock) {
-      if (renderedTextureMetadata == null) {
+      if (!hasRenderedTextureMetadata) {
         throw new IllegalStateException(
             "Rendered texture metadata was null in onTextureFrameAvailable.");
       }
-      timestampNs = renderedTextureMetadata.presentationTimestampUs * 1000;
-      decodeTimeMs = renderedTextureMetadata.decodeTimeMs;
-      renderedTextureMetadata = null;
+      timestampNs = renderedTexturePresentationTimestampUs * 1000;
+      decodeTimeMs = renderedTextureDecodeTimeMs;
+      hasRenderedTextureMetadata = false;
+      renderedTextureDecodeTimeMs = null;
     }
     // Change timestamp of frame.
     final VideoFrame frameWithModifiedTimeStamp =
@@ -662,7 +714,7 @@ class AndroidVideoDecoder implements VideoDecoder, VideoSink {
 
   // Visible for testing.
   protected VideoFrame.I420Buffer allocateI420Buffer(int width, int height) {
-    return JavaI420Buffer.allocate(width, height);
+    return I420BufferPool.getDefault().allocate(width, height);
   }
 
   // Visible for testing.
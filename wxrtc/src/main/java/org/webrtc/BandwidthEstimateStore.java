@@ -0,0 +1,289 @@
+/*
+ *  Copyright 2026 The wxrtc project authors. All Rights Reserved.
+ */
+
+package org.webrtc;
+
+import android.content.Context;
+import androidx.annotation.Nullable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Remembers the last stable available outgoing bitrate per network, keyed by connection type and
+ * Wi-Fi SSID, so a new call on a known network can start congestion control near the bitrate it
+ * reached last time instead of ramping up from the conservative default.
+ *
+ * <p>Without a call to {@link #initialize} nothing is remembered and no network key is available.
+ */
+public class BandwidthEstimateStore {
+  private static final String TAG = "BandwidthEstimateStore";
+  private static final String STORE_FILE_NAME = "webrtc_bwe_memory.json";
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+  private static final long EXPIRY_MS = TimeUnit.DAYS.toMillis(7);
+  // A stored estimate is rewritten only when it moves by more than this fraction, or is older than
+  // REFRESH_MS, to keep file writes rare.
+  private static final double MIN_CHANGE_FRACTION = 0.1;
+  private static final long REFRESH_MS = TimeUnit.HOURS.toMillis(1);
+  // Bound on the number of networks remembered; the least recently updated one is dropped.
+  private static final int MAX_ENTRIES = 32;
+  // Reported by WifiInfo.getSSID() when the app may not read the SSID, e.g. without location
+  // permission. All such networks would share one key, so they are not remembered.
+  private static final String UNKNOWN_SSID = "<unknown ssid>";
+
+  private static class Entry {
+    int bitrateKbps;
+    long updateTimeMs;
+  }
+
+  private static final Object lock = new Object();
+  private static final Map<String, Entry> entries = new HashMap<>();
+  @Nullable private static File storeFile;
+  @Nullable private static NetworkMonitorAutoDetect.ConnectivityManagerDelegate connectivity;
+  @Nullable private static NetworkMonitorAutoDetect.WifiManagerDelegate wifi;
+
+  /**
+   * Follows the available send bitrate of one connection. Reports it to the store once it is
+   * stable and measures the time until it first reaches a target.
+   */
+  public static class Tracker {
+    // Consecutive samples within STABLE_TOLERANCE of each other that make an estimate stable.
+    private static final int STABLE_SAMPLES = 5;
+    private static final double STABLE_TOLERANCE = 0.15;
+
+    @Nullable private final String networkKey;
+    private final int targetKbps;
+    private final long startTimeMs;
+    private int lastKbps;
+    private int stableCount;
+    private volatile long timeToTargetMs = -1;
+
+    /** `targetKbps` is the bitrate at which ramp-up counts as done, e.g. the configured minimum. */
+    public Tracker(@Nullable String networkKey, int targetKbps) {
+      this(networkKey, targetKbps, System.currentTimeMillis());
+    }
+
+    Tracker(@Nullable String networkKey, int targetKbps, long startTimeMs) {
+      this.networkKey = networkKey;
+      this.targetKbps = targetKbps;
+      this.startTimeMs = startTimeMs;
+    }
+
+    /** Feeds one sample of the available send bitrate, e.g. once per stats interval. */
+    public void onAvailableSendBitrate(int availableKbps) {
+      onAvailableSendBitrate(availableKbps, System.currentTimeMillis());
+    }
+
+    void onAvailableSendBitrate(int availableKbps, long nowMs) {
+      if (availableKbps <= 0) {
+        return;
+      }
+      if (timeToTargetMs < 0 && targetKbps > 0 && availableKbps >= targetKbps) {
+        timeToTargetMs = nowMs - startTimeMs;
+        Logging.d(TAG, "Reached " + targetKbps + " kbps after " + timeToTargetMs + " ms");
+      }
+      if (lastKbps > 0 && Math.abs(availableKbps - lastKbps) <= lastKbps * STABLE_TOLERANCE) {
+        stableCount++;
+      } else {
+        stableCount = 0;
+      }
+      lastKbps = availableKbps;
+      if (stableCount >= STABLE_SAMPLES && networkKey != null) {
+        stableCount = 0;
+        record(networkKey, availableKbps, nowMs);
+      }
+    }
+
+    /** Milliseconds from creation until the target was first reached, or -1 if not yet. */
+    public long getTimeToTargetMs() {
+      return timeToTargetMs;
+    }
+  }
+
+  /** Loads estimates recorded in previous sessions and persists new ones in app storage. */
+  public static void initialize(Context context) {
+    synchronized (lock) {
+      if (storeFile != null) {
+        return;
+      }
+      final Context appContext = context.getApplicationContext();
+      storeFile = new File(appContext.getFilesDir(), STORE_FILE_NAME);
+      connectivity = new NetworkMonitorAutoDetect.ConnectivityManagerDelegate(
+          appContext, new HashSet<>(), "" /* fieldTrialsString */);
+      wifi = new NetworkMonitorAutoDetect.WifiManagerDelegate(appContext);
+      load(storeFile);
+    }
+  }
+
+  /**
+   * Returns a key for the current default network, e.g. "CONNECTION_WIFI|\"ssid\"", or null if
+   * there is no connection, the Wi-Fi SSID cannot be read or the store is not initialized.
+   */
+  @Nullable
+  public static String getCurrentNetworkKey() {
+    final NetworkMonitorAutoDetect.ConnectivityManagerDelegate connectivity;
+    final NetworkMonitorAutoDetect.WifiManagerDelegate wifi;
+    synchronized (lock) {
+      connectivity = BandwidthEstimateStore.connectivity;
+      wifi = BandwidthEstimateStore.wifi;
+    }
+    if (connectivity == null) {
+      return null;
+    }
+    final NetworkChangeDetector.ConnectionType type =
+        NetworkMonitorAutoDetect.getConnectionType(connectivity.getNetworkState());
+    switch (type) {
+      case CONNECTION_NONE:
+      case CONNECTION_UNKNOWN:
+        return null;
+      case CONNECTION_WIFI:
+        final String ssid = wifi.getWifiSSID();
+        if (ssid.isEmpty() || UNKNOWN_SSID.equals(ssid)) {
+          return null;
+        }
+        return type.name() + "|" + ssid;
+      default:
+        return type.name();
+    }
+  }
+
+  /** Returns the remembered bitrate for `networkKey`, or 0 if there is none. */
+  public static int getBitrateKbps(@Nullable String networkKey) {
+    return getBitrateKbps(networkKey, System.currentTimeMillis());
+  }
+
+  static int getBitrateKbps(@Nullable String networkKey, long nowMs) {
+    if (networkKey == null) {
+      return 0;
+    }
+    synchronized (lock) {
+      final Entry entry = entries.get(networkKey);
+      if (entry == null) {
+        return 0;
+      }
+      if (nowMs - entry.updateTimeMs > EXPIRY_MS) {
+        entries.remove(networkKey);
+        store();
+        return 0;
+      }
+      return entry.bitrateKbps;
+    }
+  }
+
+  /** Forgets all remembered estimates. */
+  public static void clear() {
+    synchronized (lock) {
+      entries.clear();
+      if (storeFile != null) {
+        storeFile.delete();
+      }
+    }
+  }
+
+  static void record(String networkKey, int bitrateKbps, long nowMs) {
+    synchronized (lock) {
+      Entry entry = entries.get(networkKey);
+      if (entry != null && nowMs - entry.updateTimeMs < REFRESH_MS
+          && Math.abs(bitrateKbps - entry.bitrateKbps)
+              <= entry.bitrateKbps * MIN_CHANGE_FRACTION) {
+        return;
+      }
+      if (entry == null) {
+        if (entries.size() >= MAX_ENTRIES) {
+          removeOldest();
+        }
+        entry = new Entry();
+        entries.put(networkKey, entry);
+      }
+      entry.bitrateKbps = bitrateKbps;
+      entry.updateTimeMs = nowMs;
+      Logging.d(TAG, "Stable estimate for " + networkKey + ": " + bitrateKbps + " kbps");
+      store();
+    }
+  }
+
+  // Must be called with `lock` held.
+  private static void removeOldest() {
+    String oldestKey = null;
+    long oldestTimeMs = Long.MAX_VALUE;
+    for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+      if (entry.getValue().updateTimeMs < oldestTimeMs) {
+        oldestTimeMs = entry.getValue().updateTimeMs;
+        oldestKey = entry.getKey();
+      }
+    }
+    if (oldestKey != null) {
+      entries.remove(oldestKey);
+    }
+  }
+
+  private static void load(File file) {
+    if (!file.exists()) {
+      return;
+    }
+    try (FileInputStream input = new FileInputStream(file)) {
+      final byte[] data = new byte[(int) file.length()];
+      int offset = 0;
+      while (offset < data.length) {
+        final int read = input.read(data, offset, data.length - offset);
+        if (read < 0) {
+          break;
+        }
+        offset += read;
+      }
+      final JSONObject json = new JSONObject(new String(data, 0, offset, UTF_8));
+      final long nowMs = System.currentTimeMillis();
+      for (Iterator<String> keys = json.keys(); keys.hasNext();) {
+        final String key = keys.next();
+        final JSONObject value = json.getJSONObject(key);
+        final Entry entry = new Entry();
+        entry.bitrateKbps = value.getInt("bitrateKbps");
+        entry.updateTimeMs = value.getLong("updateTimeMs");
+        if (nowMs - entry.updateTimeMs <= EXPIRY_MS) {
+          entries.put(key, entry);
+        }
+      }
+    } catch (IOException | JSONException e) {
+      Logging.e(TAG, "Failed to load bandwidth estimates", e);
+    }
+  }
+
+  // Must be called with `lock` held.
+  private static void store() {
+    if (storeFile == null) {
+      return;
+    }
+    final File tmpFile = new File(storeFile.getPath() + ".tmp");
+    try (FileOutputStream output = new FileOutputStream(tmpFile)) {
+      final JSONObject json = new JSONObject();
+      for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+        final JSONObject value = new JSONObject();
+        value.put("bitrateKbps", entry.getValue().bitrateKbps);
+        value.put("updateTimeMs", entry.getValue().updateTimeMs);
+        json.put(entry.getKey(), value);
+      }
+      output.write(json.toString().getBytes(UTF_8));
+      output.getFD().sync();
+    } catch (IOException | JSONException e) {
+      Logging.e(TAG, "Failed to store bandwidth estimates", e);
+      tmpFile.delete();
+      return;
+    }
+    if (!tmpFile.renameTo(storeFile)) {
+      Logging.e(TAG, "Failed to replace " + storeFile);
+      tmpFile.delete();
+    }
+  }
+
+  private BandwidthEstimateStore() {}
+}
@@ -30,6 +30,16 @@ public class DefaultVideoDecoderFactory implements VideoDecoderFactory {
     this.platformSoftwareVideoDecoderFactory = new PlatformSoftwareVideoDecoderFactory(eglContext);
   }
 
+  /**
+   * Create decoder factory using default hardware decoder factory reporting to `stats`.
+   */
+  public DefaultVideoDecoderFactory(
+      @Nullable EglBase.Context eglContext, @Nullable VideoDecoderStats stats) {
+    this.hardwareVideoDecoderFactory =
+        new HardwareVideoDecoderFactory(eglContext, /* codecAllowedPredicate= */ null, stats);
+    this.platformSoftwareVideoDecoderFactory = new PlatformSoftwareVideoDecoderFactory(eglContext);
+  }
+
   /**
    * Create decoder factory using explicit hardware decoder factory.
    */
@@ -26,6 +26,25 @@ public class DefaultVideoEncoderFactory implements VideoEncoderFactory {
         new HardwareVideoEncoderFactory(eglContext, enableIntelVp8Encoder, enableH264HighProfile);
   }
 
+  /** Create encoder factory using default hardware encoder factory reporting to `stats`. */
+  public DefaultVideoEncoderFactory(EglBase.Context eglContext, boolean enableIntelVp8Encoder,
+      boolean enableH264HighProfile, @Nullable VideoEncoderStats stats) {
+    this.hardwareVideoEncoderFactory = new HardwareVideoEncoderFactory(eglContext,
+        enableIntelVp8Encoder, enableH264HighProfile, /* codecAllowedPredicate= */ null, stats);
+  }
+
+  /**
+   * Create encoder factory using default hardware encoder factory reporting to `stats` and
+   * delivering the hardware encoded frames to `tap`.
+   */
+  public DefaultVideoEncoderFactory(EglBase.Context eglContext, boolean enableIntelVp8Encoder,
+      boolean enableH264HighProfile, @Nullable VideoEncoderStats stats,
+      @Nullable EncodedVideoTap tap) {
+    this.hardwareVideoEncoderFactory =
+        new HardwareVideoEncoderFactory(eglContext, enableIntelVp8Encoder, enableH264HighProfile,
+            /* codecAllowedPredicate= */ null, stats, tap);
+  }
+
   /** Create encoder factory using explicit hardware encoder factory. */
   DefaultVideoEncoderFactory(VideoEncoderFactory hardwareVideoEncoderFactory) {
     this.hardwareVideoEncoderFactory = hardwareVideoEncoderFactory;
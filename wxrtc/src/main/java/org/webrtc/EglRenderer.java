@@ -102,6 +102,9 @@ public class EglRenderer implements VideoSink {
   };
 
   private final ArrayList<FrameListenerAndParams> frameListeners = new ArrayList<>();
+  // Number of listeners in `frameListeners` that also want frames dropped by fps reduction. Only
+  // written on the render thread.
+  private volatile int unthrottledFrameListenerCount;
 
   private volatile ErrorCallback errorCallback;
 
@@ -116,7 +119,9 @@ public class EglRenderer implements VideoSink {
   // EGL and GL resources for drawing YUV/OES textures. After initialization, these are only
   // accessed from the render thread.
   @Nullable private EglBase eglBase;
-  private final VideoFrameDrawer frameDrawer;
+  private final VideoFrameDrawer defaultFrameDrawer;
+  // Either `defaultFrameDrawer` or a drawer shared with other renderers on the same EglThread.
+  private VideoFrameDrawer frameDrawer;
   @Nullable private RendererCommon.GlDrawer drawer;
   private boolean usePresentationTimeStamp;
   private final Matrix drawMatrix = new Matrix();
@@ -143,6 +148,11 @@ public class EglRenderer implements VideoSink {
   private int framesDropped;
   // Number of rendered video frames.
   private int framesRendered;
+  // Number of video frames dropped by fps reduction before reaching the render thread.
+  private int framesThrottled;
+  // Totals since init(), not reset by logStatistics().
+  private long totalFramesRendered;
+  private long totalFramesDropped;
   // Start time for counting these statistics, or 0 if we haven't started measuring yet.
   private long statisticsStartTimeNs;
   // Time in ns spent in renderFrameOnRenderThread() function.
@@ -180,11 +190,22 @@ public class EglRenderer implements VideoSink {
 
   public EglRenderer(String name, VideoFrameDrawer videoFrameDrawer) {
     this.name = name;
+    this.defaultFrameDrawer = videoFrameDrawer;
     this.frameDrawer = videoFrameDrawer;
   }
 
   public void init(
       EglThread eglThread, RendererCommon.GlDrawer drawer, boolean usePresentationTimeStamp) {
+    init(eglThread, drawer, defaultFrameDrawer, usePresentationTimeStamp);
+  }
+
+  /**
+   * Initialize this class on `eglThread`, drawing with `frameDrawer` instead of the one passed in
+   * the constructor. Used to share one frame drawer between all renderers of an EglThread; the
+   * renderer calls release() on it like on its own.
+   */
+  public void init(EglThread eglThread, RendererCommon.GlDrawer drawer,
+      VideoFrameDrawer frameDrawer, boolean usePresentationTimeStamp) {
     synchronized (threadLock) {
       if (this.eglThread != null) {
         throw new IllegalStateException(name + "Already initialized");
@@ -193,6 +214,7 @@ public class EglRenderer implements VideoSink {
       logD("Initializing EglRenderer");
       this.eglThread = eglThread;
       this.drawer = drawer;
+      this.frameDrawer = frameDrawer;
       this.usePresentationTimeStamp = usePresentationTimeStamp;
 
       eglThread.addExceptionCallback(eglExceptionCallback);
@@ -202,6 +224,10 @@ public class EglRenderer implements VideoSink {
 
       final long currentTimeNs = System.nanoTime();
       resetStatistics(currentTimeNs);
+      synchronized (statisticsLock) {
+        totalFramesRendered = 0;
+        totalFramesDropped = 0;
+      }
 
       eglThread.getHandler().postDelayed(
           logStatisticsRunnable, TimeUnit.SECONDS.toMillis(LOG_INTERVAL_SEC));
@@ -284,6 +310,7 @@ public class EglRenderer implements VideoSink {
         }
 
         frameListeners.clear();
+        unthrottledFrameListenerCount = 0;
         eglCleanupBarrier.countDown();
       });
 
@@ -311,6 +338,7 @@ public class EglRenderer implements VideoSink {
       framesReceived = 0;
       framesDropped = 0;
       framesRendered = 0;
+      framesThrottled = 0;
       renderTimeNs = 0;
       renderSwapBufferTimeNs = 0;
     }
@@ -443,6 +471,9 @@ public class EglRenderer implements VideoSink {
       final RendererCommon.GlDrawer listenerDrawer = drawerParam == null ? drawer : drawerParam;
       frameListeners.add(
           new FrameListenerAndParams(listener, scale, listenerDrawer, applyFpsReduction));
+      if (!applyFpsReduction) {
+        unthrottledFrameListenerCount++;
+      }
     });
   }
 
@@ -466,8 +497,10 @@ public class EglRenderer implements VideoSink {
         latch.countDown();
         final Iterator<FrameListenerAndParams> iter = frameListeners.iterator();
         while (iter.hasNext()) {
-          if (iter.next().listener == listener) {
+          final FrameListenerAndParams listenerAndParams = iter.next();
+          if (listenerAndParams.listener == listener) {
             iter.remove();
+            onFrameListenerRemoved(listenerAndParams);
           }
         }
       });
@@ -486,6 +519,15 @@ public class EglRenderer implements VideoSink {
     synchronized (statisticsLock) {
       ++framesReceived;
     }
+    // Drop frames that fps reduction would skip anyway before they are retained and posted, so
+    // throttled renderers do not wake up the render thread or upload textures for them.
+    if (unthrottledFrameListenerCount == 0 && isThrottled(System.nanoTime())) {
+      synchronized (statisticsLock) {
+        ++framesThrottled;
+        ++totalFramesDropped;
+      }
+      return;
+    }
     final boolean dropOldFrame;
     synchronized (threadLock) {
       if (eglThread == null) {
@@ -505,10 +547,37 @@ public class EglRenderer implements VideoSink {
     if (dropOldFrame) {
       synchronized (statisticsLock) {
         ++framesDropped;
+        ++totalFramesDropped;
       }
     }
   }
 
+  // Returns true if fps reduction skips a frame arriving at `currentTimeNs`. Does not advance
+  // `nextFrameTimeNs`, that is done for the frames that reach the render thread.
+  private boolean isThrottled(long currentTimeNs) {
+    synchronized (fpsReductionLock) {
+      return minRenderPeriodNs == Long.MAX_VALUE
+          || (minRenderPeriodNs > 0 && currentTimeNs < nextFrameTimeNs);
+    }
+  }
+
+  /** Number of frames drawn since init(). */
+  public long getRenderedFrameCount() {
+    synchronized (statisticsLock) {
+      return totalFramesRendered;
+    }
+  }
+
+  /**
+   * Number of frames dropped since init(), either by fps reduction or because a newer frame
+   * arrived before the previous one was drawn.
+   */
+  public long getDroppedFrameCount() {
+    synchronized (statisticsLock) {
+      return totalFramesDropped;
+    }
+  }
+
   /**
    * Release EGL surface. This function will block until the EGL surface is released.
    */
@@ -640,6 +709,11 @@ public class EglRenderer implements VideoSink {
         }
       }
     }
+    if (!shouldRenderFrame) {
+      synchronized (statisticsLock) {
+        ++totalFramesDropped;
+      }
+    }
 
     final long startTimeNs = System.nanoTime();
 
@@ -694,6 +768,7 @@ public class EglRenderer implements VideoSink {
 
         synchronized (statisticsLock) {
           ++framesRendered;
+          ++totalFramesRendered;
           renderTimeNs += (swapBuffersStartTimeNs - startTimeNs);
         }
       }
@@ -716,6 +791,12 @@ public class EglRenderer implements VideoSink {
     }
   }
 
+  private void onFrameListenerRemoved(FrameListenerAndParams listenerAndParams) {
+    if (!listenerAndParams.applyFpsReduction) {
+      unthrottledFrameListenerCount--;
+    }
+  }
+
   private void notifyCallbacks(VideoFrame frame, boolean wasRendered) {
     if (frameListeners.isEmpty()) {
         return;
@@ -734,6 +815,7 @@ public class EglRenderer implements VideoSink {
         continue;
       }
       it.remove();
+      onFrameListenerRemoved(listenerAndParams);
 
       final int scaledWidth = (int) (listenerAndParams.scale * frame.getRotatedWidth());
       final int scaledHeight = (int) (listenerAndParams.scale * frame.getRotatedHeight());
@@ -784,6 +866,7 @@ public class EglRenderer implements VideoSink {
       logD("Duration: " + TimeUnit.NANOSECONDS.toMillis(elapsedTimeNs) + " ms."
           + " Frames received: " + framesReceived + "."
           + " Dropped: " + framesDropped + "."
+          + " Throttled: " + framesThrottled + "."
           + " Rendered: " + framesRendered + "."
           + " Render fps: " + fpsFormat.format(renderFps) + "."
           + " Average render time: " + averageTimeAsString(renderTimeNs, framesRendered) + "."
@@ -0,0 +1,494 @@
+/*
+ *  Copyright 2026 The wxrtc project authors. All Rights Reserved.
+ */
+
+package org.webrtc;
+
+import android.media.AudioFormat;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.SystemClock;
+import androidx.annotation.GuardedBy;
+import androidx.annotation.Nullable;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import org.webrtc.audio.JavaAudioDeviceModule;
+
+/**
+ * Records the local stream as it is sent, without encoding it a second time. Video is taken from
+ * the hardware encoder through an {@link EncodedVideoTap} and written as H.264/H.265 Annex-B or,
+ * for VP8, VP9 and AV1, as IVF. The microphone signal is written as a WAV file next to it.
+ *
+ * <p>The recording is split into segments named `pathPrefix`_000.h264, `pathPrefix`_000.wav and
+ * so on. {@link #rotateSegment} starts a new segment at the next video key frame, so every
+ * segment can be decoded on its own. Writing happens on a background thread that syncs the files
+ * at most once per second; if the disk falls behind, video is dropped up to the next key frame.
+ */
+public class EncodedStreamRecorder
+    implements EncodedVideoTap.Observer, JavaAudioDeviceModule.SamplesReadyCallback {
+  private static final String TAG = "EncodedStreamRecorder";
+  private static final Charset US_ASCII = Charset.forName("US-ASCII");
+  // Bound on the data waiting for the writer thread.
+  private static final long DEFAULT_MAX_PENDING_BYTES = 8L * 1024 * 1024;
+  private static final long SYNC_INTERVAL_MS = 1000;
+  // Time to wait for a key frame before a segment is rotated anyway, e.g. when video is stopped.
+  private static final long ROTATION_TIMEOUT_MS = 3000;
+  private static final int IVF_FILE_HEADER_SIZE = 32;
+  private static final int IVF_FRAME_HEADER_SIZE = 12;
+  private static final int WAV_HEADER_SIZE = 44;
+  // Frame buffers kept for reuse once the writer is done with them, and their size granularity.
+  private static final int MAX_FREE_FRAME_BUFFERS = 8;
+  private static final int FRAME_BUFFER_ALIGNMENT = 4096;
+
+  private final String pathPrefix;
+  @Nullable private final EncodedVideoTap tap;
+  private final long maxPendingBytes;
+  private final HandlerThread writerThread;
+  private final Handler writerHandler;
+
+  private final Object lock = new Object();
+  @GuardedBy("lock") private long pendingBytes;
+  @GuardedBy("lock") private boolean waitingForKeyFrame = true;
+  @GuardedBy("lock") private boolean released;
+  @GuardedBy("lock") private long writtenVideoFrames;
+  @GuardedBy("lock") private long droppedVideoFrames;
+  @GuardedBy("lock") private long droppedAudioBytes;
+  @GuardedBy("lock") private int segmentCount;
+  @GuardedBy("lock") private int videoEncoderId = EncodedVideoTap.NO_ENCODER;
+  @GuardedBy("lock") private final ArrayDeque<byte[]> freeFrameBuffers = new ArrayDeque<>();
+
+  // Only accessed on the writer thread.
+  private final ByteBuffer ivfFrameHeader =
+      ByteBuffer.allocateDirect(IVF_FRAME_HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+  private int segmentIndex = -1;
+  private boolean rotationRequested;
+  private int rotationGeneration;
+  @Nullable private FileOutputStream videoFile;
+  @Nullable private String videoMimeType;
+  private boolean videoIsIvf;
+  private long videoFrameCount;
+  private long firstVideoCaptureTimeNs;
+  @Nullable private FileOutputStream audioFile;
+  private int audioChannelCount;
+  private int audioSampleRate;
+  private long audioDataBytes;
+  private long lastSyncTimeMs;
+
+  /**
+   * Starts a recording. Frames of `tap` are recorded until {@link #release} is called; audio has
+   * to be passed in through {@link #onWebRtcAudioRecordSamplesReady}.
+   */
+  public EncodedStreamRecorder(String pathPrefix, @Nullable EncodedVideoTap tap) {
+    this(pathPrefix, tap, DEFAULT_MAX_PENDING_BYTES);
+  }
+
+  public EncodedStreamRecorder(
+      String pathPrefix, @Nullable EncodedVideoTap tap, long maxPendingBytes) {
+    this.pathPrefix = pathPrefix;
+    this.tap = tap;
+    this.maxPendingBytes = maxPendingBytes;
+    writerThread = new HandlerThread(TAG + "WriterThread");
+    writerThread.start();
+    writerHandler = new Handler(writerThread.getLooper());
+    writerHandler.post(this::openSegmentOnWriterThread);
+    if (tap != null) {
+      tap.setObserver(this);
+      tap.requestKeyFrame();
+    }
+  }
+
+  /**
+   * Closes the current segment at the next video key frame and continues in a new one. Without
+   * video, or if no key frame arrives within a few seconds, the segment is closed right away.
+   */
+  public void rotateSegment() {
+    synchronized (lock) {
+      if (released) {
+        return;
+      }
+    }
+    writerHandler.post(() -> {
+      if (videoFile == null) {
+        rotateOnWriterThread();
+        return;
+      }
+      rotationRequested = true;
+      final int generation = ++rotationGeneration;
+      writerHandler.postDelayed(() -> {
+        if (rotationRequested && generation == rotationGeneration) {
+          Logging.w(TAG, "No key frame for rotation, rotating anyway");
+          rotateOnWriterThread();
+        }
+      }, ROTATION_TIMEOUT_MS);
+    });
+    if (tap != null) {
+      tap.requestKeyFrame();
+    }
+  }
+
+  /** Number of segments started so far. */
+  public int getSegmentCount() {
+    synchronized (lock) {
+      return segmentCount;
+    }
+  }
+
+  public long getWrittenVideoFrameCount() {
+    synchronized (lock) {
+      return writtenVideoFrames;
+    }
+  }
+
+  /** Number of video frames dropped because the disk could not keep up. */
+  public long getDroppedVideoFrameCount() {
+    synchronized (lock) {
+      return droppedVideoFrames;
+    }
+  }
+
+  /** Number of audio bytes dropped because the disk could not keep up. */
+  public long getDroppedAudioBytes() {
+    synchronized (lock) {
+      return droppedAudioBytes;
+    }
+  }
+
+  // EncodedVideoTap.Observer, called on the encoder output thread.
+  @Override
+  public void onEncodedFrame(
+      int encoderId, String mimeType, EncodedImage image, boolean isKeyFrame) {
+    final ByteBuffer buffer = image.buffer.duplicate();
+    final int size = buffer.remaining();
+    byte[] data = null;
+    boolean requestKeyFrame = false;
+    synchronized (lock) {
+      if (released) {
+        return;
+      }
+      if (encoderId != videoEncoderId) {
+        // Another encoder took over, its frames only make sense from its first key frame on.
+        if (videoEncoderId != EncodedVideoTap.NO_ENCODER) {
+          Logging.d(TAG, "Recording encoder " + encoderId + " instead of " + videoEncoderId);
+        }
+        videoEncoderId = encoderId;
+        waitingForKeyFrame = true;
+      }
+      if (pendingBytes + size > maxPendingBytes) {
+        // A delta frame cannot be decoded without its predecessors, drop up to the next key frame.
+        droppedVideoFrames++;
+        requestKeyFrame = !waitingForKeyFrame;
+        waitingForKeyFrame = true;
+      } else if (waitingForKeyFrame && !isKeyFrame) {
+        droppedVideoFrames++;
+      } else {
+        waitingForKeyFrame = false;
+        pendingBytes += size;
+        data = takeFrameBuffer(size);
+      }
+    }
+    if (requestKeyFrame && tap != null) {
+      Logging.w(TAG, "Writer is behind, dropping video until the next key frame");
+      tap.requestKeyFrame();
+    }
+    if (data == null) {
+      return;
+    }
+    buffer.get(data, 0, size);
+    final byte[] frameData = data;
+    final int width = image.encodedWidth;
+    final int height = image.encodedHeight;
+    final long captureTimeNs = image.captureTimeNs;
+    writerHandler.post(() -> {
+      writeVideoOnWriterThread(mimeType, frameData, size, width, height, captureTimeNs, isKeyFrame);
+      synchronized (lock) {
+        pendingBytes -= size;
+        writtenVideoFrames++;
+        if (freeFrameBuffers.size() < MAX_FREE_FRAME_BUFFERS) {
+          freeFrameBuffers.add(frameData);
+        }
+      }
+    });
+  }
+
+  // Returns a buffer of at least `size` bytes, reusing one the writer has finished with. In steady
+  // state frames are copied into recycled buffers and nothing is allocated.
+  @GuardedBy("lock")
+  private byte[] takeFrameBuffer(int size) {
+    for (Iterator<byte[]> it = freeFrameBuffers.iterator(); it.hasNext();) {
+      final byte[] data = it.next();
+      if (data.length >= size) {
+        it.remove();
+        return data;
+      }
+    }
+    if (freeFrameBuffers.size() == MAX_FREE_FRAME_BUFFERS) {
+      // All too small, e.g. after a resolution increase. Drop the oldest one.
+      freeFrameBuffers.poll();
+    }
+    return new byte[(size + FRAME_BUFFER_ALIGNMENT - 1) / FRAME_BUFFER_ALIGNMENT
+        * FRAME_BUFFER_ALIGNMENT];
+  }
+
+  // JavaAudioDeviceModule.SamplesReadyCallback, called on the audio record thread.
+  @Override
+  public void onWebRtcAudioRecordSamplesReady(JavaAudioDeviceModule.AudioSamples samples) {
+    final byte[] data = samples.getData();
+    synchronized (lock) {
+      if (released) {
+        return;
+      }
+      if (pendingBytes + data.length > maxPendingBytes) {
+        droppedAudioBytes += data.length;
+        return;
+      }
+      pendingBytes += data.length;
+    }
+    writerHandler.post(() -> {
+      writeAudioOnWriterThread(samples);
+      synchronized (lock) {
+        pendingBytes -= data.length;
+      }
+    });
+  }
+
+  /** Stops recording. Data that is already queued is written and the files are closed. */
+  public void release() {
+    synchronized (lock) {
+      if (released) {
+        return;
+      }
+      released = true;
+    }
+    if (tap != null) {
+      tap.removeObserver(this);
+    }
+    writerHandler.post(() -> {
+      closeSegmentOnWriterThread();
+      synchronized (lock) {
+        Logging.d(TAG,
+            "Recorded " + segmentCount + " segments to " + pathPrefix + ", " + writtenVideoFrames
+                + " video frames written, " + droppedVideoFrames + " dropped, "
+                + droppedAudioBytes + " audio bytes dropped.");
+      }
+      writerThread.quit();
+    });
+    try {
+      writerThread.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      Logging.e(TAG, "Interrupted while waiting for the write to disk to complete.", e);
+    }
+  }
+
+  private void writeVideoOnWriterThread(String mimeType, byte[] data, int size, int width,
+      int height, long captureTimeNs, boolean isKeyFrame) {
+    if (isKeyFrame) {
+      if (rotationRequested) {
+        rotateOnWriterThread();
+      } else if (videoMimeType != null && !videoMimeType.equals(mimeType)) {
+        Logging.d(TAG, "Codec changed to " + mimeType + ", starting a new segment");
+        rotateOnWriterThread();
+      }
+    }
+    try {
+      if (videoFile == null) {
+        if (!isKeyFrame) {
+          return;
+        }
+        openVideoFileOnWriterThread(mimeType, width, height, captureTimeNs);
+      }
+      final FileChannel channel = videoFile.getChannel();
+      final ByteBuffer frame = ByteBuffer.wrap(data, 0, size);
+      if (videoIsIvf) {
+        ivfFrameHeader.clear();
+        ivfFrameHeader.putInt(size);
+        ivfFrameHeader.putLong(
+            TimeUnit.NANOSECONDS.toMicros(captureTimeNs - firstVideoCaptureTimeNs));
+        ivfFrameHeader.flip();
+        writeFully(channel, ivfFrameHeader, frame);
+      } else {
+        writeFully(channel, frame);
+      }
+      videoFrameCount++;
+      maybeSyncOnWriterThread();
+    } catch (IOException e) {
+      Logging.e(TAG, "Error writing video to disk", e);
+    }
+  }
+
+  private void writeAudioOnWriterThread(JavaAudioDeviceModule.AudioSamples samples) {
+    if (samples.getAudioFormat() != AudioFormat.ENCODING_PCM_16BIT) {
+      return;
+    }
+    try {
+      if (audioFile != null
+          && (samples.getChannelCount() != audioChannelCount
+              || samples.getSampleRate() != audioSampleRate)) {
+        Logging.w(TAG, "Audio format changed, dropping samples");
+        return;
+      }
+      if (audioFile == null) {
+        openAudioFileOnWriterThread(samples.getChannelCount(), samples.getSampleRate());
+      }
+      writeFully(audioFile.getChannel(), ByteBuffer.wrap(samples.getData()));
+      audioDataBytes += samples.getData().length;
+      maybeSyncOnWriterThread();
+    } catch (IOException e) {
+      Logging.e(TAG, "Error writing audio to disk", e);
+    }
+  }
+
+  private void rotateOnWriterThread() {
+    rotationRequested = false;
+    closeSegmentOnWriterThread();
+    openSegmentOnWriterThread();
+  }
+
+  // Files are created with the first data of the segment.
+  private void openSegmentOnWriterThread() {
+    segmentIndex++;
+    synchronized (lock) {
+      segmentCount = segmentIndex + 1;
+    }
+  }
+
+  private String getSegmentPath(String extension) {
+    return String.format(Locale.US, "%s_%03d.%s", pathPrefix, segmentIndex, extension);
+  }
+
+  private void openVideoFileOnWriterThread(
+      String mimeType, int width, int height, long captureTimeNs) throws IOException {
+    final String fourcc;
+    final String extension;
+    if (mimeType.equals(VideoCodecMimeType.H264.mimeType())) {
+      fourcc = null;
+      extension = "h264";
+    } else if (mimeType.equals(VideoCodecMimeType.H265.mimeType())) {
+      fourcc = null;
+      extension = "h265";
+    } else if (mimeType.equals(VideoCodecMimeType.VP8.mimeType())) {
+      fourcc = "VP80";
+      extension = "ivf";
+    } else if (mimeType.equals(VideoCodecMimeType.VP9.mimeType())) {
+      fourcc = "VP90";
+      extension = "ivf";
+    } else {
+      fourcc = "AV01";
+      extension = "ivf";
+    }
+    videoFile = new FileOutputStream(getSegmentPath(extension));
+    videoMimeType = mimeType;
+    videoIsIvf = fourcc != null;
+    videoFrameCount = 0;
+    firstVideoCaptureTimeNs = captureTimeNs;
+    if (videoIsIvf) {
+      // The frame count is filled in when the file is closed. Timestamps are in microseconds.
+      final ByteBuffer header =
+          ByteBuffer.allocate(IVF_FILE_HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+      header.put("DKIF".getBytes(US_ASCII));
+      header.putShort((short) 0);
+      header.putShort((short) IVF_FILE_HEADER_SIZE);
+      header.put(fourcc.getBytes(US_ASCII));
+      header.putShort((short) width);
+      header.putShort((short) height);
+      header.putInt(1000000);
+      header.putInt(1);
+      header.putInt(0);
+      header.putInt(0);
+      header.flip();
+      writeFully(videoFile.getChannel(), header);
+    }
+  }
+
+  private void openAudioFileOnWriterThread(int channelCount, int sampleRate) throws IOException {
+    audioFile = new FileOutputStream(getSegmentPath("wav"));
+    audioChannelCount = channelCount;
+    audioSampleRate = sampleRate;
+    audioDataBytes = 0;
+    // Chunk sizes are filled in when the file is closed.
+    final ByteBuffer header = ByteBuffer.allocate(WAV_HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+    header.put("RIFF".getBytes(US_ASCII));
+    header.putInt(0);
+    header.put("WAVE".getBytes(US_ASCII));
+    header.put("fmt ".getBytes(US_ASCII));
+    header.putInt(16);
+    header.putShort((short) 1 /* PCM */);
+    header.putShort((short) channelCount);
+    header.putInt(sampleRate);
+    header.putInt(sampleRate * channelCount * 2);
+    header.putShort((short) (channelCount * 2));
+    header.putShort((short) 16);
+    header.put("data".getBytes(US_ASCII));
+    header.putInt(0);
+    header.flip();
+    writeFully(audioFile.getChannel(), header);
+  }
+
+  private void closeSegmentOnWriterThread() {
+    if (videoFile != null) {
+      try {
+        final FileChannel channel = videoFile.getChannel();
+        if (videoIsIvf) {
+          final ByteBuffer frameCount = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+          frameCount.putInt(0, (int) videoFrameCount);
+          channel.write(frameCount, 24);
+        }
+        channel.force(false);
+        videoFile.close();
+      } catch (IOException e) {
+        Logging.e(TAG, "Error closing video file", e);
+      }
+      videoFile = null;
+      videoMimeType = null;
+    }
+    if (audioFile != null) {
+      try {
+        final FileChannel channel = audioFile.getChannel();
+        final ByteBuffer size = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+        size.putInt(0, (int) (audioDataBytes + WAV_HEADER_SIZE - 8));
+        channel.write(size, 4);
+        size.putInt(0, (int) audioDataBytes);
+        size.rewind();
+        channel.write(size, 40);
+        channel.force(false);
+        audioFile.close();
+      } catch (IOException e) {
+        Logging.e(TAG, "Error closing audio file", e);
+      }
+      audioFile = null;
+    }
+  }
+
+  // Syncs both files at most once per SYNC_INTERVAL_MS instead of after every write.
+  private void maybeSyncOnWriterThread() throws IOException {
+    final long nowMs = SystemClock.elapsedRealtime();
+    if (nowMs - lastSyncTimeMs < SYNC_INTERVAL_MS) {
+      return;
+    }
+    lastSyncTimeMs = nowMs;
+    if (videoFile != null) {
+      videoFile.getChannel().force(false);
+    }
+    if (audioFile != null) {
+      audioFile.getChannel().force(false);
+    }
+  }
+
+  private static void writeFully(FileChannel channel, ByteBuffer... buffers) throws IOException {
+    long remaining = 0;
+    for (ByteBuffer buffer : buffers) {
+      remaining += buffer.remaining();
+    }
+    while (remaining > 0) {
+      remaining -= channel.write(buffers);
+    }
+  }
+}
@@ -0,0 +1,115 @@
+/*
+ *  Copyright 2026 The wxrtc project authors. All Rights Reserved.
+ */
+
+package org.webrtc;
+
+import androidx.annotation.GuardedBy;
+import androidx.annotation.Nullable;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Gives access to the bitstream of the hardware encoders created by one factory, e.g. to record
+ * what is sent without encoding it a second time. Software encoders run in native code and are not
+ * tapped. There is one observer at a time; setting a new one replaces the previous one.
+ *
+ * <p>A factory may run several encoders at once, e.g. the camera and a screen share sub stream.
+ * Only the oldest live encoder is tapped, so the observer always sees a single stream. When that
+ * encoder is released, the next oldest one takes over, starting with a key frame.
+ */
+public class EncodedVideoTap {
+  /** Receives encoded frames on the output thread of the encoder. */
+  public interface Observer {
+    /**
+     * `encoderId` identifies the encoder that produced the frame and changes when another encoder
+     * takes over. `mimeType` is the MediaCodec type of the stream, e.g. "video/avc". H.264 and
+     * H.265 frames are Annex-B with SPS and PPS before every key frame. `image` is only valid
+     * during the call.
+     */
+    void onEncodedFrame(int encoderId, String mimeType, EncodedImage image, boolean isKeyFrame);
+  }
+
+  @Nullable private volatile Observer observer;
+  private volatile boolean keyFrameRequested;
+
+  private final AtomicInteger nextEncoderId = new AtomicInteger();
+  // Ids of the initialized encoders. Ids grow with creation order, so the first is the oldest.
+  @GuardedBy("this") private final TreeSet<Integer> liveEncoderIds = new TreeSet<>();
+  private volatile int tappedEncoderId = NO_ENCODER;
+
+  static final int NO_ENCODER = 0;
+
+  public synchronized void setObserver(@Nullable Observer observer) {
+    this.observer = observer;
+  }
+
+  /**
+   * Clears the observer only if it is still `observer`, so an observer that was replaced does not
+   * detach its successor.
+   */
+  public synchronized void removeObserver(Observer observer) {
+    if (this.observer == observer) {
+      this.observer = null;
+    }
+  }
+
+  /** Makes the encoders produce a key frame for the next input frame. */
+  public void requestKeyFrame() {
+    keyFrameRequested = true;
+  }
+
+  /** Id of the encoder whose frames go to the observer, or 0 if no encoder is running. */
+  public int getTappedEncoderId() {
+    return tappedEncoderId;
+  }
+
+  /** Returns the id an encoder passes to the other calls. */
+  int newEncoderId() {
+    return nextEncoderId.incrementAndGet();
+  }
+
+  /** Called when the encoder is initialized. */
+  synchronized void onEncoderStarted(int encoderId) {
+    liveEncoderIds.add(encoderId);
+    updateTappedEncoder();
+  }
+
+  /** Called when the encoder is released for good, not when it only resets its codec. */
+  synchronized void onEncoderReleased(int encoderId) {
+    liveEncoderIds.remove(encoderId);
+    updateTappedEncoder();
+  }
+
+  @GuardedBy("this")
+  private void updateTappedEncoder() {
+    final int encoderId = liveEncoderIds.isEmpty() ? NO_ENCODER : liveEncoderIds.first();
+    if (encoderId == tappedEncoderId) {
+      return;
+    }
+    tappedEncoderId = encoderId;
+    // The stream of the new encoder has to start with a key frame to be decodable.
+    if (encoderId != NO_ENCODER) {
+      keyFrameRequested = true;
+    }
+  }
+
+  boolean consumeKeyFrameRequest(int encoderId) {
+    if (!keyFrameRequested || observer == null || encoderId != tappedEncoderId) {
+      return false;
+    }
+    keyFrameRequested = false;
+    return true;
+  }
+
+  void onEncodedFrame(
+      int encoderId, VideoCodecMimeType type, EncodedImage image, boolean isKeyFrame) {
+    if (encoderId != tappedEncoderId) {
+      return;
+    }
+    final Observer observer = this.observer;
+    if (observer != null) {
+      observer.onEncodedFrame(encoderId, type.mimeType(), image, isKeyFrame);
+    }
+  }
+}
@@ -11,19 +11,28 @@
 package org.webrtc;
 
 import android.content.Context;
-import android.os.SystemClock;
+import androidx.annotation.Nullable;
 import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
 import java.nio.charset.Charset;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.ArrayList;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
 
+/**
+ * Capturer that plays a .y4m file, e.g. to generate load without a camera. The file is memory
+ * mapped and frames are passed on as views of the mapping without copying. Frames are paced on a
+ * dedicated thread from the monotonic clock, so the rate does not drift.
+ */
 public class FileVideoCapturer implements VideoCapturer {
   private interface VideoReader {
-    VideoFrame getNextFrame();
+    /** Returns the next frame, or null at the end of the file when not looping. */
+    @Nullable VideoFrame.Buffer getNextFrame();
+    /** Starts over at the first frame if the end of the file was reached. */
+    void rewindIfFinished();
     void close();
   }
 
@@ -34,18 +43,25 @@ public class FileVideoCapturer implements VideoCapturer {
   private static class VideoReaderY4M implements VideoReader {
     private static final String TAG = "VideoReaderY4M";
     private static final String Y4M_FRAME_DELIMETER = "FRAME";
-    private static final int FRAME_DELIMETER_LENGTH = Y4M_FRAME_DELIMETER.length() + 1;
+    // A frame header is FRAME, optional parameters and a newline.
+    private static final int MAX_FRAME_HEADER_LENGTH = 256;
+    // Mappings are limited to 2 GB, larger files are mapped in several segments.
+    private static final long MAX_SEGMENT_SIZE = 1L << 30;
 
     private final int frameWidth;
     private final int frameHeight;
-    // First char after header
-    private final long videoStart;
+    private final boolean loop;
     private final RandomAccessFile mediaFile;
-    private final FileChannel mediaFileChannel;
+    private final ArrayList<MappedByteBuffer> segments = new ArrayList<>();
+    // Segment and offset of the I420 data of each frame.
+    private final int[] frameSegments;
+    private final int[] frameOffsets;
+    private int nextFrameIndex;
 
-    public VideoReaderY4M(String file) throws IOException {
+    public VideoReaderY4M(String file, boolean loop) throws IOException {
+      this.loop = loop;
       mediaFile = new RandomAccessFile(file, "r");
-      mediaFileChannel = mediaFile.getChannel();
+      final FileChannel mediaFileChannel = mediaFile.getChannel();
       StringBuilder builder = new StringBuilder();
       for (;;) {
         int c = mediaFile.read();
@@ -59,7 +75,8 @@ public class FileVideoCapturer implements VideoCapturer {
         }
         builder.append((char) c);
       }
-      videoStart = mediaFileChannel.position();
+      // First char after header
+      final long videoStart = mediaFileChannel.position();
       String header = builder.toString();
       String[] headerTokens = header.split("[ ]");
       int w = 0;
@@ -84,56 +101,119 @@ public class FileVideoCapturer implements VideoCapturer {
         throw new IllegalArgumentException(
             "Does not support any other color space than I420 or I420mpeg2");
       }
-      if ((w % 2) == 1 || (h % 2) == 1) {
-        throw new IllegalArgumentException("Does not support odd width or height");
-      }
       frameWidth = w;
       frameHeight = h;
       Logging.d(TAG, "frame dim: (" + w + ", " + h + ")");
-    }
 
-    @Override
-    public VideoFrame getNextFrame() {
-      final long captureTimeNs = TimeUnit.MILLISECONDS.toNanos(SystemClock.elapsedRealtime());
-      final JavaI420Buffer buffer = JavaI420Buffer.allocate(frameWidth, frameHeight);
-      final ByteBuffer dataY = buffer.getDataY();
-      final ByteBuffer dataU = buffer.getDataU();
-      final ByteBuffer dataV = buffer.getDataV();
-      final int chromaHeight = (frameHeight + 1) / 2;
-      final int sizeY = frameHeight * buffer.getStrideY();
-      final int sizeU = chromaHeight * buffer.getStrideU();
-      final int sizeV = chromaHeight * buffer.getStrideV();
+      // Index all frames once, so playing them only needs the offsets.
+      // Chroma planes are rounded up for odd dimensions.
+      final long frameSize = (long) w * h + 2L * ((w + 1) / 2) * ((h + 1) / 2);
+      final long fileSize = mediaFileChannel.size();
+      final ArrayList<long[]> frames = new ArrayList<>();
+      final ByteBuffer frameHeader = ByteBuffer.allocate(MAX_FRAME_HEADER_LENGTH);
+      long position = videoStart;
+      while (position < fileSize) {
+        frameHeader.clear();
+        mediaFileChannel.read(frameHeader, position);
+        final int headerLength = getFrameHeaderLength(frameHeader);
+        if (headerLength < 0) {
+          throw new RuntimeException("Frames should be delimited by FRAME plus newline");
+        }
+        final long dataStart = position + headerLength;
+        if (dataStart + frameSize > fileSize) {
+          Logging.w(TAG, "Ignoring truncated last frame");
+          break;
+        }
+        frames.add(new long[] {position, dataStart});
+        position = dataStart + frameSize;
+      }
+      if (frames.isEmpty()) {
+        throw new IllegalArgumentException("No frames in file: " + file);
+      }
 
-      try {
-        ByteBuffer frameDelim = ByteBuffer.allocate(FRAME_DELIMETER_LENGTH);
-        if (mediaFileChannel.read(frameDelim) < FRAME_DELIMETER_LENGTH) {
-          // We reach end of file, loop
-          mediaFileChannel.position(videoStart);
-          if (mediaFileChannel.read(frameDelim) < FRAME_DELIMETER_LENGTH) {
-            throw new RuntimeException("Error looping video");
+      frameSegments = new int[frames.size()];
+      frameOffsets = new int[frames.size()];
+      long segmentStart = frames.get(0)[0];
+      int segmentFirstFrame = 0;
+      for (int i = 0; i <= frames.size(); i++) {
+        final boolean lastFrame = i == frames.size();
+        if (lastFrame || frames.get(i)[1] + frameSize - segmentStart > MAX_SEGMENT_SIZE) {
+          final long segmentEnd = frames.get(i - 1)[1] + frameSize;
+          segments.add(mediaFileChannel.map(
+              FileChannel.MapMode.READ_ONLY, segmentStart, segmentEnd - segmentStart));
+          for (int j = segmentFirstFrame; j < i; j++) {
+            frameSegments[j] = segments.size() - 1;
+            frameOffsets[j] = (int) (frames.get(j)[1] - segmentStart);
+          }
+          if (!lastFrame) {
+            segmentStart = frames.get(i)[0];
+            segmentFirstFrame = i;
           }
         }
-        String frameDelimStr = new String(frameDelim.array(), Charset.forName("US-ASCII"));
-        if (!frameDelimStr.equals(Y4M_FRAME_DELIMETER + "\n")) {
-          throw new RuntimeException(
-              "Frames should be delimited by FRAME plus newline, found delimter was: '"
-              + frameDelimStr + "'");
+      }
+      Logging.d(TAG, "Indexed " + frames.size() + " frames in " + segments.size() + " segments");
+    }
+
+    // Returns the length of the frame header at the start of `buffer` including the newline, or
+    // -1 if it is not a frame header.
+    private static int getFrameHeaderLength(ByteBuffer buffer) {
+      final int length = buffer.position();
+      final byte[] delimiter = Y4M_FRAME_DELIMETER.getBytes(Charset.forName("US-ASCII"));
+      if (length < delimiter.length + 1) {
+        return -1;
+      }
+      for (int i = 0; i < delimiter.length; i++) {
+        if (buffer.get(i) != delimiter[i]) {
+          return -1;
+        }
+      }
+      for (int i = delimiter.length; i < length; i++) {
+        if (buffer.get(i) == '\n') {
+          return i + 1;
         }
+      }
+      return -1;
+    }
 
-        mediaFileChannel.read(dataY);
-        mediaFileChannel.read(dataU);
-        mediaFileChannel.read(dataV);
-      } catch (IOException e) {
-        throw new RuntimeException(e);
+    @Override
+    @Nullable
+    public VideoFrame.Buffer getNextFrame() {
+      if (nextFrameIndex == frameOffsets.length) {
+        if (!loop) {
+          return null;
+        }
+        nextFrameIndex = 0;
       }
+      final ByteBuffer segment = segments.get(frameSegments[nextFrameIndex]).duplicate();
+      final int offset = frameOffsets[nextFrameIndex];
+      nextFrameIndex++;
 
-      return new VideoFrame(buffer, 0 /* rotation */, captureTimeNs);
+      final int chromaWidth = (frameWidth + 1) / 2;
+      final int chromaHeight = (frameHeight + 1) / 2;
+      final int sizeY = frameWidth * frameHeight;
+      final int sizeUV = chromaWidth * chromaHeight;
+      segment.limit(offset + sizeY).position(offset);
+      final ByteBuffer dataY = segment.slice();
+      segment.limit(offset + sizeY + sizeUV).position(offset + sizeY);
+      final ByteBuffer dataU = segment.slice();
+      segment.limit(offset + sizeY + 2 * sizeUV).position(offset + sizeY + sizeUV);
+      final ByteBuffer dataV = segment.slice();
+      // The mapping stays valid while any view of it is referenced.
+      return JavaI420Buffer.wrap(frameWidth, frameHeight, dataY, frameWidth, dataU, chromaWidth,
+          dataV, chromaWidth, null /* releaseCallback */);
+    }
+
+    @Override
+    public void rewindIfFinished() {
+      if (nextFrameIndex == frameOffsets.length) {
+        nextFrameIndex = 0;
+      }
     }
 
     @Override
     public void close() {
       try {
-        // Closing a file also closes the channel.
+        // Closing a file also closes the channel. Mapped segments remain valid.
         mediaFile.close();
       } catch (IOException e) {
         Logging.e(TAG, "Problem closing file", e);
@@ -143,29 +223,50 @@ public class FileVideoCapturer implements VideoCapturer {
 
   private final static String TAG = "FileVideoCapturer";
   private final VideoReader videoReader;
+  // Frame rate from the constructor, or 0 to use the rate passed to startCapture().
+  private final int fixedFramerate;
   private CapturerObserver capturerObserver;
-  private final Timer timer = new Timer();
-
-  private final TimerTask tickTask = new TimerTask() {
-    @Override
-    public void run() {
-      tick();
-    }
-  };
+  private final Object captureLock = new Object();
+  @Nullable private Thread captureThread;
+  private volatile boolean capturing;
+  private volatile long framePeriodNs;
+  private volatile boolean framePeriodChanged;
+  // Frames that were due while the previous one was still being delivered.
+  private volatile long lateFrames;
 
   public FileVideoCapturer(String inputFile) throws IOException {
+    this(inputFile, 0 /* framerate */, true /* loop */);
+  }
+
+  /**
+   * @param framerate Frames per second, or 0 to use the rate passed to startCapture().
+   * @param loop Whether to start over at the end of the file instead of stopping.
+   */
+  public FileVideoCapturer(String inputFile, int framerate, boolean loop) throws IOException {
     try {
-      videoReader = new VideoReaderY4M(inputFile);
+      videoReader = new VideoReaderY4M(inputFile, loop);
     } catch (IOException e) {
       Logging.d(TAG, "Could not open video file: " + inputFile);
       throw e;
     }
+    fixedFramerate = framerate;
   }
 
-  public void tick() {
-    VideoFrame videoFrame = videoReader.getNextFrame();
+  /** Delivers the next frame. Returns false at the end of the file when not looping. */
+  public boolean tick() {
+    final VideoFrame.Buffer buffer = videoReader.getNextFrame();
+    if (buffer == null) {
+      return false;
+    }
+    final VideoFrame videoFrame = new VideoFrame(buffer, 0 /* rotation */, System.nanoTime());
     capturerObserver.onFrameCaptured(videoFrame);
     videoFrame.release();
+    return true;
+  }
+
+  /** Number of frames that were delivered later than one frame period. */
+  public long getLateFrameCount() {
+    return lateFrames;
   }
 
   @Override
@@ -176,21 +277,104 @@ public class FileVideoCapturer implements VideoCapturer {
 
   @Override
   public void startCapture(int width, int height, int framerate) {
-    timer.schedule(tickTask, 0, 1000 / framerate);
+    synchronized (captureLock) {
+      if (captureThread != null) {
+        return;
+      }
+      setFramerate(fixedFramerate > 0 ? fixedFramerate : framerate);
+      // Capturing stopped at the end of the file, play it again.
+      videoReader.rewindIfFinished();
+      capturing = true;
+      captureThread = new Thread(this::runCaptureLoop, TAG);
+      captureThread.start();
+    }
+    capturerObserver.onCapturerStarted(true /* success */);
   }
 
   @Override
   public void stopCapture() throws InterruptedException {
-    timer.cancel();
+    final Thread thread;
+    synchronized (captureLock) {
+      thread = captureThread;
+      captureThread = null;
+      capturing = false;
+    }
+    if (thread == null) {
+      return;
+    }
+    // Called from an observer while delivering a frame: the loop ends when the frame returns.
+    if (thread != Thread.currentThread()) {
+      LockSupport.unpark(thread);
+      thread.join();
+    }
+    capturerObserver.onCapturerStopped();
   }
 
   @Override
   public void changeCaptureFormat(int width, int height, int framerate) {
-    // Empty on purpose
+    if (fixedFramerate <= 0) {
+      setFramerate(framerate);
+    }
+  }
+
+  private void setFramerate(int framerate) {
+    framePeriodNs = TimeUnit.SECONDS.toNanos(1) / Math.max(1, framerate);
+    framePeriodChanged = true;
+  }
+
+  private void runCaptureLoop() {
+    long startTimeNs = 0;
+    long periodNs = 0;
+    long frameCount = 0;
+    while (capturing) {
+      if (framePeriodChanged) {
+        framePeriodChanged = false;
+        periodNs = framePeriodNs;
+        startTimeNs = System.nanoTime();
+        frameCount = 0;
+      }
+      // Frame times are computed from the start, so rounding and late wakeups do not add up.
+      final long frameTimeNs = startTimeNs + frameCount * periodNs;
+      final long nowNs = System.nanoTime();
+      if (nowNs < frameTimeNs) {
+        LockSupport.parkNanos(frameTimeNs - nowNs);
+        continue;
+      }
+      if (nowNs - frameTimeNs > periodNs) {
+        // Fell behind, e.g. the device was busy. Continue from now instead of sending a burst.
+        lateFrames++;
+        startTimeNs = nowNs;
+        frameCount = 0;
+      }
+      if (!tick()) {
+        Logging.d(TAG, "End of file");
+        onEndOfFile();
+        return;
+      }
+      frameCount++;
+    }
+  }
+
+  // Stops like stopCapture() so that a later startCapture() works, unless stopCapture() already
+  // took over the thread and will report the stop itself.
+  private void onEndOfFile() {
+    synchronized (captureLock) {
+      if (captureThread != Thread.currentThread()) {
+        return;
+      }
+      captureThread = null;
+      capturing = false;
+    }
+    capturerObserver.onCapturerStopped();
   }
 
   @Override
   public void dispose() {
+    try {
+      stopCapture();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
     videoReader.close();
   }
 
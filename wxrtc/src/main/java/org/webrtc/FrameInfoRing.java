@@ -0,0 +1,89 @@
+/*
+ *  Copyright 2026 The wxrtc project authors. All Rights Reserved.
+ */
+
+package org.webrtc;
+
+/**
+ * Fixed-capacity FIFO of per-frame metadata for frames that are inside a MediaCodec. All slots
+ * are allocated up front and values are copied in and out, so offering and polling frames does
+ * not allocate. Safe to use from one producer and one consumer thread.
+ */
+class FrameInfoRing {
+  /** Metadata of one frame. Also used by the consumer as a reusable copy target. */
+  static class Slot {
+    long captureTimeNs;
+    // Monotonic time at which the frame was queued into the codec.
+    long enqueueTimeNs;
+    int width;
+    int height;
+    int rotation;
+  }
+
+  private final Slot[] slots;
+  private int head;
+  private int size;
+
+  FrameInfoRing(int capacity) {
+    slots = new Slot[capacity];
+    for (int i = 0; i < capacity; i++) {
+      slots[i] = new Slot();
+    }
+  }
+
+  /** Appends a frame. Returns false if the ring is full. */
+  synchronized boolean offer(
+      long captureTimeNs, long enqueueTimeNs, int width, int height, int rotation) {
+    if (size == slots.length) {
+      return false;
+    }
+    final Slot slot = slots[(head + size) % slots.length];
+    slot.captureTimeNs = captureTimeNs;
+    slot.enqueueTimeNs = enqueueTimeNs;
+    slot.width = width;
+    slot.height = height;
+    slot.rotation = rotation;
+    size++;
+    return true;
+  }
+
+  /** Copies the oldest frame into `out` and removes it. Returns false if the ring is empty. */
+  synchronized boolean poll(Slot out) {
+    if (size == 0) {
+      return false;
+    }
+    final Slot slot = slots[head];
+    out.captureTimeNs = slot.captureTimeNs;
+    out.enqueueTimeNs = slot.enqueueTimeNs;
+    out.width = slot.width;
+    out.height = slot.height;
+    out.rotation = slot.rotation;
+    head = (head + 1) % slots.length;
+    size--;
+    return true;
+  }
+
+  /** Removes the oldest frame, e.g. to make room when the codec silently dropped outputs. */
+  synchronized void removeFirst() {
+    if (size > 0) {
+      head = (head + 1) % slots.length;
+      size--;
+    }
+  }
+
+  /** Removes the most recently offered frame, e.g. when queueing it into the codec failed. */
+  synchronized void removeLast() {
+    if (size > 0) {
+      size--;
+    }
+  }
+
+  synchronized int size() {
+    return size;
+  }
+
+  synchronized void clear() {
+    head = 0;
+    size = 0;
+  }
+}
@@ -0,0 +1,60 @@
+/*
+ *  Copyright 2026 The wxrtc project authors. All Rights Reserved.
+ */
+
+package org.webrtc;
+
+import android.graphics.Matrix;
+import android.graphics.RectF;
+
+/**
+ * Crops a region of the frame and scales it to a fixed size. The crop region is given in
+ * normalized coordinates of the upright frame with the origin at the top left.
+ */
+public class GlCropScaleEffect implements GlVideoEffect {
+  private final RectF crop;
+  private final int outputWidth;
+  private final int outputHeight;
+  private final GlRectDrawer drawer = new GlRectDrawer();
+  private final Matrix renderMatrix = new Matrix();
+
+  /**
+   * @param crop Region to keep, within (0, 0, 1, 1).
+   * @param outputWidth Output width, or 0 to keep the cropped width.
+   * @param outputHeight Output height, or 0 to keep the cropped height.
+   */
+  public GlCropScaleEffect(RectF crop, int outputWidth, int outputHeight) {
+    if (crop.left < 0 || crop.top < 0 || crop.right > 1 || crop.bottom > 1 || crop.isEmpty()) {
+      throw new IllegalArgumentException("Invalid crop region: " + crop);
+    }
+    this.crop = new RectF(crop);
+    this.outputWidth = outputWidth;
+    this.outputHeight = outputHeight;
+  }
+
+  @Override
+  public int getOutputWidth(int frameWidth, int frameHeight) {
+    return outputWidth > 0 ? outputWidth : Math.max(2, Math.round(frameWidth * crop.width()) & ~1);
+  }
+
+  @Override
+  public int getOutputHeight(int frameWidth, int frameHeight) {
+    return outputHeight > 0 ? outputHeight
+                            : Math.max(2, Math.round(frameHeight * crop.height()) & ~1);
+  }
+
+  @Override
+  public void draw(
+      VideoFrame frame, VideoFrameDrawer frameDrawer, int outputWidth, int outputHeight) {
+    // Maps the output to the crop region, in texture coordinates with the origin at the bottom.
+    renderMatrix.setTranslate(crop.left, 1f - crop.bottom);
+    renderMatrix.preScale(crop.width(), crop.height());
+    frameDrawer.drawFrame(frame, drawer, renderMatrix, 0 /* viewportX */, 0 /* viewportY */,
+        outputWidth, outputHeight);
+  }
+
+  @Override
+  public void release() {
+    drawer.release();
+  }
+}
@@ -0,0 +1,116 @@
+/*
+ *  Copyright 2026 The wxrtc project authors. All Rights Reserved.
+ */
+
+package org.webrtc;
+
+import android.graphics.Bitmap;
+import android.graphics.RectF;
+import android.opengl.GLES20;
+import android.opengl.GLUtils;
+import androidx.annotation.GuardedBy;
+
+/**
+ * Blends a bitmap over the frame, e.g. a watermark. For a timestamp overlay draw the text into a
+ * bitmap and pass it to {@link #setBitmap} when it changes; it is uploaded once for the next frame.
+ * The region is given in normalized coordinates of the output with the origin at the top left.
+ */
+public class GlOverlayEffect implements GlVideoEffect {
+  // Flips bitmap rows, which start at the top, to texture coordinates starting at the bottom.
+  private static final float[] BITMAP_TEX_MATRIX = new float[] {
+      1, 0, 0, 0, //
+      0, -1, 0, 0, //
+      0, 0, 1, 0, //
+      0, 1, 0, 1, //
+  };
+
+  private final Object lock = new Object();
+  @GuardedBy("lock") private Bitmap bitmap;
+  @GuardedBy("lock") private boolean bitmapChanged = true;
+  @GuardedBy("lock") private final RectF region = new RectF();
+
+  // Only accessed on the GL thread.
+  private final GlRectDrawer drawer = new GlRectDrawer();
+  private final RectF drawRegion = new RectF();
+  private int textureId;
+  private int textureWidth;
+  private int textureHeight;
+
+  /**
+   * @param bitmap Overlay picture. It must not be recycled while it is set.
+   * @param region Where to draw it, within (0, 0, 1, 1).
+   */
+  public GlOverlayEffect(Bitmap bitmap, RectF region) {
+    this.bitmap = bitmap;
+    this.region.set(region);
+  }
+
+  /** Replaces the overlay picture. The previous bitmap may be recycled after this returns. */
+  public void setBitmap(Bitmap bitmap) {
+    synchronized (lock) {
+      this.bitmap = bitmap;
+      bitmapChanged = true;
+    }
+  }
+
+  public void setRegion(RectF region) {
+    synchronized (lock) {
+      this.region.set(region);
+    }
+  }
+
+  @Override
+  public void draw(
+      VideoFrame frame, VideoFrameDrawer frameDrawer, int outputWidth, int outputHeight) {
+    frameDrawer.drawFrame(frame, drawer, null /* additionalRenderMatrix */, 0 /* viewportX */,
+        0 /* viewportY */, outputWidth, outputHeight);
+
+    synchronized (lock) {
+      if (bitmapChanged || textureId == 0) {
+        // Upload while holding the lock so the bitmap cannot be replaced and recycled meanwhile.
+        uploadBitmap(bitmap);
+        bitmapChanged = false;
+      }
+      drawRegion.set(region);
+    }
+    if (textureId == 0 || drawRegion.isEmpty()) {
+      return;
+    }
+
+    // Bitmaps are premultiplied.
+    GLES20.glEnable(GLES20.GL_BLEND);
+    GLES20.glBlendFunc(GLES20.GL_ONE, GLES20.GL_ONE_MINUS_SRC_ALPHA);
+    // Viewport coordinates start at the bottom.
+    final int viewportX = Math.round(drawRegion.left * outputWidth);
+    final int viewportY = Math.round((1f - drawRegion.bottom) * outputHeight);
+    final int viewportWidth = Math.round(drawRegion.width() * outputWidth);
+    final int viewportHeight = Math.round(drawRegion.height() * outputHeight);
+    drawer.drawRgb(textureId, BITMAP_TEX_MATRIX, textureWidth, textureHeight, viewportX, viewportY,
+        viewportWidth, viewportHeight);
+    GLES20.glDisable(GLES20.GL_BLEND);
+  }
+
+  private void uploadBitmap(Bitmap bitmap) {
+    if (bitmap == null || bitmap.isRecycled()) {
+      return;
+    }
+    if (textureId == 0) {
+      textureId = GlUtil.generateTexture(GLES20.GL_TEXTURE_2D);
+    }
+    GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, textureId);
+    GLUtils.texImage2D(GLES20.GL_TEXTURE_2D, 0 /* level */, bitmap, 0 /* border */);
+    GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, 0);
+    GlUtil.checkNoGLES2Error("GlOverlayEffect.uploadBitmap");
+    textureWidth = bitmap.getWidth();
+    textureHeight = bitmap.getHeight();
+  }
+
+  @Override
+  public void release() {
+    drawer.release();
+    if (textureId != 0) {
+      GLES20.glDeleteTextures(1, new int[] {textureId}, 0);
+      textureId = 0;
+    }
+  }
+}
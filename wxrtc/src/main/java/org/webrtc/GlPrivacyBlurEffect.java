@@ -0,0 +1,113 @@
+/*
+ *  Copyright 2026 The wxrtc project authors. All Rights Reserved.
+ */
+
+package org.webrtc;
+
+import android.graphics.RectF;
+import android.opengl.GLES20;
+import androidx.annotation.GuardedBy;
+
+/**
+ * Pixelates a region of the frame in a single pass, e.g. to hide a face or a patient name. The
+ * region is given in normalized coordinates of the output with the origin at the top left.
+ */
+public class GlPrivacyBlurEffect implements GlVideoEffect {
+  // Like the default vertex shader of GlGenericDrawer, and also passes the untransformed output
+  // coordinates so the region does not depend on the texture matrix of the frame.
+  private static final String VERTEX_SHADER = "varying vec2 tc;\n"
+      + "varying vec2 out_tc;\n"
+      + "attribute vec4 in_pos;\n"
+      + "attribute vec4 in_tc;\n"
+      + "uniform mat4 tex_mat;\n"
+      + "void main() {\n"
+      + "  gl_Position = in_pos;\n"
+      + "  tc = (tex_mat * in_tc).xy;\n"
+      + "  out_tc = in_tc.xy;\n"
+      + "}\n";
+
+  private static final String FRAGMENT_SHADER = "varying vec2 out_tc;\n"
+      + "uniform mat4 sample_mat;\n"
+      + "uniform vec4 region;\n"
+      + "uniform vec2 block_size;\n"
+      + "void main() {\n"
+      + "  vec2 p = out_tc;\n"
+      + "  if (p.x >= region.x && p.x <= region.z && p.y >= region.y && p.y <= region.w) {\n"
+      + "    p = (floor(p / block_size) + 0.5) * block_size;\n"
+      + "  }\n"
+      + "  gl_FragColor = sample((sample_mat * vec4(p, 0.0, 1.0)).xy);\n"
+      + "}\n";
+
+  private class ShaderCallbacks implements GlGenericDrawer.ShaderCallbacks {
+    private int sampleMatLocation;
+    private int regionLocation;
+    private int blockSizeLocation;
+
+    @Override
+    public void onNewShader(GlShader shader) {
+      sampleMatLocation = shader.getUniformLocation("sample_mat");
+      regionLocation = shader.getUniformLocation("region");
+      blockSizeLocation = shader.getUniformLocation("block_size");
+    }
+
+    @Override
+    public void onPrepareShader(GlShader shader, float[] texMatrix, int frameWidth, int frameHeight,
+        int viewportWidth, int viewportHeight) {
+      GLES20.glUniformMatrix4fv(sampleMatLocation, 1, false, texMatrix, 0);
+      // Texture coordinates start at the bottom.
+      GLES20.glUniform4f(regionLocation, drawRegion.left, 1f - drawRegion.bottom, drawRegion.right,
+          1f - drawRegion.top);
+      // Square blocks.
+      GLES20.glUniform2f(blockSizeLocation, drawBlockSize,
+          drawBlockSize * viewportWidth / Math.max(1, viewportHeight));
+    }
+  }
+
+  private final Object lock = new Object();
+  @GuardedBy("lock") private final RectF region = new RectF();
+  @GuardedBy("lock") private float blockSize;
+
+  // Only accessed on the GL thread.
+  private final GlGenericDrawer drawer =
+      new GlGenericDrawer(VERTEX_SHADER, FRAGMENT_SHADER, new ShaderCallbacks());
+  private final RectF drawRegion = new RectF();
+  private float drawBlockSize;
+
+  /**
+   * @param region Region to pixelate, within (0, 0, 1, 1).
+   * @param blockSize Block width as a fraction of the output width, e.g. 0.04f.
+   */
+  public GlPrivacyBlurEffect(RectF region, float blockSize) {
+    this.region.set(region);
+    this.blockSize = blockSize;
+  }
+
+  /** Moves the region, e.g. to follow a detected face. An empty region disables the effect. */
+  public void setRegion(RectF region) {
+    synchronized (lock) {
+      this.region.set(region);
+    }
+  }
+
+  public void setBlockSize(float blockSize) {
+    synchronized (lock) {
+      this.blockSize = blockSize;
+    }
+  }
+
+  @Override
+  public void draw(
+      VideoFrame frame, VideoFrameDrawer frameDrawer, int outputWidth, int outputHeight) {
+    synchronized (lock) {
+      drawRegion.set(region);
+      drawBlockSize = Math.max(blockSize, 1f / outputWidth);
+    }
+    frameDrawer.drawFrame(frame, drawer, null /* additionalRenderMatrix */, 0 /* viewportX */,
+        0 /* viewportY */, outputWidth, outputHeight);
+  }
+
+  @Override
+  public void release() {
+    drawer.release();
+  }
+}
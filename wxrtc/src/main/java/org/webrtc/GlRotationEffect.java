@@ -0,0 +1,48 @@
+/*
+ *  Copyright 2026 The wxrtc project authors. All Rights Reserved.
+ */
+
+package org.webrtc;
+
+import android.graphics.Matrix;
+
+/**
+ * Rotates the pixels of the frame clockwise, in addition to the rotation in the frame metadata.
+ */
+public class GlRotationEffect implements GlVideoEffect {
+  private final int rotation;
+  private final GlRectDrawer drawer = new GlRectDrawer();
+  private final Matrix renderMatrix = new Matrix();
+
+  /** @param rotation 0, 90, 180 or 270 degrees. */
+  public GlRotationEffect(int rotation) {
+    if (rotation % 90 != 0 || rotation < 0 || rotation >= 360) {
+      throw new IllegalArgumentException("Invalid rotation: " + rotation);
+    }
+    this.rotation = rotation;
+  }
+
+  @Override
+  public int getOutputWidth(int frameWidth, int frameHeight) {
+    return rotation % 180 == 0 ? frameWidth : frameHeight;
+  }
+
+  @Override
+  public int getOutputHeight(int frameWidth, int frameHeight) {
+    return rotation % 180 == 0 ? frameHeight : frameWidth;
+  }
+
+  @Override
+  public void draw(
+      VideoFrame frame, VideoFrameDrawer frameDrawer, int outputWidth, int outputHeight) {
+    // Same convention as the frame rotation applied by VideoFrameDrawer.
+    renderMatrix.setRotate(rotation, 0.5f, 0.5f);
+    frameDrawer.drawFrame(frame, drawer, renderMatrix, 0 /* viewportX */, 0 /* viewportY */,
+        outputWidth, outputHeight);
+  }
+
+  @Override
+  public void release() {
+    drawer.release();
+  }
+}
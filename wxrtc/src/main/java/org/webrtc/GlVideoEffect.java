@@ -0,0 +1,31 @@
+/*
+ *  Copyright 2026 The wxrtc project authors. All Rights Reserved.
+ */
+
+package org.webrtc;
+
+/**
+ * One GPU pass of a {@link GlVideoProcessingChain}. All methods are called on the GL thread of the
+ * chain with its EGL context current. An effect allocates GL resources lazily in draw() and frees
+ * them in release(); it may be drawn again after release() and then allocates them again.
+ */
+public interface GlVideoEffect {
+  /** Returns the output width for an input frame of the given rotated size. */
+  default int getOutputWidth(int frameWidth, int frameHeight) {
+    return frameWidth;
+  }
+
+  /** Returns the output height for an input frame of the given rotated size. */
+  default int getOutputHeight(int frameWidth, int frameHeight) {
+    return frameHeight;
+  }
+
+  /**
+   * Draws `frame` into the currently bound framebuffer of size `outputWidth` x `outputHeight`.
+   * `frameDrawer` draws any buffer type and applies the frame rotation, so the output is upright.
+   */
+  void draw(VideoFrame frame, VideoFrameDrawer frameDrawer, int outputWidth, int outputHeight);
+
+  /** Releases GL resources. */
+  void release();
+}
@@ -0,0 +1,199 @@
+/*
+ *  Copyright 2026 The wxrtc project authors. All Rights Reserved.
+ */
+
+package org.webrtc;
+
+import android.graphics.Matrix;
+import android.opengl.GLES20;
+import android.os.Handler;
+import androidx.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * VideoProcessor that runs captured frames through a list of {@link GlVideoEffect}s on the GPU.
+ * Each effect draws into a pooled RGBA framebuffer and the result is passed on as an RGB
+ * TextureBuffer, so frames are never converted to I420 in Java. Texture frames are drawn directly,
+ * other buffers are uploaded to textures once by the first effect.
+ *
+ * <p>GL work runs on the thread of the SurfaceTextureHelper given to the constructor, which is
+ * the thread camera and screen frames are delivered on. Frames from other threads are processed
+ * synchronously on that thread. Without effects frames are forwarded unchanged.
+ */
+public class GlVideoProcessingChain implements VideoProcessor {
+  private static final String TAG = "GlVideoProcessingChain";
+  // Free framebuffers kept for reuse. Framebuffers of frames still in use are not counted.
+  private static final int MAX_FREE_FRAME_BUFFERS = 4;
+
+  private final Handler handler;
+  private final List<GlVideoEffect> effects = new CopyOnWriteArrayList<>();
+  private final Object sinkLock = new Object();
+  @Nullable private VideoSink sink;
+
+  // Only accessed on the `handler` thread.
+  private final VideoFrameDrawer frameDrawer = new VideoFrameDrawer();
+  private final YuvConverter yuvConverter = new YuvConverter();
+  private final ArrayList<GlTextureFrameBuffer> freeFrameBuffers = new ArrayList<>();
+  private int allocatedFrameBuffers;
+  private boolean released;
+
+  public GlVideoProcessingChain(SurfaceTextureHelper surfaceTextureHelper) {
+    this.handler = surfaceTextureHelper.getHandler();
+  }
+
+  /** Appends an effect. It is applied after the effects added before. */
+  public void addEffect(GlVideoEffect effect) {
+    effects.add(effect);
+  }
+
+  /** Removes an effect and releases its GL resources. */
+  public void removeEffect(GlVideoEffect effect) {
+    if (effects.remove(effect)) {
+      handler.post(effect::release);
+    }
+  }
+
+  /** Number of framebuffers currently allocated by this chain, free or in use. */
+  public int getAllocatedFrameBufferCount() {
+    return ThreadUtils.invokeAtFrontUninterruptibly(handler, () -> allocatedFrameBuffers);
+  }
+
+  /**
+   * Releases the effects and all GL resources. Must be called before the SurfaceTextureHelper is
+   * disposed. Framebuffers of frames still in use are freed when those frames are released.
+   */
+  public void release() {
+    setSink(null);
+    ThreadUtils.invokeAtFrontUninterruptibly(handler, () -> {
+      released = true;
+      for (GlVideoEffect effect : effects) {
+        effect.release();
+      }
+      for (GlTextureFrameBuffer frameBuffer : freeFrameBuffers) {
+        frameBuffer.release();
+      }
+      allocatedFrameBuffers -= freeFrameBuffers.size();
+      freeFrameBuffers.clear();
+      frameDrawer.release();
+      yuvConverter.release();
+    });
+  }
+
+  @Override
+  public void setSink(@Nullable VideoSink sink) {
+    synchronized (sinkLock) {
+      this.sink = sink;
+    }
+  }
+
+  @Override
+  public void onCapturerStarted(boolean success) {}
+
+  @Override
+  public void onCapturerStopped() {}
+
+  @Override
+  public void onFrameCaptured(VideoFrame frame) {
+    final VideoSink sink;
+    synchronized (sinkLock) {
+      sink = this.sink;
+    }
+    if (sink == null) {
+      return;
+    }
+    if (effects.isEmpty()) {
+      sink.onFrame(frame);
+      return;
+    }
+    final VideoFrame processedFrame =
+        ThreadUtils.invokeAtFrontUninterruptibly(handler, () -> processFrame(frame));
+    if (processedFrame != null) {
+      sink.onFrame(processedFrame);
+      processedFrame.release();
+    }
+  }
+
+  @Nullable
+  private VideoFrame processFrame(VideoFrame frame) {
+    if (released) {
+      return null;
+    }
+    VideoFrame currentFrame = frame;
+    currentFrame.retain();
+    try {
+      for (GlVideoEffect effect : effects) {
+        final int frameWidth = currentFrame.getRotatedWidth();
+        final int frameHeight = currentFrame.getRotatedHeight();
+        final int outputWidth = effect.getOutputWidth(frameWidth, frameHeight);
+        final int outputHeight = effect.getOutputHeight(frameWidth, frameHeight);
+        if (outputWidth <= 0 || outputHeight <= 0) {
+          Logging.w(TAG, "Illegal output size: " + outputWidth + "x" + outputHeight);
+          continue;
+        }
+        final GlTextureFrameBuffer frameBuffer = acquireFrameBuffer(outputWidth, outputHeight);
+        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, frameBuffer.getFrameBufferId());
+        effect.draw(currentFrame, frameDrawer, outputWidth, outputHeight);
+        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, 0);
+
+        final VideoFrame outputFrame = new VideoFrame(
+            new TextureBufferImpl(outputWidth, outputHeight, VideoFrame.TextureBuffer.Type.RGB,
+                frameBuffer.getTextureId(), new Matrix(), handler, yuvConverter,
+                () -> returnFrameBuffer(frameBuffer)),
+            0 /* rotation */, frame.getTimestampNs());
+        currentFrame.release();
+        currentFrame = outputFrame;
+      }
+      // The encoder and the renderers read the texture from other EGL contexts.
+      GLES20.glFinish();
+      final VideoFrame outputFrame = currentFrame;
+      currentFrame = null;
+      return outputFrame;
+    } catch (RuntimeException e) {
+      Logging.e(TAG, "Failed to process frame", e);
+      return null;
+    } finally {
+      if (currentFrame != null) {
+        currentFrame.release();
+      }
+    }
+  }
+
+  private GlTextureFrameBuffer acquireFrameBuffer(int width, int height) {
+    GlTextureFrameBuffer frameBuffer = null;
+    for (int i = 0; i < freeFrameBuffers.size(); i++) {
+      final GlTextureFrameBuffer candidate = freeFrameBuffers.get(i);
+      if (candidate.getWidth() == width && candidate.getHeight() == height) {
+        frameBuffer = freeFrameBuffers.remove(i);
+        break;
+      }
+    }
+    if (frameBuffer == null && !freeFrameBuffers.isEmpty()) {
+      // Reallocate the oldest free framebuffer rather than growing the pool.
+      frameBuffer = freeFrameBuffers.remove(0);
+    }
+    if (frameBuffer == null) {
+      frameBuffer = new GlTextureFrameBuffer(GLES20.GL_RGBA);
+      allocatedFrameBuffers++;
+    }
+    frameBuffer.setSize(width, height);
+    return frameBuffer;
+  }
+
+  private void returnFrameBuffer(GlTextureFrameBuffer frameBuffer) {
+    if (Thread.currentThread() != handler.getLooper().getThread()) {
+      // Frames are released on the encoder and render threads.
+      if (!handler.post(() -> returnFrameBuffer(frameBuffer))) {
+        Logging.w(TAG, "Framebuffer returned after the GL thread quit");
+      }
+      return;
+    }
+    if (released || freeFrameBuffers.size() >= MAX_FREE_FRAME_BUFFERS) {
+      frameBuffer.release();
+      allocatedFrameBuffers--;
+      return;
+    }
+    freeFrameBuffers.add(frameBuffer);
+  }
+}
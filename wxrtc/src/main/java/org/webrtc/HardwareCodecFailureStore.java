@@ -0,0 +1,301 @@
+/*
+ *  Copyright 2026 The wxrtc project authors. All Rights Reserved.
+ */
+
+package org.webrtc;
+
+import android.content.Context;
+import android.os.Build;
+import androidx.annotation.Nullable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Remembers hardware encoder and decoder failures per codec, profile and resolution across
+ * sessions. A configuration that failed recently is not tried on hardware again: the hardware
+ * codec reports FALLBACK_SOFTWARE right away, so the software fallback takes over without a
+ * black first second. Entries expire, and the store is dropped when the OS build changes since
+ * updates often fix codec bugs.
+ *
+ * <p>Errors while coding only count while they keep coming: they are forgotten after a quiet
+ * period and after a session that coded frames without errors. Platform software codecs are never
+ * recorded, they are what the fallback ends up on.
+ *
+ * <p>Without a call to {@link #initialize} failures are only remembered for this process.
+ */
+public class HardwareCodecFailureStore {
+  private static final String TAG = "HardwareCodecFailureStore";
+  private static final String STORE_FILE_NAME = "webrtc_hw_codec_failures.json";
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+  private static final long DEFAULT_EXPIRY_MS = TimeUnit.DAYS.toMillis(7);
+  // Failure weight at which a configuration is no longer tried on hardware. Initialization
+  // failures reach it at once, errors while coding need several occurrences.
+  private static final int FAILURE_THRESHOLD = 3;
+  // Cap of the stored failure weight.
+  private static final int MAX_FAILURES = 1000;
+  // Errors while coding that are further apart than this do not add up.
+  private static final long FAILURE_DECAY_MS = TimeUnit.MINUTES.toMillis(10);
+
+  private static class Entry {
+    int failures;
+    long lastFailureTimeMs;
+  }
+
+  private static final Object lock = new Object();
+  private static final Map<String, Entry> entries = new HashMap<>();
+  @Nullable private static File storeFile;
+  private static long expiryMs = DEFAULT_EXPIRY_MS;
+  private static int encoderFallbackCount;
+  private static int decoderFallbackCount;
+
+  /** Loads failures recorded in previous sessions and persists new ones in app storage. */
+  public static void initialize(Context context) {
+    synchronized (lock) {
+      if (storeFile != null) {
+        return;
+      }
+      storeFile = new File(context.getApplicationContext().getFilesDir(), STORE_FILE_NAME);
+      load(storeFile);
+      removeExpired(System.currentTimeMillis());
+    }
+  }
+
+  /** Sets how long a failure is remembered. Defaults to 7 days. */
+  public static void setExpiryMs(long expiryMs) {
+    synchronized (lock) {
+      HardwareCodecFailureStore.expiryMs = expiryMs;
+    }
+  }
+
+  /** Forgets all recorded failures. */
+  public static void clear() {
+    synchronized (lock) {
+      entries.clear();
+      if (storeFile != null) {
+        storeFile.delete();
+      }
+    }
+  }
+
+  /** Number of times a hardware encoder was skipped in this process because it failed before. */
+  public static int getEncoderFallbackCount() {
+    synchronized (lock) {
+      return encoderFallbackCount;
+    }
+  }
+
+  /** Number of times a hardware decoder was skipped in this process because it failed before. */
+  public static int getDecoderFallbackCount() {
+    synchronized (lock) {
+      return decoderFallbackCount;
+    }
+  }
+
+  /**
+   * Returns true if any hardware codec of the given type, e.g. "H264", failed recently in any
+   * configuration. Used to prefer another codec when negotiating.
+   */
+  public static boolean hasRecentFailure(boolean isEncoder, String codecTypeName) {
+    final String prefix = (isEncoder ? "encoder" : "decoder") + "|" + codecTypeName + "|";
+    synchronized (lock) {
+      removeExpired(System.currentTimeMillis());
+      for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+        if (entry.getKey().startsWith(prefix) && entry.getValue().failures >= FAILURE_THRESHOLD) {
+          return true;
+        }
+      }
+      return false;
+    }
+  }
+
+  /**
+   * Returns true and counts a fallback if the configuration failed recently and should not be
+   * tried on hardware.
+   */
+  static boolean shouldSkipHardware(boolean isEncoder, VideoCodecMimeType type, String codecName,
+      String profile, int width, int height) {
+    if (isSoftwareCodec(codecName)) {
+      return false;
+    }
+    final String key = getKey(isEncoder, type, codecName, profile, width, height);
+    synchronized (lock) {
+      final Entry entry = entries.get(key);
+      if (entry == null || entry.failures < FAILURE_THRESHOLD) {
+        return false;
+      }
+      if (System.currentTimeMillis() - entry.lastFailureTimeMs > expiryMs) {
+        entries.remove(key);
+        store();
+        return false;
+      }
+      if (isEncoder) {
+        encoderFallbackCount++;
+      } else {
+        decoderFallbackCount++;
+      }
+      Logging.w(TAG, "Skipping " + key + ", it failed " + entry.failures + " times recently");
+      return true;
+    }
+  }
+
+  /**
+   * Records a failure. `fatal` failures such as a codec that cannot be configured disable the
+   * configuration immediately, others count towards a threshold as long as they are no more than
+   * FAILURE_DECAY_MS apart.
+   */
+  static void recordFailure(boolean isEncoder, VideoCodecMimeType type, String codecName,
+      String profile, int width, int height, boolean fatal) {
+    if (isSoftwareCodec(codecName)) {
+      return;
+    }
+    final String key = getKey(isEncoder, type, codecName, profile, width, height);
+    final long nowMs = System.currentTimeMillis();
+    synchronized (lock) {
+      Entry entry = entries.get(key);
+      if (entry == null) {
+        entry = new Entry();
+        entries.put(key, entry);
+      }
+      final boolean wasDisabled = entry.failures >= FAILURE_THRESHOLD;
+      if (!wasDisabled && nowMs - entry.lastFailureTimeMs > FAILURE_DECAY_MS) {
+        entry.failures = 0;
+      }
+      entry.failures =
+          Math.min(MAX_FAILURES, entry.failures + (fatal ? FAILURE_THRESHOLD : 1));
+      entry.lastFailureTimeMs = nowMs;
+      // Only write when the decision changes, errors while coding may be reported per frame.
+      if (!wasDisabled && entry.failures >= FAILURE_THRESHOLD) {
+        Logging.w(TAG, "Disabling hardware for " + key);
+        store();
+      }
+    }
+  }
+
+  /**
+   * Called when a codec is released after coding frames without errors. Earlier errors below the
+   * threshold are forgotten, a configuration that is already disabled stays disabled until it
+   * expires.
+   */
+  static void recordSuccess(boolean isEncoder, VideoCodecMimeType type, String codecName,
+      String profile, int width, int height) {
+    final String key = getKey(isEncoder, type, codecName, profile, width, height);
+    synchronized (lock) {
+      final Entry entry = entries.get(key);
+      if (entry != null && entry.failures < FAILURE_THRESHOLD) {
+        entries.remove(key);
+      }
+    }
+  }
+
+  private static boolean isSoftwareCodec(String codecName) {
+    for (String prefix : MediaCodecUtils.SOFTWARE_IMPLEMENTATION_PREFIXES) {
+      if (codecName.startsWith(prefix)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static String getKey(boolean isEncoder, VideoCodecMimeType type, String codecName,
+      String profile, int width, int height) {
+    return (isEncoder ? "encoder" : "decoder") + "|" + type.name() + "|" + codecName + "|"
+        + profile + "|" + width + "x" + height;
+  }
+
+  private static String getBuildKey() {
+    return Build.FINGERPRINT + "|" + Build.VERSION.SDK_INT + "|" + Build.VERSION.INCREMENTAL;
+  }
+
+  private static void removeExpired(long nowMs) {
+    boolean changed = false;
+    for (Iterator<Entry> it = entries.values().iterator(); it.hasNext();) {
+      if (nowMs - it.next().lastFailureTimeMs > expiryMs) {
+        it.remove();
+        changed = true;
+      }
+    }
+    if (changed) {
+      store();
+    }
+  }
+
+  private static void load(File file) {
+    if (!file.exists()) {
+      return;
+    }
+    try (FileInputStream input = new FileInputStream(file)) {
+      final byte[] data = new byte[(int) file.length()];
+      int offset = 0;
+      while (offset < data.length) {
+        final int read = input.read(data, offset, data.length - offset);
+        if (read < 0) {
+          break;
+        }
+        offset += read;
+      }
+      final JSONObject json = new JSONObject(new String(data, 0, offset, UTF_8));
+      if (!getBuildKey().equals(json.optString("build"))) {
+        Logging.d(TAG, "OS build changed, forgetting recorded failures");
+        file.delete();
+        return;
+      }
+      final JSONObject failures = json.getJSONObject("failures");
+      for (Iterator<String> keys = failures.keys(); keys.hasNext();) {
+        final String key = keys.next();
+        // Stores written by older versions may contain software codecs.
+        final String[] parts = key.split("\\|");
+        if (parts.length > 2 && isSoftwareCodec(parts[2])) {
+          continue;
+        }
+        final JSONObject value = failures.getJSONObject(key);
+        final Entry entry = new Entry();
+        entry.failures = value.getInt("failures");
+        entry.lastFailureTimeMs = value.getLong("lastFailureTimeMs");
+        entries.put(key, entry);
+      }
+    } catch (IOException | JSONException e) {
+      Logging.e(TAG, "Failed to load recorded failures", e);
+    }
+  }
+
+  // Must be called with `lock` held.
+  private static void store() {
+    if (storeFile == null) {
+      return;
+    }
+    final File tmpFile = new File(storeFile.getPath() + ".tmp");
+    try (FileOutputStream output = new FileOutputStream(tmpFile)) {
+      final JSONObject failures = new JSONObject();
+      for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+        final JSONObject value = new JSONObject();
+        value.put("failures", entry.getValue().failures);
+        value.put("lastFailureTimeMs", entry.getValue().lastFailureTimeMs);
+        failures.put(entry.getKey(), value);
+      }
+      final JSONObject json = new JSONObject();
+      json.put("build", getBuildKey());
+      json.put("failures", failures);
+      output.write(json.toString().getBytes(UTF_8));
+      output.getFD().sync();
+    } catch (IOException | JSONException e) {
+      Logging.e(TAG, "Failed to store recorded failures", e);
+      tmpFile.delete();
+      return;
+    }
+    if (!tmpFile.renameTo(storeFile)) {
+      Logging.e(TAG, "Failed to replace " + storeFile);
+      tmpFile.delete();
+    }
+  }
+
+  private HardwareCodecFailureStore() {}
+}
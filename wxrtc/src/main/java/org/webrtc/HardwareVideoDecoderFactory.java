@@ -16,11 +16,11 @@ import java.util.Arrays;
 
 /** Factory for Android hardware VideoDecoders. */
 public class HardwareVideoDecoderFactory extends MediaCodecVideoDecoderFactory {
-  private final static Predicate<MediaCodecInfo> defaultAllowedPredicate =
-      new Predicate<MediaCodecInfo>() {
+  private final static Predicate<MediaCodecCapabilityCache.CodecEntry> defaultAllowedPredicate =
+      new Predicate<MediaCodecCapabilityCache.CodecEntry>() {
         @Override
-        public boolean test(MediaCodecInfo arg) {
-          return MediaCodecUtils.isHardwareAccelerated(arg);
+        public boolean test(MediaCodecCapabilityCache.CodecEntry arg) {
+          return arg.isHardwareAccelerated;
         }
       };
 
@@ -50,8 +50,21 @@ public class HardwareVideoDecoderFactory extends MediaCodecVideoDecoderFactory {
    */
   public HardwareVideoDecoderFactory(@Nullable EglBase.Context sharedContext,
       @Nullable Predicate<MediaCodecInfo> codecAllowedPredicate) {
-    super(sharedContext,
-        (codecAllowedPredicate == null ? defaultAllowedPredicate
-                                       : codecAllowedPredicate.and(defaultAllowedPredicate)));
+    this(sharedContext, codecAllowedPredicate, /* stats= */ null);
+  }
+
+  /**
+   * Creates a HardwareVideoDecoderFactory that supports surface texture rendering.
+   *
+   * @param sharedContext The textures generated will be accessible from this context. May be null,
+   *                      this disables texture support.
+   * @param codecAllowedPredicate predicate to filter codecs. It is combined with the default
+   *                              predicate that only allows hardware codecs.
+   * @param stats optional histograms updated by all decoders created by this factory.
+   */
+  public HardwareVideoDecoderFactory(@Nullable EglBase.Context sharedContext,
+      @Nullable Predicate<MediaCodecInfo> codecAllowedPredicate,
+      @Nullable VideoDecoderStats stats) {
+    super(sharedContext, codecAllowedPredicate, defaultAllowedPredicate, stats);
   }
 }
@@ -26,8 +26,6 @@ import androidx.annotation.Nullable;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.Map;
-import java.util.concurrent.BlockingDeque;
-import java.util.concurrent.LinkedBlockingDeque;
 import java.util.concurrent.TimeUnit;
 import org.webrtc.ThreadUtils.ThreadChecker;
 
@@ -112,9 +110,16 @@ class HardwareVideoEncoder implements VideoEncoder {
   // Drawer used to draw input textures onto the codec's input surface.
   private final GlRectDrawer textureDrawer = new GlRectDrawer();
   private final VideoFrameDrawer videoFrameDrawer = new VideoFrameDrawer();
-  // A queue of EncodedImage.Builders that correspond to frames in the codec.  These builders are
-  // pre-populated with all the information that can't be sent through MediaCodec.
-  private final BlockingDeque<EncodedImage.Builder> outputBuilders = new LinkedBlockingDeque<>();
+  // Metadata of the frames in the codec, i.e. all the information that can't be sent through
+  // MediaCodec. The ring is preallocated so queueing a frame does not allocate.
+  private final FrameInfoRing outputFrameInfos = new FrameInfoRing(MAX_ENCODER_Q_SIZE + 1);
+  // Reused on the output thread for every encoded frame.
+  private final FrameInfoRing.Slot outputFrameInfo = new FrameInfoRing.Slot();
+  private final EncodedImage.Builder outputBuilder = EncodedImage.builder();
+  @Nullable private final VideoEncoderStats stats;
+  @Nullable private final EncodedVideoTap tap;
+  // Identifies this encoder to `tap`, which only passes on the frames of one encoder.
+  private final int tapEncoderId;
 
   private final ThreadChecker encodeThreadChecker = new ThreadChecker();
   private final ThreadChecker outputThreadChecker = new ThreadChecker();
@@ -169,6 +174,11 @@ class HardwareVideoEncoder implements VideoEncoder {
   // True if collection of encoding statistics is enabled.
   private boolean isEncodingStatisticsEnabled;
 
+  // Whether any frame was encoded and whether a failure was recorded since initEncode(). A clean
+  // session makes HardwareCodecFailureStore forget earlier transient failures.
+  private volatile boolean hasEncodedFrames;
+  private boolean hasRecordedFailure;
+
   /**
    * Creates a new HardwareVideoEncoder with the given codecName, codecType, colorFormat, key frame
    * intervals, and bitrateAdjuster.
@@ -182,12 +192,15 @@ class HardwareVideoEncoder implements VideoEncoder {
    *     used to reduce distortion caused by some codec implementations
    * @param bitrateAdjuster algorithm used to correct codec implementations that do not produce the
    *     desired bitrates
+   * @param stats optional counters for queue depth, encode latency, drops and key frame requests
+   * @param tap optional observer of the encoded frames
    * @throws IllegalArgumentException if colorFormat is unsupported
    */
   public HardwareVideoEncoder(MediaCodecWrapperFactory mediaCodecWrapperFactory, String codecName,
       VideoCodecMimeType codecType, Integer surfaceColorFormat, Integer yuvColorFormat,
       Map<String, String> params, int keyFrameIntervalSec, int forceKeyFrameIntervalMs,
-      BitrateAdjuster bitrateAdjuster, EglBase14.Context sharedContext) {
+      BitrateAdjuster bitrateAdjuster, EglBase14.Context sharedContext,
+      @Nullable VideoEncoderStats stats, @Nullable EncodedVideoTap tap) {
     this.mediaCodecWrapperFactory = mediaCodecWrapperFactory;
     this.codecName = codecName;
     this.codecType = codecType;
@@ -198,6 +211,9 @@ class HardwareVideoEncoder implements VideoEncoder {
     this.forcedKeyFrameNs = TimeUnit.MILLISECONDS.toNanos(forceKeyFrameIntervalMs);
     this.bitrateAdjuster = bitrateAdjuster;
     this.sharedContext = sharedContext;
+    this.stats = stats;
+    this.tap = tap;
+    this.tapEncoderId = tap != null ? tap.newEncoderId() : EncodedVideoTap.NO_ENCODER;
 
     // Allow construction on a different thread.
     encodeThreadChecker.detachThread();
@@ -209,6 +225,8 @@ class HardwareVideoEncoder implements VideoEncoder {
 
     this.callback = callback;
     automaticResizeOn = settings.automaticResizeOn;
+    hasEncodedFrames = false;
+    hasRecordedFailure = false;
 
     this.width = settings.width;
     this.height = settings.height;
@@ -223,7 +241,31 @@ class HardwareVideoEncoder implements VideoEncoder {
         "initEncode name: " + codecName + " type: " + codecType + " width: " + width
             + " height: " + height + " framerate_fps: " + settings.maxFramerate
             + " bitrate_kbps: " + settings.startBitrate + " surface mode: " + useSurfaceMode);
-    return initEncodeInternal();
+    if (HardwareCodecFailureStore.shouldSkipHardware(
+            /* isEncoder= */ true, codecType, codecName, getProfileName(), width, height)) {
+      return VideoCodecStatus.FALLBACK_SOFTWARE;
+    }
+    VideoCodecStatus status = initEncodeInternal();
+    if (status != VideoCodecStatus.OK) {
+      recordFailure(/* fatal= */ true);
+    } else if (tap != null) {
+      tap.onEncoderStarted(tapEncoderId);
+    }
+    return status;
+  }
+
+  private String getProfileName() {
+    if (codecType != VideoCodecMimeType.H264) {
+      return "";
+    }
+    String profileLevelId = params.get(VideoCodecInfo.H264_FMTP_PROFILE_LEVEL_ID);
+    return profileLevelId != null ? profileLevelId : VideoCodecInfo.H264_CONSTRAINED_BASELINE_3_1;
+  }
+
+  private void recordFailure(boolean fatal) {
+    hasRecordedFailure = true;
+    HardwareCodecFailureStore.recordFailure(
+        /* isEncoder= */ true, codecType, codecName, getProfileName(), width, height, fatal);
   }
 
   private VideoCodecStatus initEncodeInternal() {
@@ -308,6 +350,14 @@ class HardwareVideoEncoder implements VideoEncoder {
 
   @Override
   public VideoCodecStatus release() {
+    if (tap != null) {
+      tap.onEncoderReleased(tapEncoderId);
+    }
+    return releaseCodec();
+  }
+
+  // Also used by resetCodec, which keeps the encoder registered with `tap`.
+  private VideoCodecStatus releaseCodec() {
     encodeThreadChecker.checkIsOnValidThread();
 
     final VideoCodecStatus returnValue;
@@ -328,6 +378,12 @@ class HardwareVideoEncoder implements VideoEncoder {
       }
     }
 
+    if (returnValue == VideoCodecStatus.OK && hasEncodedFrames && !hasRecordedFailure) {
+      HardwareCodecFailureStore.recordSuccess(
+          /* isEncoder= */ true, codecType, codecName, getProfileName(), width, height);
+    }
+    hasEncodedFrames = false;
+
     textureDrawer.release();
     videoFrameDrawer.release();
     if (textureEglBase != null) {
@@ -338,7 +394,10 @@ class HardwareVideoEncoder implements VideoEncoder {
       textureInputSurface.release();
       textureInputSurface = null;
     }
-    outputBuilders.clear();
+    outputFrameInfos.clear();
+    if (stats != null) {
+      stats.onEncoderReleased();
+    }
 
     codec = null;
     outputThread = null;
@@ -365,13 +424,17 @@ class HardwareVideoEncoder implements VideoEncoder {
     if (frameWidth != width || frameHeight != height || shouldUseSurfaceMode != useSurfaceMode) {
       VideoCodecStatus status = resetCodec(frameWidth, frameHeight, shouldUseSurfaceMode);
       if (status != VideoCodecStatus.OK) {
+        recordFailure(/* fatal= */ true);
         return status;
       }
     }
 
-    if (outputBuilders.size() > MAX_ENCODER_Q_SIZE) {
+    if (outputFrameInfos.size() > MAX_ENCODER_Q_SIZE) {
       // Too many frames in the encoder.  Drop this frame.
       Logging.e(TAG, "Dropped frame, encoder queue full");
+      if (stats != null) {
+        stats.onFrameDropped();
+      }
       return VideoCodecStatus.NO_OUTPUT; // See webrtc bug 2887.
     }
 
@@ -382,16 +445,17 @@ class HardwareVideoEncoder implements VideoEncoder {
       }
     }
 
+    if (tap != null && tap.consumeKeyFrameRequest(tapEncoderId)) {
+      requestedKeyFrame = true;
+    }
+
     if (requestedKeyFrame || shouldForceKeyFrame(videoFrame.getTimestampNs())) {
       requestKeyFrame(videoFrame.getTimestampNs());
     }
 
-    EncodedImage.Builder builder = EncodedImage.builder()
-                                       .setCaptureTimeNs(videoFrame.getTimestampNs())
-                                       .setEncodedWidth(videoFrame.getBuffer().getWidth())
-                                       .setEncodedHeight(videoFrame.getBuffer().getHeight())
-                                       .setRotation(videoFrame.getRotation());
-    outputBuilders.offer(builder);
+    outputFrameInfos.offer(videoFrame.getTimestampNs(), System.nanoTime(),
+        videoFrame.getBuffer().getWidth(), videoFrame.getBuffer().getHeight(),
+        videoFrame.getRotation());
 
     long presentationTimestampUs = nextPresentationTimestampUs;
     // Round frame duration down to avoid bitrate overshoot.
@@ -408,8 +472,16 @@ class HardwareVideoEncoder implements VideoEncoder {
 
     // Check if the queue was successful.
     if (returnValue != VideoCodecStatus.OK) {
-      // Keep the output builders in sync with buffers in the codec.
-      outputBuilders.pollLast();
+      // Keep the frame infos in sync with buffers in the codec.
+      outputFrameInfos.removeLast();
+      if (stats != null && returnValue == VideoCodecStatus.NO_OUTPUT) {
+        stats.onFrameDropped();
+      }
+      if (returnValue == VideoCodecStatus.ERROR) {
+        recordFailure(/* fatal= */ false);
+      }
+    } else if (stats != null) {
+      stats.onFrameQueued(outputFrameInfos.size());
     }
 
     return returnValue;
@@ -529,7 +601,7 @@ class HardwareVideoEncoder implements VideoEncoder {
 
   private VideoCodecStatus resetCodec(int newWidth, int newHeight, boolean newUseSurfaceMode) {
     encodeThreadChecker.checkIsOnValidThread();
-    VideoCodecStatus status = release();
+    VideoCodecStatus status = releaseCodec();
     if (status != VideoCodecStatus.OK) {
       return status;
     }
@@ -559,6 +631,9 @@ class HardwareVideoEncoder implements VideoEncoder {
       return;
     }
     lastKeyFrameNs = presentationTimestampNs;
+    if (stats != null) {
+      stats.onKeyFrameRequested();
+    }
   }
 
   private Thread createOutputThread() {
@@ -654,14 +729,32 @@ class HardwareVideoEncoder implements VideoEncoder {
       final EncodedImage.FrameType frameType = isKeyFrame ? EncodedImage.FrameType.VideoFrameKey
                                                           : EncodedImage.FrameType.VideoFrameDelta;
 
-      EncodedImage.Builder builder = outputBuilders.poll();
-      builder.setBuffer(frameBuffer, releaseCallback);
-      builder.setFrameType(frameType);
-      builder.setQp(qp);
-
-      EncodedImage encodedImage = builder.createEncodedImage();
+      if (!outputFrameInfos.poll(outputFrameInfo)) {
+        Logging.e(TAG, "Dropped output frame, no frame info available");
+        if (releaseCallback != null) {
+          releaseCallback.run();
+        }
+        return;
+      }
+      if (stats != null) {
+        stats.onFrameEncoded(
+            System.nanoTime() - outputFrameInfo.enqueueTimeNs, outputFrameInfos.size());
+      }
+      outputBuilder.setBuffer(frameBuffer, releaseCallback)
+          .setCaptureTimeNs(outputFrameInfo.captureTimeNs)
+          .setEncodedWidth(outputFrameInfo.width)
+          .setEncodedHeight(outputFrameInfo.height)
+          .setRotation(outputFrameInfo.rotation)
+          .setFrameType(frameType)
+          .setQp(qp);
+
+      EncodedImage encodedImage = outputBuilder.createEncodedImage();
+      if (tap != null) {
+        tap.onEncodedFrame(tapEncoderId, codecType, encodedImage, isKeyFrame);
+      }
       // TODO(mellem):  Set codec-specific info.
       callback.onEncodedFrame(encodedImage, new CodecSpecificInfo());
+      hasEncodedFrames = true;
       // Note that the callback may have retained the image.
       encodedImage.release();
     } catch (IllegalStateException e) {
@@ -15,7 +15,6 @@ import static org.webrtc.MediaCodecUtils.INTEL_PREFIX;
 import static org.webrtc.MediaCodecUtils.QCOM_PREFIX;
 
 import android.media.MediaCodecInfo;
-import android.media.MediaCodecList;
 import android.os.Build;
 import androidx.annotation.Nullable;
 import java.util.ArrayList;
@@ -47,6 +46,8 @@ public class HardwareVideoEncoderFactory implements VideoEncoderFactory {
   private final boolean enableIntelVp8Encoder;
   private final boolean enableH264HighProfile;
   @Nullable private final Predicate<MediaCodecInfo> codecAllowedPredicate;
+  @Nullable private final VideoEncoderStats stats;
+  @Nullable private final EncodedVideoTap tap;
 
   /**
    * Creates a HardwareVideoEncoderFactory that supports surface texture encoding.
@@ -74,6 +75,35 @@ public class HardwareVideoEncoderFactory implements VideoEncoderFactory {
    */
   public HardwareVideoEncoderFactory(EglBase.Context sharedContext, boolean enableIntelVp8Encoder,
       boolean enableH264HighProfile, @Nullable Predicate<MediaCodecInfo> codecAllowedPredicate) {
+    this(sharedContext, enableIntelVp8Encoder, enableH264HighProfile, codecAllowedPredicate,
+        /* stats= */ null);
+  }
+
+  /**
+   * Creates a HardwareVideoEncoderFactory that supports surface texture encoding.
+   *
+   * @param sharedContext The textures generated will be accessible from this context. May be null,
+   *                      this disables texture support.
+   * @param enableIntelVp8Encoder true if Intel's VP8 encoder enabled.
+   * @param enableH264HighProfile true if H264 High Profile enabled.
+   * @param codecAllowedPredicate optional predicate to filter codecs. All codecs are allowed
+   *                              when predicate is not provided.
+   * @param stats optional counters updated by all encoders created by this factory.
+   */
+  public HardwareVideoEncoderFactory(EglBase.Context sharedContext, boolean enableIntelVp8Encoder,
+      boolean enableH264HighProfile, @Nullable Predicate<MediaCodecInfo> codecAllowedPredicate,
+      @Nullable VideoEncoderStats stats) {
+    this(sharedContext, enableIntelVp8Encoder, enableH264HighProfile, codecAllowedPredicate, stats,
+        /* tap= */ null);
+  }
+
+  /**
+   * Same as above, additionally delivering the output of all encoders created by this factory to
+   * `tap`.
+   */
+  public HardwareVideoEncoderFactory(EglBase.Context sharedContext, boolean enableIntelVp8Encoder,
+      boolean enableH264HighProfile, @Nullable Predicate<MediaCodecInfo> codecAllowedPredicate,
+      @Nullable VideoEncoderStats stats, @Nullable EncodedVideoTap tap) {
     // Texture mode requires EglBase14.
     if (sharedContext instanceof EglBase14.Context) {
       this.sharedContext = (EglBase14.Context) sharedContext;
@@ -84,6 +114,8 @@ public class HardwareVideoEncoderFactory implements VideoEncoderFactory {
     this.enableIntelVp8Encoder = enableIntelVp8Encoder;
     this.enableH264HighProfile = enableH264HighProfile;
     this.codecAllowedPredicate = codecAllowedPredicate;
+    this.stats = stats;
+    this.tap = tap;
   }
 
   @Deprecated
@@ -95,18 +127,17 @@ public class HardwareVideoEncoderFactory implements VideoEncoderFactory {
   @Override
   public VideoEncoder createEncoder(VideoCodecInfo input) {
     VideoCodecMimeType type = VideoCodecMimeType.valueOf(input.getName());
-    MediaCodecInfo info = findCodecForType(type);
+    MediaCodecCapabilityCache.CodecEntry info = findCodecForType(type);
 
     if (info == null) {
       return null;
     }
 
-    String codecName = info.getName();
-    String mime = type.mimeType();
+    String codecName = info.name;
     Integer surfaceColorFormat = MediaCodecUtils.selectColorFormat(
-        MediaCodecUtils.TEXTURE_COLOR_FORMATS, info.getCapabilitiesForType(mime));
+        MediaCodecUtils.TEXTURE_COLOR_FORMATS, info.getColorFormats(type));
     Integer yuvColorFormat = MediaCodecUtils.selectColorFormat(
-        MediaCodecUtils.ENCODER_COLOR_FORMATS, info.getCapabilitiesForType(mime));
+        MediaCodecUtils.ENCODER_COLOR_FORMATS, info.getColorFormats(type));
 
     if (type == VideoCodecMimeType.H264) {
       boolean isHighProfile = H264Utils.isSameH264Profile(
@@ -125,7 +156,7 @@ public class HardwareVideoEncoderFactory implements VideoEncoderFactory {
     return new HardwareVideoEncoder(new MediaCodecWrapperFactoryImpl(), codecName, type,
         surfaceColorFormat, yuvColorFormat, input.params, PERIODIC_KEY_FRAME_INTERVAL_S,
         getForcedKeyFrameIntervalMs(type, codecName), createBitrateAdjuster(type, codecName),
-        sharedContext);
+        sharedContext, stats, tap);
   }
 
   @Override
@@ -136,7 +167,7 @@ public class HardwareVideoEncoderFactory implements VideoEncoderFactory {
     for (VideoCodecMimeType type :
         new VideoCodecMimeType[] {VideoCodecMimeType.VP8, VideoCodecMimeType.VP9,
             VideoCodecMimeType.H264, VideoCodecMimeType.AV1, VideoCodecMimeType.H265}) {
-      MediaCodecInfo codec = findCodecForType(type);
+      MediaCodecCapabilityCache.CodecEntry codec = findCodecForType(type);
       if (codec != null) {
         String name = type.name();
         // TODO(sakal): Always add H264 HP once WebRTC correctly removes codecs that are not
@@ -154,16 +185,11 @@ public class HardwareVideoEncoderFactory implements VideoEncoderFactory {
     return supportedCodecInfos.toArray(new VideoCodecInfo[supportedCodecInfos.size()]);
   }
 
-  private @Nullable MediaCodecInfo findCodecForType(VideoCodecMimeType type) {
-    for (int i = 0; i < MediaCodecList.getCodecCount(); ++i) {
-      MediaCodecInfo info = null;
-      try {
-        info = MediaCodecList.getCodecInfoAt(i);
-      } catch (IllegalArgumentException e) {
-        Logging.e(TAG, "Cannot retrieve encoder codec info", e);
-      }
-
-      if (info == null || !info.isEncoder()) {
+  // Looks the codec up in the cached MediaCodecList snapshot instead of enumerating MediaCodecList
+  // on every call.
+  private @Nullable MediaCodecCapabilityCache.CodecEntry findCodecForType(VideoCodecMimeType type) {
+    for (MediaCodecCapabilityCache.CodecEntry info : MediaCodecCapabilityCache.getCodecs()) {
+      if (!info.isEncoder) {
         continue;
       }
 
@@ -174,25 +200,27 @@ public class HardwareVideoEncoderFactory implements VideoEncoderFactory {
     return null; // No support for this type.
   }
 
-  // Returns true if the given MediaCodecInfo indicates a supported encoder for the given type.
-  private boolean isSupportedCodec(MediaCodecInfo info, VideoCodecMimeType type) {
-    if (!MediaCodecUtils.codecSupportsType(info, type)) {
+  // Returns true if the given codec entry indicates a supported encoder for the given type.
+  private boolean isSupportedCodec(
+      MediaCodecCapabilityCache.CodecEntry info, VideoCodecMimeType type) {
+    if (!info.supportsType(type)) {
       return false;
     }
     // Check for a supported color format.
     if (MediaCodecUtils.selectColorFormat(
-            MediaCodecUtils.ENCODER_COLOR_FORMATS, info.getCapabilitiesForType(type.mimeType()))
+            MediaCodecUtils.ENCODER_COLOR_FORMATS, info.getColorFormats(type))
         == null) {
       return false;
     }
     return isHardwareSupportedInCurrentSdk(info, type) && isMediaCodecAllowed(info);
   }
 
-  // Returns true if the given MediaCodecInfo indicates a hardware module that is supported on the
+  // Returns true if the given codec entry indicates a hardware module that is supported on the
   // current SDK.
-  private boolean isHardwareSupportedInCurrentSdk(MediaCodecInfo info, VideoCodecMimeType type) {
+  private boolean isHardwareSupportedInCurrentSdk(
+      MediaCodecCapabilityCache.CodecEntry info, VideoCodecMimeType type) {
     if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
-      return info.isHardwareAccelerated();
+      return info.isHardwareAccelerated;
     }
 
     switch (type) {
@@ -209,8 +237,8 @@ public class HardwareVideoEncoderFactory implements VideoEncoderFactory {
     return false;
   }
 
-  private boolean isHardwareSupportedInCurrentSdkVp8(MediaCodecInfo info) {
-    String name = info.getName();
+  private boolean isHardwareSupportedInCurrentSdkVp8(MediaCodecCapabilityCache.CodecEntry info) {
+    String name = info.name;
     // QCOM Vp8 encoder is always supported.
 //    return name.startsWith(QCOM_PREFIX)
 //        // Exynos VP8 encoder is supported in M or later.
@@ -220,18 +248,18 @@ public class HardwareVideoEncoderFactory implements VideoEncoderFactory {
     if (this.enableIntelVp8Encoder && name.startsWith(MediaCodecUtils.INTEL_PREFIX)) {
         return true;
     }
-    return !MediaCodecUtils.isSoftwareOnly(info);
+    return !info.isSoftwareOnly;
   }
 
-  private boolean isHardwareSupportedInCurrentSdkVp9(MediaCodecInfo info) {
+  private boolean isHardwareSupportedInCurrentSdkVp9(MediaCodecCapabilityCache.CodecEntry info) {
 //    String name = info.getName();
 //    return (name.startsWith(QCOM_PREFIX) || name.startsWith(EXYNOS_PREFIX))
 //        // Both QCOM and Exynos VP9 encoders are supported in N or later.
 //        && Build.VERSION.SDK_INT >= Build.VERSION_CODES.N;
-    return (!MediaCodecUtils.isSoftwareOnly(info) && Build.VERSION.SDK_INT >= Build.VERSION_CODES.N);
+    return (!info.isSoftwareOnly && Build.VERSION.SDK_INT >= Build.VERSION_CODES.N);
   }
 
-  private boolean isHardwareSupportedInCurrentSdkH264(MediaCodecInfo info) {
+  private boolean isHardwareSupportedInCurrentSdkH264(MediaCodecCapabilityCache.CodecEntry info) {
     // First, H264 hardware might perform poorly on this model.
     if (H264_HW_EXCEPTION_MODELS.contains(Build.MODEL)) {
       return false;
@@ -239,14 +267,16 @@ public class HardwareVideoEncoderFactory implements VideoEncoderFactory {
 //    String name = info.getName();
     // QCOM and Exynos H264 encoders are always supported.
 //    return name.startsWith(QCOM_PREFIX) || name.startsWith(EXYNOS_PREFIX);
-    return !MediaCodecUtils.isSoftwareOnly(info);
+    return !info.isSoftwareOnly;
   }
 
-  private boolean isMediaCodecAllowed(MediaCodecInfo info) {
+  private boolean isMediaCodecAllowed(MediaCodecCapabilityCache.CodecEntry info) {
     if (codecAllowedPredicate == null) {
       return true;
     }
-    return codecAllowedPredicate.test(info);
+    // Only caller supplied predicates need the live MediaCodecInfo.
+    MediaCodecInfo codecInfo = info.getCodecInfo();
+    return codecInfo != null && codecAllowedPredicate.test(codecInfo);
   }
 
   private int getForcedKeyFrameIntervalMs(VideoCodecMimeType type, String codecName) {
@@ -277,8 +307,8 @@ public class HardwareVideoEncoderFactory implements VideoEncoderFactory {
     return new BaseBitrateAdjuster();
   }
 
-  private boolean isH264HighProfileSupported(MediaCodecInfo info) {
+  private boolean isH264HighProfileSupported(MediaCodecCapabilityCache.CodecEntry info) {
     return enableH264HighProfile && Build.VERSION.SDK_INT > Build.VERSION_CODES.M
-        && info.getName().startsWith(EXYNOS_PREFIX);
+        && info.name.startsWith(EXYNOS_PREFIX);
   }
 }
@@ -0,0 +1,142 @@
+/*
+ *  Copyright 2026 The wxrtc project authors. All Rights Reserved.
+ */
+
+package org.webrtc;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Pool of native direct byte buffers for I420 frames produced in Java. Buffers are bucketed by
+ * byte size, and a buffer is returned to its bucket when the last reference to the frame using it
+ * is released, so producers with a steady resolution stop allocating after the first few frames.
+ * Safe to use from any thread.
+ */
+public class I420BufferPool {
+  private static final String TAG = "I420BufferPool";
+  // Free buffers kept per size. Covers the frames in flight between capturer, encoder and renderer.
+  private static final int DEFAULT_MAX_BUFFERS_PER_SIZE = 4;
+  // Bound on the memory held by free buffers across all sizes.
+  private static final long DEFAULT_MAX_POOLED_BYTES = 64L * 1024 * 1024;
+
+  private static final I420BufferPool defaultPool =
+      new I420BufferPool(DEFAULT_MAX_BUFFERS_PER_SIZE, DEFAULT_MAX_POOLED_BYTES);
+
+  private final int maxBuffersPerSize;
+  private final long maxPooledBytes;
+  private final Map<Integer, ArrayDeque<ByteBuffer>> freeBuffers = new HashMap<>();
+  private long pooledBytes;
+  private long allocationCount;
+  private long reuseCount;
+
+  /** Returns the pool shared by the Java frame producers. */
+  public static I420BufferPool getDefault() {
+    return defaultPool;
+  }
+
+  public I420BufferPool(int maxBuffersPerSize, long maxPooledBytes) {
+    this.maxBuffersPerSize = maxBuffersPerSize;
+    this.maxPooledBytes = maxPooledBytes;
+  }
+
+  /**
+   * Returns an I420 buffer with the same layout as JavaI420Buffer.allocate(). Its memory goes back
+   * to the pool when the buffer is released.
+   */
+  public JavaI420Buffer allocate(int width, int height) {
+    final int chromaHeight = (height + 1) / 2;
+    final int strideUV = (width + 1) / 2;
+    final int uPos = width * height;
+    final int vPos = uPos + strideUV * chromaHeight;
+    final int size = vPos + strideUV * chromaHeight;
+
+    final ByteBuffer buffer = acquire(size);
+    buffer.position(0);
+    buffer.limit(uPos);
+    final ByteBuffer dataY = buffer.slice();
+    buffer.position(uPos);
+    buffer.limit(vPos);
+    final ByteBuffer dataU = buffer.slice();
+    buffer.position(vPos);
+    buffer.limit(size);
+    final ByteBuffer dataV = buffer.slice();
+
+    return JavaI420Buffer.wrap(width, height, dataY, width, dataU, strideUV, dataV, strideUV,
+        () -> recycle(buffer));
+  }
+
+  /**
+   * Returns a native direct buffer with a capacity of exactly `size` bytes, for producers with
+   * their own layout. Give it back with {@link #recycle}.
+   */
+  public ByteBuffer acquire(int size) {
+    synchronized (freeBuffers) {
+      final ArrayDeque<ByteBuffer> bucket = freeBuffers.get(size);
+      if (bucket != null && !bucket.isEmpty()) {
+        reuseCount++;
+        pooledBytes -= size;
+        final ByteBuffer buffer = bucket.pop();
+        buffer.clear();
+        return buffer;
+      }
+      allocationCount++;
+    }
+    return JniCommon.nativeAllocateByteBuffer(size);
+  }
+
+  /** Returns a buffer obtained from {@link #acquire} to the pool, or frees it if it is full. */
+  public void recycle(ByteBuffer buffer) {
+    final int size = buffer.capacity();
+    synchronized (freeBuffers) {
+      ArrayDeque<ByteBuffer> bucket = freeBuffers.get(size);
+      if (bucket == null) {
+        bucket = new ArrayDeque<>();
+        freeBuffers.put(size, bucket);
+      }
+      if (bucket.size() < maxBuffersPerSize && pooledBytes + size <= maxPooledBytes) {
+        bucket.push(buffer);
+        pooledBytes += size;
+        return;
+      }
+    }
+    JniCommon.nativeFreeByteBuffer(buffer);
+  }
+
+  /** Frees all pooled buffers, e.g. when video stops. Buffers in use are pooled again later. */
+  public void clear() {
+    synchronized (freeBuffers) {
+      for (ArrayDeque<ByteBuffer> bucket : freeBuffers.values()) {
+        for (ByteBuffer buffer : bucket) {
+          JniCommon.nativeFreeByteBuffer(buffer);
+        }
+      }
+      freeBuffers.clear();
+      pooledBytes = 0;
+    }
+    Logging.d(TAG, "Cleared");
+  }
+
+  /** Number of buffers that had to be allocated because no pooled buffer of the size was free. */
+  public long getAllocationCount() {
+    synchronized (freeBuffers) {
+      return allocationCount;
+    }
+  }
+
+  /** Number of requests served from the pool. */
+  public long getReuseCount() {
+    synchronized (freeBuffers) {
+      return reuseCount;
+    }
+  }
+
+  /** Bytes held by free buffers. */
+  public long getPooledBytes() {
+    synchronized (freeBuffers) {
+      return pooledBytes;
+    }
+  }
+}
@@ -0,0 +1,337 @@
+/*
+ *  Copyright 2026 The wxrtc project authors. All Rights Reserved.
+ */
+
+package org.webrtc;
+
+import android.content.Context;
+import android.media.MediaCodecInfo;
+import android.media.MediaCodecInfo.CodecCapabilities;
+import android.media.MediaCodecInfo.CodecProfileLevel;
+import android.media.MediaCodecList;
+import android.os.Build;
+import android.os.SystemClock;
+import androidx.annotation.Nullable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Snapshot of the video codecs reported by MediaCodecList: supported types, color formats,
+ * profiles and hardware/software flags. Enumerating MediaCodecList and probing capabilities can
+ * take hundreds of milliseconds on some devices, and every encoder and decoder factory needs it.
+ * The snapshot is probed at most once per process, persisted to app storage keyed by the device
+ * fingerprint and OS build, and loaded from there on later starts. A loaded snapshot is
+ * revalidated in the background and replaced if the platform codecs changed.
+ *
+ * <p>Without a call to {@link #initialize} the snapshot is only kept in memory.
+ */
+@SuppressWarnings("deprecation") // API 16 requires the use of deprecated methods.
+public class MediaCodecCapabilityCache {
+  private static final String TAG = "MediaCodecCapabilityCache";
+  private static final String CACHE_FILE_NAME = "webrtc_media_codec_capabilities.json";
+  // Bump when the stored format changes.
+  private static final int CACHE_VERSION = 1;
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+  /** Capabilities of one MediaCodec component. */
+  static class CodecEntry {
+    final String name;
+    final boolean isEncoder;
+    final boolean isHardwareAccelerated;
+    final boolean isSoftwareOnly;
+    // Keyed by the mime type, only for types in VideoCodecMimeType.
+    final Map<String, int[]> colorFormats;
+    final Map<String, int[]> profiles;
+
+    CodecEntry(String name, boolean isEncoder, boolean isHardwareAccelerated,
+        boolean isSoftwareOnly, Map<String, int[]> colorFormats, Map<String, int[]> profiles) {
+      this.name = name;
+      this.isEncoder = isEncoder;
+      this.isHardwareAccelerated = isHardwareAccelerated;
+      this.isSoftwareOnly = isSoftwareOnly;
+      this.colorFormats = colorFormats;
+      this.profiles = profiles;
+    }
+
+    boolean supportsType(VideoCodecMimeType type) {
+      return colorFormats.containsKey(type.mimeType());
+    }
+
+    int[] getColorFormats(VideoCodecMimeType type) {
+      final int[] formats = colorFormats.get(type.mimeType());
+      return formats != null ? formats : new int[0];
+    }
+
+    /**
+     * Looks up the live MediaCodecInfo of this codec. This enumerates MediaCodecList and is only
+     * needed to evaluate caller supplied MediaCodecInfo predicates.
+     */
+    @Nullable
+    MediaCodecInfo getCodecInfo() {
+      for (int i = 0; i < MediaCodecList.getCodecCount(); ++i) {
+        try {
+          final MediaCodecInfo info = MediaCodecList.getCodecInfoAt(i);
+          if (info != null && info.isEncoder() == isEncoder && info.getName().equals(name)) {
+            return info;
+          }
+        } catch (IllegalArgumentException e) {
+          Logging.e(TAG, "Cannot retrieve codec info", e);
+        }
+      }
+      return null;
+    }
+  }
+
+  private static final Object lock = new Object();
+  @Nullable private static List<CodecEntry> codecs;
+  @Nullable private static File cacheFile;
+  private static boolean loadedFromStorage;
+  private static long lastLoadTimeMs = -1;
+
+  /**
+   * Enables persisting the snapshot in the app's files directory and loads a previously stored
+   * snapshot for this device and OS build. Cheap enough to call on every start; if a snapshot was
+   * loaded, it is revalidated on a background thread.
+   */
+  public static void initialize(Context context) {
+    synchronized (lock) {
+      if (cacheFile != null) {
+        return;
+      }
+      cacheFile = new File(context.getApplicationContext().getFilesDir(), CACHE_FILE_NAME);
+      if (codecs != null) {
+        // Probed before storage was available, store it now.
+        store(cacheFile, codecs);
+        return;
+      }
+      final long startTimeMs = SystemClock.elapsedRealtime();
+      final List<CodecEntry> stored = load(cacheFile);
+      if (stored == null) {
+        return;
+      }
+      codecs = stored;
+      loadedFromStorage = true;
+      lastLoadTimeMs = SystemClock.elapsedRealtime() - startTimeMs;
+      Logging.d(TAG,
+          "Loaded " + stored.size() + " codecs from storage in " + lastLoadTimeMs + " ms");
+    }
+    final Thread revalidateThread = new Thread(MediaCodecCapabilityCache::revalidate, TAG);
+    revalidateThread.setDaemon(true);
+    revalidateThread.start();
+  }
+
+  /** Time it took to load or probe the current snapshot, or -1 if it was not loaded yet. */
+  public static long getLastLoadTimeMs() {
+    synchronized (lock) {
+      return lastLoadTimeMs;
+    }
+  }
+
+  /** True if the current snapshot was loaded from storage instead of probed. */
+  public static boolean isLoadedFromStorage() {
+    synchronized (lock) {
+      return loadedFromStorage;
+    }
+  }
+
+  /** Returns the snapshot in MediaCodecList order, probing MediaCodecList if needed. */
+  static List<CodecEntry> getCodecs() {
+    synchronized (lock) {
+      if (codecs == null) {
+        final long startTimeMs = SystemClock.elapsedRealtime();
+        codecs = probe();
+        loadedFromStorage = false;
+        lastLoadTimeMs = SystemClock.elapsedRealtime() - startTimeMs;
+        Logging.d(TAG, "Probed " + codecs.size() + " codecs in " + lastLoadTimeMs + " ms");
+        if (cacheFile != null) {
+          store(cacheFile, codecs);
+        }
+      }
+      return codecs;
+    }
+  }
+
+  private static void revalidate() {
+    final List<CodecEntry> probed = probe();
+    synchronized (lock) {
+      if (codecs != null && toJson(codecs).toString().equals(toJson(probed).toString())) {
+        return;
+      }
+      Logging.w(TAG, "Platform codecs changed, replacing stored snapshot");
+      codecs = probed;
+      loadedFromStorage = false;
+      if (cacheFile != null) {
+        store(cacheFile, probed);
+      }
+    }
+  }
+
+  private static List<CodecEntry> probe() {
+    final List<CodecEntry> entries = new ArrayList<>();
+    for (int i = 0; i < MediaCodecList.getCodecCount(); ++i) {
+      MediaCodecInfo info = null;
+      try {
+        info = MediaCodecList.getCodecInfoAt(i);
+      } catch (IllegalArgumentException e) {
+        Logging.e(TAG, "Cannot retrieve codec info", e);
+      }
+      if (info == null) {
+        continue;
+      }
+      final Map<String, int[]> colorFormats = new HashMap<>();
+      final Map<String, int[]> profiles = new HashMap<>();
+      for (VideoCodecMimeType type : VideoCodecMimeType.values()) {
+        if (!MediaCodecUtils.codecSupportsType(info, type)) {
+          continue;
+        }
+        try {
+          final CodecCapabilities capabilities = info.getCapabilitiesForType(type.mimeType());
+          final int[] typeProfiles = new int[capabilities.profileLevels.length];
+          for (int j = 0; j < typeProfiles.length; ++j) {
+            final CodecProfileLevel profileLevel = capabilities.profileLevels[j];
+            typeProfiles[j] = profileLevel.profile;
+          }
+          colorFormats.put(type.mimeType(), capabilities.colorFormats);
+          profiles.put(type.mimeType(), typeProfiles);
+        } catch (IllegalArgumentException e) {
+          Logging.e(TAG, "Cannot retrieve capabilities of " + info.getName(), e);
+        }
+      }
+      if (colorFormats.isEmpty()) {
+        continue;
+      }
+      entries.add(new CodecEntry(info.getName(), info.isEncoder(),
+          MediaCodecUtils.isHardwareAccelerated(info), MediaCodecUtils.isSoftwareOnly(info),
+          colorFormats, profiles));
+    }
+    return Collections.unmodifiableList(entries);
+  }
+
+  private static String getDeviceKey() {
+    return Build.FINGERPRINT + "|" + Build.VERSION.SDK_INT + "|" + Build.VERSION.INCREMENTAL + "|"
+        + CACHE_VERSION;
+  }
+
+  @Nullable
+  private static List<CodecEntry> load(File file) {
+    if (!file.exists()) {
+      return null;
+    }
+    try (FileInputStream input = new FileInputStream(file)) {
+      final byte[] data = new byte[(int) file.length()];
+      int offset = 0;
+      while (offset < data.length) {
+        final int read = input.read(data, offset, data.length - offset);
+        if (read < 0) {
+          break;
+        }
+        offset += read;
+      }
+      final JSONObject json = new JSONObject(new String(data, 0, offset, UTF_8));
+      if (!getDeviceKey().equals(json.optString("key"))) {
+        Logging.d(TAG, "Stored snapshot belongs to another build, ignoring it");
+        return null;
+      }
+      return fromJson(json.getJSONArray("codecs"));
+    } catch (IOException | JSONException e) {
+      Logging.e(TAG, "Failed to load stored snapshot", e);
+      return null;
+    }
+  }
+
+  private static void store(File file, List<CodecEntry> entries) {
+    final File tmpFile = new File(file.getPath() + ".tmp");
+    try (FileOutputStream output = new FileOutputStream(tmpFile)) {
+      final JSONObject json = new JSONObject();
+      json.put("key", getDeviceKey());
+      json.put("codecs", toJson(entries));
+      output.write(json.toString().getBytes(UTF_8));
+      output.getFD().sync();
+    } catch (IOException | JSONException e) {
+      Logging.e(TAG, "Failed to store snapshot", e);
+      tmpFile.delete();
+      return;
+    }
+    if (!tmpFile.renameTo(file)) {
+      Logging.e(TAG, "Failed to replace " + file);
+      tmpFile.delete();
+    }
+  }
+
+  private static JSONArray toJson(List<CodecEntry> entries) {
+    final JSONArray array = new JSONArray();
+    try {
+      for (CodecEntry entry : entries) {
+        final JSONObject types = new JSONObject();
+        for (Map.Entry<String, int[]> colorFormats : entry.colorFormats.entrySet()) {
+          final JSONObject type = new JSONObject();
+          type.put("colorFormats", toJson(colorFormats.getValue()));
+          type.put("profiles", toJson(entry.profiles.get(colorFormats.getKey())));
+          types.put(colorFormats.getKey(), type);
+        }
+        final JSONObject codec = new JSONObject();
+        codec.put("name", entry.name);
+        codec.put("encoder", entry.isEncoder);
+        codec.put("hardwareAccelerated", entry.isHardwareAccelerated);
+        codec.put("softwareOnly", entry.isSoftwareOnly);
+        codec.put("types", types);
+        array.put(codec);
+      }
+    } catch (JSONException e) {
+      throw new IllegalStateException(e);
+    }
+    return array;
+  }
+
+  private static JSONArray toJson(@Nullable int[] values) {
+    final JSONArray array = new JSONArray();
+    if (values != null) {
+      for (int value : values) {
+        array.put(value);
+      }
+    }
+    return array;
+  }
+
+  private static List<CodecEntry> fromJson(JSONArray array) throws JSONException {
+    final List<CodecEntry> entries = new ArrayList<>();
+    for (int i = 0; i < array.length(); ++i) {
+      final JSONObject codec = array.getJSONObject(i);
+      final JSONObject types = codec.getJSONObject("types");
+      final Map<String, int[]> colorFormats = new HashMap<>();
+      final Map<String, int[]> profiles = new HashMap<>();
+      final JSONArray mimeTypes = types.names();
+      for (int j = 0; mimeTypes != null && j < mimeTypes.length(); ++j) {
+        final String mimeType = mimeTypes.getString(j);
+        final JSONObject type = types.getJSONObject(mimeType);
+        colorFormats.put(mimeType, toIntArray(type.getJSONArray("colorFormats")));
+        profiles.put(mimeType, toIntArray(type.getJSONArray("profiles")));
+      }
+      entries.add(new CodecEntry(codec.getString("name"), codec.getBoolean("encoder"),
+          codec.getBoolean("hardwareAccelerated"), codec.getBoolean("softwareOnly"), colorFormats,
+          profiles));
+    }
+    return Collections.unmodifiableList(entries);
+  }
+
+  private static int[] toIntArray(JSONArray array) throws JSONException {
+    final int[] values = new int[array.length()];
+    for (int i = 0; i < values.length; ++i) {
+      values[i] = array.getInt(i);
+    }
+    return values;
+  }
+
+  private MediaCodecCapabilityCache() {}
+}
@@ -14,8 +14,6 @@ import static org.webrtc.MediaCodecUtils.EXYNOS_PREFIX;
 import static org.webrtc.MediaCodecUtils.QCOM_PREFIX;
 
 import android.media.MediaCodecInfo;
-import android.media.MediaCodecInfo.CodecCapabilities;
-import android.media.MediaCodecList;
 import android.os.Build;
 import androidx.annotation.Nullable;
 import java.util.ArrayList;
@@ -28,6 +26,10 @@ class MediaCodecVideoDecoderFactory implements VideoDecoderFactory {
 
   private final @Nullable EglBase.Context sharedContext;
   private final @Nullable Predicate<MediaCodecInfo> codecAllowedPredicate;
+  // Filter evaluated on the cached codec snapshot, used by the built-in subclasses so that they
+  // do not need the live MediaCodecInfo.
+  private final @Nullable Predicate<MediaCodecCapabilityCache.CodecEntry> codecEntryPredicate;
+  private final @Nullable VideoDecoderStats stats;
 
   /**
    * MediaCodecVideoDecoderFactory with support of codecs filtering.
@@ -39,24 +41,48 @@ class MediaCodecVideoDecoderFactory implements VideoDecoderFactory {
    */
   public MediaCodecVideoDecoderFactory(@Nullable EglBase.Context sharedContext,
       @Nullable Predicate<MediaCodecInfo> codecAllowedPredicate) {
+    this(sharedContext, codecAllowedPredicate, /* stats= */ null);
+  }
+
+  /**
+   * MediaCodecVideoDecoderFactory with support of codecs filtering and decoder statistics.
+   *
+   * @param sharedContext The textures generated will be accessible from this context. May be null,
+   *                      this disables texture support.
+   * @param codecAllowedPredicate optional predicate to test if codec allowed. All codecs are
+   *                              allowed when predicate is not provided.
+   * @param stats optional histograms updated by all decoders created by this factory.
+   */
+  public MediaCodecVideoDecoderFactory(@Nullable EglBase.Context sharedContext,
+      @Nullable Predicate<MediaCodecInfo> codecAllowedPredicate,
+      @Nullable VideoDecoderStats stats) {
+    this(sharedContext, codecAllowedPredicate, /* codecEntryPredicate= */ null, stats);
+  }
+
+  MediaCodecVideoDecoderFactory(@Nullable EglBase.Context sharedContext,
+      @Nullable Predicate<MediaCodecInfo> codecAllowedPredicate,
+      @Nullable Predicate<MediaCodecCapabilityCache.CodecEntry> codecEntryPredicate,
+      @Nullable VideoDecoderStats stats) {
     this.sharedContext = sharedContext;
     this.codecAllowedPredicate = codecAllowedPredicate;
+    this.codecEntryPredicate = codecEntryPredicate;
+    this.stats = stats;
   }
 
   @Nullable
   @Override
   public VideoDecoder createDecoder(VideoCodecInfo codecType) {
     VideoCodecMimeType type = VideoCodecMimeType.valueOf(codecType.getName());
-    MediaCodecInfo info = findCodecForType(type);
+    MediaCodecCapabilityCache.CodecEntry info = findCodecForType(type);
 
     if (info == null) {
       return null;
     }
 
-    CodecCapabilities capabilities = info.getCapabilitiesForType(type.mimeType());
-    return new AndroidVideoDecoder(new MediaCodecWrapperFactoryImpl(), info.getName(), type,
-        MediaCodecUtils.selectColorFormat(MediaCodecUtils.DECODER_COLOR_FORMATS, capabilities),
-        sharedContext);
+    return new AndroidVideoDecoder(new MediaCodecWrapperFactoryImpl(), info.name, type,
+        MediaCodecUtils.selectColorFormat(
+            MediaCodecUtils.DECODER_COLOR_FORMATS, info.getColorFormats(type)),
+        sharedContext, stats);
   }
 
   @Override
@@ -67,7 +93,7 @@ class MediaCodecVideoDecoderFactory implements VideoDecoderFactory {
     for (VideoCodecMimeType type :
         new VideoCodecMimeType[] {VideoCodecMimeType.VP8, VideoCodecMimeType.VP9,
             VideoCodecMimeType.H264, VideoCodecMimeType.AV1, VideoCodecMimeType.H265}) {
-      MediaCodecInfo codec = findCodecForType(type);
+      MediaCodecCapabilityCache.CodecEntry codec = findCodecForType(type);
       if (codec != null) {
         String name = type.name();
         if (type == VideoCodecMimeType.H264 && isH264HighProfileSupported(codec)) {
@@ -83,16 +109,11 @@ class MediaCodecVideoDecoderFactory implements VideoDecoderFactory {
     return supportedCodecInfos.toArray(new VideoCodecInfo[supportedCodecInfos.size()]);
   }
 
-  private @Nullable MediaCodecInfo findCodecForType(VideoCodecMimeType type) {
-    for (int i = 0; i < MediaCodecList.getCodecCount(); ++i) {
-      MediaCodecInfo info = null;
-      try {
-        info = MediaCodecList.getCodecInfoAt(i);
-      } catch (IllegalArgumentException e) {
-        Logging.e(TAG, "Cannot retrieve decoder codec info", e);
-      }
-
-      if (info == null || info.isEncoder()) {
+  // Looks the codec up in the cached MediaCodecList snapshot instead of enumerating MediaCodecList
+  // on every call.
+  private @Nullable MediaCodecCapabilityCache.CodecEntry findCodecForType(VideoCodecMimeType type) {
+    for (MediaCodecCapabilityCache.CodecEntry info : MediaCodecCapabilityCache.getCodecs()) {
+      if (info.isEncoder) {
         continue;
       }
 
@@ -104,29 +125,35 @@ class MediaCodecVideoDecoderFactory implements VideoDecoderFactory {
     return null; // No support for this type.
   }
 
-  // Returns true if the given MediaCodecInfo indicates a supported encoder for the given type.
-  private boolean isSupportedCodec(MediaCodecInfo info, VideoCodecMimeType type) {
-    if (!MediaCodecUtils.codecSupportsType(info, type)) {
+  // Returns true if the given codec entry indicates a supported decoder for the given type.
+  private boolean isSupportedCodec(
+      MediaCodecCapabilityCache.CodecEntry info, VideoCodecMimeType type) {
+    if (!info.supportsType(type)) {
       return false;
     }
     // Check for a supported color format.
     if (MediaCodecUtils.selectColorFormat(
-            MediaCodecUtils.DECODER_COLOR_FORMATS, info.getCapabilitiesForType(type.mimeType()))
+            MediaCodecUtils.DECODER_COLOR_FORMATS, info.getColorFormats(type))
         == null) {
       return false;
     }
     return isCodecAllowed(info);
   }
 
-  private boolean isCodecAllowed(MediaCodecInfo info) {
+  private boolean isCodecAllowed(MediaCodecCapabilityCache.CodecEntry info) {
+    if (codecEntryPredicate != null && !codecEntryPredicate.test(info)) {
+      return false;
+    }
     if (codecAllowedPredicate == null) {
       return true;
     }
-    return codecAllowedPredicate.test(info);
+    // Only caller supplied predicates need the live MediaCodecInfo.
+    MediaCodecInfo codecInfo = info.getCodecInfo();
+    return codecInfo != null && codecAllowedPredicate.test(codecInfo);
   }
 
-  private boolean isH264HighProfileSupported(MediaCodecInfo info) {
-    String name = info.getName();
+  private boolean isH264HighProfileSupported(MediaCodecCapabilityCache.CodecEntry info) {
+    String name = info.name;
     // Support H.264 HP decoding on QCOM chips.
     if (name.startsWith(QCOM_PREFIX)) {
       return true;
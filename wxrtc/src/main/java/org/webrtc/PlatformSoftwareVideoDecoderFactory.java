@@ -10,7 +10,6 @@
 
 package org.webrtc;
 
-import android.media.MediaCodecInfo;
 import androidx.annotation.Nullable;
 import java.util.Arrays;
 
@@ -19,11 +18,11 @@ public class PlatformSoftwareVideoDecoderFactory extends MediaCodecVideoDecoderF
   /**
    * Default allowed predicate.
    */
-  private static final Predicate<MediaCodecInfo> defaultAllowedPredicate =
-      new Predicate<MediaCodecInfo>() {
+  private static final Predicate<MediaCodecCapabilityCache.CodecEntry> defaultAllowedPredicate =
+      new Predicate<MediaCodecCapabilityCache.CodecEntry>() {
         @Override
-        public boolean test(MediaCodecInfo arg) {
-          return MediaCodecUtils.isSoftwareOnly(arg);
+        public boolean test(MediaCodecCapabilityCache.CodecEntry arg) {
+          return arg.isSoftwareOnly;
         }
       };
 
@@ -34,6 +33,7 @@ public class PlatformSoftwareVideoDecoderFactory extends MediaCodecVideoDecoderF
    *                      this disables texture support.
    */
   public PlatformSoftwareVideoDecoderFactory(@Nullable EglBase.Context sharedContext) {
-    super(sharedContext, defaultAllowedPredicate);
+    super(sharedContext, /* codecAllowedPredicate= */ null, defaultAllowedPredicate,
+        /* stats= */ null);
   }
 }
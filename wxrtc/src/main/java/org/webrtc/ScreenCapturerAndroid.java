@@ -21,6 +21,7 @@ import android.os.Build.VERSION;
 import android.os.Build.VERSION_CODES;
 import android.view.Surface;
 import androidx.annotation.Nullable;
+import java.util.concurrent.TimeUnit;
 
 /**
  * An implementation of VideoCapturer to capture the screen content as a video stream.
@@ -34,12 +35,16 @@ import androidx.annotation.Nullable;
  * frames. At any time, at most one frame is being processed.
  */
 public class ScreenCapturerAndroid implements VideoCapturer, VideoSink {
+  private static final String TAG = "ScreenCapturerAndroid";
   private static final int DISPLAY_FLAGS =
       DisplayManager.VIRTUAL_DISPLAY_FLAG_PUBLIC | DisplayManager.VIRTUAL_DISPLAY_FLAG_PRESENTATION;
   // DPI for VirtualDisplay, does not seem to matter for us.
   private static final int VIRTUAL_DISPLAY_DPI = 400;
+  // In screen content mode, frames keep flowing at the full rate for this long after a change so
+  // the encoder can refine the quality of the new content.
+  private static final long CONTENT_CHANGE_BURST_NS = TimeUnit.SECONDS.toNanos(1);
 
-  private final Intent mediaProjectionPermissionResultData;
+  @Nullable private Intent mediaProjectionPermissionResultData;
   private final MediaProjection.Callback mediaProjectionCallback;
 
   private int width;
@@ -51,28 +56,58 @@ public class ScreenCapturerAndroid implements VideoCapturer, VideoSink {
   @Nullable private MediaProjection mediaProjection;
   private boolean isDisposed;
   @Nullable private MediaProjectionManager mediaProjectionManager;
+  private volatile boolean screenContentMode;
+  private volatile long idleFrameIntervalNs;
+  private volatile long numSkippedFrames;
+  // Only accessed on the SurfaceTextureHelper thread.
+  @Nullable private ScreenContentChangeDetector changeDetector;
+  private long lastChangeTimeNs;
+  private long lastDeliveredFrameTimeNs;
 
   /**
    * Constructs a new Screen Capturer.
    *
    * @param mediaProjectionPermissionResultData the result data of MediaProjection permission
    *     activity; the calling app must validate that result code is Activity.RESULT_OK before
-   *     calling this method.
+   *     calling this method. May be null if it is set later with
+   *     {@link #setMediaProjectionPermissionResultData}.
    * @param mediaProjectionCallback MediaProjection callback to implement application specific
    *     logic in events such as when the user revokes a previously granted capture permission.
   **/
-  public ScreenCapturerAndroid(Intent mediaProjectionPermissionResultData,
+  public ScreenCapturerAndroid(@Nullable Intent mediaProjectionPermissionResultData,
       MediaProjection.Callback mediaProjectionCallback) {
     this.mediaProjectionPermissionResultData = mediaProjectionPermissionResultData;
     this.mediaProjectionCallback = mediaProjectionCallback;
   }
 
+  /**
+   * Sets the permission result for a capturer constructed without one, e.g. one that was created
+   * and initialized while the permission dialog was showing. Must be called before startCapture().
+   */
+  // TODO(bugs.webrtc.org/8491): Remove NoSynchronizedMethodCheck suppression.
+  @SuppressWarnings("NoSynchronizedMethodCheck")
+  public synchronized void setMediaProjectionPermissionResultData(
+      Intent mediaProjectionPermissionResultData) {
+    checkNotDisposed();
+    this.mediaProjectionPermissionResultData = mediaProjectionPermissionResultData;
+  }
+
   private void checkNotDisposed() {
     if (isDisposed) {
       throw new RuntimeException("capturer is disposed.");
     }
   }
 
+  /**
+   * Enables screen content mode for static content such as documents. Frames that do not differ
+   * from the previous one are not delivered, except for `idleFps` frames per second. A change is
+   * delivered at once and followed by a second of frames at the full rate.
+   */
+  public void setScreenContentMode(boolean enabled, int idleFps) {
+    idleFrameIntervalNs = TimeUnit.SECONDS.toNanos(1) / Math.max(1, idleFps);
+    screenContentMode = enabled;
+  }
+
   @Nullable
   public MediaProjection getMediaProjection() {
     return mediaProjection;
@@ -106,6 +141,10 @@ public class ScreenCapturerAndroid implements VideoCapturer, VideoSink {
       final int width, final int height, final int ignoredFramerate) {
     checkNotDisposed();
 
+    if (mediaProjectionPermissionResultData == null) {
+      throw new IllegalStateException("MediaProjection permission result not set.");
+    }
+
     this.width = width;
     this.height = height;
 
@@ -130,6 +169,7 @@ public class ScreenCapturerAndroid implements VideoCapturer, VideoSink {
       public void run() {
         surfaceTextureHelper.stopListening();
         capturerObserver.onCapturerStopped();
+        releaseChangeDetector();
 
         if (virtualDisplay != null) {
           virtualDisplay.release();
@@ -209,9 +249,47 @@ public class ScreenCapturerAndroid implements VideoCapturer, VideoSink {
   @Override
   public void onFrame(VideoFrame frame) {
     numCapturedFrames++;
+    if (screenContentMode) {
+      if (!shouldDeliverScreenContentFrame(frame)) {
+        numSkippedFrames++;
+        return;
+      }
+    } else {
+      releaseChangeDetector();
+    }
     capturerObserver.onFrameCaptured(frame);
   }
 
+  private boolean shouldDeliverScreenContentFrame(VideoFrame frame) {
+    if (changeDetector == null) {
+      changeDetector = new ScreenContentChangeDetector();
+    }
+    final long timestampNs = frame.getTimestampNs();
+    boolean changed;
+    try {
+      changed = changeDetector.hasChanged((VideoFrame.TextureBuffer) frame.getBuffer());
+    } catch (RuntimeException e) {
+      Logging.e(TAG, "Change detection failed", e);
+      changed = true;
+    }
+    if (changed) {
+      lastChangeTimeNs = timestampNs;
+    }
+    if (timestampNs - lastChangeTimeNs < CONTENT_CHANGE_BURST_NS
+        || timestampNs - lastDeliveredFrameTimeNs >= idleFrameIntervalNs) {
+      lastDeliveredFrameTimeNs = timestampNs;
+      return true;
+    }
+    return false;
+  }
+
+  private void releaseChangeDetector() {
+    if (changeDetector != null) {
+      changeDetector.release();
+      changeDetector = null;
+    }
+  }
+
   @Override
   public boolean isScreencast() {
     return true;
@@ -220,4 +298,9 @@ public class ScreenCapturerAndroid implements VideoCapturer, VideoSink {
   public long getNumCapturedFrames() {
     return numCapturedFrames;
   }
+
+  /** Number of unchanged frames that were not delivered in screen content mode. */
+  public long getNumSkippedFrames() {
+    return numSkippedFrames;
+  }
 }
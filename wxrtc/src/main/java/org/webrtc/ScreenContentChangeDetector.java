@@ -0,0 +1,199 @@
+/*
+ *  Copyright 2026 The wxrtc project authors. All Rights Reserved.
+ */
+
+package org.webrtc;
+
+import android.graphics.Matrix;
+import android.opengl.GLES20;
+import androidx.annotation.Nullable;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+
+/**
+ * Tells whether a texture frame differs from the previous one, on the GPU. The frame is sampled
+ * at half resolution, compared with the samples of the previous frame cell by cell in one draw, and
+ * only the per-cell maximum difference is read back. Must be used on a thread with a current EGL
+ * context.
+ *
+ * <p>Each sample is the bilinear average of a 2x2 pixel block, so every pixel of an even-sized
+ * frame contributes a quarter to one sample. A single changed pixel is therefore seen when it
+ * differs by more than about 18/255 in some channel, and a changed 2x2 block anywhere when it
+ * differs by more than about 12/255. Fainter changes wait for the next idle frame. For odd sizes
+ * the blocks do not line up: in a simulation about a third of single-pixel changes of 18/255
+ * were missed, while almost all 2x2 changes of 12/255 were still seen.
+ */
+class ScreenContentChangeDetector {
+  // Samples per cell edge. The cells cover the samples and clamp at the edge.
+  private static final int SAMPLES_PER_CELL = 16;
+  // Per-channel difference, out of 255, above which a cell counts as changed.
+  private static final int CHANGE_THRESHOLD = 4;
+
+  private static final String VERTEX_SHADER = "varying vec2 tc;\n"
+      + "attribute vec4 in_pos;\n"
+      + "attribute vec2 in_tc;\n"
+      + "void main() {\n"
+      + "  gl_Position = in_pos;\n"
+      + "  tc = in_tc;\n"
+      + "}\n";
+
+  // Each output pixel covers one cell and reads the centers of its samples in both textures.
+  private static final String FRAGMENT_SHADER = "#ifdef GL_FRAGMENT_PRECISION_HIGH\n"
+      + "precision highp float;\n"
+      + "#else\n"
+      + "precision mediump float;\n"
+      + "#endif\n"
+      + "varying vec2 tc;\n"
+      + "uniform sampler2D current_tex;\n"
+      + "uniform sampler2D previous_tex;\n"
+      + "uniform vec2 sample_size;\n"
+      + "uniform vec2 cell_count;\n"
+      + "void main() {\n"
+      + "  vec2 first = floor(tc * cell_count) * " + SAMPLES_PER_CELL + ".0;\n"
+      + "  vec2 origin = (first + 0.5) * sample_size;\n"
+      + "  float max_diff = 0.0;\n"
+      + "  for (int y = 0; y < " + SAMPLES_PER_CELL + "; y++) {\n"
+      + "    for (int x = 0; x < " + SAMPLES_PER_CELL + "; x++) {\n"
+      + "      vec2 p = origin + sample_size * vec2(float(x), float(y));\n"
+      + "      vec3 d = abs(texture2D(current_tex, p).rgb - texture2D(previous_tex, p).rgb);\n"
+      + "      max_diff = max(max_diff, max(d.r, max(d.g, d.b)));\n"
+      + "    }\n"
+      + "  }\n"
+      + "  gl_FragColor = vec4(max_diff, 0.0, 0.0, 1.0);\n"
+      + "}\n";
+
+  private static final FloatBuffer FULL_RECTANGLE_BUFFER = GlUtil.createFloatBuffer(new float[] {
+      -1.0f, -1.0f, // Bottom left.
+      1.0f, -1.0f, // Bottom right.
+      -1.0f, 1.0f, // Top left.
+      1.0f, 1.0f, // Top right.
+  });
+
+  private static final FloatBuffer FULL_RECTANGLE_TEXTURE_BUFFER =
+      GlUtil.createFloatBuffer(new float[] {
+          0.0f, 0.0f, // Bottom left.
+          1.0f, 0.0f, // Bottom right.
+          0.0f, 1.0f, // Top left.
+          1.0f, 1.0f, // Top right.
+      });
+
+  private final GlRectDrawer sampleDrawer = new GlRectDrawer();
+  private final Matrix renderMatrix = new Matrix();
+  @Nullable private ByteBuffer diffPixels;
+  @Nullable private GlTextureFrameBuffer currentSamples;
+  @Nullable private GlTextureFrameBuffer previousSamples;
+  @Nullable private GlTextureFrameBuffer diffFrameBuffer;
+  @Nullable private GlShader diffShader;
+  private int sampleSizeLocation;
+  private int cellCountLocation;
+  private int samplesX;
+  private int samplesY;
+  private int cellsX;
+  private int cellsY;
+  private boolean hasPreviousSamples;
+
+  /** Returns true if `buffer` differs from the buffer of the previous call or if there was none. */
+  public boolean hasChanged(VideoFrame.TextureBuffer buffer) {
+    if (diffShader == null) {
+      init();
+    }
+    setSampleSize((buffer.getWidth() + 1) / 2, (buffer.getHeight() + 1) / 2);
+
+    // Sample the new frame.
+    GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, currentSamples.getFrameBufferId());
+    VideoFrameDrawer.drawTexture(sampleDrawer, buffer, renderMatrix, buffer.getWidth(),
+        buffer.getHeight(), 0 /* viewportX */, 0 /* viewportY */, samplesX, samplesY);
+
+    boolean changed = true;
+    if (hasPreviousSamples) {
+      GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, diffFrameBuffer.getFrameBufferId());
+      GLES20.glViewport(0, 0, cellsX, cellsY);
+      diffShader.useProgram();
+      GLES20.glUniform2f(sampleSizeLocation, 1f / samplesX, 1f / samplesY);
+      GLES20.glUniform2f(cellCountLocation, cellsX, cellsY);
+      diffShader.setVertexAttribArray("in_pos", 2, FULL_RECTANGLE_BUFFER);
+      diffShader.setVertexAttribArray("in_tc", 2, FULL_RECTANGLE_TEXTURE_BUFFER);
+      GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
+      GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, currentSamples.getTextureId());
+      GLES20.glActiveTexture(GLES20.GL_TEXTURE1);
+      GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, previousSamples.getTextureId());
+      GLES20.glDrawArrays(GLES20.GL_TRIANGLE_STRIP, 0, 4);
+      GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, 0);
+      GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
+      GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, 0);
+
+      diffPixels.clear();
+      GLES20.glReadPixels(
+          0, 0, cellsX, cellsY, GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE, diffPixels);
+      GlUtil.checkNoGLES2Error("ScreenContentChangeDetector.hasChanged");
+      changed = false;
+      for (int i = 0; i < cellsX * cellsY; i++) {
+        if ((diffPixels.get(i * 4) & 0xFF) > CHANGE_THRESHOLD) {
+          changed = true;
+          break;
+        }
+      }
+    }
+    GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, 0);
+
+    // The new samples are the reference for the next frame.
+    final GlTextureFrameBuffer samples = previousSamples;
+    previousSamples = currentSamples;
+    currentSamples = samples;
+    hasPreviousSamples = true;
+    return changed;
+  }
+
+  /** Forgets the previous frame, so the next frame counts as changed. */
+  public void reset() {
+    hasPreviousSamples = false;
+  }
+
+  public void release() {
+    sampleDrawer.release();
+    if (diffShader != null) {
+      diffShader.release();
+      diffShader = null;
+    }
+    if (currentSamples != null) {
+      currentSamples.release();
+      previousSamples.release();
+      diffFrameBuffer.release();
+      currentSamples = null;
+      previousSamples = null;
+      diffFrameBuffer = null;
+    }
+    diffPixels = null;
+    samplesX = 0;
+    samplesY = 0;
+    hasPreviousSamples = false;
+  }
+
+  private void init() {
+    currentSamples = new GlTextureFrameBuffer(GLES20.GL_RGBA);
+    previousSamples = new GlTextureFrameBuffer(GLES20.GL_RGBA);
+    diffFrameBuffer = new GlTextureFrameBuffer(GLES20.GL_RGBA);
+    diffShader = new GlShader(VERTEX_SHADER, FRAGMENT_SHADER);
+    diffShader.useProgram();
+    GLES20.glUniform1i(diffShader.getUniformLocation("current_tex"), 0);
+    GLES20.glUniform1i(diffShader.getUniformLocation("previous_tex"), 1);
+    sampleSizeLocation = diffShader.getUniformLocation("sample_size");
+    cellCountLocation = diffShader.getUniformLocation("cell_count");
+  }
+
+  // A new size drops the previous samples, so the first frame after a resize counts as changed.
+  private void setSampleSize(int samplesX, int samplesY) {
+    if (samplesX == this.samplesX && samplesY == this.samplesY) {
+      return;
+    }
+    this.samplesX = samplesX;
+    this.samplesY = samplesY;
+    cellsX = (samplesX + SAMPLES_PER_CELL - 1) / SAMPLES_PER_CELL;
+    cellsY = (samplesY + SAMPLES_PER_CELL - 1) / SAMPLES_PER_CELL;
+    currentSamples.setSize(samplesX, samplesY);
+    previousSamples.setSize(samplesX, samplesY);
+    diffFrameBuffer.setSize(cellsX, cellsY);
+    diffPixels = ByteBuffer.allocateDirect(cellsX * cellsY * 4);
+    hasPreviousSamples = false;
+  }
+}
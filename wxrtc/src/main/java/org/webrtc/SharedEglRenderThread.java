@@ -0,0 +1,164 @@
+/*
+ *  Copyright 2026 The wxrtc project authors. All Rights Reserved.
+ */
+
+package org.webrtc;
+
+import androidx.annotation.GuardedBy;
+import androidx.annotation.Nullable;
+
+/**
+ * One EGL thread and context shared by any number of SurfaceViewRenderers. Each renderer keeps its
+ * own window surface, but all of them draw on the same thread with the same GlRectDrawer and
+ * VideoFrameDrawer, and their buffer swaps are aligned to the display refresh by a
+ * RenderSynchronizer. A gallery of N tiles then costs one render thread and one GL context
+ * instead of N.
+ *
+ * <p>Renderers take a reference in SurfaceViewRenderer.init(SharedEglRenderThread, ...) and give
+ * it back in release(). The thread and the shared drawers are released once release() has been
+ * called on this object and the last renderer is gone.
+ */
+public class SharedEglRenderThread {
+  private static final String TAG = "SharedEglRenderThread";
+
+  /** GlDrawer that ignores release() from the individual renderers. */
+  private static class SharedGlDrawer implements RendererCommon.GlDrawer {
+    private final RendererCommon.GlDrawer delegate;
+
+    SharedGlDrawer(RendererCommon.GlDrawer delegate) {
+      this.delegate = delegate;
+    }
+
+    @Override
+    public void drawOes(int oesTextureId, float[] texMatrix, int frameWidth, int frameHeight,
+        int viewportX, int viewportY, int viewportWidth, int viewportHeight) {
+      delegate.drawOes(oesTextureId, texMatrix, frameWidth, frameHeight, viewportX, viewportY,
+          viewportWidth, viewportHeight);
+    }
+
+    @Override
+    public void drawRgb(int textureId, float[] texMatrix, int frameWidth, int frameHeight,
+        int viewportX, int viewportY, int viewportWidth, int viewportHeight) {
+      delegate.drawRgb(textureId, texMatrix, frameWidth, frameHeight, viewportX, viewportY,
+          viewportWidth, viewportHeight);
+    }
+
+    @Override
+    public void drawYuv(int[] yuvTextures, float[] texMatrix, int frameWidth, int frameHeight,
+        int viewportX, int viewportY, int viewportWidth, int viewportHeight) {
+      delegate.drawYuv(yuvTextures, texMatrix, frameWidth, frameHeight, viewportX, viewportY,
+          viewportWidth, viewportHeight);
+    }
+
+    @Override
+    public void release() {}
+
+    void releaseShared() {
+      delegate.release();
+    }
+  }
+
+  /** VideoFrameDrawer that ignores release() from the individual renderers. */
+  private static class SharedVideoFrameDrawer extends VideoFrameDrawer {
+    @Override
+    public void release() {}
+
+    void releaseShared() {
+      super.release();
+    }
+  }
+
+  private final Object lock = new Object();
+  private final EglThread eglThread;
+  private final SharedGlDrawer drawer = new SharedGlDrawer(new GlRectDrawer());
+  private final SharedVideoFrameDrawer frameDrawer = new SharedVideoFrameDrawer();
+  @GuardedBy("lock") private int rendererCount;
+  @GuardedBy("lock") private boolean released;
+
+  /**
+   * Creates the shared thread. `targetFps` limits how often the renderers swap buffers, like
+   * RenderSynchronizer.
+   */
+  public static SharedEglRenderThread create(
+      @Nullable EglBase.Context sharedContext, float targetFps) {
+    return new SharedEglRenderThread(sharedContext, targetFps);
+  }
+
+  private SharedEglRenderThread(@Nullable EglBase.Context sharedContext, float targetFps) {
+    eglThread = EglThread.create(this::onRendererReleased, sharedContext, EglBase.CONFIG_PLAIN,
+        new RenderSynchronizer(targetFps));
+  }
+
+  /** Number of renderers currently drawing on this thread. */
+  public int getRendererCount() {
+    synchronized (lock) {
+      return rendererCount;
+    }
+  }
+
+  /**
+   * Releases the thread once all renderers using it are released. Renderers must not be
+   * initialized with this object afterwards.
+   */
+  public void release() {
+    synchronized (lock) {
+      if (released) {
+        return;
+      }
+      released = true;
+      if (rendererCount > 0) {
+        Logging.d(TAG, "Release deferred until " + rendererCount + " renderers are released");
+        return;
+      }
+      // Take the reference that EglThread.release() gives back.
+      rendererCount++;
+    }
+    eglThread.release();
+  }
+
+  EglThread acquire() {
+    synchronized (lock) {
+      if (released) {
+        throw new IllegalStateException("SharedEglRenderThread is released");
+      }
+      rendererCount++;
+      Logging.d(TAG, "Renderer joined, " + rendererCount + " renderers share this thread");
+      return eglThread;
+    }
+  }
+
+  RendererCommon.GlDrawer getDrawer() {
+    return drawer;
+  }
+
+  VideoFrameDrawer getFrameDrawer() {
+    return frameDrawer;
+  }
+
+  // EglThread.ReleaseMonitor. Returns true when the thread should be released.
+  private boolean onRendererReleased(EglThread thread) {
+    synchronized (lock) {
+      rendererCount--;
+      if (rendererCount > 0 || !released) {
+        return false;
+      }
+    }
+    // Runs before EglThread releases the EGL connection. The renderers have released their
+    // EglBase already, so make a context current for deleting the shared GL resources.
+    eglThread.getHandler().post(() -> {
+      final EglBase eglBase = eglThread.createEglBaseWithSharedConnection();
+      try {
+        eglBase.createDummyPbufferSurface();
+        eglBase.makeCurrent();
+        drawer.releaseShared();
+        frameDrawer.releaseShared();
+      } catch (RuntimeException e) {
+        Logging.e(TAG, "Failed to release shared drawers", e);
+      } finally {
+        eglBase.release();
+      }
+    });
+    Logging.d(TAG, "Released");
+    return true;
+  }
+}
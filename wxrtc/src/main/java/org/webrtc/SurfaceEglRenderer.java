@@ -67,6 +67,25 @@ public class SurfaceEglRenderer extends EglRenderer implements SurfaceHolder.Cal
     init(sharedContext, null /* rendererEvents */, configAttributes, drawer);
   }
 
+  /**
+   * Initialize this class on the thread of `sharedRenderThread`, drawing with its shared drawers.
+   * It is allowed to call init() to reinitialize the renderer after a previous init()/release()
+   * cycle.
+   */
+  public void init(
+      SharedEglRenderThread sharedRenderThread, RendererCommon.RendererEvents rendererEvents) {
+    ThreadUtils.checkIsOnMainThread();
+    this.rendererEvents = rendererEvents;
+    synchronized (layoutLock) {
+      isFirstFrameRendered = false;
+      rotatedFrameWidth = 0;
+      rotatedFrameHeight = 0;
+      frameRotation = 0;
+    }
+    super.init(sharedRenderThread.acquire(), sharedRenderThread.getDrawer(),
+        sharedRenderThread.getFrameDrawer(), /* usePresentationTimeStamp= */ false);
+  }
+
   /**
    * Limit render framerate.
    *
@@ -90,6 +90,22 @@ public class SurfaceViewRenderer extends SurfaceView
     released = false;
   }
 
+  /**
+   * Initialize this class to render on the thread and EGL context of `sharedRenderThread`
+   * together with the other renderers using it. It is allowed to call init() to reinitialize the
+   * renderer after a previous init()/release() cycle.
+   */
+  public void init(
+      SharedEglRenderThread sharedRenderThread, RendererCommon.RendererEvents rendererEvents) {
+    ThreadUtils.checkIsOnMainThread();
+    this.rendererEvents = rendererEvents;
+    rotatedFrameWidth = 0;
+    rotatedFrameHeight = 0;
+    eglRenderer.init(sharedRenderThread, this /* rendererEvents */);
+    inited = true;
+    released = false;
+  }
+
   /**
    * Block until any pending frame is returned and all GL resources released, even if an interrupt
    * occurs. If an interrupt occurs during release(), the interrupt flag will be set. This function
@@ -186,6 +202,16 @@ public class SurfaceViewRenderer extends SurfaceView
     eglRenderer.pauseVideo();
   }
 
+  /** Number of frames drawn since init(). */
+  public long getRenderedFrameCount() {
+    return eglRenderer.getRenderedFrameCount();
+  }
+
+  /** Number of frames dropped since init(), including frames skipped by fps reduction. */
+  public long getDroppedFrameCount() {
+    return eglRenderer.getDroppedFrameCount();
+  }
+
   public boolean isInited() {
     return inited;
   }
@@ -0,0 +1,115 @@
+/*
+ *  Copyright 2026 The wxrtc project authors. All Rights Reserved.
+ */
+
+package org.webrtc;
+
+/**
+ * Decode time and queue depth histograms of the MediaCodec decoders created by one factory.
+ * Updated from the decoder and output threads and safe to read from any thread. The histograms
+ * use fixed 1 ms / 1 frame buckets so recording a sample does not allocate.
+ */
+public class VideoDecoderStats {
+  // Samples above these values are recorded in the last bucket.
+  private static final int MAX_DECODE_TIME_MS = 500;
+  private static final int MAX_QUEUE_DEPTH = 64;
+
+  private final int[] decodeTimeBuckets = new int[MAX_DECODE_TIME_MS + 1];
+  private final int[] queueDepthBuckets = new int[MAX_QUEUE_DEPTH + 1];
+  private int queueDepth;
+  private int maxQueueDepth;
+  private long decodedFrames;
+  private long decodeTimeSumMs;
+  private int maxDecodeTimeMs;
+
+  synchronized void onFrameQueued(int queueDepth) {
+    this.queueDepth = queueDepth;
+    maxQueueDepth = Math.max(maxQueueDepth, queueDepth);
+    queueDepthBuckets[Math.min(queueDepth, MAX_QUEUE_DEPTH)]++;
+  }
+
+  synchronized void onFrameDecoded(int decodeTimeMs, int queueDepth) {
+    this.queueDepth = queueDepth;
+    final int sample = Math.max(0, decodeTimeMs);
+    decodeTimeBuckets[Math.min(sample, MAX_DECODE_TIME_MS)]++;
+    decodeTimeSumMs += sample;
+    maxDecodeTimeMs = Math.max(maxDecodeTimeMs, sample);
+    decodedFrames++;
+  }
+
+  synchronized void onDecoderReleased() {
+    queueDepth = 0;
+  }
+
+  /** Number of frames currently inside the decoder. */
+  public synchronized int getQueueDepth() {
+    return queueDepth;
+  }
+
+  public synchronized int getMaxQueueDepth() {
+    return maxQueueDepth;
+  }
+
+  public synchronized long getDecodedFrames() {
+    return decodedFrames;
+  }
+
+  /** Average time between queueing a frame into the decoder and receiving its output. */
+  public synchronized int getAverageDecodeTimeMs() {
+    return decodedFrames == 0 ? 0 : (int) (decodeTimeSumMs / decodedFrames);
+  }
+
+  public synchronized int getMaxDecodeTimeMs() {
+    return maxDecodeTimeMs;
+  }
+
+  /** Returns the decode time below which `percentile` percent of the frames were decoded. */
+  public synchronized int getDecodeTimePercentileMs(int percentile) {
+    return percentileOf(decodeTimeBuckets, decodedFrames, percentile);
+  }
+
+  /** Returns the queue depth not exceeded by `percentile` percent of the queued frames. */
+  public synchronized int getQueueDepthPercentile(int percentile) {
+    long total = 0;
+    for (int count : queueDepthBuckets) {
+      total += count;
+    }
+    return percentileOf(queueDepthBuckets, total, percentile);
+  }
+
+  /** Snapshot of the decode time histogram in the same shape as native metrics. */
+  public synchronized Metrics.HistogramInfo getDecodeTimeHistogram() {
+    return toHistogramInfo(decodeTimeBuckets);
+  }
+
+  /** Snapshot of the queue depth histogram in the same shape as native metrics. */
+  public synchronized Metrics.HistogramInfo getQueueDepthHistogram() {
+    return toHistogramInfo(queueDepthBuckets);
+  }
+
+  private static int percentileOf(int[] buckets, long total, int percentile) {
+    if (total == 0) {
+      return 0;
+    }
+    final long threshold = (total * Math.max(0, Math.min(100, percentile)) + 99) / 100;
+    long count = 0;
+    for (int i = 0; i < buckets.length; i++) {
+      count += buckets[i];
+      if (count >= threshold && count > 0) {
+        return i;
+      }
+    }
+    return buckets.length - 1;
+  }
+
+  private static Metrics.HistogramInfo toHistogramInfo(int[] buckets) {
+    final Metrics.HistogramInfo info =
+        new Metrics.HistogramInfo(/* min= */ 0, buckets.length - 1, buckets.length);
+    for (int i = 0; i < buckets.length; i++) {
+      if (buckets[i] > 0) {
+        info.addSample(i, buckets[i]);
+      }
+    }
+    return info;
+  }
+}
@@ -0,0 +1,84 @@
+/*
+ *  Copyright 2026 The wxrtc project authors. All Rights Reserved.
+ */
+
+package org.webrtc;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Counters of the hardware encoders created by one factory. Updated from the encode and output
+ * threads and safe to read from any thread.
+ */
+public class VideoEncoderStats {
+  // Weight of a new sample in the smoothed encode latency.
+  private static final double LATENCY_SMOOTHING_FACTOR = 0.1;
+
+  private int queueDepth;
+  private int maxQueueDepth;
+  private long encodedFrames;
+  private long droppedFrames;
+  private long keyFrameRequests;
+  private double smoothedEncodeLatencyMs;
+  private long maxEncodeLatencyMs;
+
+  synchronized void onFrameQueued(int queueDepth) {
+    this.queueDepth = queueDepth;
+    maxQueueDepth = Math.max(maxQueueDepth, queueDepth);
+  }
+
+  synchronized void onFrameEncoded(long encodeLatencyNs, int queueDepth) {
+    this.queueDepth = queueDepth;
+    final long latencyMs = TimeUnit.NANOSECONDS.toMillis(encodeLatencyNs);
+    if (encodedFrames == 0) {
+      smoothedEncodeLatencyMs = latencyMs;
+    } else {
+      smoothedEncodeLatencyMs += LATENCY_SMOOTHING_FACTOR * (latencyMs - smoothedEncodeLatencyMs);
+    }
+    maxEncodeLatencyMs = Math.max(maxEncodeLatencyMs, latencyMs);
+    encodedFrames++;
+  }
+
+  synchronized void onFrameDropped() {
+    droppedFrames++;
+  }
+
+  synchronized void onKeyFrameRequested() {
+    keyFrameRequests++;
+  }
+
+  synchronized void onEncoderReleased() {
+    queueDepth = 0;
+  }
+
+  /** Number of frames currently inside the encoder. */
+  public synchronized int getQueueDepth() {
+    return queueDepth;
+  }
+
+  public synchronized int getMaxQueueDepth() {
+    return maxQueueDepth;
+  }
+
+  public synchronized long getEncodedFrames() {
+    return encodedFrames;
+  }
+
+  /** Frames dropped because the encoder queue was full or no input buffer was available. */
+  public synchronized long getDroppedFrames() {
+    return droppedFrames;
+  }
+
+  public synchronized long getKeyFrameRequests() {
+    return keyFrameRequests;
+  }
+
+  /** Smoothed time between queueing a frame into the encoder and receiving its output. */
+  public synchronized int getEncodeLatencyMs() {
+    return (int) Math.round(smoothedEncodeLatencyMs);
+  }
+
+  public synchronized long getMaxEncodeLatencyMs() {
+    return maxEncodeLatencyMs;
+  }
+}
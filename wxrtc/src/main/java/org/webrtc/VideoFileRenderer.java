@@ -12,34 +12,67 @@ package org.webrtc;
 
 import android.os.Handler;
 import android.os.HandlerThread;
+import androidx.annotation.GuardedBy;
+import androidx.annotation.Nullable;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.Charset;
+import java.util.ArrayDeque;
 import java.util.concurrent.CountDownLatch;
 
 /**
- * Can be used to save the video frames to file.
+ * Can be used to save the video frames to file. onFrame() never blocks: frames wait in a bounded
+ * queue and the oldest frame is dropped when the queue is full. Frames are converted on a render
+ * thread into a small set of reused output buffers and written on a file thread, so a slow disk
+ * only causes dropped frames, never stalls or corrupts the stream.
  */
 public class VideoFileRenderer implements VideoSink {
   private static final String TAG = "VideoFileRenderer";
+  private static final int DEFAULT_MAX_QUEUED_FRAMES = 3;
+  // Output buffers shared by the render and file threads. One is written while the others are
+  // filled or wait for the disk.
+  private static final int OUTPUT_BUFFER_COUNT = 3;
+  private static final byte[] FRAME_HEADER = "FRAME\n".getBytes(Charset.forName("US-ASCII"));
 
   private final HandlerThread renderThread;
   private final Handler renderThreadHandler;
   private final HandlerThread fileThread;
   private final Handler fileThreadHandler;
   private final FileOutputStream videoOutFile;
+  private final FileChannel videoOutChannel;
   private final String outputFileName;
   private final int outputFileWidth;
   private final int outputFileHeight;
   private final int outputFrameSize;
-  private final ByteBuffer outputFrameBuffer;
+  private final int maxQueuedFrames;
   private EglBase eglBase;
   private YuvConverter yuvConverter;
-  private int frameCount;
+
+  private final Object lock = new Object();
+  // Frames waiting for the render thread.
+  @GuardedBy("lock") private final ArrayDeque<VideoFrame> pendingFrames = new ArrayDeque<>();
+  // Output buffers, each holding a frame header followed by the frame.
+  @GuardedBy("lock") private final ArrayDeque<ByteBuffer> freeBuffers = new ArrayDeque<>();
+  @GuardedBy("lock") private final ArrayDeque<ByteBuffer> pendingWrites = new ArrayDeque<>();
+  @GuardedBy("lock") private boolean renderScheduled;
+  @GuardedBy("lock") private boolean writeScheduled;
+  @GuardedBy("lock") private boolean released;
+  @GuardedBy("lock") private long droppedFrames;
+  @GuardedBy("lock") private long writtenFrames;
 
   public VideoFileRenderer(String outputFile, int outputFileWidth, int outputFileHeight,
       final EglBase.Context sharedContext) throws IOException {
+    this(outputFile, outputFileWidth, outputFileHeight, sharedContext, DEFAULT_MAX_QUEUED_FRAMES);
+  }
+
+  /**
+   * @param maxQueuedFrames Number of frames that may wait for conversion before the oldest one is
+   *                        dropped.
+   */
+  public VideoFileRenderer(String outputFile, int outputFileWidth, int outputFileHeight,
+      final EglBase.Context sharedContext, int maxQueuedFrames) throws IOException {
     if ((outputFileWidth % 2) == 1 || (outputFileHeight % 2) == 1) {
       throw new IllegalArgumentException("Does not support uneven width or height");
     }
@@ -47,14 +80,23 @@ public class VideoFileRenderer implements VideoSink {
     this.outputFileName = outputFile;
     this.outputFileWidth = outputFileWidth;
     this.outputFileHeight = outputFileHeight;
+    this.maxQueuedFrames = Math.max(1, maxQueuedFrames);
 
     outputFrameSize = outputFileWidth * outputFileHeight * 3 / 2;
-    outputFrameBuffer = ByteBuffer.allocateDirect(outputFrameSize);
+    for (int i = 0; i < OUTPUT_BUFFER_COUNT; i++) {
+      final ByteBuffer buffer = ByteBuffer.allocateDirect(FRAME_HEADER.length + outputFrameSize);
+      buffer.put(FRAME_HEADER);
+      freeBuffers.add(buffer);
+    }
 
     videoOutFile = new FileOutputStream(outputFile);
-    videoOutFile.write(
+    videoOutChannel = videoOutFile.getChannel();
+    final ByteBuffer fileHeader = ByteBuffer.wrap(
         ("YUV4MPEG2 C420 W" + outputFileWidth + " H" + outputFileHeight + " Ip F30:1 A1:1\n")
             .getBytes(Charset.forName("US-ASCII")));
+    while (fileHeader.hasRemaining()) {
+      videoOutChannel.write(fileHeader);
+    }
 
     renderThread = new HandlerThread(TAG + "RenderThread");
     renderThread.start();
@@ -77,8 +119,52 @@ public class VideoFileRenderer implements VideoSink {
 
   @Override
   public void onFrame(VideoFrame frame) {
-    frame.retain();
-    renderThreadHandler.post(() -> renderFrameOnRenderThread(frame));
+    @Nullable VideoFrame droppedFrame = null;
+    synchronized (lock) {
+      if (released) {
+        return;
+      }
+      if (pendingFrames.size() >= maxQueuedFrames) {
+        droppedFrame = pendingFrames.poll();
+        droppedFrames++;
+      }
+      frame.retain();
+      pendingFrames.add(frame);
+      if (!renderScheduled) {
+        renderScheduled = true;
+        renderThreadHandler.post(this::renderFramesOnRenderThread);
+      }
+    }
+    if (droppedFrame != null) {
+      droppedFrame.release();
+    }
+  }
+
+  /** Number of frames dropped because conversion or the disk could not keep up. */
+  public long getDroppedFrameCount() {
+    synchronized (lock) {
+      return droppedFrames;
+    }
+  }
+
+  public long getWrittenFrameCount() {
+    synchronized (lock) {
+      return writtenFrames;
+    }
+  }
+
+  private void renderFramesOnRenderThread() {
+    while (true) {
+      final VideoFrame frame;
+      synchronized (lock) {
+        frame = pendingFrames.poll();
+        if (frame == null) {
+          renderScheduled = false;
+          return;
+        }
+      }
+      renderFrameOnRenderThread(frame);
+    }
   }
 
   private void renderFrameOnRenderThread(VideoFrame frame) {
@@ -106,32 +192,90 @@ public class VideoFileRenderer implements VideoSink {
 
     final VideoFrame.Buffer scaledBuffer =
         buffer.cropAndScale(cropX, cropY, cropWidth, cropHeight, targetWidth, targetHeight);
+    final int rotation = frame.getRotation();
     frame.release();
 
     final VideoFrame.I420Buffer i420 = scaledBuffer.toI420();
     scaledBuffer.release();
+    if (i420 == null) {
+      Logging.w(TAG, "Dropping frame, conversion to I420 failed");
+      synchronized (lock) {
+        droppedFrames++;
+      }
+      return;
+    }
 
-    fileThreadHandler.post(() -> {
-      YuvHelper.I420Rotate(i420.getDataY(), i420.getStrideY(), i420.getDataU(), i420.getStrideU(),
-          i420.getDataV(), i420.getStrideV(), outputFrameBuffer, i420.getWidth(), i420.getHeight(),
-          frame.getRotation());
+    final ByteBuffer outputBuffer = acquireOutputBuffer();
+    if (outputBuffer == null) {
       i420.release();
+      return;
+    }
+    outputBuffer.clear();
+    outputBuffer.position(FRAME_HEADER.length);
+    YuvHelper.I420Rotate(i420.getDataY(), i420.getStrideY(), i420.getDataU(), i420.getStrideU(),
+        i420.getDataV(), i420.getStrideV(), outputBuffer.slice(), i420.getWidth(),
+        i420.getHeight(), rotation);
+    i420.release();
+    outputBuffer.position(0);
 
-      try {
-        videoOutFile.write("FRAME\n".getBytes(Charset.forName("US-ASCII")));
-        videoOutFile.write(
-            outputFrameBuffer.array(), outputFrameBuffer.arrayOffset(), outputFrameSize);
-      } catch (IOException e) {
-        throw new RuntimeException("Error writing video to disk", e);
+    synchronized (lock) {
+      pendingWrites.add(outputBuffer);
+      if (!writeScheduled) {
+        writeScheduled = true;
+        fileThreadHandler.post(this::writeFramesOnFileThread);
       }
-      frameCount++;
-    });
+    }
+  }
+
+  // Returns a free output buffer. If all buffers are in use the oldest frame waiting for the disk
+  // is dropped and its buffer is reused, so the render thread never waits for the file thread.
+  // Returns null, dropping the current frame, while the file thread is writing all buffers.
+  @Nullable
+  private ByteBuffer acquireOutputBuffer() {
+    synchronized (lock) {
+      final ByteBuffer buffer = freeBuffers.poll();
+      if (buffer != null) {
+        return buffer;
+      }
+      droppedFrames++;
+      return pendingWrites.poll();
+    }
+  }
+
+  private void writeFramesOnFileThread() {
+    final ByteBuffer[] buffers;
+    synchronized (lock) {
+      writeScheduled = false;
+      if (pendingWrites.isEmpty()) {
+        return;
+      }
+      buffers = pendingWrites.toArray(new ByteBuffer[0]);
+      pendingWrites.clear();
+    }
+    try {
+      // One gathering write for everything that is queued.
+      long remaining = (long) buffers.length * (FRAME_HEADER.length + outputFrameSize);
+      while (remaining > 0) {
+        remaining -= videoOutChannel.write(buffers);
+      }
+    } catch (IOException e) {
+      Logging.e(TAG, "Error writing video to disk", e);
+    }
+    synchronized (lock) {
+      writtenFrames += buffers.length;
+      for (ByteBuffer buffer : buffers) {
+        freeBuffers.add(buffer);
+      }
+    }
   }
 
   /**
-   * Release all resources. All already posted frames will be rendered first.
+   * Release all resources. Frames that are already queued will be written first.
    */
   public void release() {
+    synchronized (lock) {
+      released = true;
+    }
     final CountDownLatch cleanupBarrier = new CountDownLatch(1);
     renderThreadHandler.post(() -> {
       yuvConverter.release();
@@ -141,14 +285,18 @@ public class VideoFileRenderer implements VideoSink {
     });
     ThreadUtils.awaitUninterruptibly(cleanupBarrier);
     fileThreadHandler.post(() -> {
+      writeFramesOnFileThread();
       try {
         videoOutFile.close();
-        Logging.d(TAG,
-            "Video written to disk as " + outputFileName + ". The number of frames is " + frameCount
-                + " and the dimensions of the frames are " + outputFileWidth + "x"
-                + outputFileHeight + ".");
+        synchronized (lock) {
+          Logging.d(TAG,
+              "Video written to disk as " + outputFileName + ". The number of frames is "
+                  + writtenFrames + ", " + droppedFrames + " were dropped,"
+                  + " and the dimensions of the frames are " + outputFileWidth + "x"
+                  + outputFileHeight + ".");
+        }
       } catch (IOException e) {
-        throw new RuntimeException("Error closing output file", e);
+        Logging.e(TAG, "Error closing output file", e);
       }
       fileThread.quit();
     });
@@ -172,7 +172,7 @@ public final class YuvConverter {
     final int uvHeight = (frameHeight + 1) / 2;
     // Total height of the combined memory layout.
     final int totalHeight = frameHeight + uvHeight;
-    final ByteBuffer i420ByteBuffer = JniCommon.nativeAllocateByteBuffer(stride * totalHeight);
+    final ByteBuffer i420ByteBuffer = I420BufferPool.getDefault().acquire(stride * totalHeight);
     // Viewport width is divided by four since we are squeezing in four color bytes in each RGBA
     // pixel.
     final int viewportWidth = stride / 4;
@@ -238,7 +238,7 @@ public final class YuvConverter {
     preparedBuffer.release();
 
     return JavaI420Buffer.wrap(frameWidth, frameHeight, dataY, stride, dataU, stride, dataV, stride,
-        () -> { JniCommon.nativeFreeByteBuffer(i420ByteBuffer); });
+        () -> { I420BufferPool.getDefault().recycle(i420ByteBuffer); });
   }
 
   public void release() {
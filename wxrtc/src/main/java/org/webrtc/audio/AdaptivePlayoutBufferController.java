@@ -0,0 +1,169 @@
+/*
+ *  Copyright 2026 The wxrtc project authors. All Rights Reserved.
+ */
+
+package org.webrtc.audio;
+
+// Decides the playout buffer size from the cumulative underrun count reported once per 10 ms
+// write. The controller has no dependency on AudioTrack so it can be driven by recorded or
+// simulated underrun traces.
+//
+// It starts by probing downwards every 100 ms until the first underrun. After that the buffer
+// grows by one step per underrun (at most twice per one second window, or an extra step when
+// the window sees a burst of underruns) and shrinks again by one step once the stream has been
+// stable for a number of whole windows. Every underrun that follows shortly after a shrink
+// doubles the number of stable windows required before the next shrink, and every shrink that
+// survives a full stable period halves it again, so a single glitch does not pin the latency for
+// the rest of the call while a marginal device does not oscillate.
+class AdaptivePlayoutBufferController {
+  // Number of 10 ms ticks in one underrun-rate window.
+  static final int TICKS_PER_WINDOW = 100;
+  // Number of ticks between two buffer decreases while probing for the lowest buffer size.
+  private static final int PROBE_TICKS = 10;
+  // Bounds for the number of underrun free windows required before shrinking.
+  private static final int MIN_STABLE_WINDOWS = 5;
+  private static final int MAX_STABLE_WINDOWS = 60;
+  // Maximum number of single step increases within one window.
+  private static final int MAX_INCREASES_PER_WINDOW = 2;
+  // Underruns within one window that are treated as a burst and cause an extra increase.
+  private static final int BURST_UNDERRUNS_PER_WINDOW = 3;
+
+  private final int stepInFrames;
+  private final int minBufferSizeInFrames;
+  private final int maxBufferSizeInFrames;
+
+  // The underrun count that was valid during the previous call to onTick(). Used to detect
+  // increases in the value.
+  private int prevUnderrunCount = -1;
+  // True until the first underrun has been seen.
+  private boolean probing = true;
+  private int ticksUntilNextProbe = PROBE_TICKS;
+  // State of the current underrun-rate window.
+  private int windowTicks;
+  private int windowUnderruns;
+  private int windowIncreases;
+  // Hysteresis state.
+  private int stableWindows;
+  private int requiredStableWindows = MIN_STABLE_WINDOWS;
+  private int windowsSinceDecrease = -1;
+
+  // Counters.
+  private int totalUnderruns;
+  private int increaseCount;
+  private int decreaseCount;
+
+  /**
+   * @param stepInFrames size of one buffer change, typically 10 ms worth of frames.
+   * @param maxBufferSizeInFrames upper bound for the buffer size, typically the buffer capacity.
+   */
+  AdaptivePlayoutBufferController(int stepInFrames, int maxBufferSizeInFrames) {
+    this.stepInFrames = Math.max(1, stepInFrames);
+    this.minBufferSizeInFrames = this.stepInFrames;
+    this.maxBufferSizeInFrames = Math.max(this.minBufferSizeInFrames, maxBufferSizeInFrames);
+  }
+
+  /**
+   * Called once per 10 ms write with the cumulative underrun count and the current buffer size.
+   * Returns the buffer size that should be used from now on.
+   */
+  int onTick(int underrunCount, int currentBufferSizeInFrames) {
+    if (prevUnderrunCount < 0) {
+      prevUnderrunCount = underrunCount;
+    }
+    final int newUnderruns = Math.max(0, underrunCount - prevUnderrunCount);
+    prevUnderrunCount = underrunCount;
+
+    int newBufferSize = currentBufferSizeInFrames;
+    if (newUnderruns > 0) {
+      newBufferSize = onUnderruns(newUnderruns, currentBufferSizeInFrames);
+    } else if (probing) {
+      ticksUntilNextProbe--;
+      if (ticksUntilNextProbe <= 0) {
+        newBufferSize = decrease(currentBufferSizeInFrames);
+        ticksUntilNextProbe = PROBE_TICKS;
+      }
+    }
+
+    windowTicks++;
+    if (windowTicks >= TICKS_PER_WINDOW) {
+      newBufferSize = onWindowEnd(newBufferSize);
+    }
+    return newBufferSize;
+  }
+
+  private int onUnderruns(int newUnderruns, int currentBufferSizeInFrames) {
+    totalUnderruns += newUnderruns;
+    windowUnderruns += newUnderruns;
+    probing = false;
+    stableWindows = 0;
+    // The last decrease was too aggressive, back off before trying again.
+    if (windowsSinceDecrease >= 0 && windowsSinceDecrease < requiredStableWindows) {
+      requiredStableWindows = Math.min(MAX_STABLE_WINDOWS, requiredStableWindows * 2);
+    }
+    windowsSinceDecrease = -1;
+
+    int steps = 0;
+    if (windowIncreases < MAX_INCREASES_PER_WINDOW) {
+      steps++;
+    }
+    if (windowUnderruns >= BURST_UNDERRUNS_PER_WINDOW
+        && windowUnderruns - newUnderruns < BURST_UNDERRUNS_PER_WINDOW) {
+      steps++;
+    }
+    if (steps == 0) {
+      return currentBufferSizeInFrames;
+    }
+    windowIncreases++;
+    final int newBufferSize =
+        Math.min(maxBufferSizeInFrames, currentBufferSizeInFrames + steps * stepInFrames);
+    if (newBufferSize != currentBufferSizeInFrames) {
+      increaseCount++;
+    }
+    return newBufferSize;
+  }
+
+  private int onWindowEnd(int currentBufferSizeInFrames) {
+    int newBufferSize = currentBufferSizeInFrames;
+    if (windowsSinceDecrease >= 0) {
+      windowsSinceDecrease++;
+    }
+    if (windowUnderruns == 0 && !probing) {
+      stableWindows++;
+      if (stableWindows >= requiredStableWindows) {
+        // The previous decrease survived a full stable period, relax the hysteresis.
+        if (windowsSinceDecrease >= requiredStableWindows) {
+          requiredStableWindows = Math.max(MIN_STABLE_WINDOWS, requiredStableWindows / 2);
+        }
+        newBufferSize = decrease(currentBufferSizeInFrames);
+        stableWindows = 0;
+        windowsSinceDecrease = 0;
+      }
+    }
+    windowTicks = 0;
+    windowUnderruns = 0;
+    windowIncreases = 0;
+    return newBufferSize;
+  }
+
+  private int decrease(int currentBufferSizeInFrames) {
+    // Never go below a buffer size of one step.
+    final int newBufferSize =
+        Math.max(minBufferSizeInFrames, currentBufferSizeInFrames - stepInFrames);
+    if (newBufferSize != currentBufferSizeInFrames) {
+      decreaseCount++;
+    }
+    return newBufferSize;
+  }
+
+  int getTotalUnderruns() {
+    return totalUnderruns;
+  }
+
+  int getIncreaseCount() {
+    return increaseCount;
+  }
+
+  int getDecreaseCount() {
+    return decreaseCount;
+  }
+}
@@ -345,6 +345,29 @@ public class JavaAudioDeviceModule implements AudioDeviceModule {
     void onWebRtcAudioTrackStop();
   }
 
+  /** Snapshot of the playout buffer state, see {@link #getPlayoutStats()}. */
+  public static class PlayoutStats {
+    /** Estimated time between writing a sample and playing it out, or -1 if not playing. */
+    public final int latencyMs;
+    /** Current AudioTrack buffer size, or -1 if unknown. */
+    public final int bufferSizeMs;
+    /** Underruns since playout started, or -1 if not supported on this API level. */
+    public final int underrunCount;
+    /** How often the low-latency buffer manager increased the buffer size. */
+    public final int bufferIncreaseCount;
+    /** How often the low-latency buffer manager decreased the buffer size. */
+    public final int bufferDecreaseCount;
+
+    public PlayoutStats(int latencyMs, int bufferSizeMs, int underrunCount,
+        int bufferIncreaseCount, int bufferDecreaseCount) {
+      this.latencyMs = latencyMs;
+      this.bufferSizeMs = bufferSizeMs;
+      this.underrunCount = underrunCount;
+      this.bufferIncreaseCount = bufferIncreaseCount;
+      this.bufferDecreaseCount = bufferDecreaseCount;
+    }
+  }
+
   /**
    * Returns true if the device supports built-in HW AEC, and the UUID is approved (some UUIDs can
    * be excluded).
@@ -407,6 +430,11 @@ public class JavaAudioDeviceModule implements AudioDeviceModule {
     }
   }
 
+  /** Returns a snapshot of the playout latency and underrun counters. */
+  public PlayoutStats getPlayoutStats() {
+    return audioOutput.getPlayoutStats();
+  }
+
   public void resumeRecord(){
     this.audioInput.resume();
   }
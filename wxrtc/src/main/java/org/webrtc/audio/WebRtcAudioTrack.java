@@ -24,6 +24,7 @@ import org.webrtc.CalledByNative;
 import org.webrtc.Logging;
 import org.webrtc.ThreadUtils;
 import org.webrtc.audio.JavaAudioDeviceModule.AudioTrackErrorCallback;
+import org.webrtc.audio.JavaAudioDeviceModule.PlayoutStats;
 import org.webrtc.audio.JavaAudioDeviceModule.AudioTrackStartErrorCode;
 import org.webrtc.audio.JavaAudioDeviceModule.AudioTrackStateCallback;
 import org.webrtc.audio.LowLatencyAudioBufferManager;
@@ -73,6 +74,11 @@ class WebRtcAudioTrack {
   private byte[] emptyBytes;
   private boolean useLowLatency;
   private int initialBufferSizeInFrames;
+  private int bytesPerFrame;
+  private int playoutSampleRate;
+  // Number of frames handed to AudioTrack.write() since playout started. Together with the
+  // playback head position this gives an estimate of the playout latency.
+  private volatile long framesWritten;
 
   private final @Nullable AudioTrackErrorCallback errorCallback;
   private final @Nullable AudioTrackStateCallback stateCallback;
@@ -85,7 +91,7 @@ class WebRtcAudioTrack {
    */
   private class AudioTrackThread extends Thread {
     private volatile boolean keepAlive = true;
-    private LowLatencyAudioBufferManager bufferManager;
+    private final LowLatencyAudioBufferManager bufferManager;
 
     public AudioTrackThread(String name) {
       super(name);
@@ -120,6 +126,9 @@ class WebRtcAudioTrack {
           byteBuffer.position(0);
         }
         int bytesWritten = audioTrack.write(byteBuffer, sizeInBytes, AudioTrack.WRITE_BLOCKING);
+        if (bytesWritten > 0) {
+          framesWritten += bytesWritten / bytesPerFrame;
+        }
         if (bytesWritten != sizeInBytes) {
           Logging.e(TAG, "AudioTrack.write played invalid number of bytes: " + bytesWritten);
           // If a write() returns a negative value, an error has occurred.
@@ -136,10 +145,6 @@ class WebRtcAudioTrack {
         // increased at each call to AudioTrack.write(). If we don't do this,
         // next call to AudioTrack.write() will fail.
         byteBuffer.rewind();
-
-        // TODO(henrika): it is possible to create a delay estimate here by
-        // counting number of written frames and subtracting the result from
-        // audioTrack.getPlaybackHeadPosition().
       }
     }
 
@@ -183,7 +188,8 @@ class WebRtcAudioTrack {
     Logging.d(TAG,
         "initPlayout(sampleRate=" + sampleRate + ", channels=" + channels
             + ", bufferSizeFactor=" + bufferSizeFactor + ")");
-    final int bytesPerFrame = channels * (BITS_PER_SAMPLE / 8);
+    bytesPerFrame = channels * (BITS_PER_SAMPLE / 8);
+    playoutSampleRate = sampleRate;
     byteBuffer = ByteBuffer.allocateDirect(bytesPerFrame * (sampleRate / BUFFERS_PER_SECOND));
     Logging.d(TAG, "byteBuffer.capacity: " + byteBuffer.capacity());
     emptyBytes = new byte[byteBuffer.capacity()];
@@ -290,6 +296,8 @@ class WebRtcAudioTrack {
       return false;
     }
 
+    framesWritten = 0;
+
     // Create and start new high-priority thread which calls AudioTrack.write()
     // and where we also call the native nativeGetPlayoutData() callback to
     // request decoded audio from WebRTC.
@@ -373,6 +381,30 @@ class WebRtcAudioTrack {
     }
   }
 
+  // Returns a snapshot of the playout buffer state. Can be called from any thread.
+  PlayoutStats getPlayoutStats() {
+    final AudioTrack track = audioTrack;
+    final AudioTrackThread thread = audioThread;
+    if (track == null || playoutSampleRate <= 0) {
+      return new PlayoutStats(-1, -1, -1, 0, 0);
+    }
+    int bufferSizeMs = -1;
+    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+      bufferSizeMs = (int) (track.getBufferSizeInFrames() * 1000L / playoutSampleRate);
+    }
+    int underrunCount = -1;
+    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
+      underrunCount = track.getUnderrunCount();
+    }
+    // The playback head position is an unsigned 32-bit frame counter.
+    final long playedFrames = track.getPlaybackHeadPosition() & 0xFFFFFFFFL;
+    final long pendingFrames = Math.max(0, framesWritten - playedFrames);
+    final int latencyMs = (int) (pendingFrames * 1000L / playoutSampleRate);
+    return new PlayoutStats(latencyMs, bufferSizeMs, underrunCount,
+        thread != null ? thread.bufferManager.getIncreaseCount() : 0,
+        thread != null ? thread.bufferManager.getDecreaseCount() : 0);
+  }
+
   private void logMainParameters() {
     Logging.d(TAG,
         "AudioTrack: "
@@ -0,0 +1,172 @@
+package com.wx.rtc.rtc
+
+import java.util.Arrays
+import java.util.regex.Pattern
+
+/**
+ * 改为 SdpSession 之前 PeerConnectionClient 中的字符串改写方法，只用于对比耗时。
+ * 除去掉日志外与原实现一致，包括插入 a=extmap-allow-mixed 时丢掉最后一行的问题
+ */
+internal object LegacySdpMunging {
+
+    fun extmapAllowMixed(sdpDescription: String): String {
+        if (sdpDescription.contains("a=extmap-allow-mixed")) {
+            return sdpDescription
+        }
+        val lines = sdpDescription.split("\r\n".toRegex()).dropLastWhile { it.isEmpty() }
+            .toTypedArray()
+        var inertIndex = -1
+        for (i in lines.indices) {
+            val line = lines[i]
+            if (line.startsWith("a=group")) {
+                inertIndex = i
+            }
+        }
+        if (inertIndex < 0) {
+            return sdpDescription
+        }
+        val newLinesList: MutableList<String?> = ArrayList()
+        newLinesList.addAll(Arrays.asList(*lines).subList(0, inertIndex))
+        newLinesList.add("a=extmap-allow-mixed")
+        newLinesList.addAll(Arrays.asList(*lines).subList(inertIndex, lines.size - 1))
+        return joinString(newLinesList, "\r\n", true)
+    }
+
+    fun setStartBitrate(
+        codec: String, isVideoCodec: Boolean, sdpDescription: String, bitrateKbps: Int
+    ): String {
+        val lines =
+            sdpDescription.split("\r\n".toRegex()).dropLastWhile { it.isEmpty() }.toTypedArray()
+        var rtpmapLineIndex = -1
+        var sdpFormatUpdated = false
+        var codecRtpMap: String? = null
+        // Search for codec rtpmap in format
+        // a=rtpmap:<payload type> <encoding name>/<clock rate> [/<encoding parameters>]
+        var regex = "^a=rtpmap:(\\d+) $codec(/\\d+)+[\r]?$"
+        var codecPattern = Pattern.compile(regex)
+        for (i in lines.indices) {
+            val codecMatcher = codecPattern.matcher(lines[i])
+            if (codecMatcher.matches()) {
+                codecRtpMap = codecMatcher.group(1)
+                rtpmapLineIndex = i
+                break
+            }
+        }
+        if (codecRtpMap == null) {
+            return sdpDescription
+        }
+        // Check if a=fmtp string already exist in remote SDP for this codec and
+        // update it with new bitrate parameter.
+        regex = "^a=fmtp:$codecRtpMap \\w+=\\d+.*[\r]?$"
+        codecPattern = Pattern.compile(regex)
+        for (i in lines.indices) {
+            val codecMatcher = codecPattern.matcher(lines[i])
+            if (codecMatcher.matches()) {
+                if (isVideoCodec) {
+                    lines[i] += "; $VIDEO_CODEC_PARAM_START_BITRATE=$bitrateKbps"
+                } else {
+                    lines[i] += "; " + AUDIO_CODEC_PARAM_BITRATE + "=" + (bitrateKbps * 1000)
+                }
+                sdpFormatUpdated = true
+                break
+            }
+        }
+        val newSdpDescription = StringBuilder()
+        for (i in lines.indices) {
+            newSdpDescription.append(lines[i]).append("\r\n")
+            // Append new a=fmtp line if no such line exist for a codec.
+            if (!sdpFormatUpdated && i == rtpmapLineIndex) {
+                val bitrateSet = if (isVideoCodec) {
+                    "a=fmtp:$codecRtpMap $VIDEO_CODEC_PARAM_START_BITRATE=$bitrateKbps"
+                } else {
+                    "a=fmtp:" + codecRtpMap + " " + AUDIO_CODEC_PARAM_BITRATE + "=" + (bitrateKbps * 1000)
+                }
+                newSdpDescription.append(bitrateSet).append("\r\n")
+            }
+        }
+        return newSdpDescription.toString()
+    }
+
+    fun preferCodec(sdpDescription: String, codec: String, isAudio: Boolean): String {
+        val lines =
+            sdpDescription.split("\r\n".toRegex()).dropLastWhile { it.isEmpty() }.toTypedArray()
+        val mLineIndex = findMediaDescriptionLine(isAudio, lines)
+        if (mLineIndex == -1) {
+            return sdpDescription
+        }
+        // A list with all the payload types with name |codec|. The payload types are integers in the
+        // range 96-127, but they are stored as strings here.
+        val codecPayloadTypes: MutableList<String?> = ArrayList()
+        // a=rtpmap:<payload type> <encoding name>/<clock rate> [/<encoding parameters>]
+        val codecPattern = Pattern.compile("^a=rtpmap:(\\d+) $codec(/\\d+)+[\r]?$")
+        for (line in lines) {
+            val codecMatcher = codecPattern.matcher(line)
+            if (codecMatcher.matches()) {
+                codecPayloadTypes.add(codecMatcher.group(1))
+            }
+        }
+        if (codecPayloadTypes.isEmpty()) {
+            return sdpDescription
+        }
+        val newMLine = movePayloadTypesToFront(codecPayloadTypes, lines[mLineIndex])
+            ?: return sdpDescription
+        lines[mLineIndex] = newMLine
+        return joinString(Arrays.asList(*lines), "\r\n", true /* delimiterAtEnd */)
+    }
+
+    /**
+     * Returns the line number containing "m=audio|video", or -1 if no such line exists.
+     */
+    private fun findMediaDescriptionLine(isAudio: Boolean, sdpLines: Array<String>): Int {
+        val mediaDescription = if (isAudio) "m=audio " else "m=video "
+        for (i in sdpLines.indices) {
+            if (sdpLines[i].startsWith(mediaDescription)) {
+                return i
+            }
+        }
+        return -1
+    }
+
+    private fun joinString(
+        s: Iterable<CharSequence?>, delimiter: String, delimiterAtEnd: Boolean
+    ): String {
+        val iter = s.iterator()
+        if (!iter.hasNext()) {
+            return ""
+        }
+        val buffer = StringBuilder(iter.next()!!)
+        while (iter.hasNext()) {
+            buffer.append(delimiter).append(iter.next())
+        }
+        if (delimiterAtEnd) {
+            buffer.append(delimiter)
+        }
+        return buffer.toString()
+    }
+
+    private fun movePayloadTypesToFront(
+        preferredPayloadTypes: List<String?>, mLine: String
+    ): String? {
+        // The format of the media description line should be: m=<media> <port> <proto> <fmt> ...
+        val origLineParts =
+            Arrays.asList(*mLine.split(" ".toRegex()).dropLastWhile { it.isEmpty() }
+                .toTypedArray())
+        if (origLineParts.size <= 3) {
+            return null
+        }
+        val header: List<String?> = origLineParts.subList(0, 3)
+        val unpreferredPayloadTypes: MutableList<String?> =
+            ArrayList(origLineParts.subList(3, origLineParts.size))
+        unpreferredPayloadTypes.removeAll(preferredPayloadTypes)
+        // Reconstruct the line with |preferredPayloadTypes| moved to the beginning of the payload
+        // types.
+        val newLineParts: MutableList<String?> = ArrayList()
+        newLineParts.addAll(header)
+        newLineParts.addAll(preferredPayloadTypes)
+        newLineParts.addAll(unpreferredPayloadTypes)
+        return joinString(newLineParts, " ", false /* delimiterAtEnd */)
+    }
+
+    private const val VIDEO_CODEC_PARAM_START_BITRATE = "x-google-start-bitrate"
+    private const val AUDIO_CODEC_PARAM_BITRATE = "maxaveragebitrate"
+}
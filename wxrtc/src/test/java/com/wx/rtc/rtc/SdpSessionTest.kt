@@ -0,0 +1,163 @@
+package com.wx.rtc.rtc
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.util.logging.Logger
+
+/**
+ * sdp/ 下的 golden 文件：原始 SDP 解析后原样输出，改写后与期望的 SDP 逐字节一致
+ */
+class SdpSessionTest {
+
+    private fun readSdp(name: String): String {
+        val stream = javaClass.classLoader!!.getResourceAsStream("sdp/$name")
+            ?: throw IllegalArgumentException("Missing golden file $name")
+        return stream.use { String(it.readBytes(), Charsets.UTF_8) }
+    }
+
+    private fun localOfferTransforms() = listOf(
+        SdpTransforms.extmapAllowMixed(),
+        SdpTransforms.preferCodec(SdpMediaSection.VIDEO, "H264")
+    )
+
+    private fun remoteAnswerTransforms() = listOf(
+        SdpTransforms.preferCodec(SdpMediaSection.AUDIO, "ISAC"),
+        SdpTransforms.preferCodec(SdpMediaSection.VIDEO, "H264"),
+        SdpTransforms.codecParameter(SdpMediaSection.VIDEO, "H264", "x-google-start-bitrate", "1700"),
+        SdpTransforms.codecParameter(SdpMediaSection.AUDIO, "opus", "maxaveragebitrate", "32000")
+    )
+
+    @Test
+    fun roundTripKeepsSdpUnchanged() {
+        for (name in GOLDEN_FILES) {
+            val sdp = readSdp(name)
+            assertEquals(name, sdp, SdpSession.parse(sdp).toString())
+        }
+    }
+
+    @Test
+    fun parseAcceptsLfLineEndings() {
+        val sdp = readSdp("remote_answer.sdp")
+        assertEquals(sdp, SdpSession.parse(sdp.replace("\r\n", "\n")).toString())
+    }
+
+    @Test
+    fun localOfferMatchesGolden() {
+        val sdp = SdpSession.parse(readSdp("local_offer.sdp")).apply(localOfferTransforms()).toString()
+        assertEquals(readSdp("local_offer_h264.sdp"), sdp)
+    }
+
+    @Test
+    fun remoteAnswerMatchesGolden() {
+        val sdp = SdpSession.parse(readSdp("remote_answer.sdp")).apply(remoteAnswerTransforms()).toString()
+        assertEquals(readSdp("remote_answer_munged.sdp"), sdp)
+    }
+
+    @Test
+    fun transformsAreIdempotent() {
+        val expected = readSdp("remote_answer_munged.sdp")
+        val sdp = SdpSession.parse(expected).apply(remoteAnswerTransforms()).toString()
+        assertEquals(expected, sdp)
+    }
+
+    @Test
+    fun setFmtpParameterReplacesInPlace() {
+        val section = SdpMediaSection("m=audio 9 UDP/TLS/RTP/SAVPF 111")
+        section.lines.add("a=rtpmap:111 opus/48000/2")
+        section.lines.add("a=fmtp:111 minptime=10;useinbandfec=1")
+
+        section.setFmtpParameter("111", "minptime", "20")
+        assertEquals("a=fmtp:111 minptime=20; useinbandfec=1", section.lines[1])
+
+        section.setFmtpParameter("111", "stereo", "1")
+        assertEquals("a=fmtp:111 minptime=20; useinbandfec=1; stereo=1", section.lines[1])
+    }
+
+    @Test
+    fun setFmtpParameterAddsLineAfterRtpmap() {
+        val section = SdpMediaSection("m=video 9 UDP/TLS/RTP/SAVPF 96 97")
+        section.lines.add("a=rtpmap:96 VP8/90000")
+        section.lines.add("a=rtcp-fb:96 nack")
+        section.lines.add("a=rtpmap:97 rtx/90000")
+
+        section.setFmtpParameter("96", "x-google-start-bitrate", "1000")
+        assertEquals("a=fmtp:96 x-google-start-bitrate=1000", section.lines[1])
+    }
+
+    @Test
+    fun bandwidthAndSimulcast() {
+        val sdp = SdpSession.parse(readSdp("local_offer.sdp")).apply(
+            listOf(
+                SdpTransforms.bandwidth(SdpMediaSection.VIDEO, 1500),
+                SdpTransforms.simulcast(SdpMediaSection.VIDEO, listOf("h", "m", "l"))
+            )
+        )
+        val video = sdp.mediaSections(SdpMediaSection.VIDEO).single()
+        assertEquals("c=IN IP4 0.0.0.0", video.lines[0])
+        assertEquals("b=AS:1500", video.lines[1])
+        assertTrue(video.lines.containsAll(listOf("a=rid:h send", "a=rid:m send", "a=rid:l send")))
+        assertEquals("a=simulcast:send h;m;l", video.lines.last())
+        assertFalse(sdp.mediaSections(SdpMediaSection.AUDIO).single().lines.any { it.startsWith("b=AS:") })
+    }
+
+    @Test
+    fun simulcastSkipsRecvOnlySections() {
+        val answer = readSdp("remote_answer.sdp")
+        val sdp = SdpSession.parse(answer)
+            .apply(listOf(SdpTransforms.simulcast(SdpMediaSection.VIDEO, listOf("h", "l"))))
+        assertEquals(answer, sdp.toString())
+    }
+
+    /**
+     * 解析 + 改写 + 序列化的耗时，每次协商都会走一遍。与改为 SdpSession 之前的字符串改写方法
+     * （LegacySdpMunging）做同样的改写对比，只记录结果不设阈值
+     */
+    @Test
+    fun benchmarkParseApplySerialize() {
+        val offer = readSdp("local_offer.sdp")
+        val answer = readSdp("remote_answer.sdp")
+        val offerTransforms = localOfferTransforms()
+        val answerTransforms = remoteAnswerTransforms()
+        val session = {
+            SdpSession.parse(offer).apply(offerTransforms).toString().length +
+                SdpSession.parse(answer).apply(answerTransforms).toString().length
+        }
+        val legacy = {
+            var localOffer = LegacySdpMunging.extmapAllowMixed(offer)
+            localOffer = LegacySdpMunging.preferCodec(localOffer, "H264", false)
+            var remoteAnswer = LegacySdpMunging.preferCodec(answer, "ISAC", true)
+            remoteAnswer = LegacySdpMunging.preferCodec(remoteAnswer, "H264", false)
+            remoteAnswer = LegacySdpMunging.setStartBitrate("H264", true, remoteAnswer, 1700)
+            remoteAnswer = LegacySdpMunging.setStartBitrate("opus", false, remoteAnswer, 32)
+            localOffer.length + remoteAnswer.length
+        }
+        var length = 0
+        for (i in 0 until WARMUP_ITERATIONS) {
+            length += session()
+            length += legacy()
+        }
+        var startNs = System.nanoTime()
+        for (i in 0 until ITERATIONS) {
+            length += session()
+        }
+        val sessionNs = (System.nanoTime() - startNs) / ITERATIONS
+        startNs = System.nanoTime()
+        for (i in 0 until ITERATIONS) {
+            length += legacy()
+        }
+        val legacyNs = (System.nanoTime() - startNs) / ITERATIONS
+        LOG.info("offer + answer, ${offer.length + answer.length} chars: SdpSession $sessionNs ns/op, legacy $legacyNs ns/op")
+        assertTrue(length > 0)
+    }
+
+    companion object {
+        private val LOG = Logger.getLogger(SdpSessionTest::class.java.name)
+        private val GOLDEN_FILES = listOf(
+            "local_offer.sdp", "local_offer_h264.sdp", "remote_answer.sdp", "remote_answer_munged.sdp"
+        )
+        private const val WARMUP_ITERATIONS = 2_000
+        private const val ITERATIONS = 10_000
+    }
+}
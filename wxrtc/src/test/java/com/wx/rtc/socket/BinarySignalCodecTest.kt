@@ -0,0 +1,168 @@
+package com.wx.rtc.socket
+
+import com.wx.rtc.bean.RecvCommandMessage
+import com.wx.rtc.bean.SendCommandMessage
+import com.wx.rtc.bean.SignalCommand
+import org.json.JSONObject
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.util.logging.Logger
+
+/**
+ * 二进制信令直接编码、直接解析成 RecvCommandMessage，与 JSON 信令解析结果一致，并比较两者的大小和解析耗时
+ */
+class BinarySignalCodecTest {
+
+    private fun resultMessage(): SendCommandMessage {
+        val rightEye = SendCommandMessage().put("normal", 1).put("femtosecond", 0).put("astigmatism", 1)
+        val result = SendCommandMessage()
+            .put("rst", 7)
+            .put("need_focus", 1)
+            .put("focus_point", listOf(0.25, 0.75))
+            .put("scale", "36.5")
+            .put("high_pressure", "120")
+            .put("low_pressure", "80")
+            .put("pulse", "72")
+            .put("right_eye", rightEye)
+            .put("asr_result", "患者自述头痛三天")
+        return SendCommandMessage().put("code", 1).put("result", result)
+    }
+
+    private fun enterRoomBack(): SendCommandMessage {
+        return SendCommandMessage.signal(SignalCommand.ENTER_ROOM_BACK)
+            .put(SignalingConnection.CHANNEL_KEY, "3")
+            .put("code", 1)
+            .put("publish_url", "https://rtc.example.com/publish/room-1/user-1")
+            .put(SocketManager.DATA_CHANNEL_RELAY_KEY, true)
+    }
+
+    private fun assertSameResult(expected: RecvCommandMessage, actual: RecvCommandMessage) {
+        assertEquals(expected.code, actual.code)
+        assertEquals(expected.signal, actual.signal)
+        assertEquals(expected.channel, actual.channel)
+        assertEquals(expected.publishUrl, actual.publishUrl)
+        assertEquals(expected.dataChannelRelay, actual.dataChannelRelay)
+        val expectedResult = expected.result
+        val actualResult = actual.result
+        if (expectedResult == null) {
+            assertNull(actualResult)
+            return
+        }
+        assertEquals(expectedResult.rst, actualResult!!.rst)
+        assertEquals(expectedResult.need_focus, actualResult.need_focus)
+        assertEquals(expectedResult.focus_point, actualResult.focus_point)
+        assertEquals(expectedResult.scale, actualResult.scale)
+        assertEquals(expectedResult.high_pressure, actualResult.high_pressure)
+        assertEquals(expectedResult.asr_result, actualResult.asr_result)
+        assertEquals(expectedResult.right_eye?.normal, actualResult.right_eye?.normal)
+        assertEquals(expectedResult.right_eye?.astigmatism, actualResult.right_eye?.astigmatism)
+    }
+
+    @Test
+    fun decodeMatchesJsonParse() {
+        for (message in listOf(enterRoomBack(), resultMessage())) {
+            val fromJson = SocketManager.parseMessage(JSONObject(message.toJson()))
+            val fromBinary = BinarySignalCodec.decodeCommand(BinarySignalCodec.encode(message))
+            assertSameResult(fromJson, fromBinary)
+        }
+    }
+
+    @Test
+    fun decodeReadsFields() {
+        val message = BinarySignalCodec.decodeCommand(BinarySignalCodec.encode(enterRoomBack()))
+        assertEquals(1, message.code)
+        assertEquals(SignalCommand.ENTER_ROOM_BACK, message.signal)
+        assertEquals("3", message.channel)
+        assertEquals("https://rtc.example.com/publish/room-1/user-1", message.publishUrl)
+        assertTrue(message.dataChannelRelay)
+    }
+
+    @Test
+    fun decodeSkipsUnknownFields() {
+        val unknown = SendCommandMessage().put("x", listOf(1, "a", SendCommandMessage().put("y", 2.5)))
+        val message = SendCommandMessage.signal(SignalCommand.REMOTE_EXIT_ROOM)
+            .put("future_field", unknown)
+            .put("code", 1)
+            .put("another_unknown", "skip me")
+            .put("user_id", "user-2")
+        val decoded = BinarySignalCodec.decodeCommand(BinarySignalCodec.encode(message))
+        assertEquals(SignalCommand.REMOTE_EXIT_ROOM, decoded.signal)
+        assertEquals(1, decoded.code)
+        assertEquals("user-2", decoded.userId)
+    }
+
+    @Test
+    fun decodeIsLenientLikeJson() {
+        val message = SendCommandMessage()
+            .put("code", "1")
+            .put("user_id", 42)
+            .put("result", SendCommandMessage().put("rst", 2.0).put("scale", 36.5))
+        val decoded = BinarySignalCodec.decodeCommand(BinarySignalCodec.encode(message))
+        assertEquals(1, decoded.code)
+        assertEquals("42", decoded.userId)
+        assertEquals(2, decoded.result!!.rst)
+        assertEquals("36.5", decoded.result!!.scale)
+    }
+
+    @Test
+    fun toJsonEscapesStrings() {
+        val text = "a \"quoted\" \\ path\nline\t\u0001 中文"
+        val message = SendCommandMessage.signal(SignalCommand.SEND_ROOM_MSG)
+            .put("room_msg", SendCommandMessage().put("cmd", "note").put("message", text))
+            .put("extra_data", "{\"k\":\"v\"}")
+            .putOpt("absent", null)
+        val root = JSONObject(message.toJson())
+        assertEquals(text, root.getJSONObject("room_msg").getString("message"))
+        assertEquals("{\"k\":\"v\"}", root.getString("extra_data"))
+        assertFalse(root.has("absent"))
+    }
+
+    @Test
+    fun tagKeepsOriginalMessage() {
+        val message = SendCommandMessage.signal(SignalCommand.LOGOUT)
+        val tagged = message.withFirst(SignalingConnection.CHANNEL_KEY, "7")
+        assertEquals("{\"channel\":\"7\",\"signal\":\"logout\"}", tagged.toJson())
+        assertEquals(SignalCommand.LOGOUT, tagged.signal)
+        assertEquals(1, message.size)
+    }
+
+    /**
+     * 帧大小和解析耗时：JSON 为 UTF-8 文本 + JSONObject + 取字段，二进制为直接解析，只记录结果，大小必须更小
+     */
+    @Test
+    fun benchmarkSizeAndParse() {
+        for ((name, message) in listOf("enter_room_back" to enterRoomBack(), "result" to resultMessage())) {
+            val json = message.toJson()
+            val bytes = BinarySignalCodec.encode(message)
+            val jsonSize = json.toByteArray(Charsets.UTF_8).size
+            assertTrue("$name: ${bytes.size} >= $jsonSize", bytes.size < jsonSize)
+
+            var sink = 0
+            for (i in 0 until WARMUP_ITERATIONS) {
+                sink += SocketManager.parseMessage(JSONObject(json)).code
+                sink += BinarySignalCodec.decodeCommand(bytes).code
+            }
+            var startNs = System.nanoTime()
+            for (i in 0 until ITERATIONS) {
+                sink += SocketManager.parseMessage(JSONObject(json)).code
+            }
+            val jsonNs = (System.nanoTime() - startNs) / ITERATIONS
+            startNs = System.nanoTime()
+            for (i in 0 until ITERATIONS) {
+                sink += BinarySignalCodec.decodeCommand(bytes).code
+            }
+            val binaryNs = (System.nanoTime() - startNs) / ITERATIONS
+            LOG.info("$name: json $jsonSize B $jsonNs ns/op, ${BinarySignalCodec.NAME} ${bytes.size} B $binaryNs ns/op")
+            assertTrue(sink > 0)
+        }
+    }
+
+    companion object {
+        private val LOG = Logger.getLogger(BinarySignalCodecTest::class.java.name)
+        private const val WARMUP_ITERATIONS = 5_000
+        private const val ITERATIONS = 20_000
+    }
+}
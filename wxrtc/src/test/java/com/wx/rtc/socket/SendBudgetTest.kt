@@ -0,0 +1,110 @@
+package com.wx.rtc.socket
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+/**
+ * 共用连接的发送队列按会话平分，一个会话积压时其他会话仍能发送，队列排空后额度恢复
+ */
+class SendBudgetTest {
+
+    // 模拟 OkHttp 的发送队列，只记录字节数
+    private class FakeQueue {
+        var size = 0L
+
+        fun enqueue(bytes: Long): Boolean {
+            size += bytes
+            return true
+        }
+
+        fun drain(bytes: Long) {
+            size -= bytes
+        }
+    }
+
+    private fun SendBudget.trySend(session: String, size: Long, queue: FakeQueue, sessions: Int = 2): Boolean {
+        return trySend(session, size, queue.size, sessions) { queue.enqueue(size) }
+    }
+
+    @Test
+    fun testSessionsShareTheQueue() {
+        val budget = SendBudget(100)
+        val queue = FakeQueue()
+
+        assertTrue(budget.trySend("a", 30, queue))
+        // a 的份额是 50，已有 30 在队列中
+        assertFalse(budget.trySend("a", 30, queue))
+        // a 积压不影响 b
+        assertTrue(budget.trySend("b", 40, queue))
+        assertEquals(30L, budget.queuedBytes("a", queue.size))
+        assertEquals(40L, budget.queuedBytes("b", queue.size))
+
+        // 队列先进先出，先发出的是 a 的 30 字节
+        queue.drain(30)
+        assertEquals(0L, budget.queuedBytes("a", queue.size))
+        assertEquals(40L, budget.queuedBytes("b", queue.size))
+        assertTrue(budget.trySend("a", 30, queue))
+    }
+
+    @Test
+    fun testShareShrinksWithMoreSessions() {
+        val budget = SendBudget(90)
+        val queue = FakeQueue()
+
+        assertTrue(budget.trySend("a", 20, queue, sessions = 3))
+        assertTrue(budget.trySend("a", 10, queue, sessions = 3))
+        assertFalse(budget.trySend("a", 1, queue, sessions = 3))
+        assertTrue(budget.trySend("a", 1, queue, sessions = 2))
+    }
+
+    @Test
+    fun testLargeSignalGoesOutWhenSessionIsIdle() {
+        val budget = SendBudget(100)
+        val queue = FakeQueue()
+
+        // 超过份额的单条信令在该会话没有排队时放行
+        assertTrue(budget.trySend("a", 80, queue))
+        // 但不能把整个队列撑过上限
+        assertFalse(budget.trySend("b", 30, queue))
+        assertTrue(budget.trySend("b", 20, queue))
+        // 队列不为空时，超过上限的单条信令要等队列排空
+        queue.drain(100)
+        assertTrue(budget.trySend("b", 120, queue))
+    }
+
+    @Test
+    fun testFailedSendIsNotCounted() {
+        val budget = SendBudget(100)
+        val queue = FakeQueue()
+
+        assertFalse(budget.trySend("a", 30, queue.size, 1) { false })
+        assertEquals(0L, budget.queuedBytes("a", queue.size))
+        assertEquals(0L, queue.size)
+    }
+
+    @Test
+    fun testNewConnectionStartsEmpty() {
+        val budget = SendBudget(100)
+        val queue = FakeQueue()
+        assertTrue(budget.trySend("a", 50, queue))
+        assertFalse(budget.trySend("a", 10, queue))
+
+        // 重连后的新连接队列为空，旧连接上的信令不再占用额度
+        val newQueue = FakeQueue()
+        assertEquals(0L, budget.queuedBytes("a", newQueue.size))
+        assertTrue(budget.trySend("a", 50, newQueue))
+        assertEquals(50L, budget.queuedBytes("a", newQueue.size))
+    }
+
+    @Test
+    fun testRemovedSessionIsForgotten() {
+        val budget = SendBudget(100)
+        val queue = FakeQueue()
+        assertTrue(budget.trySend("a", 50, queue))
+
+        budget.remove("a")
+        assertEquals(0L, budget.queuedBytes("a", queue.size))
+    }
+}
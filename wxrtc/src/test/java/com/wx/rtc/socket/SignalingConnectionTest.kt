@@ -0,0 +1,154 @@
+package com.wx.rtc.socket
+
+import com.wx.rtc.bean.RecvCommandMessage
+import com.wx.rtc.bean.SignalCommand
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNotSame
+import org.junit.Assert.assertSame
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+/**
+ * 多路复用的连接只按服务端带回的 channel 分发信令，不带 channel 的丢弃；会话离开后不再收到信令
+ */
+class SignalingConnectionTest {
+
+    private class FakeSession : SignalingConnection.Session {
+        val signals = ArrayList<String?>()
+        var parseErrors = 0
+
+        override fun onSocketOpen() {}
+
+        override fun onSignal(message: RecvCommandMessage) {
+            signals.add(message.signal)
+        }
+
+        override fun onParseError() {
+            parseErrors++
+        }
+
+        override fun drainRetryQueue(max: Int) {}
+    }
+
+    private val attached = ArrayList<Pair<SignalingConnection, String>>()
+
+    @After
+    fun tearDown() {
+        for ((connection, channelId) in attached) {
+            SignalingConnection.detach(connection, channelId)
+        }
+    }
+
+    private fun attach(url: String, multiplex: Boolean, session: FakeSession): Pair<SignalingConnection, String> {
+        return SignalingConnection.attach(url, multiplex, session).also { attached.add(it) }
+    }
+
+    private fun signal(name: String, channel: String?): RecvCommandMessage {
+        return RecvCommandMessage().apply {
+            code = 1
+            signal = name
+            this.channel = channel
+        }
+    }
+
+    @Test
+    fun testSessionsShareOneConnectionPerUrl() {
+        val (first, _) = attach(URL, true, FakeSession())
+        val (second, _) = attach(URL, true, FakeSession())
+        val (other, _) = attach("$URL/other", true, FakeSession())
+        val (single, _) = attach(URL, false, FakeSession())
+
+        assertSame(first, second)
+        assertNotSame(first, other)
+        assertNotSame(first, single)
+    }
+
+    @Test
+    fun testTaggedSignalsGoToTheirSession() {
+        val a = FakeSession()
+        val b = FakeSession()
+        val (connection, channelA) = attach(URL, true, a)
+        val (_, channelB) = attach(URL, true, b)
+
+        connection.dispatch(signal(SignalCommand.LOGIN_BACK, channelB))
+        connection.dispatch(signal(SignalCommand.ENTER_ROOM_BACK, channelA))
+        connection.dispatch(signal(SignalCommand.EXIT_ROOM_BACK, channelB))
+
+        assertEquals(listOf(SignalCommand.ENTER_ROOM_BACK), a.signals)
+        assertEquals(listOf(SignalCommand.LOGIN_BACK, SignalCommand.EXIT_ROOM_BACK), b.signals)
+    }
+
+    @Test
+    fun testUntaggedSignalsAreDroppedWhenMultiplexed() {
+        val a = FakeSession()
+        val b = FakeSession()
+        val (connection, _) = attach(URL, true, a)
+        attach(URL, true, b)
+
+        // 即使是 a 刚发出请求的应答，不带 channel 也不猜测归属
+        connection.dispatch(signal(SignalCommand.LOGIN_BACK, null))
+        connection.dispatch(signal(SignalCommand.LOGIN_BACK, ""))
+        connection.dispatch(signal(SignalCommand.LOGIN_BACK, "no-such-channel"))
+
+        assertTrue(a.signals.isEmpty())
+        assertTrue(b.signals.isEmpty())
+    }
+
+    @Test
+    fun testUntaggedSignalsAreDroppedWithOneMultiplexedSession() {
+        val a = FakeSession()
+        val (connection, _) = attach(URL, true, a)
+
+        connection.dispatch(signal(SignalCommand.LOGIN_BACK, null))
+
+        assertTrue(a.signals.isEmpty())
+    }
+
+    @Test
+    fun testUnsharedConnectionDeliversEverything() {
+        val a = FakeSession()
+        val (connection, _) = attach(URL, false, a)
+
+        connection.dispatch(signal(SignalCommand.LOGIN_BACK, null))
+        connection.dispatch(signal(SignalCommand.ENTER_ROOM_BACK, "ignored"))
+
+        assertEquals(listOf(SignalCommand.LOGIN_BACK, SignalCommand.ENTER_ROOM_BACK), a.signals)
+    }
+
+    @Test
+    fun testDetachedSessionReceivesNothing() {
+        val a = FakeSession()
+        val b = FakeSession()
+        val (connection, channelA) = attach(URL, true, a)
+        val (_, channelB) = attach(URL, true, b)
+
+        SignalingConnection.detach(connection, channelA)
+        connection.dispatch(signal(SignalCommand.EXIT_ROOM_BACK, channelA))
+        connection.dispatch(signal(SignalCommand.EXIT_ROOM_BACK, channelB))
+
+        assertTrue(a.signals.isEmpty())
+        assertEquals(listOf(SignalCommand.EXIT_ROOM_BACK), b.signals)
+    }
+
+    @Test
+    fun testLastDetachReleasesSharedConnection() {
+        val (first, channelA) = attach(URL, true, FakeSession())
+        val (_, channelB) = attach(URL, true, FakeSession())
+
+        SignalingConnection.detach(first, channelA)
+        val (stillShared, _) = attach(URL, true, FakeSession())
+        assertSame(first, stillShared)
+
+        SignalingConnection.detach(first, channelB)
+        for ((connection, channelId) in attached.filter { it.first === first }) {
+            SignalingConnection.detach(connection, channelId)
+        }
+        val (next, _) = attach(URL, true, FakeSession())
+        assertNotSame(first, next)
+    }
+
+    companion object {
+        private const val URL = "ws://signaling.test/ws"
+    }
+}
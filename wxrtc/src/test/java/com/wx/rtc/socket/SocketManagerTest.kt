@@ -0,0 +1,143 @@
+package com.wx.rtc.socket
+
+import com.wx.rtc.WXRTCDef
+import com.wx.rtc.bean.RecvCommandMessage
+import com.wx.rtc.utils.ProcessResultChannels
+import com.wx.rtc.utils.RTCRuntime
+import kotlinx.coroutines.cancel
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Test
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Executor
+import java.util.concurrent.TimeUnit
+
+/**
+ * 回调积压时，只要最新结果的 rst 合并为一条最新结果，其他结果和信令照常按顺序回调
+ */
+class SocketManagerTest {
+
+    private class BlockingListener : SocketListener {
+        // 第一个结果回调时停住，让后面的信令积压
+        val entered = CountDownLatch(1)
+        val gate = CountDownLatch(1)
+        val results = ArrayList<WXRTCDef.ProcessData>()
+        @Volatile
+        var delivered = CountDownLatch(0)
+
+        override fun onResult(processData: WXRTCDef.ProcessData) {
+            if (entered.count > 0) {
+                entered.countDown()
+                gate.await(10, TimeUnit.SECONDS)
+            }
+            synchronized(results) {
+                results.add(processData)
+            }
+            delivered.countDown()
+        }
+
+        override fun onError(errCode: Int, errMsg: String) {}
+        override fun onSocketOpen() {}
+        override fun onLogin() {}
+        override fun onLogout(reason: Int) {}
+        override fun onEnterRoom(publishUrl: String, dataChannelRelay: Boolean) {}
+        override fun onExitRoom(reason: Int) {}
+        override fun onGetUnpublishUrl(unpublishUrl: String) {}
+        override fun onRemoteUserEnterRoom(pullUrl: String, userId: String) {}
+        override fun onRemoteUserLeaveRoom(userId: String, reason: Int) {}
+        override fun onUserVideoAvailable(userId: String, available: Boolean) {}
+        override fun onUserSubStreamAvailable(userId: String, available: Boolean) {}
+        override fun onUserAudioAvailable(userId: String, available: Boolean) {}
+        override fun onRecvP2PMsg(fromUserId: String, message: String?) {}
+        override fun onRecvRoomMsg(userId: String, cmd: String, message: String?) {}
+        override fun onRecvCallMsg(userId: String?, cmd: String, roomId: String?) {}
+        override fun onRecordStart(fileName: String) {}
+        override fun onRecordEnd(fileName: String) {}
+    }
+
+    private val scope = RTCRuntime.newSessionScope("socket-manager-test")
+    private val manager = SocketManager()
+    private val listener = BlockingListener()
+    private val results = ProcessResultChannels(Executor { it.run() }) { }
+
+    @Before
+    fun setUp() {
+        manager.init("ws://socket-manager.test/ws", scope, multiplex = true)
+        manager.setListener(listener)
+        manager.setProcessResults(results)
+    }
+
+    @After
+    fun tearDown() {
+        listener.gate.countDown()
+        manager.destroy()
+        results.release()
+        scope.cancel()
+    }
+
+    private fun result(rst: Int, value: String): RecvCommandMessage {
+        return RecvCommandMessage().apply {
+            code = 1
+            result = WXRTCDef.ProcessData().apply {
+                this.rst = rst
+                drop_speed = value
+                scale = value
+            }
+        }
+    }
+
+    @Test
+    fun testLatestOnlyResultsCoalesceWhenBacklogged() {
+        val drop = WXRTCDef.WXRTC_PROCESS_DATA_RST_DROP
+        val temperature = WXRTCDef.WXRTC_PROCESS_DATA_RST_DROP + 1
+        manager.onSignal(result(drop, "first"))
+        assertTrue(listener.entered.await(10, TimeUnit.SECONDS))
+
+        // 第一个回调还没返回，把积压补满
+        for (i in 1 until SocketManager.MAX_PENDING_EVENTS) {
+            manager.onSignal(result(temperature, "queued-$i"))
+        }
+        // 之后的滴速结果合并为一条，温度结果照常排队
+        for (i in 0 until COALESCED) {
+            manager.onSignal(result(drop, "drop-$i"))
+        }
+        manager.onSignal(result(temperature, "last"))
+
+        val expected = SocketManager.MAX_PENDING_EVENTS + 2
+        listener.delivered = CountDownLatch(expected)
+        listener.gate.countDown()
+        assertTrue(listener.delivered.await(10, TimeUnit.SECONDS))
+
+        val delivered = synchronized(listener.results) { ArrayList(listener.results) }
+        assertEquals(expected, delivered.size)
+        assertEquals("first", delivered[0].drop_speed)
+        for (i in 1 until SocketManager.MAX_PENDING_EVENTS) {
+            assertEquals("queued-$i", delivered[i].scale)
+        }
+        assertEquals(drop, delivered[SocketManager.MAX_PENDING_EVENTS].rst)
+        assertEquals("drop-${COALESCED - 1}", delivered[SocketManager.MAX_PENDING_EVENTS].drop_speed)
+        assertEquals("last", delivered.last().scale)
+        assertEquals((COALESCED - 1).toLong(), results.getCoalescedCount(drop))
+    }
+
+    @Test
+    fun testAllResultsDeliveredWithoutBacklog() {
+        val drop = WXRTCDef.WXRTC_PROCESS_DATA_RST_DROP
+        listener.entered.countDown()
+        listener.delivered = CountDownLatch(COALESCED)
+        for (i in 0 until COALESCED) {
+            manager.onSignal(result(drop, "drop-$i"))
+        }
+        assertTrue(listener.delivered.await(10, TimeUnit.SECONDS))
+
+        val delivered = synchronized(listener.results) { listener.results.map { it.drop_speed } }
+        assertEquals((0 until COALESCED).map { "drop-$it" }, delivered)
+        assertEquals(0L, results.getCoalescedCount(drop))
+    }
+
+    companion object {
+        private const val COALESCED = 10
+    }
+}
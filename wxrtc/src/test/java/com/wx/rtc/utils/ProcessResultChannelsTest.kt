@@ -0,0 +1,180 @@
+package com.wx.rtc.utils
+
+import com.wx.rtc.WXRTCDef
+import com.wx.rtc.WXRTCDef.ProcessData
+import com.wx.rtc.WXRTCDef.ProcessResultPolicy
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertNotNull
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertSame
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.util.concurrent.Executor
+import java.util.concurrent.LinkedBlockingQueue
+import java.util.concurrent.TimeUnit
+
+/**
+ * 限速合并、去重和策略切换都只在会话通道上投递，限速到期的结果不会和后到的结果乱序
+ */
+class ProcessResultChannelsTest {
+
+    // 代替会话的串行通道，任务由测试线程取出执行
+    private class ManualExecutor : Executor {
+        private val tasks = LinkedBlockingQueue<Runnable>()
+
+        override fun execute(command: Runnable) {
+            tasks.add(command)
+        }
+
+        fun runNext(timeoutMs: Long = 2000) {
+            val task = tasks.poll(timeoutMs, TimeUnit.MILLISECONDS)
+            assertNotNull("no task posted in $timeoutMs ms", task)
+            task!!.run()
+        }
+
+        fun awaitPosted(timeoutMs: Long = 2000) {
+            val deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs)
+            while (tasks.isEmpty()) {
+                assertTrue("no task posted in $timeoutMs ms", System.nanoTime() < deadline)
+                Thread.sleep(5)
+            }
+        }
+
+        fun assertIdle(waitMs: Long) {
+            assertNull(tasks.poll(waitMs, TimeUnit.MILLISECONDS))
+        }
+    }
+
+    private val executor = ManualExecutor()
+    private var now = 1000L
+    private val delivered = ArrayList<ProcessData>()
+    private val deliverThreads = HashSet<Thread>()
+    private val channels = ProcessResultChannels(executor, { now }) {
+        delivered.add(it)
+        deliverThreads.add(Thread.currentThread())
+    }
+
+    @After
+    fun tearDown() {
+        channels.release()
+    }
+
+    private fun drop(speed: String) = ProcessData().apply {
+        rst = WXRTCDef.WXRTC_PROCESS_DATA_RST_DROP
+        drop_speed = speed
+    }
+
+    private fun temperature(scale: String) = ProcessData().apply {
+        rst = WXRTCDef.WXRTC_PROCESS_DATA_RST_THERMOMETER
+        this.scale = scale
+    }
+
+    // onResult 和会话通道上的其他任务一样排队执行
+    private fun post(data: ProcessData) {
+        executor.execute { channels.onResult(data) }
+        executor.runNext()
+    }
+
+    @Test
+    fun testDeliverAllKeepsEveryResult() {
+        val results = (0 until 5).map { temperature("36.$it") }
+        for (result in results) {
+            post(result)
+        }
+
+        assertEquals(results, delivered)
+        assertEquals(0L, channels.getCoalescedCount(WXRTCDef.WXRTC_PROCESS_DATA_RST_THERMOMETER))
+        assertSame(results.last(), channels.getLatest(WXRTCDef.WXRTC_PROCESS_DATA_RST_THERMOMETER))
+    }
+
+    @Test
+    fun testLatestOnlyIsRateLimited() {
+        val first = drop("1")
+        val second = drop("2")
+        val third = drop("3")
+        post(first)
+        now += 50
+        post(second)
+        now += 50
+        post(third)
+
+        // 间隔内的第二条被第三条覆盖
+        assertEquals(listOf(first), delivered)
+        assertEquals(1L, channels.getCoalescedCount(WXRTCDef.WXRTC_PROCESS_DATA_RST_DROP))
+        assertSame(third, channels.getLatest(WXRTCDef.WXRTC_PROCESS_DATA_RST_DROP))
+
+        // 到期后投递任务回到会话通道上执行
+        now += 100
+        executor.runNext()
+        assertEquals(listOf(first, third), delivered)
+        assertEquals(setOf(Thread.currentThread()), deliverThreads)
+    }
+
+    @Test
+    fun testFlushStaysInOrderWithLaterResults() {
+        val first = drop("1")
+        val second = drop("2")
+        val third = drop("3")
+        post(first)
+        now += 50
+        post(second)
+
+        // 限速到期的投递任务已排进通道，之后到达的结果排在它后面
+        now += 300
+        executor.awaitPosted()
+        executor.execute { channels.onResult(third) }
+        executor.runNext()
+        assertEquals(listOf(first, second), delivered)
+        // 刚投递过，第三条要等下一个间隔
+        executor.runNext()
+        assertEquals(listOf(first, second), delivered)
+
+        now += 200
+        executor.runNext()
+        assertEquals(listOf(first, second, third), delivered)
+        assertEquals(setOf(Thread.currentThread()), deliverThreads)
+    }
+
+    @Test
+    fun testDuplicatesAreDropped() {
+        post(drop("1"))
+        now += 500
+        post(drop("1"))
+        now += 500
+        post(drop("2"))
+
+        assertEquals(listOf("1", "2"), delivered.map { it.drop_speed })
+        assertEquals(1L, channels.getCoalescedCount(WXRTCDef.WXRTC_PROCESS_DATA_RST_DROP))
+    }
+
+    @Test
+    fun testSwitchingToDeliverAllFlushesPending() {
+        val first = drop("1")
+        val second = drop("2")
+        post(first)
+        now += 50
+        post(second)
+
+        channels.setPolicy(WXRTCDef.WXRTC_PROCESS_DATA_RST_DROP, ProcessResultPolicy())
+        assertEquals(listOf(first), delivered)
+        executor.runNext()
+        assertEquals(listOf(first, second), delivered)
+
+        // 限速计时已取消，不会再投递一次
+        executor.assertIdle(400)
+        assertFalse(channels.isLatestOnly(WXRTCDef.WXRTC_PROCESS_DATA_RST_DROP))
+    }
+
+    @Test
+    fun testReleaseDropsPending() {
+        post(drop("1"))
+        now += 50
+        post(drop("2"))
+
+        channels.release()
+        executor.assertIdle(400)
+        assertEquals(listOf("1"), delivered.map { it.drop_speed })
+    }
+}
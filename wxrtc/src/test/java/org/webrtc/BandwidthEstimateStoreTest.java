@@ -0,0 +1,124 @@
+/*
+ *  Copyright 2026 The wxrtc project authors. All Rights Reserved.
+ */
+
+package org.webrtc;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Test;
+
+// Without initialize() the store keeps estimates in memory only, which is all these tests need.
+public class BandwidthEstimateStoreTest {
+  private static final String NETWORK = "CONNECTION_WIFI|\"test\"";
+  private static final long START_MS = 1_000_000L;
+  private static final long SAMPLE_INTERVAL_MS = 1000;
+
+  @After
+  public void tearDown() {
+    BandwidthEstimateStore.clear();
+  }
+
+  // Feeds `samples` samples one stats interval apart, starting one interval after `fromMs`.
+  private static long feed(
+      BandwidthEstimateStore.Tracker tracker, long fromMs, int samples, int kbps) {
+    long nowMs = fromMs;
+    for (int i = 0; i < samples; i++) {
+      nowMs += SAMPLE_INTERVAL_MS;
+      tracker.onAvailableSendBitrate(kbps, nowMs);
+    }
+    return nowMs;
+  }
+
+  @Test
+  public void testStableEstimateIsRecorded() {
+    final BandwidthEstimateStore.Tracker tracker =
+        new BandwidthEstimateStore.Tracker(NETWORK, 300, START_MS);
+
+    // The first sample has nothing to compare to; five more within tolerance make it stable.
+    long nowMs = feed(tracker, START_MS, 5, 1000);
+    assertEquals(0, BandwidthEstimateStore.getBitrateKbps(NETWORK, nowMs));
+    nowMs += SAMPLE_INTERVAL_MS;
+    tracker.onAvailableSendBitrate(1100, nowMs);
+    assertEquals(1100, BandwidthEstimateStore.getBitrateKbps(NETWORK, nowMs));
+  }
+
+  @Test
+  public void testUnstableEstimateIsNotRecorded() {
+    final BandwidthEstimateStore.Tracker tracker =
+        new BandwidthEstimateStore.Tracker(NETWORK, 300, START_MS);
+
+    long nowMs = START_MS;
+    for (int i = 0; i < 20; i++) {
+      nowMs += SAMPLE_INTERVAL_MS;
+      tracker.onAvailableSendBitrate(i % 2 == 0 ? 500 : 1000, nowMs);
+    }
+    assertEquals(0, BandwidthEstimateStore.getBitrateKbps(NETWORK, nowMs));
+  }
+
+  @Test
+  public void testTrackerWithoutNetworkKeyRecordsNothing() {
+    final BandwidthEstimateStore.Tracker tracker =
+        new BandwidthEstimateStore.Tracker(/* networkKey= */ null, 300, START_MS);
+
+    final long nowMs = feed(tracker, START_MS, 10, 1000);
+    assertEquals(0, BandwidthEstimateStore.getBitrateKbps(NETWORK, nowMs));
+    assertEquals(0, BandwidthEstimateStore.getBitrateKbps(null, nowMs));
+  }
+
+  @Test
+  public void testTimeToTarget() {
+    final BandwidthEstimateStore.Tracker tracker =
+        new BandwidthEstimateStore.Tracker(NETWORK, 300, START_MS);
+
+    long nowMs = feed(tracker, START_MS, 3, 200);
+    assertEquals(-1, tracker.getTimeToTargetMs());
+    nowMs = feed(tracker, nowMs, 1, 300);
+    assertEquals(4 * SAMPLE_INTERVAL_MS, tracker.getTimeToTargetMs());
+    // Only the first time counts.
+    feed(tracker, nowMs, 1, 200);
+    feed(tracker, nowMs, 1, 400);
+    assertEquals(4 * SAMPLE_INTERVAL_MS, tracker.getTimeToTargetMs());
+  }
+
+  @Test
+  public void testSmallChangesAreNotRewritten() {
+    BandwidthEstimateStore.record(NETWORK, 1000, START_MS);
+
+    // Within 10% and younger than an hour: keeps the stored value.
+    BandwidthEstimateStore.record(NETWORK, 1050, START_MS + 1000);
+    assertEquals(1000, BandwidthEstimateStore.getBitrateKbps(NETWORK, START_MS + 1000));
+    // A larger move is taken right away.
+    BandwidthEstimateStore.record(NETWORK, 1500, START_MS + 2000);
+    assertEquals(1500, BandwidthEstimateStore.getBitrateKbps(NETWORK, START_MS + 2000));
+    // A small move is taken once the entry is an hour old.
+    final long refreshMs = START_MS + 2000 + TimeUnit.HOURS.toMillis(1);
+    BandwidthEstimateStore.record(NETWORK, 1450, refreshMs);
+    assertEquals(1450, BandwidthEstimateStore.getBitrateKbps(NETWORK, refreshMs));
+  }
+
+  @Test
+  public void testEstimateExpiresAfterSevenDays() {
+    BandwidthEstimateStore.record(NETWORK, 1000, START_MS);
+
+    final long expiryMs = START_MS + TimeUnit.DAYS.toMillis(7);
+    assertEquals(1000, BandwidthEstimateStore.getBitrateKbps(NETWORK, expiryMs));
+    assertEquals(0, BandwidthEstimateStore.getBitrateKbps(NETWORK, expiryMs + 1));
+    // The expired entry is gone, not just hidden.
+    assertEquals(0, BandwidthEstimateStore.getBitrateKbps(NETWORK, START_MS));
+  }
+
+  @Test
+  public void testOldestNetworkIsDroppedWhenFull() {
+    for (int i = 0; i < 32; i++) {
+      BandwidthEstimateStore.record("network" + i, 1000 + i, START_MS + i);
+    }
+    BandwidthEstimateStore.record("network32", 2000, START_MS + 32);
+
+    assertEquals(0, BandwidthEstimateStore.getBitrateKbps("network0", START_MS + 32));
+    assertEquals(1001, BandwidthEstimateStore.getBitrateKbps("network1", START_MS + 32));
+    assertEquals(2000, BandwidthEstimateStore.getBitrateKbps("network32", START_MS + 32));
+  }
+}
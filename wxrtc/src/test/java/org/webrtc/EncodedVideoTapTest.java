@@ -0,0 +1,120 @@
+/*
+ *  Copyright 2026 The wxrtc project authors. All Rights Reserved.
+ */
+
+package org.webrtc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+
+// Camera and screen share sub stream encoders come from the same factory and share its tap; the
+// recorder must only ever see one of them.
+public class EncodedVideoTapTest {
+  private static class RecordingObserver implements EncodedVideoTap.Observer {
+    final List<Integer> encoderIds = new ArrayList<>();
+
+    @Override
+    public void onEncodedFrame(
+        int encoderId, String mimeType, EncodedImage image, boolean isKeyFrame) {
+      encoderIds.add(encoderId);
+    }
+  }
+
+  private static EncodedImage frame() {
+    return EncodedImage.builder()
+        .setBuffer(ByteBuffer.allocateDirect(16), /* releaseCallback= */ null)
+        .setFrameType(EncodedImage.FrameType.VideoFrameDelta)
+        .createEncodedImage();
+  }
+
+  private static void encode(EncodedVideoTap tap, int encoderId, int frames) {
+    for (int i = 0; i < frames; i++) {
+      tap.onEncodedFrame(encoderId, VideoCodecMimeType.H264, frame(), /* isKeyFrame= */ false);
+    }
+  }
+
+  @Test
+  public void testOnlyOldestEncoderIsTapped() {
+    final EncodedVideoTap tap = new EncodedVideoTap();
+    final RecordingObserver observer = new RecordingObserver();
+    tap.setObserver(observer);
+    final int camera = tap.newEncoderId();
+    final int screen = tap.newEncoderId();
+    tap.onEncoderStarted(camera);
+    tap.onEncoderStarted(screen);
+
+    // Interleaved output of both encoders.
+    for (int i = 0; i < 10; i++) {
+      encode(tap, camera, 1);
+      encode(tap, screen, 1);
+    }
+
+    assertEquals(camera, tap.getTappedEncoderId());
+    assertEquals(10, observer.encoderIds.size());
+    for (int encoderId : observer.encoderIds) {
+      assertEquals(camera, encoderId);
+    }
+  }
+
+  @Test
+  public void testOrderOfStartDoesNotMatter() {
+    final EncodedVideoTap tap = new EncodedVideoTap();
+    final int camera = tap.newEncoderId();
+    final int screen = tap.newEncoderId();
+    // The screen encoder may be initialized first, e.g. while the camera is still opening.
+    tap.onEncoderStarted(screen);
+    assertEquals(screen, tap.getTappedEncoderId());
+    tap.onEncoderStarted(camera);
+    assertEquals(camera, tap.getTappedEncoderId());
+  }
+
+  @Test
+  public void testNextEncoderTakesOverWithKeyFrame() {
+    final EncodedVideoTap tap = new EncodedVideoTap();
+    final RecordingObserver observer = new RecordingObserver();
+    tap.setObserver(observer);
+    final int camera = tap.newEncoderId();
+    final int screen = tap.newEncoderId();
+    tap.onEncoderStarted(camera);
+    tap.onEncoderStarted(screen);
+    // The initial key frame request goes to the tapped encoder only.
+    assertFalse(tap.consumeKeyFrameRequest(screen));
+    assertTrue(tap.consumeKeyFrameRequest(camera));
+
+    encode(tap, camera, 3);
+    tap.onEncoderReleased(camera);
+    assertEquals(screen, tap.getTappedEncoderId());
+    assertTrue(tap.consumeKeyFrameRequest(screen));
+    encode(tap, camera, 1);
+    encode(tap, screen, 2);
+
+    assertEquals(5, observer.encoderIds.size());
+    assertEquals(camera, (int) observer.encoderIds.get(2));
+    assertEquals(screen, (int) observer.encoderIds.get(3));
+
+    tap.onEncoderReleased(screen);
+    assertEquals(EncodedVideoTap.NO_ENCODER, tap.getTappedEncoderId());
+  }
+
+  @Test
+  public void testRequestKeyFrameOnlyReachesTappedEncoder() {
+    final EncodedVideoTap tap = new EncodedVideoTap();
+    tap.setObserver(new RecordingObserver());
+    final int camera = tap.newEncoderId();
+    final int screen = tap.newEncoderId();
+    tap.onEncoderStarted(camera);
+    tap.onEncoderStarted(screen);
+    tap.consumeKeyFrameRequest(camera);
+
+    tap.requestKeyFrame();
+    assertFalse(tap.consumeKeyFrameRequest(screen));
+    assertTrue(tap.consumeKeyFrameRequest(camera));
+    assertFalse(tap.consumeKeyFrameRequest(camera));
+  }
+}
@@ -0,0 +1,125 @@
+/*
+ *  Copyright 2026 The wxrtc project authors. All Rights Reserved.
+ */
+
+package org.webrtc.audio;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+
+// Replays underrun traces through AdaptivePlayoutBufferController, one entry per 10 ms tick.
+public class AdaptivePlayoutBufferControllerTest {
+  private static final int STEP = 480;
+  private static final int MAX_BUFFER = 10 * STEP;
+  private static final int TICKS = AdaptivePlayoutBufferController.TICKS_PER_WINDOW;
+
+  // Returns the buffer size after every tick. underruns[i] is the number of new underruns seen
+  // on tick i.
+  private static int[] replay(
+      AdaptivePlayoutBufferController controller, int[] underruns, int startBufferSize) {
+    final int[] bufferSizes = new int[underruns.length];
+    int underrunCount = 0;
+    int bufferSize = startBufferSize;
+    for (int tick = 0; tick < underruns.length; tick++) {
+      underrunCount += underruns[tick];
+      bufferSize = controller.onTick(underrunCount, bufferSize);
+      bufferSizes[tick] = bufferSize;
+    }
+    return bufferSizes;
+  }
+
+  private static int[] trace(int ticks, int... underrunTicks) {
+    final int[] underruns = new int[ticks];
+    for (int tick : underrunTicks) {
+      underruns[tick]++;
+    }
+    return underruns;
+  }
+
+  @Test
+  public void testProbesDownUntilMinimumWithoutUnderruns() {
+    final AdaptivePlayoutBufferController controller =
+        new AdaptivePlayoutBufferController(STEP, MAX_BUFFER);
+    final int[] sizes = replay(controller, trace(TICKS), MAX_BUFFER);
+
+    assertEquals(MAX_BUFFER - STEP, sizes[9]);
+    assertEquals(STEP, sizes[TICKS - 1]);
+    assertEquals(9, controller.getDecreaseCount());
+    assertEquals(0, controller.getIncreaseCount());
+  }
+
+  @Test
+  public void testBurstOfUnderrunsIsBoundedPerWindow() {
+    final AdaptivePlayoutBufferController controller =
+        new AdaptivePlayoutBufferController(STEP, MAX_BUFFER);
+    final int[] sizes = replay(controller, trace(TICKS, 5, 6, 7, 8, 9), 2 * STEP);
+
+    // Two single step increases, then one extra step when the window reaches a burst.
+    assertEquals(3 * STEP, sizes[5]);
+    assertEquals(4 * STEP, sizes[6]);
+    assertEquals(5 * STEP, sizes[7]);
+    assertEquals(5 * STEP, sizes[TICKS - 1]);
+    assertEquals(5, controller.getTotalUnderruns());
+    assertEquals(3, controller.getIncreaseCount());
+    assertEquals(0, controller.getDecreaseCount());
+  }
+
+  @Test
+  public void testUnderrunAfterShrinkDoublesStablePeriod() {
+    final AdaptivePlayoutBufferController controller =
+        new AdaptivePlayoutBufferController(STEP, MAX_BUFFER);
+    // Stop probing at tick 5, then one underrun shortly after the first shrink.
+    final int[] sizes = replay(controller, trace(35 * TICKS, 5, 650), 2 * STEP);
+
+    assertEquals(3 * STEP, sizes[5]);
+    // Five stable windows after the window with the underrun.
+    assertEquals(3 * STEP, sizes[5 * TICKS]);
+    assertEquals(2 * STEP, sizes[6 * TICKS - 1]);
+    assertEquals(3 * STEP, sizes[650]);
+    // The shrink was followed by an underrun, ten stable windows are required now.
+    assertEquals(3 * STEP, sizes[16 * TICKS - 1]);
+    assertEquals(2 * STEP, sizes[17 * TICKS - 1]);
+    // That shrink survives a full stable period, so the next one needs five windows again.
+    assertEquals(2 * STEP, sizes[27 * TICKS - 2]);
+    assertEquals(STEP, sizes[27 * TICKS - 1]);
+    assertEquals(STEP, sizes[32 * TICKS - 1]);
+    assertEquals(2, controller.getTotalUnderruns());
+    assertEquals(2, controller.getIncreaseCount());
+    assertEquals(3, controller.getDecreaseCount());
+  }
+
+  @Test
+  public void testMarginalDeviceBacksOffExponentially() {
+    // A device that underruns every 200 ms while the buffer is below three steps.
+    final AdaptivePlayoutBufferController controller =
+        new AdaptivePlayoutBufferController(STEP, MAX_BUFFER);
+    final int totalTicks = 120 * TICKS;
+    int underrunCount = 0;
+    int bufferSize = MAX_BUFFER;
+    final List<Integer> retryTicks = new ArrayList<>();
+    for (int tick = 0; tick < totalTicks; tick++) {
+      if (bufferSize < 3 * STEP && tick % 20 == 0) {
+        underrunCount++;
+      }
+      final int newBufferSize = controller.onTick(underrunCount, bufferSize);
+      if (newBufferSize < bufferSize && tick >= TICKS) {
+        retryTicks.add(tick);
+      }
+      bufferSize = newBufferSize;
+    }
+
+    // Each failed retry doubles the wait before the next one.
+    assertEquals(4, retryTicks.size());
+    for (int i = 2; i < retryTicks.size(); i++) {
+      final int previousGap = retryTicks.get(i - 1) - retryTicks.get(i - 2);
+      final int gap = retryTicks.get(i) - retryTicks.get(i - 1);
+      assertTrue(gap >= 2 * previousGap - TICKS);
+    }
+    assertEquals(5, controller.getTotalUnderruns());
+    assertEquals(3 * STEP, bufferSize);
+  }
+}